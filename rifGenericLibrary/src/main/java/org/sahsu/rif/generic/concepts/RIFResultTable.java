@@ -81,6 +81,7 @@ public class RIFResultTable {
 	private ColumnDataType[] columnDataTypes;
 	
 	private String[][] data;
+	private RIFResultTableColumn[] columns;
 	// ==========================================
 	// Section Construction
 	// ==========================================
@@ -192,9 +193,49 @@ public class RIFResultTable {
 	
 	public void setData(final String[][] data) {
 		this.data = data;
+		this.columns = null;
 	}
 	
+	/**
+	 * Set the data as typed columns, e.g. read straight from a result set. Use instead of setData()
+	 *
+	 * @param columns the columns, one per column name, each with the same number of rows
+	 */
+	public void setColumns(final RIFResultTableColumn[] columns) {
+		this.columns = columns;
+		this.data = null;
+	}
+	
+	/**
+	 * @return the typed columns; null if the data was set as text with setData()
+	 */
+	public RIFResultTableColumn[] getColumns() {
+		return columns;
+	}
+	
+	public int getNumberOfRows() {
+		if (columns != null) {
+			return columns.length == 0 ? 0 : columns[0].size();
+		}
+		return data == null ? 0 : data.length;
+	}
+	
+	/**
+	 * Get the data as text. If the data was set as typed columns, a copy is made
+	 *
+	 * @return rows of column values
+	 */
+	
 	public String[][] getData() {
+		if (data == null && columns != null) {
+			String[][] rows = new String[getNumberOfRows()][columns.length];
+			for (int ithRow = 0; ithRow < rows.length; ithRow++) {
+				for (int ithColumn = 0; ithColumn < columns.length; ithColumn++) {
+					rows[ithRow][ithColumn] = columns[ithColumn].getString(ithRow);
+				}
+			}
+			return rows;
+		}
 		return data;
 	}
 	
@@ -259,6 +300,8 @@ public class RIFResultTable {
      }
 	 
 	public void print(Integer numberOfLines) {
+		
+		String[][] data = getData();
 
 		System.out.println("Table has dimensions of rows="+data.length + "==columns="+columnNames.length+"==");
 
@@ -0,0 +1,354 @@
+package org.sahsu.rif.generic.concepts;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A typed column of a {@link RIFResultTable}.
+ * <p>
+ * NUMERIC columns are held as primitive int, long or double arrays, chosen from the JDBC column type;
+ * TEXT and JSON columns are dictionary encoded, so repeated values (e.g. band_id or genders) are held once.
+ * Columns grow as rows are added, so the number of rows does not need to be known in advance.
+ * </p>
+ * <p>
+ * Values are written straight to JSON: NUMERIC and JSON values as is (null, NaN and infinite numbers as
+ * null) and TEXT values quoted (null as "").
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public abstract class RIFResultTableColumn {
+
+	// ==========================================
+	// Section Constants
+	// ==========================================
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	// ==========================================
+	// Section Properties
+	// ==========================================
+
+	private final BitSet nulls = new BitSet();
+	protected int size = 0;
+
+	// ==========================================
+	// Section Construction
+	// ==========================================
+
+	/**
+	 * Create a column
+	 *
+	 * @param columnDataType 	NUMERIC, TEXT or JSON
+	 * @param sqlType 			java.sql.Types of the result set column
+	 *
+	 * @return RIFResultTableColumn
+	 */
+	public static RIFResultTableColumn newInstance(
+		final RIFResultTable.ColumnDataType columnDataType,
+		final int sqlType) {
+
+		if (columnDataType == RIFResultTable.ColumnDataType.NUMERIC) {
+			switch (sqlType) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+					return new IntColumn();
+				case Types.BIGINT:
+					return new LongColumn();
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+				case Types.DOUBLE:
+				case Types.FLOAT:
+				case Types.REAL:
+					return new DoubleColumn();
+				default: // Not a number in the database: written as is
+					return new StringColumn(false);
+			}
+		}
+		return new StringColumn(columnDataType == RIFResultTable.ColumnDataType.TEXT);
+	}
+
+	// ==========================================
+	// Section Accessors and Mutators
+	// ==========================================
+
+	/**
+	 * Add the value of a result set column as a new row
+	 *
+	 * @param resultSet 		result set, on the current row
+	 * @param columnIndex 		column index (from 1)
+	 */
+	public void add(
+		final ResultSet resultSet,
+		final int columnIndex)
+		throws SQLException {
+
+		add(resultSet, columnIndex, false);
+	}
+
+	/**
+	 * Add the value of a result set column as a new row
+	 *
+	 * @param resultSet 		result set, on the current row
+	 * @param columnIndex 		column index (from 1)
+	 * @param nullAsZero 		add null (and NaN) values as zero
+	 */
+	public abstract void add(
+		final ResultSet resultSet,
+		final int columnIndex,
+		final boolean nullAsZero)
+		throws SQLException;
+
+	/**
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param row row index
+	 *
+	 * @return true if the value is null
+	 */
+	public boolean isNull(final int row) {
+		return nulls.get(row);
+	}
+
+	/**
+	 * Get a value as text, as used by {@link RIFResultTable#getData()}
+	 *
+	 * @param row row index
+	 *
+	 * @return the value; null if it is null
+	 */
+	public abstract String getString(final int row);
+
+	/**
+	 * Write a value as JSON
+	 *
+	 * @param row 		row index
+	 * @param json 		where to write the value
+	 */
+	public abstract void writeJSON(final int row, final Appendable json) throws IOException;
+
+	protected void addNull() {
+		nulls.set(size);
+	}
+
+	protected int growCapacity(final int capacity) {
+		return Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+	}
+
+	/**
+	 * Format a number for JSON: integral values without a decimal point, and no exponents
+	 *
+	 * @param value number
+	 *
+	 * @return the number; "null" if it is NaN or infinite
+	 */
+	public static String formatNumber(final double value) {
+
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "null";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		String text = Double.toString(value);
+		if (text.indexOf('E') >= 0) {
+			text = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+		}
+		return text;
+	}
+
+	// ==========================================
+	// Section Errors and Validation
+	// ==========================================
+
+	// ==========================================
+	// Section Interfaces
+	// ==========================================
+
+	private static final class IntColumn extends RIFResultTableColumn {
+
+		private int[] values = new int[0];
+
+		@Override
+		public void add(
+			final ResultSet resultSet,
+			final int columnIndex,
+			final boolean nullAsZero)
+			throws SQLException {
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, growCapacity(values.length));
+			}
+			values[size] = resultSet.getInt(columnIndex);
+			if (resultSet.wasNull() && !nullAsZero) {
+				addNull();
+			}
+			size++;
+		}
+
+		@Override
+		public String getString(final int row) {
+			return isNull(row) ? null : Integer.toString(values[row]);
+		}
+
+		@Override
+		public void writeJSON(final int row, final Appendable json) throws IOException {
+			json.append(isNull(row) ? "null" : Integer.toString(values[row]));
+		}
+	}
+
+	private static final class LongColumn extends RIFResultTableColumn {
+
+		private long[] values = new long[0];
+
+		@Override
+		public void add(
+			final ResultSet resultSet,
+			final int columnIndex,
+			final boolean nullAsZero)
+			throws SQLException {
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, growCapacity(values.length));
+			}
+			values[size] = resultSet.getLong(columnIndex);
+			if (resultSet.wasNull() && !nullAsZero) {
+				addNull();
+			}
+			size++;
+		}
+
+		@Override
+		public String getString(final int row) {
+			return isNull(row) ? null : Long.toString(values[row]);
+		}
+
+		@Override
+		public void writeJSON(final int row, final Appendable json) throws IOException {
+			json.append(isNull(row) ? "null" : Long.toString(values[row]));
+		}
+	}
+
+	private static final class DoubleColumn extends RIFResultTableColumn {
+
+		private double[] values = new double[0];
+
+		@Override
+		public void add(
+			final ResultSet resultSet,
+			final int columnIndex,
+			final boolean nullAsZero)
+			throws SQLException {
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, growCapacity(values.length));
+			}
+			double value = resultSet.getDouble(columnIndex);
+			if (resultSet.wasNull()) {
+				if (!nullAsZero) {
+					addNull();
+				}
+				value = 0;
+			}
+			else if (Double.isNaN(value) && nullAsZero) {
+				value = 0;
+			}
+			values[size] = value;
+			size++;
+		}
+
+		@Override
+		public String getString(final int row) {
+			return isNull(row) ? null : formatNumber(values[row]);
+		}
+
+		@Override
+		public void writeJSON(final int row, final Appendable json) throws IOException {
+			json.append(isNull(row) ? "null" : formatNumber(values[row]));
+		}
+	}
+
+	/**
+	 * Dictionary encoded text: each row holds the index of its (distinct) value
+	 */
+	private static final class StringColumn extends RIFResultTableColumn {
+
+		private final boolean isQuoted;
+		private final HashMap<String, Integer> dictionaryIndex = new HashMap<>();
+		private final ArrayList<String> dictionary = new ArrayList<>();
+		private final ArrayList<String> jsonDictionary = new ArrayList<>(); // Values as written to JSON
+		private int[] values = new int[0];
+
+		private StringColumn(final boolean isQuoted) {
+			this.isQuoted = isQuoted;
+		}
+
+		@Override
+		public void add(
+			final ResultSet resultSet,
+			final int columnIndex,
+			final boolean nullAsZero)
+			throws SQLException {
+
+			String value = resultSet.getString(columnIndex);
+			if (nullAsZero && (value == null || value.equals("NaN"))) {
+				value = "0";
+			}
+			add(value);
+		}
+
+		private void add(final String value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, growCapacity(values.length));
+			}
+			if (value == null) {
+				addNull();
+				values[size] = -1;
+			}
+			else {
+				Integer index = dictionaryIndex.get(value);
+				if (index == null) {
+					index = dictionary.size();
+					dictionaryIndex.put(value, index);
+					dictionary.add(value);
+					jsonDictionary.add(isQuoted ? RIFResultTable.quote(value) : value);
+				}
+				values[size] = index;
+			}
+			size++;
+		}
+
+		@Override
+		public String getString(final int row) {
+			return isNull(row) ? null : dictionary.get(values[row]);
+		}
+
+		@Override
+		public void writeJSON(final int row, final Appendable json) throws IOException {
+			if (isNull(row)) {
+				json.append(isQuoted ? "\"\"" : "null");
+			}
+			else {
+				json.append(jsonDictionary.get(values[row]));
+			}
+		}
+	}
+
+	// ==========================================
+	// Section Override
+	// ==========================================
+}
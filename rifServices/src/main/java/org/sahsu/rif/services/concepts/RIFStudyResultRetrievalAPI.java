@@ -73,6 +73,16 @@ public interface RIFStudyResultRetrievalAPI extends RIFStudyServiceAPI {
 			final String tileType)
 					throws RIFServiceException;
 
+	byte[] getTileMakerTileBytes(
+			final User user,
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect,
+			final Integer zoomlevel,
+			final Integer x,
+			final Integer y,
+			final String tileType)
+					throws RIFServiceException;
+
 	String getTileMakerAttributes(
 			final User user,
 			final Geography geography,
@@ -35,6 +35,16 @@ public interface RIFStudyServiceAPI {
 			String tileType)
 		throws RIFServiceException;
 
+	byte[] getTileMakerTileBytes(
+			User _user,
+			Geography _geography,
+			GeoLevelSelect _geoLevelSelect,
+			Integer zoomlevel,
+			Integer x,
+			Integer y,
+			String tileType)
+		throws RIFServiceException;
+
 	String getTileMakerAttributes(
 			User _user,
 			Geography _geography,
@@ -186,7 +186,13 @@ public interface RIFStudySubmissionAPI extends RIFStudyServiceAPI {
 	String submitStudy(final User user, final RIFStudySubmission rifStudySubmission,
 			final File outputFile, final String url) throws RIFServiceException;
 
-	void createStudyExtract(
+	/**
+	 * Queue a study extract (ZIP file) job; returns at once.
+	 *
+	 * @return extract status JSON with the job ID, e.g. {"status":"STUDY_ZIP_IN_PROGRESS","jobID":"46-1",...}
+	 * @throws RIFServiceException the RIF service exception
+	 */
+	String createStudyExtract(
 		final User user,
 		final String studyID,
 		final String zoomLevel,
@@ -194,6 +200,17 @@ public interface RIFStudySubmissionAPI extends RIFStudyServiceAPI {
 		final String url)
 		throws RIFServiceException;
 
+	/**
+	 * Cancel a queued or running study extract job.
+	 *
+	 * @return extract status JSON, e.g. {"status":"STUDY_EXTRACTABLE_NEEDS_ZIPPING","jobState":"CANCELLED",...}
+	 * @throws RIFServiceException the RIF service exception
+	 */
+	String cancelStudyExtract(
+		final User user,
+		final String studyID)
+		throws RIFServiceException;
+
 	FileInputStream getStudyExtract(
 		final User user,
 		final String studyID,
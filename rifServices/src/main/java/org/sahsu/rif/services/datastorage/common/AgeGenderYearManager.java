@@ -99,7 +99,7 @@ public final class AgeGenderYearManager extends BaseSQLManager {
 			getAgeIDStatement.setString(1, ndPair.getNumeratorTableName());
 			//set isnumerator flag to 'true'
 			getAgeIDStatement.setInt(2, 1);
-			getAgeIDResultSet = getAgeIDStatement.executeQuery();
+			getAgeIDResultSet = executeQuery("getAgeIDQuery", getAgeIDStatement);
 			
 			if (!getAgeIDResultSet.next()) {
 				//ERROR: No entry available
@@ -173,7 +173,7 @@ public final class AgeGenderYearManager extends BaseSQLManager {
 					connection, 
 					getAgesForAgeGroupID);				
 			getAgesForAgeGroupStatement.setInt(1, ageGroupID);
-			getAgesForAgeGroupResultSet = getAgesForAgeGroupStatement.executeQuery();
+			getAgesForAgeGroupResultSet = executeQuery("getAgesForAgeGroupIDQuery", getAgesForAgeGroupStatement);
 			connection.commit();
 			
 			while (getAgesForAgeGroupResultSet.next()) {
@@ -279,7 +279,7 @@ public final class AgeGenderYearManager extends BaseSQLManager {
 			 * so that in a query it would be regarded as just another text value.
 			 */
 			statement.setString(1, ndPair.getNumeratorTableName());
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getYearRange", statement);
 			//there should be exactly one result
 			if (!resultSet.next()) {
 				//no entry found in the rif40 tables
@@ -448,7 +448,7 @@ public final class AgeGenderYearManager extends BaseSQLManager {
 			statement.setInt(2, Integer.valueOf(ageGroup.getLowerLimit()));
 			statement.setInt(3, Integer.valueOf(ageGroup.getUpperLimit()));
 			*/
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("checkNonExistentAgeGroup", statement);
 			
 			if (!resultSet.next()) {
 				//ERROR: no such age group exists
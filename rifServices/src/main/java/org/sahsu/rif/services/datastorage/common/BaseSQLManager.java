@@ -9,14 +9,13 @@ import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import org.sahsu.rif.generic.concepts.User;
-import org.sahsu.rif.generic.datastorage.ConnectionQueue;
 import org.sahsu.rif.generic.datastorage.DatabaseType;
 import org.sahsu.rif.generic.datastorage.FunctionCallerQueryFormatter;
 import org.sahsu.rif.generic.datastorage.QueryFormatter;
@@ -46,22 +45,27 @@ public class BaseSQLManager implements SQLManager {
 	private static final int MAXIMUM_SUSPICIOUS_EVENTS_THRESHOLD = 5;
 	private static final int POOLED_READ_ONLY_CONNECTIONS_PER_PERSON = 10;
 	private static final int POOLED_WRITE_CONNECTIONS_PER_PERSON = 5;
+	private static final int POOLED_READ_ONLY_CONNECTIONS = 100;
+	private static final int POOLED_WRITE_CONNECTIONS = 50;
+	private static final int CONNECTION_POOL_WAIT_SECONDS = 30;
+	private static final int CONNECTION_POOL_IDLE_TIMEOUT_SECONDS = 600;
 
 	protected static final RIFLogger rifLogger = RIFLogger.getLogger();
-	private static final Set<String> registeredUserIDs = new HashSet<>();
-	private static final Set<String> userIDsToBlock = new HashSet<>();
+	private static final Set<String> registeredUserIDs = ConcurrentHashMap.newKeySet();
+	private static final Set<String> userIDsToBlock = ConcurrentHashMap.newKeySet();
 
-	private static final Map<String, ConnectionQueue> readOnlyConnectionsFromUser
-			= new HashMap<>();
+	// Connection pools shared by all users, created by the first BaseSQLManager
+	private static RIFConnectionPool readOnlyConnectionPool = null;
+	private static RIFConnectionPool writeConnectionPool = null;
 
-	private static final Map<String, ConnectionQueue> writeConnectionsFromUser = new HashMap<>();
-	private static final HashMap<String, Integer> suspiciousEventCounterFromUser = new HashMap<>();
+	private static final Map<String, Integer> suspiciousEventCounterFromUser = new ConcurrentHashMap<>();
 	protected final RIFServiceStartupOptions rifServiceStartupOptions;
 	private final boolean prefixSchemaName;
 	private final String databaseURL;
-	private static HashMap<String, String> passwordHashList = null;
+	private static final Map<String, String> passwordHashList = new ConcurrentHashMap<>();
 
 	private static Properties prop = null;
+	private static final Map<String, Boolean> queryLoggingEnabled = new ConcurrentHashMap<>();
 	private static String lineSeparator = System.getProperty("line.separator");
 
 	protected RIFDatabaseProperties rifDatabaseProperties;
@@ -76,13 +80,69 @@ public class BaseSQLManager implements SQLManager {
 		databaseType = this.rifDatabaseProperties.getDatabaseType();
 		this.rifServiceStartupOptions = rifServiceStartupOptions;
 
-		if (passwordHashList == null) {
-			passwordHashList = new HashMap<>();
-		}
+		createConnectionPools(rifServiceStartupOptions);
 		databaseURL = generateURLText();
 		prefixSchemaName  = rifServiceStartupOptions.getRifDatabaseType() == DatabaseType.SQL_SERVER;
 	}
 
+	/**
+	 * Create the read only and write connection pools shared by all users on first use.
+	 * <p>
+	 * Connections are opened as required (up to maxReadOnlyConnectionsPerUser/maxWriteConnectionsPerUser per 
+	 * user and maxReadOnlyConnections/maxWriteConnections in total); a request waits up to 
+	 * connectionPoolWaitSeconds for a connection. Idle connections are closed after 
+	 * connectionPoolIdleTimeoutSeconds
+	 * </p>
+	 *
+	 * @param options RIFServiceStartupOptions for the pool sizes
+	 */
+	private static synchronized void createConnectionPools(final RIFServiceStartupOptions options) {
+		if (readOnlyConnectionPool != null) {
+			return;
+		}
+
+		int maxReadOnlyConnectionsPerUser = getConnectionPoolProperty(options,
+			"maxReadOnlyConnectionsPerUser", POOLED_READ_ONLY_CONNECTIONS_PER_PERSON);
+		int maxWriteConnectionsPerUser = getConnectionPoolProperty(options,
+			"maxWriteConnectionsPerUser", POOLED_WRITE_CONNECTIONS_PER_PERSON);
+		int maxReadOnlyConnections = getConnectionPoolProperty(options,
+			"maxReadOnlyConnections", POOLED_READ_ONLY_CONNECTIONS);
+		int maxWriteConnections = getConnectionPoolProperty(options,
+			"maxWriteConnections", POOLED_WRITE_CONNECTIONS);
+		long waitTimeoutMillis = 1000L * getConnectionPoolProperty(options,
+			"connectionPoolWaitSeconds", CONNECTION_POOL_WAIT_SECONDS);
+		long idleTimeoutMillis = 1000L * getConnectionPoolProperty(options,
+			"connectionPoolIdleTimeoutSeconds", CONNECTION_POOL_IDLE_TIMEOUT_SECONDS);
+
+		readOnlyConnectionPool = new RIFConnectionPool("readOnly", true, maxReadOnlyConnections,
+			maxReadOnlyConnectionsPerUser, waitTimeoutMillis, idleTimeoutMillis);
+		writeConnectionPool = new RIFConnectionPool("write", false, maxWriteConnections,
+			maxWriteConnectionsPerUser, waitTimeoutMillis, idleTimeoutMillis);
+		readOnlyConnectionPool.registerMBean();
+		writeConnectionPool.registerMBean();
+		rifLogger.info(BaseSQLManager.class, readOnlyConnectionPool.getStatistics() + lineSeparator +
+			writeConnectionPool.getStatistics());
+	}
+
+	private static int getConnectionPoolProperty(
+			final RIFServiceStartupOptions options,
+			final String propertyName,
+			final int defaultValue) {
+
+		try {
+			int value = options.getOptionalRIfServiceProperty(propertyName, defaultValue);
+			if (value > 0) {
+				return value;
+			}
+			rifLogger.warning(BaseSQLManager.class, "Invalid " + propertyName + ": " + value + 
+				"; using default: " + defaultValue);
+		}
+		catch (Exception exception) {
+			rifLogger.warning(BaseSQLManager.class, "Invalid " + propertyName + "; using default: " + defaultValue);
+		}
+		return defaultValue;
+	}
+
 	@Override
 	public ValidationPolicy getValidationPolicy() {
 		return validationPolicy;
@@ -133,6 +193,24 @@ public class BaseSQLManager implements SQLManager {
 			queryFormatter);
 	}
 
+	/**
+	 * Create a prepared statement from SQL text already generated, e.g. for logging
+	 *
+	 * @param connection 	database connection
+	 * @param sqlQueryText 	SQL text
+	 *
+	 * @return PreparedStatement
+	 *
+	 * @throws SQLException on error
+	 */
+	protected PreparedStatement createPreparedStatement(final Connection connection, final String sqlQueryText)
+			throws SQLException {
+
+		return SQLQueryUtility.createPreparedStatement(
+			connection,
+			sqlQueryText);
+	}
+
 	/**
 	 * Create cached row set from AbstractSQLQueryFormatter.
 	 * No checks 0,1 or 1+ rows returned
@@ -155,7 +233,7 @@ public class BaseSQLManager implements SQLManager {
 		PreparedStatement statement = createPreparedStatement(connection, queryFormatter);		
 		try {
 			logSQLQuery(queryName, queryFormatter);	
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery(queryName, statement);
 			 // create CachedRowSet and populate
 			cachedRowSet = new CachedRowSetImpl();
 			cachedRowSet.populate(resultSet);
@@ -200,7 +278,7 @@ public class BaseSQLManager implements SQLManager {
 				statement.setString((i+1), params[i]);	
 			}
 			logSQLQuery(queryName, queryFormatter, params);	
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery(queryName, statement);
 			 // create CachedRowSet and populate
 			cachedRowSet = new CachedRowSetImpl();
 			cachedRowSet.populate(resultSet);
@@ -245,7 +323,7 @@ public class BaseSQLManager implements SQLManager {
 				statement.setInt((i+1), params[i]);	
 			}
 			logSQLQuery(queryName, queryFormatter, params);	
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery(queryName, statement);
 			 // create CachedRowSet and populate
 			cachedRowSet = new CachedRowSetImpl();
 			cachedRowSet.populate(resultSet);
@@ -444,42 +522,45 @@ public class BaseSQLManager implements SQLManager {
 	public String getColumnComment(Connection connection, String schemaName, String tableName,
 			String columnName) throws SQLException {
 		
-		SQLGeneralQueryFormatter columnCommentQueryFormatter = new SQLGeneralQueryFormatter();
 		ResultSet resultSet;
-		if (databaseType == DatabaseType.POSTGRESQL) {
-
-			// We convert all the WHERE clauses to upper case, below, because we are querying the
-			// contents of columns in the system schemas, which means the select is case-sensitive.
-			columnCommentQueryFormatter.addQueryLine(0, // Postgres
-				"SELECT pg_catalog.col_description(c.oid, cols.ordinal_position::int) "
-				+ "AS column_comment");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "  FROM pg_catalog.pg_class c, information_schema.columns cols");
-			columnCommentQueryFormatter.addQueryLine(
-					0, " WHERE UPPER(cols.table_catalog) = UPPER(current_database())");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "   AND UPPER(cols.table_schema)  = UPPER(?)");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "   AND UPPER(cols.table_name)    = UPPER(?)");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "   AND UPPER(cols.table_name)    = UPPER(c.relname)");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "   AND c.oid = (SELECT ('\"' || cols.table_name || '\"')::regclass::oid)");
-			columnCommentQueryFormatter.addQueryLine(
-					0, "   AND UPPER(cols.column_name)   = UPPER(?)");
-		}
-		else if (databaseType == DatabaseType.SQL_SERVER) {
-			columnCommentQueryFormatter.addQueryLine(0, "SELECT CAST(value AS VARCHAR(2000)) AS column_comment"); // SQL Server
-			columnCommentQueryFormatter.addQueryLine(0, "FROM fn_listextendedproperty (NULL, 'schema', ?, 'table', ?, 'column', ?)");
-			columnCommentQueryFormatter.addQueryLine(0, "UNION");
-			columnCommentQueryFormatter.addQueryLine(0, "SELECT CAST(value AS VARCHAR(2000)) AS column_comment");
-			columnCommentQueryFormatter.addQueryLine(0, "FROM fn_listextendedproperty (NULL, 'schema', ?, 'view', ?, 'column', ?)");
-		}
-		else {
+		if (databaseType != DatabaseType.POSTGRESQL && databaseType != DatabaseType.SQL_SERVER) {
 			throw new SQLException("getColumnComment(): invalid databaseType: " +
 				databaseType);
 		}
-		PreparedStatement statement = createPreparedStatement(connection, columnCommentQueryFormatter);
+		String columnCommentQuery = getRegisteredSQL("getColumnComment", () -> {
+			SQLGeneralQueryFormatter columnCommentQueryFormatter = new SQLGeneralQueryFormatter();
+			if (databaseType == DatabaseType.POSTGRESQL) {
+
+				// We convert all the WHERE clauses to upper case, below, because we are querying the
+				// contents of columns in the system schemas, which means the select is case-sensitive.
+				columnCommentQueryFormatter.addQueryLine(0, // Postgres
+					"SELECT pg_catalog.col_description(c.oid, cols.ordinal_position::int) "
+					+ "AS column_comment");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "  FROM pg_catalog.pg_class c, information_schema.columns cols");
+				columnCommentQueryFormatter.addQueryLine(
+						0, " WHERE UPPER(cols.table_catalog) = UPPER(current_database())");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "   AND UPPER(cols.table_schema)  = UPPER(?)");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "   AND UPPER(cols.table_name)    = UPPER(?)");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "   AND UPPER(cols.table_name)    = UPPER(c.relname)");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "   AND c.oid = (SELECT ('\"' || cols.table_name || '\"')::regclass::oid)");
+				columnCommentQueryFormatter.addQueryLine(
+						0, "   AND UPPER(cols.column_name)   = UPPER(?)");
+			}
+			else if (databaseType == DatabaseType.SQL_SERVER) {
+				columnCommentQueryFormatter.addQueryLine(0, "SELECT CAST(value AS VARCHAR(2000)) AS column_comment"); // SQL Server
+				columnCommentQueryFormatter.addQueryLine(0, "FROM fn_listextendedproperty (NULL, 'schema', ?, 'table', ?, 'column', ?)");
+				columnCommentQueryFormatter.addQueryLine(0, "UNION");
+				columnCommentQueryFormatter.addQueryLine(0, "SELECT CAST(value AS VARCHAR(2000)) AS column_comment");
+				columnCommentQueryFormatter.addQueryLine(0, "FROM fn_listextendedproperty (NULL, 'schema', ?, 'view', ?, 'column', ?)");
+			}
+			return columnCommentQueryFormatter;
+		});
+		PreparedStatement statement = SQLQueryUtility.createPreparedStatement(connection, columnCommentQuery);
 		
 		String columnComment=columnName.substring(0, 1).toUpperCase() +
 			columnName.substring(1).replace("_", " "); // Default if not found [initcap, remove underscores]
@@ -493,7 +574,7 @@ public class BaseSQLManager implements SQLManager {
 				statement.setString(5, tableName);
 				statement.setString(6, columnName);
 			}
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getColumnComment", statement);
 			if (resultSet.next()) {
 				columnComment=resultSet.getString(1);
 				if (resultSet.next()) {
@@ -508,7 +589,7 @@ public class BaseSQLManager implements SQLManager {
 		}
 		catch (SQLException exception) {
 			rifLogger.error(this.getClass(), "Error in SQL Statement (" + databaseType + ") >>> " +
-				lineSeparator + columnCommentQueryFormatter.generateQuery() +
+				lineSeparator + columnCommentQuery +
                 "; schema: " + schemaName +
                 "; table: " + tableName + 
                 "; column: " + columnName,
@@ -561,14 +642,15 @@ public class BaseSQLManager implements SQLManager {
 					databaseType);
 			}
 			
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = viewDefinitionQueryFormatter.generateQuery();
+			logSQLQuery(
 						"getViewDefinition",
-						viewDefinitionQueryFormatter,
+						sqlQueryText,
 						schemaName,
 						viewName);
-			statement = createPreparedStatement(connection, viewDefinitionQueryFormatter);
+			statement = createPreparedStatement(connection, sqlQueryText);
 			
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getViewDefinition", statement);
 			if (resultSet.next()) {
 				viewDefinition=resultSet.getString(1);
 				if (resultSet.next()) {
@@ -641,9 +723,10 @@ public class BaseSQLManager implements SQLManager {
 				throw new SQLException("commentObject(): invalid databaseType: " +
 					databaseType);
 			}
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = commentObjectFormatter.generateQuery();
+			logSQLQuery(
 						"commentObject",
-						commentObjectFormatter);
+						sqlQueryText);
 		}
 		catch (SQLException sqlException) {	
 			RIFSQLException rifSQLException = new RIFSQLException(
@@ -690,12 +773,13 @@ public class BaseSQLManager implements SQLManager {
 				throw new SQLException("commentColumn(): invalid databaseType: " +
 					databaseType);
 			}
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = commentObjectFormatter.generateQuery();
+			logSQLQuery(
 						"commentColumn",
-						commentObjectFormatter);
+						sqlQueryText);
 
             statement = connection.createStatement();
-			statement.execute(commentObjectFormatter.generateQuery());
+			statement.execute(sqlQueryText);
 		}
 		catch (SQLException sqlException) {	
 			RIFSQLException rifSQLException = new RIFSQLException(
@@ -743,14 +827,14 @@ public class BaseSQLManager implements SQLManager {
 				= createPreparedStatement(
 					connection, 
 					setupDatabaseLogQueryFormatter);
-			setupLogStatement.executeQuery();
+			executeQuery("rif40_log_setup", setupLogStatement);
 			
 			sendDebugToInfoStatement 
 				= createPreparedStatement(
 					connection, 
 					sendDebugToInfoQueryFormatter);
 			sendDebugToInfoStatement.setBoolean(1, true);
-			sendDebugToInfoStatement.executeQuery();						
+			executeQuery("rif40_send_debug_to_info", sendDebugToInfoStatement);						
 		}
 		catch(SQLException sqlException) {
 			String errorMessage
@@ -771,32 +855,25 @@ public class BaseSQLManager implements SQLManager {
 		this.enableLogging = enableLogging;
 	}	
 	
+	/**
+	 * Log a named query, if logging is enabled for it (see AbstractSQLManager.properties), and count it in
+	 * the SQLQueryStatistics. The SQL text is only generated if the query is logged; a caller that needs it
+	 * (e.g. for error messages) generates it once and uses {@link #logSQLQuery(String, String, String...)}
+	 *
+	 * @param queryName 		query name
+	 * @param queryFormatter 	query formatter
+	 * @param parameters 		query parameters
+	 *
+	 * @return the log text if logged; otherwise null
+	 */
 	@Override
 	public String logSQLQuery(final String queryName, final QueryFormatter queryFormatter,
 			final String... parameters) {
 
-
-		StringBuilder queryLog = new StringBuilder();
-		queryLog.append("BaseSQLManager logSQLQuery >>>").append(lineSeparator);
-		queryLog.append("QUERY NAME: ").append(queryName).append(lineSeparator);
-		queryLog.append("PARAMETERS(" + parameters.length + "): ").append(lineSeparator);
-		for (int i = 0; i < parameters.length; i++) {
-			queryLog.append("     ");
-			queryLog.append(i + 1);
-			queryLog.append(": '");
-			queryLog.append(parameters[i]);
-			queryLog.append("'").append(lineSeparator);
+		if (!isQueryLogged(queryName)) {
+			return countSQLQuery(queryName, null);
 		}
-		queryLog.append("SQL QUERY TEXT: ").append(lineSeparator);
-		queryLog.append(queryFormatter.generateQuery()).append(lineSeparator);
-		queryLog.append("<<< End BaseSQLManager logSQLQuery").append(lineSeparator);
-		
-		if (!enableLogging || queryLoggingIsDisabled(queryName)) {
-			return queryLog.toString();
-		}	
-		rifLogger.info(this.getClass(), queryLog.toString());
-		
-		return queryLog.toString();
+		return logSQLQuery(queryName, queryFormatter.generateQuery(), (Object[]) parameters);
 	}
 	
 	protected String logSQLQuery(
@@ -804,47 +881,149 @@ public class BaseSQLManager implements SQLManager {
 		final QueryFormatter queryFormatter,
 		final int[] parameters) {
 
+		if (!isQueryLogged(queryName)) {
+			return countSQLQuery(queryName, null);
+		}
+		Object[] parameterObjects = new Object[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			parameterObjects[i] = parameters[i];
+		}
+		return logSQLQuery(queryName, queryFormatter.generateQuery(), parameterObjects);
+	}
+	
+	protected String logSQLQuery(
+		final String queryName,
+		final QueryFormatter queryFormatter) {
+		
+		if (!isQueryLogged(queryName)) {
+			return countSQLQuery(queryName, null);
+		}
+		return logSQLQuery(queryName, queryFormatter.generateQuery(), (Object[]) null);
+	}
+
+	/**
+	 * Log a named query from its SQL text, e.g. from {@link #getRegisteredSQL(String, Supplier)}
+	 *
+	 * @param queryName 	query name
+	 * @param sqlQueryText 	SQL text
+	 * @param parameters 	query parameters
+	 *
+	 * @return the log text if logged; otherwise the SQL text. For error messages
+	 */
+	protected String logSQLQuery(
+		final String queryName,
+		final String sqlQueryText,
+		final String... parameters) {
+
+		return logSQLQuery(queryName, sqlQueryText, (Object[]) parameters);
+	}
+
+	/*
+	 * parameters: null for none
+	 */
+	private String logSQLQuery(
+		final String queryName,
+		final String sqlQueryText,
+		final Object[] parameters) {
+
+		if (!isQueryLogged(queryName)) {
+			return countSQLQuery(queryName, sqlQueryText);
+		}
+
 		StringBuilder queryLog = new StringBuilder();
 		queryLog.append("BaseSQLManager logSQLQuery >>>").append(lineSeparator);
 		queryLog.append("QUERY NAME: ").append(queryName).append(lineSeparator);
-		queryLog.append("PARAMETERS:").append(lineSeparator);
-		for (int i = 0; i < parameters.length; i++) {
-			queryLog.append("     ");
-			queryLog.append(i + 1);
-			queryLog.append(": '");
-			queryLog.append(parameters[i]);
-			queryLog.append("'").append(lineSeparator);
+		if (parameters == null) {
+			queryLog.append("NO PARAMETERS.").append(lineSeparator);
+		}
+		else {
+			queryLog.append("PARAMETERS(" + parameters.length + "): ").append(lineSeparator);
+			for (int i = 0; i < parameters.length; i++) {
+				queryLog.append("     ");
+				queryLog.append(i + 1);
+				queryLog.append(": '");
+				queryLog.append(parameters[i]);
+				queryLog.append("'").append(lineSeparator);
+			}
 		}
 		queryLog.append("SQL QUERY TEXT: ").append(lineSeparator);
-		queryLog.append(queryFormatter.generateQuery()).append(lineSeparator);
+		queryLog.append(sqlQueryText).append(lineSeparator);
 		queryLog.append("<<< End BaseSQLManager logSQLQuery").append(lineSeparator);
 		
-		if (!enableLogging || queryLoggingIsDisabled(queryName)) {
-			return queryLog.toString();
-		}
+		rifLogger.info(this.getClass(), queryLog.toString());
 		
-		rifLogger.info(this.getClass(), "BaseSQLManager logSQLQuery >>>" + queryLog.toString());	
-			
-		return queryLog.toString();
+		return countSQLQuery(queryName, queryLog.toString());
 	}
-	
-	protected String logSQLQuery(
+
+	private String countSQLQuery(final String queryName, final String queryText) {
+		SQLQueryStatistics.getInstance().count(queryName);
+		return queryText;
+	}
+
+	/**
+	 * Get the SQL text of a named query whose text does not depend on its arguments; generated on first
+	 * use for the database type, then shared (see SQLQueryRegistry)
+	 *
+	 * @param queryName 				query name, as logged
+	 * @param queryFormatterBuilder 	builds the query formatter
+	 *
+	 * @return SQL text
+	 */
+	protected String getRegisteredSQL(
 		final String queryName,
-		final QueryFormatter queryFormatter) {
-		
-		String queryLog = "BaseSQLManager logSQLQuery >>>" + lineSeparator
-						  + "QUERY NAME: " + queryName + lineSeparator
-		                  + "NO PARAMETERS." + lineSeparator
-		                  + "SQL QUERY TEXT: " + lineSeparator
-		                  + queryFormatter.generateQuery() + lineSeparator
-		                  + "<<< End BaseSQLManager logSQLQuery" + lineSeparator;
-		if (!enableLogging || queryLoggingIsDisabled(queryName)) {
-			return queryLog;
+		final Supplier<QueryFormatter> queryFormatterBuilder) {
+
+		return SQLQueryRegistry.getSQL(databaseType, queryName, queryFormatterBuilder);
+	}
+
+	/**
+	 * Run a named query, recording the time taken in the SQLQueryStatistics
+	 *
+	 * @param queryName 	query name, as logged
+	 * @param statement 	prepared statement, with its parameters set
+	 *
+	 * @return ResultSet
+	 *
+	 * @throws SQLException on error
+	 */
+	@Override
+	public ResultSet executeQuery(
+		final String queryName,
+		final PreparedStatement statement)
+		throws SQLException {
+
+		long startTime = System.nanoTime();
+		try {
+			return statement.executeQuery();
+		}
+		finally {
+			SQLQueryStatistics.getInstance().record(queryName, System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Run a named insert, update or delete, recording the time taken in the SQLQueryStatistics
+	 *
+	 * @param queryName 	query name, as logged
+	 * @param statement 	prepared statement, with its parameters set
+	 *
+	 * @return row count
+	 *
+	 * @throws SQLException on error
+	 */
+	@Override
+	public int executeUpdate(
+		final String queryName,
+		final PreparedStatement statement)
+		throws SQLException {
+
+		long startTime = System.nanoTime();
+		try {
+			return statement.executeUpdate();
+		}
+		finally {
+			SQLQueryStatistics.getInstance().record(queryName, System.nanoTime() - startTime);
 		}
-		
-		rifLogger.info(this.getClass(), queryLog);
-										
-		return queryLog;
 	}
 		
 	@Override
@@ -858,8 +1037,36 @@ public class BaseSQLManager implements SQLManager {
 				 exception);
 	}
 
-	private boolean queryLoggingIsDisabled(
-			final String queryName) {
+	private boolean isQueryLogged(final String queryName) {
+		return enableLogging && queryLoggingEnabled.computeIfAbsent(queryName,
+			BaseSQLManager::isQueryLoggingEnabled);
+	}
+
+	/*
+	 * Read once per query name; unknown names are not logged
+	 */
+	private static boolean isQueryLoggingEnabled(final String queryName) {
+
+		Properties properties = getQueryLoggingProperties();
+		if (properties == null) {
+			return true;
+		}
+		String value = properties.getProperty(queryName);
+		if (value != null) {
+			boolean isEnabled = value.toLowerCase().equals("true");
+			rifLogger.debug(BaseSQLManager.class,
+					"BaseSQLManager checkIfQueryLoggingEnabled=" + (isEnabled ? "TRUE" : "FALSE") +
+							" property: " + queryName + "=" + value);
+			return isEnabled;
+		} else {
+			rifLogger.warning(BaseSQLManager.class,
+					"BaseSQLManager checkIfQueryLoggingEnabled=FALSE property: " +
+							queryName + " NOT FOUND");
+			return false;
+		}
+	}
+
+	private static synchronized Properties getQueryLoggingProperties() {
 
 		if (prop == null) {
 
@@ -867,31 +1074,12 @@ public class BaseSQLManager implements SQLManager {
 				prop = AppFile.getServicesInstance(BaseSQLManager.ABSTRACT_SQLMANAGER_PROPERTIES)
 						       .properties();
 			} catch (IOException e) {
-				rifLogger.warning(this.getClass(),
+				rifLogger.warning(BaseSQLManager.class,
 				                  "BaseSQLManager.checkIfQueryLoggingEnabled error for" +
 				                  BaseSQLManager.ABSTRACT_SQLMANAGER_PROPERTIES, e);
-				return false;
-			}
-		}
-		String value = prop.getProperty(queryName);
-		if (value != null) {
-			if (value.toLowerCase().equals("true")) {
-				rifLogger.debug(this.getClass(),
-						"BaseSQLManager checkIfQueryLoggingEnabled=TRUE property: " +
-								queryName + "=" + value);
-				return false;
-			} else {
-				rifLogger.debug(this.getClass(),
-						"BaseSQLManager checkIfQueryLoggingEnabled=FALSE property: " +
-								queryName + "=" + value);
-				return true;
 			}
-		} else {
-			rifLogger.warning(this.getClass(),
-					"BaseSQLManager checkIfQueryLoggingEnabled=FALSE property: " +
-							queryName + " NOT FOUND");
-			return true;
 		}
+		return prop;
 	}
 
 	@Override
@@ -900,29 +1088,31 @@ public class BaseSQLManager implements SQLManager {
 	
 		boolean rVal=false;
 		
-		SQLGeneralQueryFormatter checkColumnExistsQueryFormatter = new SQLGeneralQueryFormatter();
 		ResultSet resultSet;
-		
-		configureQueryFormatterForDB(checkColumnExistsQueryFormatter);
-		checkColumnExistsQueryFormatter.addQueryLine(0, "SELECT column_name");
-		checkColumnExistsQueryFormatter.addQueryLine(0, "  FROM information_schema.columns");
-		checkColumnExistsQueryFormatter.addQueryLine(0, " WHERE table_schema = ?");
-		checkColumnExistsQueryFormatter.addQueryLine(0, "   AND table_name   = ?");
-		checkColumnExistsQueryFormatter.addQueryLine(0, "   AND column_name  = ?");
+		String checkColumnExistsQuery = getRegisteredSQL("doesColumnExist", () -> {
+			SQLGeneralQueryFormatter checkColumnExistsQueryFormatter = new SQLGeneralQueryFormatter();
+			configureQueryFormatterForDB(checkColumnExistsQueryFormatter);
+			checkColumnExistsQueryFormatter.addQueryLine(0, "SELECT column_name");
+			checkColumnExistsQueryFormatter.addQueryLine(0, "  FROM information_schema.columns");
+			checkColumnExistsQueryFormatter.addQueryLine(0, " WHERE table_schema = ?");
+			checkColumnExistsQueryFormatter.addQueryLine(0, "   AND table_name   = ?");
+			checkColumnExistsQueryFormatter.addQueryLine(0, "   AND column_name  = ?");
+			return checkColumnExistsQueryFormatter;
+		});
 
 		logSQLQuery(
 				"doesColumnExist",
-				checkColumnExistsQueryFormatter,
+				checkColumnExistsQuery,
 				schemaName,
 				tableName,
 				columnName);
-		PreparedStatement statement = createPreparedStatement(connection, checkColumnExistsQueryFormatter);
+		PreparedStatement statement = SQLQueryUtility.createPreparedStatement(connection, checkColumnExistsQuery);
 		
 		try {		
 			statement.setString(1, schemaName);
 			statement.setString(2, tableName);
 			statement.setString(3, columnName);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("doesColumnExist", statement);
 			if (resultSet.next()) {
 				String columnComment=resultSet.getString(1);
 				if (resultSet.next()) {
@@ -935,7 +1125,7 @@ public class BaseSQLManager implements SQLManager {
 		}
 		catch (Exception exception) {
 			rifLogger.error(this.getClass(), "Error in SQL Statement (" + databaseType + ") >>> " +
-				lineSeparator + checkColumnExistsQueryFormatter.generateQuery(),
+				lineSeparator + checkColumnExistsQuery,
 				exception);
 			throw exception;
 		}
@@ -952,26 +1142,28 @@ public class BaseSQLManager implements SQLManager {
 	
 		boolean rVal=false;
 		
-		SQLGeneralQueryFormatter checkTableExistsQueryFormatter = new SQLGeneralQueryFormatter();
 		ResultSet resultSet;
-		
-		configureQueryFormatterForDB(checkTableExistsQueryFormatter);
-		checkTableExistsQueryFormatter.addQueryLine(0, "SELECT table_name");
-		checkTableExistsQueryFormatter.addQueryLine(0, "  FROM information_schema.tables");
-		checkTableExistsQueryFormatter.addQueryLine(0, " WHERE table_schema = ?");
-		checkTableExistsQueryFormatter.addQueryLine(0, "   AND table_name   = ?");
+		String checkTableExistsQuery = getRegisteredSQL("doesTableExist", () -> {
+			SQLGeneralQueryFormatter checkTableExistsQueryFormatter = new SQLGeneralQueryFormatter();
+			configureQueryFormatterForDB(checkTableExistsQueryFormatter);
+			checkTableExistsQueryFormatter.addQueryLine(0, "SELECT table_name");
+			checkTableExistsQueryFormatter.addQueryLine(0, "  FROM information_schema.tables");
+			checkTableExistsQueryFormatter.addQueryLine(0, " WHERE table_schema = ?");
+			checkTableExistsQueryFormatter.addQueryLine(0, "   AND table_name   = ?");
+			return checkTableExistsQueryFormatter;
+		});
 
 		logSQLQuery(
 				"doesTableExist",
-				checkTableExistsQueryFormatter,
+				checkTableExistsQuery,
 				schemaName,
 				tableName);
-		PreparedStatement statement = createPreparedStatement(connection, checkTableExistsQueryFormatter);
+		PreparedStatement statement = SQLQueryUtility.createPreparedStatement(connection, checkTableExistsQuery);
 		
 		try {		
 			statement.setString(1, schemaName);
 			statement.setString(2, tableName);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("doesTableExist", statement);
 			if (resultSet.next()) {
 				String res=resultSet.getString(1);
 				if (resultSet.next()) {
@@ -984,7 +1176,7 @@ public class BaseSQLManager implements SQLManager {
 		}
 		catch (Exception exception) {
 			rifLogger.error(this.getClass(), "Error in SQL Statement (" + databaseType + ") >>> " +
-				lineSeparator + checkTableExistsQueryFormatter.generateQuery(),
+				lineSeparator + checkTableExistsQuery,
 				exception);
 			throw exception;
 		}
@@ -1042,11 +1234,8 @@ public class BaseSQLManager implements SQLManager {
 			return null;
 		}
 
-		ConnectionQueue availableReadConnectionQueue =
-						readOnlyConnectionsFromUser.get(user.getUserID());
-
 		try {
-			result = availableReadConnectionQueue.assignConnection();
+			result = readOnlyConnectionPool.checkout(userID);
 		}
 		catch(Exception exception) {
 			//Record original exception, throw sanitised, human-readable version
@@ -1082,9 +1271,7 @@ public class BaseSQLManager implements SQLManager {
 			}
 
 			//connection.setAutoCommit(true);
-			ConnectionQueue writeOnlyConnectionQueue =
-					writeConnectionsFromUser.get(user.getUserID());
-			writeOnlyConnectionQueue.reclaimConnection(connection);
+			writeConnectionPool.checkin(user.getUserID(), connection);
 		}
 		catch(Exception exception) {
 			//Record original exception, throw sanitised, human-readable version
@@ -1134,15 +1321,8 @@ public class BaseSQLManager implements SQLManager {
 			final String userID)
 					throws RIFServiceException {
 
-		ConnectionQueue readOnlyConnectionQueue = readOnlyConnectionsFromUser.get(userID);
-		if (readOnlyConnectionQueue != null) {
-			readOnlyConnectionQueue.closeAllConnections();
-		}
-
-		ConnectionQueue writeConnectionQueue = writeConnectionsFromUser.get(userID);
-		if (writeConnectionQueue != null) {
-			writeConnectionQueue.closeAllConnections();
-		}
+		readOnlyConnectionPool.closeUser(userID);
+		writeConnectionPool.closeUser(userID);
 	}
 	
 	@Override
@@ -1213,8 +1393,7 @@ public class BaseSQLManager implements SQLManager {
 				return null;
 			}
 
-			ConnectionQueue writeConnectionQueue = writeConnectionsFromUser.get(user.getUserID());
-			result = writeConnectionQueue.assignConnection();
+			result = writeConnectionPool.checkout(userID);
 		}
 		catch(Exception exception) {
 			//Record original exception, throw sanitised, human-readable version
@@ -1284,8 +1463,7 @@ public class BaseSQLManager implements SQLManager {
 			return;
 		}
 
-		ConnectionQueue readOnlyConnectionQueue = new ConnectionQueue();
-		ConnectionQueue writeOnlyConnectionQueue = new ConnectionQueue();
+		Connection currentConnection = null;
 		try {
 			Class.forName(rifServiceStartupOptions.getDatabaseDriverClassName());
 
@@ -1294,33 +1472,25 @@ public class BaseSQLManager implements SQLManager {
 			//for a user, we let the checks occur (set flag to false)
 			//for all other times, set the flag to true, to ignore checks
 
-			Connection currentConnection =null;
-				
-			//Establish read-only connections
-			for (int i = 0; i < POOLED_READ_ONLY_CONNECTIONS_PER_PERSON; i++) {
-				boolean isFirstConnectionForUser = false;
-				if (i == 0) {
-					isFirstConnectionForUser = true;
-				}
-				currentConnection = createConnection(
+			//Establish one read-only and one write connection; further connections are 
+			//opened by the pools as required
+			readOnlyConnectionPool.addUser(
+					userID,
+					isFirstConnectionForUser -> createConnection(
 						userID,
 						password,
 						isFirstConnectionForUser,
-						true);
-				readOnlyConnectionQueue.addConnection(currentConnection);
-			}
-			readOnlyConnectionsFromUser.put(userID, readOnlyConnectionQueue);
-
-			//Establish write-only connections
-			for (int i = 0; i < POOLED_WRITE_CONNECTIONS_PER_PERSON; i++) {
-				currentConnection = createConnection(
+						true),
+					1);
+			writeConnectionPool.addUser(
+					userID,
+					isFirstConnectionForUser -> createConnection(
 						userID,
 						password,
 						false,
-						false);
-				writeOnlyConnectionQueue.addConnection(currentConnection);
-			}
-			writeConnectionsFromUser.put(userID, writeOnlyConnectionQueue);
+						false),
+					1);
+			currentConnection = readOnlyConnectionPool.checkout(userID);
 
 			passwordHashList.put(userID, password);
 			registeredUserIDs.add(userID);
@@ -1337,6 +1507,8 @@ public class BaseSQLManager implements SQLManager {
  * 4. alter_13.sql (post 17th March 2019 issue #138 changes: State 1: study setup modal errors fixes)
  */ 
 			String errorMessage = schemaVersionChecks(currentConnection);
+			readOnlyConnectionPool.checkin(userID, currentConnection);
+			currentConnection = null;
 			if (errorMessage != null) { // Failed 
 				throw new RIFServiceException(
 						RIFServiceError.DB_SCHEMA_VERSION_CHECK_FAILED,
@@ -1352,13 +1524,11 @@ public class BaseSQLManager implements SQLManager {
 			throw exceptionFactory.createUnableLoadDBDriver();
 		}
 		catch (RIFServiceException rifServiceException) {
-			readOnlyConnectionQueue.closeAllConnections();
-			writeOnlyConnectionQueue.closeAllConnections();
+			abortLogin(userID, currentConnection);
 			throw rifServiceException;
 		}
 		catch(SQLException sqlException) {
-			readOnlyConnectionQueue.closeAllConnections();
-			writeOnlyConnectionQueue.closeAllConnections();
+			abortLogin(userID, currentConnection);
 			String errorMessage = SERVICE_MESSAGES.getMessage(
 					"sqlConnectionManager.error.unableToRegisterUser",
 					userID);
@@ -1375,6 +1545,25 @@ public class BaseSQLManager implements SQLManager {
 
 	}
 
+	/**
+	 * Close the connections of a user whose login failed
+	 *
+	 * @param userID the user id
+	 * @param connection checked out connection, may be null
+	 */
+	private void abortLogin(
+		final String userID,
+		final Connection connection) {
+
+		if (connection != null) {
+			readOnlyConnectionPool.checkin(userID, connection);
+		}
+		readOnlyConnectionPool.closeUser(userID);
+		writeConnectionPool.closeUser(userID);
+		registeredUserIDs.remove(userID);
+		passwordHashList.remove(userID);
+	}
+
 /*
  * Schema version checks: 
  *
@@ -1542,10 +1731,7 @@ public class BaseSQLManager implements SQLManager {
 			if (connection == null) {
 				return;
 			}
-			String userID = user.getUserID();
-			ConnectionQueue availableReadConnections
-				= readOnlyConnectionsFromUser.get(userID);
-			availableReadConnections.reclaimConnection(connection);
+			readOnlyConnectionPool.checkin(user.getUserID(), connection);
 		}
 		catch(Exception exception) {
 			//Record original exception, throw sanitised, human-readable version
@@ -0,0 +1,270 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.sahsu.rif.generic.datastorage.DatabaseType;
+import org.sahsu.rif.generic.datastorage.InsertQueryFormatter;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * Insert many rows into one table, in batches, rather than with one statement per row.
+ * <p>
+ * On Postgres the rows are loaded with COPY, one COPY per batch, inside a savepoint. The study and comparison
+ * area views are loaded through INSTEAD OF triggers, which older Postgres versions do not run for COPY; if
+ * COPY is rejected the savepoint is rolled back and the rows are inserted with JDBC batches instead. On SQL
+ * Server the rows are always inserted with JDBC batches.
+ * </p>
+ * <p>
+ * The batch size is set by the property studyAreaInsertBatchSize (default: 1000).
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class BulkInsert {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String WRONG_OBJECT_TYPE = "42809"; // Postgres: cannot copy to view
+
+	// Tables COPY has been rejected for: use JDBC batches from then on
+	private static final Set<String> copyRejectedTables = ConcurrentHashMap.newKeySet();
+
+	private final DatabaseType databaseType;
+	private final String tableName;
+	private final int batchSize;
+	private final List<String> fieldNames = new ArrayList<>();
+	private final List<Integer> fieldTypes = new ArrayList<>();
+	private final List<Object[]> rows = new ArrayList<>();
+	private int batchCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param databaseType 	POSTGRESQL or SQL_SERVER
+	 * @param tableName 	table (or view) to insert into, with its schema
+	 * @param batchSize 	maximum rows per COPY or JDBC batch
+	 */
+	BulkInsert(
+			final DatabaseType databaseType,
+			final String tableName,
+			final int batchSize) {
+
+		this.databaseType = databaseType;
+		this.tableName = tableName;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Get the batch size for study and comparison area inserts
+	 *
+	 * @param options RIFServiceStartupOptions for studyAreaInsertBatchSize
+	 *
+	 * @return the batch size
+	 */
+	static int getBatchSize(final RIFServiceStartupOptions options) {
+
+		try {
+			return Math.max(1, options.getOptionalRIfServiceProperty("studyAreaInsertBatchSize",
+				DEFAULT_BATCH_SIZE));
+		}
+		catch (Exception exception) {
+			rifLogger.warning(BulkInsert.class, "Invalid studyAreaInsertBatchSize; using default: " +
+				DEFAULT_BATCH_SIZE);
+			return DEFAULT_BATCH_SIZE;
+		}
+	}
+
+	/**
+	 * Add a field
+	 *
+	 * @param fieldName 	column name
+	 * @param sqlType 		java.sql.Types: VARCHAR, INTEGER or DOUBLE
+	 */
+	void addField(final String fieldName, final int sqlType) {
+		fieldNames.add(fieldName);
+		fieldTypes.add(sqlType);
+	}
+
+	/**
+	 * Add a row
+	 *
+	 * @param values one value per field, in field order (String, Integer, Double or null)
+	 */
+	void addRow(final Object... values) {
+		if (values.length != fieldNames.size()) {
+			throw new IllegalArgumentException("BulkInsert.addRow: " + values.length + " values for " +
+				fieldNames.size() + " fields in " + tableName);
+		}
+		rows.add(values);
+	}
+
+	int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * @return the number of COPYs or JDBC batches run
+	 */
+	int getBatchCount() {
+		return batchCount;
+	}
+
+	int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the single row insert; for the JDBC batches and for logging
+	 */
+	InsertQueryFormatter getInsertQueryFormatter() {
+
+		InsertQueryFormatter queryFormatter = InsertQueryFormatter.getInstance(databaseType);
+		queryFormatter.setIntoTable(tableName);
+		for (String fieldName : fieldNames) {
+			queryFormatter.addInsertField(fieldName);
+		}
+		return queryFormatter;
+	}
+
+	String getCopyStatement() {
+		return "COPY " + tableName + " (" + String.join(", ", fieldNames) + ") FROM STDIN WITH (FORMAT csv)";
+	}
+
+	/**
+	 * Load the rows with COPY
+	 *
+	 * @param connection Postgres connection
+	 *
+	 * @return true if the rows were loaded; false if COPY is not available (not Postgres, or COPY was
+	 * rejected for the table) and nothing was loaded
+	 */
+	boolean copy(final Connection connection) throws SQLException, IOException {
+
+		if (databaseType != DatabaseType.POSTGRESQL ||
+		    rows.isEmpty() ||
+		    copyRejectedTables.contains(tableName) ||
+		    !connection.isWrapperFor(BaseConnection.class)) {
+			return false;
+		}
+
+		CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+		String copyStatement = getCopyStatement();
+		Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+		int copyCount = 0;
+		try {
+			for (int fromRow = 0; fromRow < rows.size(); fromRow += batchSize) {
+				copyManager.copyIn(copyStatement,
+					new StringReader(toCSV(fromRow, Math.min(rows.size(), fromRow + batchSize))));
+				copyCount++;
+			}
+		}
+		catch (SQLException sqlException) {
+			if (!WRONG_OBJECT_TYPE.equals(sqlException.getSQLState())) {
+				throw sqlException;
+			}
+			if (savepoint != null) {
+				connection.rollback(savepoint);
+			}
+			copyRejectedTables.add(tableName);
+			rifLogger.warning(this.getClass(), "COPY rejected for " + tableName +
+				"; using batched inserts: " + sqlException.getMessage());
+			return false;
+		}
+		if (savepoint != null) {
+			connection.releaseSavepoint(savepoint);
+		}
+		batchCount = copyCount;
+		return true;
+	}
+
+	/**
+	 * Insert the rows with JDBC batches
+	 *
+	 * @param statement prepared from {@link #getInsertQueryFormatter()}
+	 */
+	void executeBatches(final PreparedStatement statement) throws SQLException {
+
+		int batchRows = 0;
+		for (Object[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				setParameter(statement, i + 1, fieldTypes.get(i), row[i]);
+			}
+			statement.addBatch();
+			if (++batchRows == batchSize) {
+				statement.executeBatch();
+				batchCount++;
+				batchRows = 0;
+			}
+		}
+		if (batchRows > 0) {
+			statement.executeBatch();
+			batchCount++;
+		}
+	}
+
+	/**
+	 * Format rows as CSV for COPY: text quoted, nulls empty and unquoted
+	 *
+	 * @param fromRow 	first row (inclusive)
+	 * @param toRow 	last row (exclusive)
+	 *
+	 * @return CSV, one line per row
+	 */
+	String toCSV(final int fromRow, final int toRow) {
+
+		StringBuilder csv = new StringBuilder((toRow - fromRow) * 16 * fieldNames.size());
+		for (int rowIndex = fromRow; rowIndex < toRow; rowIndex++) {
+			Object[] row = rows.get(rowIndex);
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0) {
+					csv.append(',');
+				}
+				if (row[i] instanceof String) {
+					csv.append('"').append(((String) row[i]).replace("\"", "\"\"")).append('"');
+				}
+				else if (row[i] != null) {
+					csv.append(row[i]);
+				}
+			}
+			csv.append('\n');
+		}
+		return csv.toString();
+	}
+
+	private static void setParameter(
+			final PreparedStatement statement,
+			final int parameterIndex,
+			final int sqlType,
+			final Object value)
+					throws SQLException {
+
+		if (value == null) {
+			statement.setNull(parameterIndex, sqlType);
+		}
+		else if (sqlType == Types.INTEGER) {
+			statement.setInt(parameterIndex, (Integer) value);
+		}
+		else if (sqlType == Types.DOUBLE) {
+			statement.setDouble(parameterIndex, (Double) value);
+		}
+		else {
+			statement.setString(parameterIndex, value.toString());
+		}
+	}
+}
@@ -58,7 +58,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 			statement 
 				= connection.prepareStatement(queryFormatter.generateQuery());
 			statement.setInt(1, Integer.valueOf(studyID));
-			statement.executeUpdate();
+			executeUpdate("clearStatusUpdates", statement);
 			connection.commit();
 		}
 		catch(SQLException sqlException) {
@@ -143,7 +143,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 				= createPreparedStatement(connection, queryFormatter);
 			statement.setString(1, studyID);
 			statement.setString(2, user.getUserID());
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getStudyState", statement);
 			connection.commit();
 			if (dbResultSet.next() == false) {
 				result = StudyState.STUDY_NOT_CREATED;
@@ -313,7 +313,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 			if (traceMessage != null) {
 				statement.setString(5, traceMessage);	
 			}			
-			statement.executeUpdate();
+			executeUpdate("updateStudyStatus", statement);
 			connection.commit();
 			rifLogger.info(this.getClass(), getClass().getSimpleName() + ": study_id: " +
 			                                studyID + "; COMMIT");
@@ -478,7 +478,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 						connection, 
 						queryFormatter);
 				resultSet
-					= statement.executeQuery();
+					= executeQuery("getCurrentStatusAllStudies", statement);
 
 				queryFormatter.addQueryLine(1, "most_recent_updates.study_id,");
 				queryFormatter.addQueryLine(1, rifStudiesTableName + ".study_name,");
@@ -607,7 +607,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 			ResultSet resultSet = null;
 			try {
 				statement = connection.prepareStatement(queryFormatter.generateQuery());
-				resultSet = statement.executeQuery();
+				resultSet = executeQuery("getExpectedNumberOfStatusUpdates", statement);
 				resultSet.next();
 				result = resultSet.getInt(1);
 				
@@ -651,7 +651,7 @@ public final class CommonStudyStateManager extends BaseSQLManager implements Stu
 					connection,
 					queryFormatter);	
 			statement.setInt(1, Integer.valueOf(studyID));
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("checkNonExistentStudyID", statement);
 
 			if (!resultSet.next()) {
 				//ERROR: no such study exists
@@ -50,7 +50,7 @@ class CovariateDescription {
 		                                                               covariateTableFormatter);
 		ps.setString(1, geographyName);
 		ps.setString(2, geoLevelName);
-		ResultSet rs = ps.executeQuery();
+		ResultSet rs = manager.executeQuery("getCovariateTable", ps);
 		if (rs.next()) {
 			String covariatesSubTableName = rs.getString(1);
 			return manager.getColumnComment(connection, "rif_data", covariatesSubTableName,
@@ -91,7 +91,7 @@ public final class CovariateManager extends BaseSQLManager {
 			statement.setString(1, geographyName);
 			statement.setString(2, geoLevelName);
 
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getCovariates", statement);
 			connection.commit();
 			while (dbResultSet.next()) {				
 				AdjustableCovariate adjustableCovariate = AdjustableCovariate.newInstance();
@@ -217,7 +217,7 @@ public final class CovariateManager extends BaseSQLManager {
 				statement.setString(2, geography.getName());
 				statement.setString(3, geoLevelToMap.getName());	
 				
-				resultSet = statement.executeQuery();
+				resultSet = executeQuery("checkNonExistentCovariates", statement);
 				if (!resultSet.next()) {
 
 					String errorMessage = SERVICE_MESSAGES.getMessage(
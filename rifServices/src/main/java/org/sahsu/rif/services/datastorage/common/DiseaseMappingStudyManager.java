@@ -84,7 +84,7 @@ public final class DiseaseMappingStudyManager extends BaseSQLManager {
 				= createPreparedStatement(
 					connection, 
 					queryFormatter);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getProjects", statement);
 			while (resultSet.next()) {
 				Project project = Project.newInstance();
 				project.setName(resultSet.getString(1));
@@ -243,7 +243,7 @@ public final class DiseaseMappingStudyManager extends BaseSQLManager {
 					connection, 
 					queryFormatter);
 			statement.setInt(1, Integer.valueOf(studyID));
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("checkDiseaseMappingStudyExists", statement);
 			if (!resultSet.next()) {
 				String recordType
 					= RIFServiceMessages.getMessage("diseaseMappingStudy.label");
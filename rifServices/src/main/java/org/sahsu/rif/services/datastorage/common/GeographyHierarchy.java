@@ -0,0 +1,328 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The geography hierarchy (e.g. hierarchy_sahsuland) and the geolevel lookup table area gids, held in memory.
+ * <p>
+ * Each geolevel codes its area IDs as integers, in the order they are first read. For each geolevel there
+ * are parent and child arrays over the hierarchy rows (one row per area at the finest geolevel):
+ * </p>
+ * <ul>
+ * <li>rowCodes: the area code at this geolevel of each hierarchy row</li>
+ * <li>firstRow, rows: the hierarchy rows of each area code (compressed sparse rows)</li>
+ * </ul>
+ * <p>
+ * Areas selected at one geolevel (geolevel select) are resolved to the areas at another (geolevel to map)
+ * without a database query. Hierarchies are cached per geography with a version: the object ID of the
+ * hierarchy table, which changes when the data loader drops and recreates the table.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class GeographyHierarchy {
+
+	static final long NO_VERSION = -1; // Table object ID not known: not cached
+
+	private static final int NO_GID = Integer.MIN_VALUE;
+
+	private static final ConcurrentHashMap<String, GeographyHierarchy> hierarchies = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+	/**
+	 * An area at the geolevel to map, with the selected area it was resolved from
+	 */
+	static final class RelevantArea {
+
+		private final String gid;
+		private final String mapAreaID;
+		private final String selectAreaID;
+
+		private RelevantArea(final String gid, final String mapAreaID, final String selectAreaID) {
+			this.gid = gid;
+			this.mapAreaID = mapAreaID;
+			this.selectAreaID = selectAreaID;
+		}
+
+		String getGid() {
+			return gid;
+		}
+
+		String getMapAreaID() {
+			return mapAreaID;
+		}
+
+		String getSelectAreaID() {
+			return selectAreaID;
+		}
+	}
+
+	/**
+	 * One geolevel: integer coded area IDs, with parent (rowCodes) and child (firstRow, rows) arrays
+	 */
+	private static final class GeoLevel {
+
+		private final String name;
+		private final HashMap<String, Integer> codes = new HashMap<>();
+		private final ArrayList<String> areaIDs = new ArrayList<>();
+		private int[] rowCodes = new int[0];
+		private int[] firstRow;
+		private int[] rows;
+		private int[] gids;
+
+		private GeoLevel(final String name) {
+			this.name = name;
+		}
+
+		private int code(final String areaID) {
+			Integer code = codes.get(areaID);
+			if (code == null) {
+				code = areaIDs.size();
+				codes.put(areaID, code);
+				areaIDs.add(areaID);
+			}
+			return code;
+		}
+
+		private void index(final int rowCount) {
+
+			rowCodes = Arrays.copyOf(rowCodes, rowCount);
+			int areaCount = areaIDs.size();
+			firstRow = new int[areaCount + 1];
+			for (int row = 0; row < rowCount; row++) {
+				firstRow[rowCodes[row] + 1]++;
+			}
+			for (int code = 0; code < areaCount; code++) {
+				firstRow[code + 1] += firstRow[code];
+			}
+			rows = new int[rowCount];
+			int[] nextRow = Arrays.copyOf(firstRow, areaCount);
+			for (int row = 0; row < rowCount; row++) {
+				rows[nextRow[rowCodes[row]]++] = row;
+			}
+			gids = new int[areaCount];
+			Arrays.fill(gids, NO_GID);
+		}
+	}
+
+	private final String geography;
+	private final String hierarchyTableName;
+	private final long version;
+	private final HashMap<String, GeoLevel> geoLevels = new HashMap<>();
+	private final GeoLevel[] geoLevelsInOrder;
+	private int rowCount = 0;
+
+	/**
+	 * Constructor; add the hierarchy rows, then index, then add the lookup table gids
+	 *
+	 * @param geography 			geography name
+	 * @param hierarchyTableName 	hierarchy table name
+	 * @param version 				hierarchy table object ID; or NO_VERSION
+	 * @param geoLevelNames 		geolevel names: the hierarchy table columns
+	 */
+	GeographyHierarchy(
+			final String geography,
+			final String hierarchyTableName,
+			final long version,
+			final List<String> geoLevelNames) {
+
+		this.geography = geography;
+		this.hierarchyTableName = hierarchyTableName;
+		this.version = version;
+		geoLevelsInOrder = new GeoLevel[geoLevelNames.size()];
+		for (int i = 0; i < geoLevelsInOrder.length; i++) {
+			geoLevelsInOrder[i] = new GeoLevel(geoLevelNames.get(i));
+			geoLevels.put(key(geoLevelNames.get(i)), geoLevelsInOrder[i]);
+		}
+	}
+
+	/**
+	 * Get a cached hierarchy
+	 *
+	 * @param geography 			geography name
+	 * @param hierarchyTableName 	hierarchy table name
+	 * @param version 				current hierarchy table object ID
+	 *
+	 * @return the hierarchy; null if it is not cached or is out of date
+	 */
+	static GeographyHierarchy getCached(
+			final String geography,
+			final String hierarchyTableName,
+			final long version) {
+
+		GeographyHierarchy hierarchy = hierarchies.get(key(geography));
+		if (hierarchy == null ||
+		    version == NO_VERSION ||
+		    hierarchy.version != version ||
+		    !hierarchy.hierarchyTableName.equalsIgnoreCase(hierarchyTableName)) {
+			return null;
+		}
+		return hierarchy;
+	}
+
+	/**
+	 * Cache a hierarchy, replacing any older version of the geography
+	 *
+	 * @param hierarchy loaded and indexed hierarchy
+	 */
+	static void cache(final GeographyHierarchy hierarchy) {
+		if (hierarchy.version == NO_VERSION) {
+			hierarchies.remove(key(hierarchy.geography));
+		}
+		else {
+			hierarchies.put(key(hierarchy.geography), hierarchy);
+		}
+	}
+
+	/**
+	 * Get the lock to hold while loading a geography's hierarchy, so that each geography is loaded once
+	 * without blocking loads of (or cache hits on) other geographies
+	 *
+	 * @param geography geography name
+	 *
+	 * @return the geography's load lock
+	 */
+	static Object getLoadLock(final String geography) {
+		return loadLocks.computeIfAbsent(key(geography), geographyKey -> new Object());
+	}
+
+	/**
+	 * Add a hierarchy table row
+	 *
+	 * @param areaIDs area ID at each geolevel, in geolevel name order
+	 */
+	void addRow(final String... areaIDs) {
+		for (int i = 0; i < geoLevelsInOrder.length; i++) {
+			GeoLevel geoLevel = geoLevelsInOrder[i];
+			if (rowCount == geoLevel.rowCodes.length) {
+				geoLevel.rowCodes = Arrays.copyOf(geoLevel.rowCodes,
+					Math.max(1024, rowCount + (rowCount >> 1)));
+			}
+			geoLevel.rowCodes[rowCount] = geoLevel.code(areaIDs[i]);
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Build the child arrays, once all the hierarchy rows have been added
+	 */
+	void index() {
+		for (GeoLevel geoLevel : geoLevelsInOrder) {
+			geoLevel.index(rowCount);
+		}
+	}
+
+	/**
+	 * Add a geolevel lookup table gid
+	 *
+	 * @param geoLevelName 	geolevel name
+	 * @param areaID 		area ID
+	 * @param gid 			gid
+	 */
+	void addGid(final String geoLevelName, final String areaID, final int gid) {
+		GeoLevel geoLevel = getGeoLevel(geoLevelName);
+		Integer code = geoLevel.codes.get(areaID);
+		if (code != null) { // Not in the hierarchy: cannot be selected
+			geoLevel.gids[code] = gid;
+		}
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Resolve areas selected at one geolevel to the areas at another.
+	 * <p>
+	 * Returns each distinct (geolevel to map area, selected area) pair, in the order the areas were selected
+	 * and then in hierarchy order. Selected areas that are not in the hierarchy, and areas that are not in
+	 * the geolevel to map lookup table, are skipped. If no areas are selected, all areas are returned.
+	 * </p>
+	 *
+	 * @param geoLevelSelectName 	geolevel select name
+	 * @param geoLevelToMapName 	geolevel to map name
+	 * @param selectedAreaIDs 		selected area IDs, at geolevel select
+	 *
+	 * @return the geolevel to map areas
+	 */
+	List<RelevantArea> resolve(
+			final String geoLevelSelectName,
+			final String geoLevelToMapName,
+			final List<String> selectedAreaIDs) {
+
+		GeoLevel geoLevelSelect = getGeoLevel(geoLevelSelectName);
+		GeoLevel geoLevelToMap = getGeoLevel(geoLevelToMapName);
+
+		int[] selectCodes;
+		if (selectedAreaIDs.isEmpty()) {
+			selectCodes = new int[geoLevelSelect.areaIDs.size()];
+			for (int code = 0; code < selectCodes.length; code++) {
+				selectCodes[code] = code;
+			}
+		}
+		else {
+			BitSet isSelected = new BitSet(geoLevelSelect.areaIDs.size());
+			selectCodes = new int[selectedAreaIDs.size()];
+			int selectCount = 0;
+			for (String selectedAreaID : selectedAreaIDs) {
+				Integer code = geoLevelSelect.codes.get(selectedAreaID);
+				if (code != null && !isSelected.get(code)) {
+					isSelected.set(code);
+					selectCodes[selectCount++] = code;
+				}
+			}
+			selectCodes = Arrays.copyOf(selectCodes, selectCount);
+		}
+
+		List<RelevantArea> relevantAreas = new ArrayList<>();
+		BitSet isAdded = new BitSet(geoLevelToMap.areaIDs.size()); // For the current selected area
+		int[] added = new int[16];
+		for (int selectCode : selectCodes) {
+			int addedCount = 0;
+			String selectAreaID = geoLevelSelect.areaIDs.get(selectCode);
+			for (int i = geoLevelSelect.firstRow[selectCode]; i < geoLevelSelect.firstRow[selectCode + 1]; i++) {
+				int mapCode = geoLevelToMap.rowCodes[geoLevelSelect.rows[i]];
+				if (isAdded.get(mapCode) || geoLevelToMap.gids[mapCode] == NO_GID) {
+					continue;
+				}
+				isAdded.set(mapCode);
+				if (addedCount == added.length) {
+					added = Arrays.copyOf(added, added.length * 2);
+				}
+				added[addedCount++] = mapCode;
+				relevantAreas.add(new RelevantArea(
+					Integer.toString(geoLevelToMap.gids[mapCode]),
+					geoLevelToMap.areaIDs.get(mapCode),
+					selectAreaID));
+			}
+			for (int i = 0; i < addedCount; i++) {
+				isAdded.clear(added[i]);
+			}
+		}
+		return relevantAreas;
+	}
+
+	private GeoLevel getGeoLevel(final String geoLevelName) {
+		GeoLevel geoLevel = geoLevels.get(key(geoLevelName));
+		if (geoLevel == null) {
+			throw new IllegalArgumentException("Geolevel: " + geoLevelName + " is not in " +
+				hierarchyTableName + " for geography: " + geography);
+		}
+		return geoLevel;
+	}
+
+	private static String key(final String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+}
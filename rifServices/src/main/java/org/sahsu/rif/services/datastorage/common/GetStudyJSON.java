@@ -10,7 +10,10 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -18,6 +21,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -32,6 +36,7 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.client.urlconnection.HTTPSProperties;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 
 public class GetStudyJSON {
 
@@ -40,6 +45,11 @@ public class GetStudyJSON {
 	private static final String lineSeparator = System.getProperty("line.separator");
 	private static final String LABEL = "label";
 	private static final String IS_TOP_LEVEL_TERM = "is_top_level_term";
+	private static final int MAX_CODES_PER_REQUEST = 500;
+
+	// Jersey clients are thread safe and expensive to create; shared by all extracts
+	private static Client client = null;
+	private static Client localhostClient = null;
 
 	private final SQLManager manager;
 	private Connection connection;
@@ -47,6 +57,7 @@ public class GetStudyJSON {
 	private String url=null;
 	private boolean taxonomyInitialiseError=false;
 	private Exception otherTaxonomyError=null;
+	private final Map<String, JSONObject> healthCodeDescriptions = new HashMap<>(); // Key: upper case code
 	
 	/**
      * Constructor.
@@ -95,6 +106,7 @@ public class GetStudyJSON {
 				throw new Exception("addRifStudiesJson(): cannot deduce tomcat server from RIF services request or RIFServiceStartup.properties");
 			}
 		}
+		prefetchHealthCodeDescriptions(connection, studyID);
 		
 		SQLGeneralQueryFormatter rifStudiesQueryFormatter = new SQLGeneralQueryFormatter();		
 		ResultSet resultSet;
@@ -119,7 +131,7 @@ public class GetStudyJSON {
 		
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addRifStudiesJson", statement);
 			if (resultSet.next()) {
 				rsmd = resultSet.getMetaData();
 				columnCount = rsmd.getColumnCount();
@@ -419,7 +431,7 @@ public class GetStudyJSON {
 		String geographyDescription;
 		try {			
 			statement.setString(1, geographyName);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getGeographyDescription", statement);
 			if (resultSet.next()) {
 				geographyDescription=resultSet.getString(1);
 				if (resultSet.next()) {
@@ -462,7 +474,7 @@ public class GetStudyJSON {
 				addSqlLogQueryFormatter);
 		try {
 			statement.setInt(1, Integer.parseInt(studyID));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addSqlLog", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -525,7 +537,7 @@ public class GetStudyJSON {
 		try {
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, Integer.parseInt(statementNumber));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addSQLLogLines", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -585,7 +597,7 @@ public class GetStudyJSON {
 		try {
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, Integer.parseInt(statementNumber));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addSQLLogSql", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -642,7 +654,7 @@ public class GetStudyJSON {
 				addAdditionalTablesQueryFormatter);
 		try {
 			statement.setInt(1, Integer.parseInt(studyID));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addAdditionalTables", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -748,6 +760,34 @@ public class GetStudyJSON {
 			final String taxonomyServicesServer,
 			final String code) 
 					throws Exception { // Will get from taxonomy service
+		setTaxonomyServicesUrl(url, taxonomyServicesServer, "getHealthCodeDescription()");
+		return getHealthCodeDescription(code);
+	}
+
+	/**
+	 * Get the descriptions of all the health codes of a study from the taxonomy service in one
+	 * request [public version]. See: prefetchHealthCodeDescriptions(connection, studyID)
+	 *
+     * @param connection (required)
+     * @param studyID (required)
+     * @param url (required)
+     * @param taxonomyServicesServer (required)
+     */
+	void prefetchHealthCodeDescriptions(
+			final Connection connection,
+			final String studyID,
+			final String url,
+			final String taxonomyServicesServer) 
+					throws Exception {
+		setTaxonomyServicesUrl(url, taxonomyServicesServer, "prefetchHealthCodeDescriptions()");
+		prefetchHealthCodeDescriptions(connection, studyID);
+	}
+
+	private void setTaxonomyServicesUrl(
+			final String url,
+			final String taxonomyServicesServer,
+			final String caller) 
+					throws Exception {
 		if (taxonomyServicesServer != null && !taxonomyServicesServer.equals("")) {
 			this.url =taxonomyServicesServer;
 		}
@@ -755,10 +795,141 @@ public class GetStudyJSON {
 			this.url =url;
 		}
 		else {
-			throw new Exception("getHealthCodeDescription(): cannot deduce tomcat server from RIF"
+			throw new Exception(caller + ": cannot deduce tomcat server from RIF"
 			                    + " services request or RIFServiceStartup.properties");
 		}
-		return getHealthCodeDescription(code);
+	}
+
+	/**
+	 * Get the descriptions of all the health codes of a study from the taxonomy service in one
+	 * request (findTermsInAnyTaxonomy), and cache them for getHealthCodeDescription(). 
+	 * <p>
+	 * On failure, e.g. the taxonomy service is still initialising, the codes are not cached and 
+	 * getHealthCodeDescription() gets them one at a time as before
+	 * </p>
+	 *
+     * @param connection (required)
+     * @param studyID (required)
+     */
+	private void prefetchHealthCodeDescriptions(
+			final Connection connection,
+			final String studyID) 
+					throws Exception {
+
+		if (otherTaxonomyError != null) {
+			return;
+		}
+
+		SQLGeneralQueryFormatter healthCodesQueryFormatter = new SQLGeneralQueryFormatter();		
+		healthCodesQueryFormatter.addQueryLine(0, "SELECT DISTINCT min_condition,max_condition");
+		healthCodesQueryFormatter.addQueryLine(0, "  FROM rif40.rif40_inv_conditions");	
+		healthCodesQueryFormatter.addQueryLine(0, " WHERE study_id = ?");
+		PreparedStatement statement = manager.createPreparedStatement(connection,
+				healthCodesQueryFormatter);
+		
+		List<String> codes = new ArrayList<>();
+		try {		
+			statement.setInt(1, Integer.parseInt(studyID));	
+			ResultSet resultSet = manager.executeQuery("prefetchHealthCodeDescriptions", statement);
+			while (resultSet.next()) {
+				for (int i = 1; i <= 2; i++) {
+					String code = resultSet.getString(i);
+					if (!StringUtils.isEmpty(code) && !codes.contains(code.toUpperCase()) &&
+						!healthCodeDescriptions.containsKey(code.toUpperCase())) {
+						codes.add(code.toUpperCase());
+					}
+				}
+			}
+		}
+		catch (Exception exception) {
+			rifLogger.error(this.getClass(), "Error in SQL Statement: >>> " + lineSeparator + healthCodesQueryFormatter.generateQuery(),
+				exception);
+			throw exception;
+		}
+		finally {
+			closeStatement(statement);
+		}
+
+		for (int i = 0; i < codes.size(); i += MAX_CODES_PER_REQUEST) {
+			List<String> requestCodes = codes.subList(i, Math.min(codes.size(), i + MAX_CODES_PER_REQUEST));
+			try {
+				getHealthCodeDescriptions(requestCodes);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(this.getClass(), "Unable to get " + requestCodes.size() + 
+					" health code descriptions in one request; will get them one at a time: " + 
+					exception.getMessage());
+				return;
+			}
+		}
+		if (!codes.isEmpty()) {
+			rifLogger.info(this.getClass(), "Cached " + codes.size() + " health code descriptions for study: " + 
+				studyID);
+		}
+	}
+
+	/**
+	 * Get health code descriptions from taxonomy service in one request, and cache them. Codes that
+	 * are not found are cached as "Not available", as getHealthCodeDescription() returns
+	 *
+     * @param codes (required) upper case codes
+     */	
+	private void getHealthCodeDescriptions(final List<String> codes) throws Exception {
+
+		String uri = url + "/taxonomies/service/findTermsInAnyTaxonomy";
+		WebResource webResource = getClient().resource(uri);
+		if (webResource == null) {
+			throw new Exception("Null WebResource returned by rest client, URI: " + uri);
+		}
+
+		MultivaluedMap<String, String> formData = new MultivaluedMapImpl();
+		for (String code : codes) {
+			formData.add("search_text", code);
+		}
+		ClientResponse response = webResource.type(MediaType.APPLICATION_FORM_URLENCODED)
+				                          .accept(MediaType.APPLICATION_JSON)
+				                          .post(ClientResponse.class, formData);
+		if (response.getStatus() != 200) {
+			response.close();
+			throw new Exception(uri + " failed: HTTP error code : " + response.getStatus());
+		}
+
+		String output = response.getEntity(String.class);
+		Map<String, JSONObject> found = new HashMap<>();
+		JSONObject terms = new JSONObject(output).optJSONObject("terms");
+		if (terms != null && terms.has(HEALTH_CODE)) {
+			// As for findTermInAnyTaxonomy: the healthCode element is an array, or an object if there is one
+			JSONArray healthCodeArray = terms.optJSONArray(HEALTH_CODE);
+			if (healthCodeArray == null) {
+				healthCodeArray = new JSONArray();
+				healthCodeArray.put(terms.getJSONObject(HEALTH_CODE));
+			}
+			for (int i = 0; i < healthCodeArray.length(); i++) {
+				JSONObject healthCode = healthCodeArray.getJSONObject(i);
+				if (healthCode.has(LABEL)) {
+					if (healthCode.isNull(IS_TOP_LEVEL_TERM)) {
+						healthCode.put(IS_TOP_LEVEL_TERM, "no");
+					}
+					found.put(healthCode.getString(LABEL).toUpperCase(), healthCode);
+				}
+			}
+		}
+
+		for (String code : codes) {
+			JSONObject healthCode = found.get(code);
+			healthCodeDescriptions.put(code, healthCode != null ? healthCode : notAvailable(code));
+		}
+		rifLogger.debug(this.getClass(), "findTermsInAnyTaxonomy: found " + found.size() + " of " +
+			codes.size() + " health codes");
+	}
+
+	private JSONObject notAvailable(final String code) {
+		JSONObject rval = new JSONObject();
+		rval.put("description", "Not available");
+		rval.put("identifier", "Unknown");
+		rval.put(LABEL, code);
+		rval.put("isTopLevelTerm", "no");
+		return rval;
 	}
 	
 	/**
@@ -769,12 +940,13 @@ public class GetStudyJSON {
      */	
 	private JSONObject getHealthCodeDescription(String code) {
 		
+		JSONObject cachedHealthCode = healthCodeDescriptions.get(code.toUpperCase());
+		if (cachedHealthCode != null) {
+			return cachedHealthCode;
+		}
+
 		// Set up return value;
-		JSONObject rval = new JSONObject();
-		rval.put("description", "Not available");
-		rval.put("identifier", "Unknown");
-		rval.put(LABEL, code);
-		rval.put("isTopLevelTerm", "no");
+		JSONObject rval = notAvailable(code);
 
 		if (otherTaxonomyError != null) { // These is an error in the taxonomyservices link
 										  // This will require a tomcat restart to fix
@@ -824,6 +996,7 @@ public class GetStudyJSON {
 			}
 
 			rifLogger.info(this.getClass(), code + ": " + output + "; rval: " + rval.toString());
+			healthCodeDescriptions.put(code.toUpperCase(), rval);
 		} catch (Exception exception) {
 
 			if (response == null) {
@@ -888,14 +1061,18 @@ public class GetStudyJSON {
 	}
 
 	private Client getClient() {
-		final Client client;
-		if (url.equals("https://localhost:8080")) {
-			client=hostIgnoringClient();
-		}
-		else {
-			client=Client.create();
+		synchronized (GetStudyJSON.class) {
+			if (url.equals("https://localhost:8080")) {
+				if (localhostClient == null) {
+					localhostClient=hostIgnoringClient();
+				}
+				return localhostClient;
+			}
+			if (client == null) {
+				client=Client.create();
+			}
+			return client;
 		}
-		return client;
 	}
 
 	/**
@@ -926,7 +1103,7 @@ public class GetStudyJSON {
 		String outcomeGroup;
 		try {			
 			statement.setString(1, outcome_group_name);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getOutcomeType", statement);
 			if (resultSet.next()) {
 				outcomeGroup=resultSet.getString(1) + resultSet.getString(2);
 				if (resultSet.next()) {
@@ -976,7 +1153,7 @@ public class GetStudyJSON {
 		JSONObject studiesData = new JSONObject();
 		try {			
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getStudyData", statement);
 			if (resultSet.next()) {	
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -1032,7 +1209,7 @@ public class GetStudyJSON {
 		try {			
 			statement.setString(1, geographyName);	
 			statement.setString(2, geolevelName);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getLookupTableName", statement);
 			if (resultSet.next()) {	
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -1097,7 +1274,7 @@ public class GetStudyJSON {
 		JSONArray mapAreaArray=new JSONArray();
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addStudyAreas", statement);
 			
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
@@ -1208,7 +1385,7 @@ public class GetStudyJSON {
 		JSONArray mapAreaArray=new JSONArray();
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addComparisonAreas", statement);
 			
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
@@ -1312,7 +1489,7 @@ public class GetStudyJSON {
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, invID);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addHealthCodes", statement);
 			
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
@@ -1426,7 +1603,7 @@ public class GetStudyJSON {
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, invID);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addCovariates", statement);
 			
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
@@ -1519,7 +1696,7 @@ public class GetStudyJSON {
 
 		try {		
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addInvestigations", statement);
 			
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
@@ -1680,7 +1857,7 @@ public class GetStudyJSON {
 		try {		
 			statement.setInt(1, offset);
 			statement.setString(2, tableName);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addAgeSexGroup", statement);
 			ResultSetMetaData rsmd = resultSet.getMetaData();
 			int columnCount = rsmd.getColumnCount();
 			if (resultSet.next()) {
@@ -1752,7 +1929,7 @@ public class GetStudyJSON {
 		try {		
 			statement.setString(1, geographyName);	
 			statement.setString(2, numeratorTable);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addNumeratorDenominatorPair", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
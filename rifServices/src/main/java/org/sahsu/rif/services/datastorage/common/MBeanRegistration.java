@@ -0,0 +1,50 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+
+/**
+ * Registers the services' JMX beans (connection pools, study scheduler, reference data cache, SQL query
+ * statistics) with the platform MBean server.
+ * <p>
+ * A bean already registered under the same name is replaced: the platform MBean server outlives the web
+ * application, so a redeployed application finds the previous deployment's beans still registered.
+ * Registration failures are logged, not thrown; JMX is for monitoring only.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class MBeanRegistration {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private MBeanRegistration() {
+	}
+
+	/**
+	 * Register a bean, replacing any previous registration
+	 *
+	 * @param bean 			MBean or MXBean
+	 * @param objectName 	JMX object name, e.g. org.sahsu.rif.services:type=StudyScheduler
+	 * @param description 	bean description for the log, e.g. "study scheduler"
+	 */
+	static void register(final Object bean, final String objectName, final String description) {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (mBeanServer.isRegistered(name)) {
+				mBeanServer.unregisterMBean(name);
+			}
+			mBeanServer.registerMBean(bean, name);
+		}
+		catch (Exception exception) {
+			rifLogger.warning(bean.getClass(), "Unable to register JMX bean for " + description + ": " +
+				exception.getMessage());
+		}
+	}
+}
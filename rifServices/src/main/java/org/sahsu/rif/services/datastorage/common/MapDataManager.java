@@ -6,8 +6,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.sahsu.rif.generic.datastorage.DatabaseType;
 import org.sahsu.rif.generic.datastorage.SQLGeneralQueryFormatter;
 import org.sahsu.rif.generic.datastorage.SelectQueryFormatter;
 import org.sahsu.rif.generic.datastorage.SQLQueryUtility;
@@ -27,6 +30,8 @@ public final class MapDataManager extends BaseSQLManager {
 	private static final RIFLogger rifLogger = RIFLogger.getLogger();
 	private static String lineSeparator = System.getProperty("line.separator");
 
+	private static final int FETCH_SIZE = 10000; // Geography hierarchy and lookup table rows per fetch
+
 	public MapDataManager(
 			final RIFServiceStartupOptions rifServiceStartupOptions) {
 
@@ -57,144 +62,53 @@ public final class MapDataManager extends BaseSQLManager {
 		else {
 			rifLogger.info(this.getClass(), "SQLMapDataManager getAllRelevantMapAreas() comparison areas: " + selectedMapAreas.size());
 		}
-		
-		PreparedStatement statement = null;
-		ResultSet resultSet = null;
 
 		try {
 
 			/*
-			 * Step 1: Obtain the geography table; This maps the map identifier as it is known
+			 * Step 1: Obtain the geography hierarchy; This maps the map identifier as it is known
 			 * at the GeoLevelSelect level to the map identifier as it is known at the finer
-			 * resolution of GeoLevelToMap
+			 * resolution of GeoLevelToMap. It is loaded once per geography (and again if the
+			 * data loader recreates the hierarchy table)
 			 */
-			//Obtain geography table eg: sahsuland_geography
-			String mapAreaResolutionMappingTableName
-					= getMapAreaResolutionMappingAreaTableName(
+			GeographyHierarchy geographyHierarchy
+					= getGeographyHierarchy(
 					connection,
 					geography);
 
-			String geoLevelToMapTableName
-					= getGeoLevelLookupTableName(
-					connection,
-					geography,
-					geoLevelToMap.getName());
-
 			/*
-			 * Example:
-			 *
-			 * SELECT
-			 *    gid, 		// gid
-			 *    level4,	// geoLevelToMap.getName()
-			 *    level2 	// geoLevelSelect.getName()
-			 * FROM
-			 *    mapAreaResolutionMappingTableName,  //eg: sahsuland_geography
-			 *    geoLevelToMapTableName //eg: sahsuland_level4
-			 * WHERE
-			 *    level2='01.001' OR  // iteratively read in each map area provided by
-			 *    level2='01.002' OR  // by client
-			 *    level2='01.003' OR  // geoLevelSelect.getName()
-			 *    ...
+			 * Step 2: Resolve the map areas provided by the client at geoLevelSelect to
+			 * geoLevelToMap, keeping the band and risk analysis attributes of each selected area
 			 */
-			SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();
-			queryFormatter.addQueryLine(0, "SELECT DISTINCT");
-			queryFormatter.addQueryPhrase(1, geoLevelToMapTableName);
-			queryFormatter.addQueryPhrase(".gid,");
-			queryFormatter.addQueryPhrase(geoLevelToMapTableName);
-			queryFormatter.addQueryPhrase(".");
-			queryFormatter.addQueryPhrase(geoLevelToMap.getName());
-			queryFormatter.addQueryPhrase(",");
-			queryFormatter.addQueryPhrase(mapAreaResolutionMappingTableName);
-			queryFormatter.addQueryPhrase(".");
-			queryFormatter.addQueryPhrase(geoLevelSelect.getName());
-			queryFormatter.padAndFinishLine();
-			queryFormatter.addQueryLine(0, "FROM ");
-			queryFormatter.addQueryPhrase(
-					1,
-					applySchemaDataPrefixIfNeeded(mapAreaResolutionMappingTableName));
-			queryFormatter.addQueryPhrase(",");
-			queryFormatter.addQueryPhrase(applySchemaDataPrefixIfNeeded(geoLevelToMapTableName));
-			queryFormatter.padAndFinishLine();
-			queryFormatter.addQueryLine(0, "WHERE");
-
-			queryFormatter.addQueryPhrase(1, geoLevelToMapTableName);
-			queryFormatter.addQueryPhrase(".");
-			queryFormatter.addQueryPhrase(geoLevelToMap.getName());
-			queryFormatter.addQueryPhrase("=");
-			queryFormatter.addQueryPhrase(mapAreaResolutionMappingTableName);
-			queryFormatter.addQueryPhrase(".");
-			queryFormatter.addQueryPhrase(geoLevelToMap.getName());
-
-			HashMap<String, Integer> bandHash = new HashMap<String, Integer>();
-			HashMap<String, Integer> intersectCountHash = new HashMap<String, Integer>();
-			HashMap<String, Double> distanceFromNearestSourceHash = new HashMap<String, Double>();
-			HashMap<String, String> nearestRifShapePolyIdHash = new HashMap<String, String>();
-			HashMap<String, Double> exposureValueHash = new HashMap<String, Double>();
-			Integer intersectCount;
-			Double distanceFromNearestSource;
-			String nearestRifShapePolyId;
-			Double exposureValue;
-			
-			int totalSelectedMapAreas = selectedMapAreas.size();
-			if (totalSelectedMapAreas > 0) {
-
-				queryFormatter.addQueryPhrase(" AND (");
-				queryFormatter.padAndFinishLine();
-
-				String geoLevelSelectLevelName = geoLevelSelect.getName();
-				//String geoLevelSelectLevelName = geoLevelToMap.getName();
-
-				for (int i = 0 ; i < selectedMapAreas.size(); i++) {
-					if (i != 0) {
-						queryFormatter.padAndFinishLine();
-						queryFormatter.addQueryPhrase(1, " OR ");
-					}
-
-					queryFormatter.addQueryPhrase(mapAreaResolutionMappingTableName);
-					//queryFormatter.addQueryPhrase(geoLevelToMapTableName);
-					queryFormatter.addQueryPhrase(".");
-					queryFormatter.addQueryPhrase(geoLevelSelectLevelName);
-					queryFormatter.addQueryPhrase("=\'");
-					queryFormatter.addQueryPhrase(selectedMapAreas.get(i).getIdentifier());
-					queryFormatter.addQueryPhrase("'");
-					
-					bandHash.put(selectedMapAreas.get(i).getIdentifier(), selectedMapAreas.get(i).getBand());
-					intersectCountHash.put(selectedMapAreas.get(i).getIdentifier(), selectedMapAreas.get(i).getIntersectCount());
-					nearestRifShapePolyIdHash.put(selectedMapAreas.get(i).getIdentifier(), selectedMapAreas.get(i).getNearestRifShapePolyId());
-					distanceFromNearestSourceHash.put(selectedMapAreas.get(i).getIdentifier(), selectedMapAreas.get(i).getDistanceFromNearestSource());
-					exposureValueHash.put(selectedMapAreas.get(i).getIdentifier(), selectedMapAreas.get(i).getExposureValue());
-				}
-
-				queryFormatter.addQueryPhrase(")");
+			HashMap<String, MapArea> selectedMapAreasByIdentifier = new HashMap<>();
+			ArrayList<String> selectedIdentifiers = new ArrayList<>();
+			for (MapArea selectedMapArea : selectedMapAreas) {
+				selectedMapAreasByIdentifier.put(selectedMapArea.getIdentifier(), selectedMapArea);
+				selectedIdentifiers.add(selectedMapArea.getIdentifier());
 			}
 
-			queryFormatter.addQueryPhrase(";");
-
-			logSQLQuery(
-					"getAllRelevantMapAreas",
-					queryFormatter,
-					geography.getName(),
-					geoLevelToMap.getName());
-
-			statement
-					= createPreparedStatement(
-					connection,
-					queryFormatter);
+			List<GeographyHierarchy.RelevantArea> relevantAreas
+					= geographyHierarchy.resolve(
+					geoLevelSelect.getName(),
+					geoLevelToMap.getName(),
+					selectedIdentifiers);
+			rifLogger.info(this.getClass(), "getAllRelevantMapAreas() resolved " + selectedMapAreas.size() +
+				" " + geoLevelSelect.getName() + " areas to " + relevantAreas.size() + " " +
+				geoLevelToMap.getName() + " areas in memory; geography: " + geography.getName());
 
-			resultSet = statement.executeQuery();
 			int i=1;
-			while (resultSet.next()) {
+			for (GeographyHierarchy.RelevantArea relevantArea : relevantAreas) {
 				String identifier
-						= resultSet.getString(1);
+						= relevantArea.getGid();
 				String geoLevelToMapName
-						= resultSet.getString(2);
+						= relevantArea.getMapAreaID();
 				String geoLevelSelectName
-						= resultSet.getString(3);
+						= relevantArea.getSelectAreaID();
 
-				intersectCount=0;
-				distanceFromNearestSource=0.0;
-				nearestRifShapePolyId=null;
-				exposureValue=0.0;
+				Integer intersectCount=0;
+				Double distanceFromNearestSource=0.0;
+				String nearestRifShapePolyId=null;
+				Double exposureValue=0.0;
 						
 				// Add band back		
 				int band=-1;
@@ -205,68 +119,30 @@ public final class MapDataManager extends BaseSQLManager {
 					band=0; /* Comparison area */
 				}
 				else if (isStudyArea) { // Risk analysis
-					if (bandHash.containsKey(geoLevelSelectName)) {
-						band=bandHash.get(geoLevelSelectName);
-					}
-					if (intersectCountHash.containsKey(geoLevelSelectName)) {
-						intersectCount=intersectCountHash.get(geoLevelSelectName);
-					}
-					if (distanceFromNearestSourceHash.containsKey(geoLevelSelectName)) {
-						distanceFromNearestSource=distanceFromNearestSourceHash.get(geoLevelSelectName);
+					MapArea selectedMapArea = selectedMapAreasByIdentifier.get(geoLevelSelectName);
+					if (selectedMapArea != null) {
+						if (selectedMapArea.getBand() != null) {
+							band=selectedMapArea.getBand();
+						}
+						intersectCount=selectedMapArea.getIntersectCount();
+						distanceFromNearestSource=selectedMapArea.getDistanceFromNearestSource();
+						nearestRifShapePolyId=selectedMapArea.getNearestRifShapePolyId();
+						exposureValue=selectedMapArea.getExposureValue();
 					}
-					if (nearestRifShapePolyIdHash.containsKey(geoLevelSelectName)) {
-						nearestRifShapePolyId=nearestRifShapePolyIdHash.get(geoLevelSelectName);
-					}	
-					if (exposureValueHash.containsKey(geoLevelSelectName)) {
-						exposureValue=exposureValueHash.get(geoLevelSelectName);
-					}					
 					if (band < 1) {
-						StringBuilder builder = new StringBuilder();
-						for (Map.Entry<String, Integer> entry : bandHash.entrySet()) {
-							String key = entry.getKey();
-							Integer value = entry.getValue();
-							builder.append("Key (areaid): " + key + "; value(band): " + value + lineSeparator);
-						}
-						rifLogger.info(this.getClass(), "bandHash: " + builder.toString());
-						
+						logSelectedMapAreas(selectedMapAreas);
 						throw new Exception("No valid band: " + band + "; found for study area selectedMapAreas: " + 
 							identifier + "; map: " + geoLevelToMapName + "; select: " + geoLevelSelectName + ")");
 					}
-					else if (intersectCount == 0 && distanceFromNearestSource == 0.0 && nearestRifShapePolyId == null) {
-						StringBuilder builder = new StringBuilder();
-						for (Map.Entry<String, Integer> entry : intersectCountHash.entrySet()) {
-							String key = entry.getKey();
-							Integer value = entry.getValue();
-							builder.append("Key (areaid): " + key + "; value(intersectCount): " + value + lineSeparator);
-						}
-						rifLogger.info(this.getClass(), "intersectCountHash: " + builder.toString());
-						builder = new StringBuilder();
-						for (Map.Entry<String, Double> entry : distanceFromNearestSourceHash.entrySet()) {
-							String key = entry.getKey();
-							Double value = entry.getValue();
-							builder.append("Key (areaid): " + key + "; value(distanceFromNearestSourceHash): " + value + lineSeparator);
-						}
-						rifLogger.info(this.getClass(), "distanceFromNearestSourceHash: " + builder.toString());
-						builder = new StringBuilder();
-						for (Map.Entry<String, String> entry : nearestRifShapePolyIdHash.entrySet()) {
-							String key = entry.getKey();
-							String value = entry.getValue();
-							builder.append("Key (areaid): " + key + "; value(nearestRifShapePolyIdHash): " + value + lineSeparator);
-						}
-						rifLogger.info(this.getClass(), "nearestRifShapePolyIdHash: " + builder.toString());
-						
+					else if (Integer.valueOf(0).equals(intersectCount) &&
+					         Double.valueOf(0.0).equals(distanceFromNearestSource) &&
+					         nearestRifShapePolyId == null) {
+						logSelectedMapAreas(selectedMapAreas);
 						throw new Exception("No valid intersectCount, distanceFromNearestSource and nearestRifShapePolyId; found for study area selectedMapAreas: " + 
 							identifier + "; map: " + geoLevelToMapName + "; select: " + geoLevelSelectName + ")");
 					}
 					else if (nearestRifShapePolyId == null) {
-						StringBuilder builder = new StringBuilder();
-						for (Map.Entry<String, String> entry : nearestRifShapePolyIdHash.entrySet()) {
-							String key = entry.getKey();
-							String value = entry.getValue();
-							builder.append("Key (areaid): " + key + "; value(nearestRifShapePolyIdHash): " + value + lineSeparator);
-						}
-						rifLogger.info(this.getClass(), "nearestRifShapePolyIdHash: " + builder.toString());
-						
+						logSelectedMapAreas(selectedMapAreas);
 						throw new Exception("No valid nearestRifShapePolyId; found for study area selectedMapAreas: " + 
 							identifier + "; map: " + geoLevelToMapName + "; select: " + geoLevelSelectName + ")");
 					}
@@ -312,12 +188,253 @@ public final class MapDataManager extends BaseSQLManager {
 					errorMessage);
 			throw rifServiceException;
 		}
+
+		return allRelevantMapAreas;
+	}
+
+	private void logSelectedMapAreas(final List<MapArea> selectedMapAreas) {
+
+		StringBuilder builder = new StringBuilder();
+		for (MapArea selectedMapArea : selectedMapAreas) {
+			builder.append("Key (areaid): " + selectedMapArea.getIdentifier() +
+				"; band: " + selectedMapArea.getBand() +
+				"; intersectCount: " + selectedMapArea.getIntersectCount() +
+				"; distanceFromNearestSource: " + selectedMapArea.getDistanceFromNearestSource() +
+				"; nearestRifShapePolyId: " + selectedMapArea.getNearestRifShapePolyId() +
+				"; exposureValue: " + selectedMapArea.getExposureValue() + lineSeparator);
+		}
+		rifLogger.info(this.getClass(), "selectedMapAreas: " + builder.toString());
+	}
+
+	/**
+	 * Get the geography hierarchy from the cache; loading it if it is not cached or the hierarchy
+	 * table has been recreated since it was loaded
+	 *
+	 * @param connection the connection
+	 * @param geography the geography
+	 * @return the geography hierarchy
+	 */
+	private GeographyHierarchy getGeographyHierarchy(
+			final Connection connection,
+			final Geography geography)
+			throws SQLException,
+			       RIFServiceException {
+
+		//Obtain geography table eg: sahsuland_geography
+		String mapAreaResolutionMappingTableName
+				= getMapAreaResolutionMappingAreaTableName(
+				connection,
+				geography);
+		long version = getTableVersion(connection, mapAreaResolutionMappingTableName);
+
+		GeographyHierarchy geographyHierarchy = GeographyHierarchy.getCached(
+				geography.getName(),
+				mapAreaResolutionMappingTableName,
+				version);
+		if (geographyHierarchy != null) {
+			return geographyHierarchy;
+		}
+
+		synchronized (GeographyHierarchy.getLoadLock(geography.getName())) { // Load each geography once
+			geographyHierarchy = GeographyHierarchy.getCached(
+					geography.getName(),
+					mapAreaResolutionMappingTableName,
+					version);
+			if (geographyHierarchy == null) {
+				long startMillis = System.currentTimeMillis();
+				geographyHierarchy = loadGeographyHierarchy(
+						connection,
+						geography,
+						mapAreaResolutionMappingTableName,
+						version);
+				GeographyHierarchy.cache(geographyHierarchy);
+				rifLogger.info(this.getClass(), "Loaded geography hierarchy: " + geography.getName() +
+					" from " + mapAreaResolutionMappingTableName + "; " + geographyHierarchy.getRowCount() +
+					" rows; version: " + version + "; " + (System.currentTimeMillis() - startMillis) + "ms");
+			}
+			return geographyHierarchy;
+		}
+	}
+
+	/**
+	 * Gets the object ID of a table. This changes when the table is dropped and recreated
+	 *
+	 * @param connection the connection
+	 * @param tableName the table name
+	 * @return the object ID; GeographyHierarchy.NO_VERSION if it is not known
+	 */
+	private long getTableVersion(
+			final Connection connection,
+			final String tableName)
+			throws SQLException,
+			       RIFServiceException {
+
+		SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();
+		if (rifDatabaseProperties.getDatabaseType() == DatabaseType.SQL_SERVER) {
+			queryFormatter.addQueryLine(0, "SELECT CAST(OBJECT_ID(?) AS BIGINT) AS object_id");
+		}
+		else {
+			queryFormatter.addQueryLine(0, "SELECT CAST(CAST(to_regclass(?) AS OID) AS BIGINT) AS object_id");
+		}
+
+		String qualifiedTableName = applySchemaDataPrefixIfNeeded(tableName);
+		logSQLQuery(
+				"getTableVersion",
+				queryFormatter,
+				qualifiedTableName);
+
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			statement
+					= createPreparedStatement(
+					connection,
+					queryFormatter);
+			statement.setString(1, qualifiedTableName);
+			resultSet = executeQuery("getTableVersion", statement);
+			if (resultSet.next()) {
+				long version = resultSet.getLong(1);
+				if (!resultSet.wasNull()) {
+					return version;
+				}
+			}
+		}
 		finally {
 			SQLQueryUtility.close(statement);
 			SQLQueryUtility.close(resultSet);
 		}
 
-		return allRelevantMapAreas;
+		rifLogger.warning(this.getClass(), "No object ID for: " + qualifiedTableName +
+			"; geography hierarchy will not be cached");
+		return GeographyHierarchy.NO_VERSION;
+	}
+
+	private GeographyHierarchy loadGeographyHierarchy(
+			final Connection connection,
+			final Geography geography,
+			final String mapAreaResolutionMappingTableName,
+			final long version)
+			throws SQLException,
+			       RIFServiceException {
+
+		LinkedHashMap<String, String> geoLevelLookupTableNames
+				= getGeoLevelLookupTableNames(
+				connection,
+				geography);
+		ArrayList<String> geoLevelNames = new ArrayList<>(geoLevelLookupTableNames.keySet());
+		GeographyHierarchy geographyHierarchy = new GeographyHierarchy(
+				geography.getName(),
+				mapAreaResolutionMappingTableName,
+				version,
+				geoLevelNames);
+
+		/*
+		 * Example:
+		 *
+		 * SELECT
+		 *    level1,level2,level3,level4 // all geolevels, in geolevel_id order
+		 * FROM
+		 *    mapAreaResolutionMappingTableName //eg: sahsuland_geography
+		 */
+		SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();
+		queryFormatter.addQueryLine(0, "SELECT ");
+		queryFormatter.addQueryPhrase(String.join(",", geoLevelNames));
+		queryFormatter.padAndFinishLine();
+		queryFormatter.addQueryLine(0, "FROM ");
+		queryFormatter.addQueryPhrase(
+				1,
+				applySchemaDataPrefixIfNeeded(mapAreaResolutionMappingTableName));
+
+		logSQLQuery(
+				"loadGeographyHierarchy",
+				queryFormatter,
+				geography.getName());
+
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			statement
+					= createPreparedStatement(
+					connection,
+					queryFormatter);
+			statement.setFetchSize(FETCH_SIZE);
+			resultSet = executeQuery("loadGeographyHierarchy", statement);
+			String[] areaIDs = new String[geoLevelNames.size()];
+			while (resultSet.next()) {
+				for (int i = 0; i < areaIDs.length; i++) {
+					areaIDs[i] = resultSet.getString(i + 1);
+				}
+				geographyHierarchy.addRow(areaIDs);
+			}
+		}
+		finally {
+			SQLQueryUtility.close(statement);
+			SQLQueryUtility.close(resultSet);
+		}
+		geographyHierarchy.index();
+
+		for (Map.Entry<String, String> geoLevelLookupTableName : geoLevelLookupTableNames.entrySet()) {
+			addGeoLevelGids(
+					connection,
+					geographyHierarchy,
+					geoLevelLookupTableName.getKey(),
+					geoLevelLookupTableName.getValue());
+		}
+		return geographyHierarchy;
+	}
+
+	private void addGeoLevelGids(
+			final Connection connection,
+			final GeographyHierarchy geographyHierarchy,
+			final String geoLevelName,
+			final String geoLevelLookupTableName)
+			throws SQLException,
+			       RIFServiceException {
+
+		/*
+		 * Example:
+		 *
+		 * SELECT
+		 *    level4,	// geolevel name
+		 *    gid
+		 * FROM
+		 *    geoLevelLookupTableName //eg: sahsu_grd_level4
+		 */
+		SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();
+		queryFormatter.addQueryLine(0, "SELECT ");
+		queryFormatter.addQueryPhrase(geoLevelName);
+		queryFormatter.addQueryPhrase(",gid");
+		queryFormatter.padAndFinishLine();
+		queryFormatter.addQueryLine(0, "FROM ");
+		queryFormatter.addQueryPhrase(
+				1,
+				applySchemaDataPrefixIfNeeded(geoLevelLookupTableName));
+
+		logSQLQuery(
+				"addGeoLevelGids",
+				queryFormatter,
+				geoLevelName);
+
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			statement
+					= createPreparedStatement(
+					connection,
+					queryFormatter);
+			statement.setFetchSize(FETCH_SIZE);
+			resultSet = executeQuery("addGeoLevelGids", statement);
+			while (resultSet.next()) {
+				int gid = resultSet.getInt(2);
+				if (!resultSet.wasNull()) {
+					geographyHierarchy.addGid(geoLevelName, resultSet.getString(1), gid);
+				}
+			}
+		}
+		finally {
+			SQLQueryUtility.close(statement);
+			SQLQueryUtility.close(resultSet);
+		}
 	}
 
 	private String getMapAreaResolutionMappingAreaTableName(
@@ -347,7 +464,7 @@ public final class MapDataManager extends BaseSQLManager {
 					connection,
 					queryFormatter);
 			statement.setString(1, geography.getName());
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getMapAreaResolutionMappingAreaTableName", statement);
 
 			resultSet.next();
 			result = resultSet.getString(1);
@@ -361,51 +478,47 @@ public final class MapDataManager extends BaseSQLManager {
 	}
 
 	/**
-	 * Gets the geo level lookup table name.
+	 * Gets the geo level lookup table names.
 	 *
 	 * @param connection the connection
 	 * @param geography the geography
-	 * @param resolutionLevel the resolution level
-	 * @return the geo level lookup table name
+	 * @return the geo level lookup table names, by geo level name in geolevel_id order
 	 * @throws RIFServiceException the RIF service exception
 	 */
-	private String getGeoLevelLookupTableName(
+	private LinkedHashMap<String, String> getGeoLevelLookupTableNames(
 			final Connection connection,
-			final Geography geography,
-			final String resolutionLevel)
+			final Geography geography)
 			throws SQLException,
 			       RIFServiceException {
 
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
-		String result;
+		LinkedHashMap<String, String> result = new LinkedHashMap<>();
 		try {
 
 			SelectQueryFormatter queryFormatter =
 					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
 			configureQueryFormatterForDB(queryFormatter);
+			queryFormatter.addSelectField("geolevel_name");
 			queryFormatter.addSelectField("lookup_table");
 			queryFormatter.addFromTable(applySchemaPrefixIfNeeded("rif40_geolevels"));
 			queryFormatter.addWhereParameter("geography");
-			queryFormatter.addWhereParameter("geolevel_name");
+			queryFormatter.addOrderByCondition("geolevel_id");
 
 			logSQLQuery(
-					"getGeoLevelLookupTableName",
+					"getGeoLevelLookupTableNames",
 					queryFormatter,
-					geography.getName(),
-					resolutionLevel);
+					geography.getName());
 
 			statement = createPreparedStatement(connection, queryFormatter);
 			statement.setString(1, geography.getName());
-			statement.setString(2, resolutionLevel);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getGeoLevelLookupTableNames", statement);
 			connection.commit();
 
-			// This method assumes that geoLevelSelect is valid
-			// Therefore, it must be associated with a lookup table
-			resultSet.next();
-
-			result = useAppropriateTableNameCase(resultSet.getString(1));
+			while (resultSet.next()) {
+				result.put(resultSet.getString(1).toLowerCase(),
+					useAppropriateTableNameCase(resultSet.getString(2)));
+			}
 		}
 		finally {
 			//Cleanup database resources
@@ -0,0 +1,635 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.util.RIFLogger;
+
+/**
+ * Bounded JDBC connection pool for one database role (read only or write), shared by all logged on users.
+ * <p>
+ * RIF connections are opened with the user's own database credentials and initialised by rif40_startup(),
+ * so a connection can only be re-used by the user who opened it. The pool therefore keeps the idle connections
+ * of each user separately, but bounds the total number of connections for all users as well as the number per
+ * user:
+ * <ul>
+ * <li>Connections are opened when needed rather than all at logon, and idle connections (other than the most
+ *     recently used one per user) are closed after the idle timeout;</li>
+ * <li>When the pool is full, the least recently used idle connection of another user is closed to make room,
+ *     otherwise the caller waits for up to the wait timeout. Waiters are woken whenever a connection is
+ *     returned or a user logs off; they are not served in arrival order (a returned idle connection can only be
+ *     re-used by its own user, and a caller arriving meanwhile may take a free slot first);</li>
+ * <li>Connections idle for more than 30 seconds are validated on checkout and replaced if dead; the read only
+ *     and auto commit session state is restored on checkout;</li>
+ * <li>Active, idle, checkout, wait and timeout statistics are available via JMX (RIFConnectionPoolMXBean) and
+ *     are logged periodically.</li>
+ * </ul>
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFConnectionPool implements RIFConnectionPoolMXBean {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final long VALIDATION_INTERVAL_MILLIS = 30000; // Validate connections idle for longer than this
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	private static final long EVICTION_INTERVAL_MILLIS = 60000;
+	private static final int MINIMUM_IDLE_CONNECTIONS_PER_USER = 1;
+	private static final int STATISTICS_LOG_INTERVAL = 10000; // Log statistics every n checkouts
+
+	/**
+	 * Opens a new connection for a user
+	 */
+	@FunctionalInterface
+	public interface ConnectionFactory {
+
+		Connection createConnection(boolean isFirstConnectionForUser) throws SQLException, RIFServiceException;
+	}
+
+	private final String name;
+	private final boolean isReadOnly;
+	private final int maxConnections;
+	private final int maxConnectionsPerUser;
+	private final long waitTimeoutMillis;
+	private final long idleTimeoutMillis;
+
+	private final ReentrantLock lock = new ReentrantLock(true /* Fair lock acquisition; not fair connection allocation */);
+	private final Condition connectionReturned = lock.newCondition();
+	// Guarded by lock
+	private final Map<String, UserConnections> users = new HashMap<>();
+	private final Map<Connection, String> loggedOutConnections = new IdentityHashMap<>(); // Active when user logged out
+	private int totalConnections = 0; // Idle, active and being opened
+	private long lastEvictionMillis = System.currentTimeMillis();
+	private long maxWaitNanos = 0;
+
+	private final AtomicLong checkouts = new AtomicLong(0);
+	private final AtomicLong waits = new AtomicLong(0);
+	private final AtomicLong waitNanos = new AtomicLong(0);
+	private final AtomicLong timeouts = new AtomicLong(0);
+	private final AtomicLong connectionsCreated = new AtomicLong(0);
+	private final AtomicLong connectionsClosed = new AtomicLong(0);
+	private final AtomicLong validationFailures = new AtomicLong(0);
+
+	/**
+	 * Connections of one user
+	 */
+	private static final class UserConnections {
+
+		private final ConnectionFactory connectionFactory;
+		private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>(); // Most recently used first
+		private final Map<Connection, PooledConnection> active = new IdentityHashMap<>();
+		private int openConnections = 0; // Idle, active and being opened
+
+		UserConnections(final ConnectionFactory connectionFactory) {
+			this.connectionFactory = connectionFactory;
+		}
+	}
+
+	private static final class PooledConnection {
+
+		private final Connection connection;
+		private long lastUsedMillis = System.currentTimeMillis();
+
+		PooledConnection(final Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name 						pool name, e.g. readOnly
+	 * @param isReadOnly 				read only connections
+	 * @param maxConnections 			maximum connections for all users
+	 * @param maxConnectionsPerUser 	maximum connections for each user
+	 * @param waitTimeoutMillis 		maximum time to wait for a connection
+	 * @param idleTimeoutMillis 		idle connections are closed after this time
+	 */
+	public RIFConnectionPool(
+		final String name,
+		final boolean isReadOnly,
+		final int maxConnections,
+		final int maxConnectionsPerUser,
+		final long waitTimeoutMillis,
+		final long idleTimeoutMillis) {
+
+		this.name = name;
+		this.isReadOnly = isReadOnly;
+		this.maxConnections = Math.max(1, maxConnections);
+		this.maxConnectionsPerUser = Math.max(1, Math.min(maxConnectionsPerUser, this.maxConnections));
+		this.waitTimeoutMillis = waitTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Register the pool statistics with JMX: org.sahsu.rif.services:type=ConnectionPool,name=&lt;name&gt;
+	 */
+	public void registerMBean() {
+		MBeanRegistration.register(this, "org.sahsu.rif.services:type=ConnectionPool,name=" + name,
+			name + " connection pool");
+	}
+
+	/**
+	 * Add user to the pool, opening the initial connections. The first connection is opened with
+	 * isFirstConnectionForUser set (rif40_startup() checks are run)
+	 *
+	 * @param userID 				user ID
+	 * @param connectionFactory 	opens connections for the user
+	 * @param initialConnections 	number of connections to open now
+	 *
+	 * @throws SQLException if a connection cannot be opened; the user is not added
+	 * @throws RIFServiceException if a connection cannot be opened; the user is not added
+	 */
+	public void addUser(
+		final String userID,
+		final ConnectionFactory connectionFactory,
+		final int initialConnections)
+			throws SQLException, RIFServiceException {
+
+		closeUser(userID);
+
+		List<Connection> connections = new ArrayList<>();
+		try {
+			for (int i = 0; i < initialConnections; i++) {
+				connections.add(connectionFactory.createConnection(i == 0 /* isFirstConnectionForUser */));
+				connectionsCreated.incrementAndGet();
+			}
+		}
+		catch (SQLException | RIFServiceException | RuntimeException exception) {
+			closeConnections(connections);
+			throw exception;
+		}
+
+		UserConnections userConnections = new UserConnections(connectionFactory);
+		lock.lock();
+		try {
+			for (Connection connection : connections) {
+				userConnections.idle.addLast(new PooledConnection(connection));
+			}
+			userConnections.openConnections = connections.size();
+			totalConnections += connections.size();
+			users.put(userID, userConnections);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checkout a connection for a user, waiting up to the wait timeout if the user or pool is at its limit
+	 *
+	 * @param userID 		user ID (the user must have been added)
+	 *
+	 * @return connection
+	 *
+	 * @throws SQLException if the user is not in the pool, on timeout or interrupt, or if a connection
+	 * 		cannot be opened
+	 * @throws RIFServiceException if a connection cannot be opened
+	 */
+	public Connection checkout(final String userID) throws SQLException, RIFServiceException {
+
+		long startNanos = System.nanoTime();
+		long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+		boolean waited = false;
+
+		while (true) {
+			List<Connection> connectionsToClose = new ArrayList<>();
+			UserConnections userConnections;
+			PooledConnection pooledConnection = null;
+
+			lock.lock();
+			try {
+				userConnections = users.get(userID);
+				if (userConnections == null) {
+					throw new SQLException("User: " + userID + " is not logged on to the " + name + " connection pool");
+				}
+				evictIdleConnections(connectionsToClose);
+
+				pooledConnection = userConnections.idle.pollFirst();
+				if (pooledConnection != null) {
+					userConnections.active.put(pooledConnection.connection, pooledConnection);
+				}
+				else {
+					if (userConnections.openConnections < maxConnectionsPerUser && totalConnections >= maxConnections) {
+						closeLeastRecentlyUsedIdleConnection(connectionsToClose);
+					}
+					if (userConnections.openConnections < maxConnectionsPerUser && totalConnections < maxConnections) {
+						userConnections.openConnections++; // Reserve
+						totalConnections++;
+					}
+					else {
+						long remainingNanos = deadlineNanos - System.nanoTime();
+						if (remainingNanos <= 0) {
+							timeouts.incrementAndGet();
+							throw new SQLException("Timed out after " + waitTimeoutMillis + "ms waiting for a " + name +
+								" connection for user: " + userID + "; " + getStatistics());
+						}
+						waited = true;
+						connectionReturned.awaitNanos(remainingNanos);
+						continue;
+					}
+				}
+			}
+			catch (InterruptedException interruptedException) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted waiting for a " + name + " connection for user: " + userID);
+			}
+			finally {
+				lock.unlock();
+				closeConnections(connectionsToClose);
+			}
+
+			if (pooledConnection != null) { // Idle connection
+				if (isUsable(pooledConnection)) {
+					recordCheckout(startNanos, waited);
+					return pooledConnection.connection;
+				}
+				validationFailures.incrementAndGet();
+				rifLogger.warning(getClass(), "Closing invalid " + name + " connection for user: " + userID);
+				discard(userConnections, pooledConnection.connection);
+				continue;
+			}
+
+			Connection connection = null; // Open a new connection in the reserved slot
+			boolean added = false;
+			try {
+				connection = userConnections.connectionFactory.createConnection(false);
+				connectionsCreated.incrementAndGet();
+				lock.lock();
+				try {
+					if (users.get(userID) == userConnections) { // Not closed by closeUser() meanwhile
+						userConnections.active.put(connection, new PooledConnection(connection));
+						added = true;
+					}
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+			finally {
+				if (!added) { // Release the reserved slot
+					discard(userConnections, connection);
+				}
+			}
+			if (!added) {
+				throw new SQLException("User: " + userID + " logged off the " + name +
+					" connection pool while a connection was being opened");
+			}
+			recordCheckout(startNanos, waited);
+			return connection;
+		}
+	}
+
+	/**
+	 * Return connection to the pool. Connections of logged out users and closed connections are closed
+	 *
+	 * @param userID 		user ID
+	 * @param connection 	connection from checkout()
+	 */
+	public void checkin(final String userID, final Connection connection) {
+
+		boolean close = false;
+		lock.lock();
+		try {
+			UserConnections userConnections = users.get(userID);
+			PooledConnection pooledConnection = (userConnections == null ? null :
+				userConnections.active.remove(connection));
+			if (pooledConnection == null) {
+				if (loggedOutConnections.remove(connection) != null) {
+					totalConnections--;
+				}
+				close = true;
+			}
+			else if (isClosed(connection)) {
+				userConnections.openConnections--;
+				totalConnections--;
+			}
+			else {
+				pooledConnection.lastUsedMillis = System.currentTimeMillis();
+				userConnections.idle.addFirst(pooledConnection);
+			}
+			connectionReturned.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		if (close) {
+			List<Connection> connections = new ArrayList<>();
+			connections.add(connection);
+			closeConnections(connections);
+		}
+	}
+
+	/**
+	 * Remove user from the pool: idle connections are closed now, active connections when they are returned
+	 *
+	 * @param userID 		user ID
+	 */
+	public void closeUser(final String userID) {
+
+		List<Connection> connectionsToClose = new ArrayList<>();
+		lock.lock();
+		try {
+			UserConnections userConnections = users.remove(userID);
+			if (userConnections == null) {
+				return;
+			}
+			for (PooledConnection pooledConnection : userConnections.idle) {
+				connectionsToClose.add(pooledConnection.connection);
+			}
+			totalConnections -= userConnections.idle.size();
+			for (Connection connection : userConnections.active.keySet()) {
+				loggedOutConnections.put(connection, userID);
+			}
+			connectionReturned.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		closeConnections(connectionsToClose);
+	}
+
+	/**
+	 * Does the pool have the user?
+	 *
+	 * @param userID 		user ID
+	 *
+	 * @return boolean
+	 */
+	public boolean hasUser(final String userID) {
+		lock.lock();
+		try {
+			return users.containsKey(userID);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	@Override
+	public int getMaxConnectionsPerUser() {
+		return maxConnectionsPerUser;
+	}
+
+	@Override
+	public int getUsers() {
+		lock.lock();
+		try {
+			return users.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getTotalConnections() {
+		lock.lock();
+		try {
+			return totalConnections;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getActiveConnections() {
+		lock.lock();
+		try {
+			int active = loggedOutConnections.size();
+			for (UserConnections userConnections : users.values()) {
+				active += userConnections.active.size();
+			}
+			return active;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getIdleConnections() {
+		lock.lock();
+		try {
+			int idle = 0;
+			for (UserConnections userConnections : users.values()) {
+				idle += userConnections.idle.size();
+			}
+			return idle;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getCheckouts() {
+		return checkouts.get();
+	}
+
+	@Override
+	public long getWaits() {
+		return waits.get();
+	}
+
+	@Override
+	public long getAverageWaitMillis() {
+		long waitCount = waits.get();
+		return (waitCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.get() / waitCount));
+	}
+
+	@Override
+	public long getMaxWaitMillis() {
+		lock.lock();
+		try {
+			return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getConnectionsCreated() {
+		return connectionsCreated.get();
+	}
+
+	@Override
+	public long getConnectionsClosed() {
+		return connectionsClosed.get();
+	}
+
+	@Override
+	public long getValidationFailures() {
+		return validationFailures.get();
+	}
+
+	@Override
+	public String getStatistics() {
+		return name + " connection pool: users: " + getUsers() +
+			"; connections: " + getTotalConnections() + "/" + maxConnections +
+			" (active: " + getActiveConnections() + "; idle: " + getIdleConnections() + ")" +
+			"; checkouts: " + checkouts.get() +
+			"; waits: " + waits.get() + " (average: " + getAverageWaitMillis() + "ms; max: " + getMaxWaitMillis() + "ms)" +
+			"; timeouts: " + timeouts.get() +
+			"; created: " + connectionsCreated.get() +
+			"; closed: " + connectionsClosed.get() +
+			"; validation failures: " + validationFailures.get();
+	}
+
+	/**
+	 * Validate a connection that has been idle for a while, and restore the session state
+	 */
+	private boolean isUsable(final PooledConnection pooledConnection) {
+		Connection connection = pooledConnection.connection;
+		try {
+			if (System.currentTimeMillis() - pooledConnection.lastUsedMillis > VALIDATION_INTERVAL_MILLIS &&
+				!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+				return false;
+			}
+			if (connection.getAutoCommit()) {
+				connection.setAutoCommit(false);
+			}
+			if (connection.isReadOnly() != isReadOnly) {
+				connection.setReadOnly(isReadOnly);
+			}
+			return true;
+		}
+		catch (SQLException sqlException) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove a checked out (or reserved, if connection is null) connection from the pool and close it
+	 */
+	private void discard(final UserConnections userConnections, final Connection connection) {
+		lock.lock();
+		try {
+			if (connection != null) {
+				userConnections.active.remove(connection);
+				loggedOutConnections.remove(connection);
+			}
+			userConnections.openConnections--;
+			totalConnections--;
+			connectionReturned.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		if (connection != null) {
+			List<Connection> connections = new ArrayList<>();
+			connections.add(connection);
+			closeConnections(connections);
+		}
+	}
+
+	/**
+	 * Close connections idle for longer than the idle timeout, keeping the most recently used one
+	 * per user. Runs at most once per EVICTION_INTERVAL_MILLIS. Must hold the lock
+	 */
+	private void evictIdleConnections(final List<Connection> connectionsToClose) {
+		long now = System.currentTimeMillis();
+		if (now - lastEvictionMillis < EVICTION_INTERVAL_MILLIS) {
+			return;
+		}
+		lastEvictionMillis = now;
+
+		for (UserConnections userConnections : users.values()) {
+			while (userConnections.idle.size() > MINIMUM_IDLE_CONNECTIONS_PER_USER &&
+				now - userConnections.idle.peekLast().lastUsedMillis > idleTimeoutMillis) {
+				connectionsToClose.add(userConnections.idle.pollLast().connection);
+				userConnections.openConnections--;
+				totalConnections--;
+			}
+		}
+	}
+
+	/**
+	 * Close the least recently used idle connection of any user to make room. Must hold the lock
+	 */
+	private void closeLeastRecentlyUsedIdleConnection(final List<Connection> connectionsToClose) {
+		UserConnections leastRecentlyUsed = null;
+		for (UserConnections userConnections : users.values()) {
+			PooledConnection oldest = userConnections.idle.peekLast();
+			if (oldest != null && (leastRecentlyUsed == null ||
+				oldest.lastUsedMillis < leastRecentlyUsed.idle.peekLast().lastUsedMillis)) {
+				leastRecentlyUsed = userConnections;
+			}
+		}
+		if (leastRecentlyUsed != null) {
+			connectionsToClose.add(leastRecentlyUsed.idle.pollLast().connection);
+			leastRecentlyUsed.openConnections--;
+			totalConnections--;
+		}
+	}
+
+	private void recordCheckout(final long startNanos, final boolean waited) {
+		if (waited) {
+			long waitTime = System.nanoTime() - startNanos;
+			waits.incrementAndGet();
+			waitNanos.addAndGet(waitTime);
+			lock.lock();
+			try {
+				maxWaitNanos = Math.max(maxWaitNanos, waitTime);
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+		if (checkouts.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0) {
+			rifLogger.info(getClass(), getStatistics());
+		}
+	}
+
+	private boolean isClosed(final Connection connection) {
+		try {
+			return connection.isClosed();
+		}
+		catch (SQLException sqlException) {
+			return true;
+		}
+	}
+
+	private void closeConnections(final List<Connection> connections) {
+		for (Connection connection : connections) {
+			try {
+				connection.close();
+			}
+			catch (SQLException sqlException) {
+				rifLogger.warning(getClass(), "Error closing " + name + " connection: " + sqlException.getMessage());
+			}
+			connectionsClosed.incrementAndGet();
+		}
+	}
+}
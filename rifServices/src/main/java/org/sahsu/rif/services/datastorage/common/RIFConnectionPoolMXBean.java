@@ -0,0 +1,46 @@
+package org.sahsu.rif.services.datastorage.common;
+
+/**
+ * JMX view of a RIFConnectionPool: org.sahsu.rif.services:type=ConnectionPool,name=&lt;readOnly|write&gt;
+ * <p>
+ * Visible in jconsole/VisualVM, or over HTTP via the Tomcat manager JMX proxy, e.g.
+ * /manager/jmxproxy?qry=org.sahsu.rif.services:type=ConnectionPool,*
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public interface RIFConnectionPoolMXBean {
+
+	String getName();
+
+	int getMaxConnections();
+
+	int getMaxConnectionsPerUser();
+
+	int getUsers();
+
+	int getTotalConnections();
+
+	int getActiveConnections();
+
+	int getIdleConnections();
+
+	long getCheckouts();
+
+	long getWaits();
+
+	long getAverageWaitMillis();
+
+	long getMaxWaitMillis();
+
+	long getTimeouts();
+
+	long getConnectionsCreated();
+
+	long getConnectionsClosed();
+
+	long getValidationFailures();
+
+	String getStatistics();
+}
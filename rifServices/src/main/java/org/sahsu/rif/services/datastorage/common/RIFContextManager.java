@@ -31,6 +31,8 @@ import org.sahsu.rif.services.system.RIFServiceStartupOptions;
 public class RIFContextManager extends BaseSQLManager {
 
     private static RIFServiceStartupOptions options = null;
+
+	private final RIFReferenceDataCache referenceDataCache;
     
 	/**
 	 * Instantiates a new SQLRIF context manager.
@@ -42,6 +44,7 @@ public class RIFContextManager extends BaseSQLManager {
 		if (rifDatabaseProperties == null) {
 			rifDatabaseProperties = options.getRIFDatabaseProperties();
 		}
+		referenceDataCache = RIFReferenceDataCache.getInstance(options);
 	}
 
 	/**
@@ -55,6 +58,15 @@ public class RIFContextManager extends BaseSQLManager {
 			final Connection connection)
 			throws RIFServiceException {
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key("getGeographies"),
+				() -> queryGeographies(connection)));
+	}
+
+	private ArrayList<Geography> queryGeographies(
+			final Connection connection)
+			throws RIFServiceException {
+
 		//Parameterise and execute query
 		PreparedStatement statement = null;
 		ResultSet dbResultSet = null;
@@ -79,7 +91,7 @@ public class RIFContextManager extends BaseSQLManager {
 					= createPreparedStatement(
 					connection,
 					queryFormatter);
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getGeographies", statement);
 			connection.commit();
 
 			while (dbResultSet.next()) {
@@ -139,6 +151,15 @@ public class RIFContextManager extends BaseSQLManager {
 				null,
 				null);
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key("getHealthThemes"),
+				() -> queryHealthThemes(connection)));
+	}
+
+	private ArrayList<HealthTheme> queryHealthThemes(
+			final Connection connection)
+			throws RIFServiceException {
+
 		PreparedStatement statement = null;
 		ResultSet dbResultSet = null;
 		ArrayList<HealthTheme> results = new ArrayList<HealthTheme>();
@@ -165,7 +186,7 @@ public class RIFContextManager extends BaseSQLManager {
 					= createPreparedStatement(
 					connection,
 					queryFormatter);
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getHealthThemes", statement);
 
 		
 			while (dbResultSet.next()) {
@@ -259,19 +280,20 @@ public class RIFContextManager extends BaseSQLManager {
 			queryFormatter.addFromTable(numeratorDenominatorTableName(user));
 			queryFormatter.addWhereParameter("numerator_table");
 
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = queryFormatter.generateQuery();
+			logSQLQuery(
 					"getNDPairFromNumeratorTableName",
-					queryFormatter,
+					sqlQueryText,
 					numeratorTableName);
 
 			//Parameterise and execute query
 			statement
 					= createPreparedStatement(
 					connection,
-					queryFormatter);
+					sqlQueryText);
 			statement.setString(1, numeratorTableName);
 
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getNDPairFromNumeratorTableName", statement);
 
 			while (dbResultSet.next()) {
 				String numeratorDescription = dbResultSet.getString(1);
@@ -375,6 +397,22 @@ public class RIFContextManager extends BaseSQLManager {
 				healthTheme,
 				null);
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"getNumeratorDenominatorPairs",
+						user.getUserID(),
+						geography.getDisplayName(),
+						healthTheme.getDescription()),
+				() -> queryNumeratorDenominatorPairs(connection, geography, healthTheme, user)));
+	}
+
+	private ArrayList<NumeratorDenominatorPair> queryNumeratorDenominatorPairs(
+			final Connection connection,
+			final Geography geography,
+			final HealthTheme healthTheme,
+			final User user)
+			throws RIFServiceException {
+
 		PreparedStatement statement = null;
 		ResultSet dbResultSet = null;
 		ArrayList<NumeratorDenominatorPair> results
@@ -394,9 +432,10 @@ public class RIFContextManager extends BaseSQLManager {
 			queryFormatter.addWhereParameter("theme_description");
 			queryFormatter.addWhereParameter("geography");
 
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = queryFormatter.generateQuery();
+			logSQLQuery(
 					"getNumeratorDenominatorPairs",
-					queryFormatter,
+					sqlQueryText,
 					healthTheme.getDescription(),
 					geography.getDisplayName());
 
@@ -404,11 +443,11 @@ public class RIFContextManager extends BaseSQLManager {
 			statement
 					= createPreparedStatement(
 					connection,
-					queryFormatter);
+					sqlQueryText);
 			statement.setString(1, healthTheme.getDescription());
 			statement.setString(2, geography.getDisplayName());
 
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getNumeratorDenominatorPairs", statement);
 			connection.commit();
 
 			while (dbResultSet.next()) {
@@ -496,6 +535,15 @@ public class RIFContextManager extends BaseSQLManager {
 				null,
 				null);
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key("getGeoLevelSelectValues", geography.getName()),
+				() -> queryGeoLevelSelectValues(connection, geography)));
+	}
+
+	private ArrayList<GeoLevelSelect> queryGeoLevelSelectValues(
+			final Connection connection,
+			final Geography geography)
+			throws RIFServiceException {
 
 		PreparedStatement getMaxGeoLevelIDStatement = null;
 		ResultSet getMaxGeoLevelIDResultSet = null;
@@ -533,7 +581,7 @@ public class RIFContextManager extends BaseSQLManager {
 
 			getMaxGeoLevelIDStatement.setString(1, geography.getName());
 			getMaxGeoLevelIDResultSet
-					= getMaxGeoLevelIDStatement.executeQuery();
+					= executeQuery("maximumGeoLevelIDQuery", getMaxGeoLevelIDStatement);
 			getMaxGeoLevelIDResultSet.next();
 			maximumGeoLevelID = getMaxGeoLevelIDResultSet.getInt(1);
 
@@ -574,7 +622,7 @@ public class RIFContextManager extends BaseSQLManager {
 
 			getGeoLevelSelectStatement.setInt(2, maximumGeoLevelID);
 
-			getGeoLevelSelectResultSet = getGeoLevelSelectStatement.executeQuery();
+			getGeoLevelSelectResultSet = executeQuery("getGeoLevelSelectValuesQuery", getGeoLevelSelectStatement);
 			connection.commit();
 
 			while (getGeoLevelSelectResultSet.next()) {
@@ -648,7 +696,7 @@ public class RIFContextManager extends BaseSQLManager {
 					connection,
 					queryFormatter);
 			statement.setString(1, geography.getName());
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getDefaultGeoLevelSelectValue", statement);
 			connection.commit();
 
 			if (dbResultSet.next() == false) {
@@ -715,6 +763,20 @@ public class RIFContextManager extends BaseSQLManager {
 				null,
 				geoLevelSelect);
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"getGeoLevelAreaValues",
+						geography.getName(),
+						geoLevelSelect.getName()),
+				() -> queryGeoLevelAreaValues(connection, geography, geoLevelSelect)));
+	}
+
+	private ArrayList<GeoLevelArea> queryGeoLevelAreaValues(
+			final Connection connection,
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect)
+			throws RIFServiceException {
+
 		ArrayList<GeoLevelArea> results = new ArrayList<GeoLevelArea>();
 
 		//First, obtain the name of the table that will contain the names of
@@ -755,7 +817,7 @@ public class RIFContextManager extends BaseSQLManager {
 			lookupTableStatement.setString(1, geography.getName());
 			lookupTableStatement.setString(2, geoLevelSelect.getName());
 
-			lookupTableResultSet = lookupTableStatement.executeQuery();
+			lookupTableResultSet = executeQuery("lookupTableQuery", lookupTableStatement);
 			if (lookupTableResultSet.next() == false) {
 				//ERROR: no areas available
 				throw rifServiceException;
@@ -791,7 +853,7 @@ public class RIFContextManager extends BaseSQLManager {
 					connection,
 					geographicAreaQueryFormatter);
 
-			geographicAreaResultSet = geographicAreaStatement.executeQuery();
+			geographicAreaResultSet = executeQuery("geographicAreaQuery", geographicAreaStatement);
 			connection.commit();
 			while (geographicAreaResultSet.next()) {
 				String identifier = geographicAreaResultSet.getString(1);
@@ -857,6 +919,20 @@ public class RIFContextManager extends BaseSQLManager {
 				null,
 				geoLevelSelect);
 
+		return new ArrayList<>(referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"getGeoLevelViewValues",
+						geography.getName(),
+						geoLevelSelect.getName()),
+				() -> queryGeoLevelViewValues(connection, geography, geoLevelSelect)));
+	}
+
+	private ArrayList<GeoLevelView> queryGeoLevelViewValues(
+			final Connection connection,
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect)
+			throws RIFServiceException {
+
 		PreparedStatement geoLevelIDStatement = null;
 		ResultSet geoLevelIDResultSet = null;
 		PreparedStatement geoLevelViewsStatement = null;
@@ -893,7 +969,7 @@ public class RIFContextManager extends BaseSQLManager {
 					geoLevelIDQueryFormatter);
 			geoLevelIDStatement.setString(1, geography.getName());
 			geoLevelIDStatement.setString(2, geoLevelSelect.getName());
-			geoLevelIDResultSet = geoLevelIDStatement.executeQuery();
+			geoLevelIDResultSet = executeQuery("geoLevelIDQuery", geoLevelIDStatement);
 			if (geoLevelIDResultSet.next() == false) {
 				//ERROR: no views available
 				throw rifServiceException;
@@ -931,7 +1007,7 @@ public class RIFContextManager extends BaseSQLManager {
 					geoLevelViewsQueryFormatter);
 			geoLevelViewsStatement.setString(1, geography.getName());
 			geoLevelViewsStatement.setInt(2, geoLevelID.intValue());
-			geoLevelViewsResultSet = geoLevelViewsStatement.executeQuery();
+			geoLevelViewsResultSet = executeQuery("geoLevelViewsQuery", geoLevelViewsStatement);
 			connection.commit();
 
 			while (geoLevelViewsResultSet.next()) {
@@ -1020,6 +1096,22 @@ public class RIFContextManager extends BaseSQLManager {
 			final String geographyName)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkGeographyExists",
+						geographyName),
+				() -> {
+					queryGeographyExists(connection, geographyName);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryGeographyExists(
+			final Connection connection,
+			final String geographyName)
+			throws RIFServiceException {
+
 
 		PreparedStatement checkGeographyExistsStatement = null;
 		ResultSet checkGeographyExistsResultSet = null;
@@ -1044,7 +1136,7 @@ public class RIFContextManager extends BaseSQLManager {
 					queryFormatter);
 			checkGeographyExistsStatement.setString(1, geographyName);
 			checkGeographyExistsResultSet
-					= checkGeographyExistsStatement.executeQuery();
+					= executeQuery("checkGeographyExists", checkGeographyExistsStatement);
 
 			if (!checkGeographyExistsResultSet.next()) {
 
@@ -1112,6 +1204,24 @@ public class RIFContextManager extends BaseSQLManager {
 			final String geoLevelSelectName)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkGeoLevelSelectExists",
+						geographyName,
+						geoLevelSelectName),
+				() -> {
+					queryGeoLevelSelectExists(connection, geographyName, geoLevelSelectName);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryGeoLevelSelectExists(
+			final Connection connection,
+			final String geographyName,
+			final String geoLevelSelectName)
+			throws RIFServiceException {
+
 		PreparedStatement checkGeoLevelViewExistsStatement = null;
 		ResultSet checkGeoLevelViewExistsResultSet = null;
 		try {
@@ -1143,7 +1253,7 @@ public class RIFContextManager extends BaseSQLManager {
 			checkGeoLevelViewExistsStatement.setString(2, geographyName);
 			//	checkGeoLevelViewExistsStatement.setInt(3, 1);
 			checkGeoLevelViewExistsResultSet
-					= checkGeoLevelViewExistsStatement.executeQuery();
+					= executeQuery("checkGeoLevelViewExistsQuery", checkGeoLevelViewExistsStatement);
 
 			if (checkGeoLevelViewExistsResultSet.next() == false) {
 				//ERROR: no such geography exists
@@ -1214,6 +1324,26 @@ public class RIFContextManager extends BaseSQLManager {
 			final String geoLevelAreaName)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkGeoLevelAreaExists",
+						geographyName,
+						geoLevelSelectName,
+						geoLevelAreaName),
+				() -> {
+					queryGeoLevelAreaExists(connection, geographyName, geoLevelSelectName, geoLevelAreaName);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryGeoLevelAreaExists(
+			final Connection connection,
+			final String geographyName,
+			final String geoLevelSelectName,
+			final String geoLevelAreaName)
+			throws RIFServiceException {
+
 		//Find the correct lookup table where all the areas will be listed
 		String unableToCheckGeoLevelArea
 				= RIFServiceMessages.getMessage("sqlRIFContextManager.error.unableToCheckGeoLevelAreaExists");
@@ -1252,7 +1382,7 @@ public class RIFContextManager extends BaseSQLManager {
 			getLookupTableStatement.setString(1, geographyName);
 			getLookupTableStatement.setString(2, geoLevelSelectName);
 			getLookupTableResultSet
-					= getLookupTableStatement.executeQuery();
+					= executeQuery("lookupTableQuery", getLookupTableStatement);
 			getLookupTableResultSet.next();
 			geoLevelSelectLookupTable = getLookupTableResultSet.getString(1);
 
@@ -1280,7 +1410,7 @@ public class RIFContextManager extends BaseSQLManager {
 					recordExistsQueryFormatter);
 			geoLevelAreaExistsStatement.setString(1, geoLevelAreaName);
 			geoLevelAreaExistsResultSet
-					= geoLevelAreaExistsStatement.executeQuery();
+					= executeQuery("checkGeoLevelSelectExistsQuery", geoLevelAreaExistsStatement);
 			if (!geoLevelAreaExistsResultSet.next()) {
 				String recordType
 						= RIFServiceMessages.getMessage("geoLevelArea.label");
@@ -1342,6 +1472,28 @@ public class RIFContextManager extends BaseSQLManager {
 			final boolean isToMapValue)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkGeoLevelToMapOrViewValueExists",
+						geographyName,
+						geoLevelSelectName,
+						geoLevelValueName,
+						String.valueOf(isToMapValue)),
+				() -> {
+					queryGeoLevelToMapOrViewValueExists(connection, geographyName, geoLevelSelectName, geoLevelValueName, isToMapValue);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryGeoLevelToMapOrViewValueExists(
+			final Connection connection,
+			final String geographyName,
+			final String geoLevelSelectName,
+			final String geoLevelValueName,
+			final boolean isToMapValue)
+			throws RIFServiceException {
+
 		PreparedStatement geoLevelIDStatement = null;
 		ResultSet geoLevelIDResultSet = null;
 		PreparedStatement geoLevelValueExistsStatement = null;
@@ -1389,7 +1541,7 @@ public class RIFContextManager extends BaseSQLManager {
 					geoLevelIDQueryFormatter);
 			geoLevelIDStatement.setString(1, geographyName);
 			geoLevelIDStatement.setString(2, geoLevelSelectName);
-			geoLevelIDResultSet = geoLevelIDStatement.executeQuery();
+			geoLevelIDResultSet = executeQuery("geoLevelIDQuery", geoLevelIDStatement);
 			if (!geoLevelIDResultSet.next()) {
 				//ERROR: no views available
 
@@ -1425,7 +1577,7 @@ public class RIFContextManager extends BaseSQLManager {
 			geoLevelValueExistsStatement.setString(3, geoLevelValueName);
 
 			geoLevelValueExistsResultSet
-					= geoLevelValueExistsStatement.executeQuery();
+					= executeQuery("geoLevelMapExistsQuery", geoLevelValueExistsStatement);
 			if (!geoLevelValueExistsResultSet.next()) {
 				//No such geolevel map exists
 				if (isToMapValue) {
@@ -1507,6 +1659,26 @@ public class RIFContextManager extends BaseSQLManager {
 			final boolean isToMapValue)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkGeoLevelToMapOrViewValueExists",
+						geographyName,
+						geoLevelValueName,
+						String.valueOf(isToMapValue)),
+				() -> {
+					queryGeoLevelToMapOrViewValueExists(connection, geographyName, geoLevelValueName, isToMapValue);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryGeoLevelToMapOrViewValueExists(
+			final Connection connection,
+			final String geographyName,
+			final String geoLevelValueName,
+			final boolean isToMapValue)
+			throws RIFServiceException {
+
 		RecordExistsQueryFormatter queryFormatter = RecordExistsQueryFormatter.getInstance(
 				rifDatabaseProperties.getDatabaseType());
 		configureQueryFormatterForDB(queryFormatter);
@@ -1549,7 +1721,7 @@ public class RIFContextManager extends BaseSQLManager {
 			statement.setString(1, geoLevelValueName);
 			statement.setString(2, geographyName);
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("checkGeoLevelToMapOrViewValueExists", statement);
 			connection.commit();
 			if (!resultSet.next()) {
 
@@ -1624,6 +1796,22 @@ public class RIFContextManager extends BaseSQLManager {
 			final String healthThemeDescription)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkHealthThemeExists",
+						healthThemeDescription),
+				() -> {
+					queryHealthThemeExists(connection, healthThemeDescription);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryHealthThemeExists(
+			final Connection connection,
+			final String healthThemeDescription)
+			throws RIFServiceException {
+
 		PreparedStatement checkHealthThemeExistsStatement = null;
 		ResultSet checkHealthThemeExistsResultSet = null;
 		try {
@@ -1645,7 +1833,7 @@ public class RIFContextManager extends BaseSQLManager {
 					queryFormatter);
 			checkHealthThemeExistsStatement.setString(1, healthThemeDescription);
 			checkHealthThemeExistsResultSet
-					= checkHealthThemeExistsStatement.executeQuery();
+					= executeQuery("checkHealthThemeExists", checkHealthThemeExistsStatement);
 			if (!checkHealthThemeExistsResultSet.next()) {
 				//ERROR: no such health theme exists
 				String recordType =
@@ -1712,6 +1900,24 @@ public class RIFContextManager extends BaseSQLManager {
 			final Geography geography, final NumeratorDenominatorPair ndPair)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkNDPairExists",
+						user.getUserID(),
+						geography.getName(),
+						ndPair.getNumeratorTableName(),
+						ndPair.getDenominatorTableName()),
+				() -> {
+					queryNDPairExists(user, connection, geography, ndPair);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryNDPairExists(final User user, final Connection connection,
+			final Geography geography, final NumeratorDenominatorPair ndPair)
+			throws RIFServiceException {
+
 		PreparedStatement getNDPairExistsStatement = null;
 		ResultSet getNDPairExistsResultSet = null;
         String sqlQueryText = null;
@@ -1725,9 +1931,10 @@ public class RIFContextManager extends BaseSQLManager {
 			ndPairExistsQueryFormatter.addWhereParameter("numerator_table");
 			ndPairExistsQueryFormatter.addWhereParameter("denominator_table");
 
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = ndPairExistsQueryFormatter.generateQuery();
+			logSQLQuery(
 					"ndPairExistsQuery",
-					ndPairExistsQueryFormatter,
+					sqlQueryText,
 					geography.getName(),
 					ndPair.getNumeratorTableName(),
 					ndPair.getDenominatorTableName());
@@ -1735,13 +1942,13 @@ public class RIFContextManager extends BaseSQLManager {
 			getNDPairExistsStatement
 					= createPreparedStatement(
 					connection,
-					ndPairExistsQueryFormatter);
+					sqlQueryText);
 			getNDPairExistsStatement.setString(1, geography.getName());
 			getNDPairExistsStatement.setString(2, ndPair.getNumeratorTableName());
 			getNDPairExistsStatement.setString(3, ndPair.getDenominatorTableName());
 
 			getNDPairExistsResultSet
-					= getNDPairExistsStatement.executeQuery();
+					= executeQuery("ndPairExistsQuery", getNDPairExistsStatement);
 			connection.commit();
 			if (!getNDPairExistsResultSet.next()) {
 				//no such ND pair exists
@@ -1809,6 +2016,26 @@ public class RIFContextManager extends BaseSQLManager {
 			final String numeratorTableName)
 			throws RIFServiceException {
 
+		// Only records that exist are cached
+		referenceDataCache.get(
+				RIFReferenceDataCache.key(
+						"checkNumeratorTableExists",
+						user.getUserID(),
+						geography.getName(),
+						numeratorTableName),
+				() -> {
+					queryNumeratorTableExists(user, connection, geography, numeratorTableName);
+					return Boolean.TRUE;
+				});
+	}
+
+	private void queryNumeratorTableExists(
+			final User user,
+			final Connection connection,
+			final Geography geography,
+			final String numeratorTableName)
+			throws RIFServiceException {
+
 		PreparedStatement getNDPairExistsStatement = null;
 		ResultSet getNDPairExistsResultSet = null;
         String sqlQueryText = null;
@@ -1821,21 +2048,22 @@ public class RIFContextManager extends BaseSQLManager {
 			queryFormatter.addWhereParameter("geography");
 			queryFormatter.addWhereParameter("numerator_table");
 
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = queryFormatter.generateQuery();
+			logSQLQuery(
 					"checkNumeratorTableExists",
-					queryFormatter,
+					sqlQueryText,
 					geography.getName(),
 					numeratorTableName);
 
 			getNDPairExistsStatement
 					= createPreparedStatement(
 					connection,
-					queryFormatter);
+					sqlQueryText);
 			getNDPairExistsStatement.setString(1, geography.getName());
 			getNDPairExistsStatement.setString(2, numeratorTableName);
 
 			getNDPairExistsResultSet
-					= getNDPairExistsStatement.executeQuery();
+					= executeQuery("checkNumeratorTableExists", getNDPairExistsStatement);
 			if (!getNDPairExistsResultSet.next()) {
 				String recordType
 						= RIFServiceMessages.getMessage("numeratorDenominatorPair.numerator.label");
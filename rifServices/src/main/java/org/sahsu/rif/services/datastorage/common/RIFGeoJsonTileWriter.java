@@ -0,0 +1,235 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+
+/**
+ * Streaming GeoJSON FeatureCollection writer for tiles.
+ * <p>
+ * Features are written with a Jackson JsonGenerator straight into a per thread byte buffer that is reused
+ * from tile to tile, rather than building an org.json object tree and converting it to a String and then
+ * to bytes. Geometries are written directly from the TopoJSON arcs by RIFTopoJsonDecoder. The resulting
+ * UTF-8 bytes are used for the tile cache file, the tile memory cache and the HTTP response.
+ * </p>
+ * <p>
+ * Usage: create in a try-with-resources block, writeFeature() for each feature, then toByteArray() once.
+ * close() returns the thread's buffer for re-use if toByteArray() is not reached (e.g. on a write error).
+ * Not thread safe; use one writer per tile.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFGeoJsonTileWriter implements AutoCloseable {
+
+	private static final JsonFactory jsonFactory = new JsonFactory(); // Thread safe once configured
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024; // Larger buffers are not kept per thread
+
+	private static final ThreadLocal<TileBuffer> tileBuffers = ThreadLocal.withInitial(TileBuffer::new);
+
+	private final TileBuffer buffer;
+	private final JsonGenerator generator;
+	private int featureCount = 0;
+	private boolean released = false;
+
+	/**
+	 * Reusable byte buffer
+	 */
+	private static final class TileBuffer extends ByteArrayOutputStream {
+
+		private boolean inUse = false;
+
+		TileBuffer() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		int capacity() {
+			return buf.length;
+		}
+	}
+
+	/**
+	 * Constructor; starts the FeatureCollection
+	 *
+	 * @throws IOException on write error
+	 */
+	public RIFGeoJsonTileWriter() throws IOException {
+		TileBuffer threadBuffer = tileBuffers.get();
+		if (threadBuffer.inUse) { // Nested writer on this thread
+			threadBuffer = new TileBuffer();
+		}
+		threadBuffer.reset();
+		threadBuffer.inUse = true;
+		buffer = threadBuffer;
+
+		try {
+			generator = jsonFactory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+			generator.writeStartObject();
+			generator.writeStringField("type", "FeatureCollection");
+			generator.writeArrayFieldStart("features");
+		}
+		catch (IOException | RuntimeException exception) {
+			close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Write feature decoding the geometry from TopoJSON
+	 *
+	 * @param properties 		Feature properties JSONObject
+	 * @param topoJsonDecoder 	RIFTopoJsonDecoder for the tile topology
+	 * @param topoJsonGeometry 	TopoJSON geometry object
+	 *
+	 * @return false, and nothing is written, if the geometry contains no polygons
+	 *
+	 * @throws JSONException on invalid TopoJSON
+	 * @throws IOException on write error
+	 */
+	public boolean writeFeature(
+		final JSONObject properties,
+		final RIFTopoJsonDecoder topoJsonDecoder,
+		final JSONObject topoJsonGeometry) throws JSONException, IOException {
+
+		if (!topoJsonDecoder.hasPolygons(topoJsonGeometry)) {
+			return false;
+		}
+		writeFeatureStart(properties);
+		topoJsonDecoder.writeGeoJsonGeometry(topoJsonGeometry, generator);
+		generator.writeEndObject();
+		featureCount++;
+		return true;
+	}
+
+	/**
+	 * Write feature with a GeoJSON geometry (e.g. the tile bounding box)
+	 *
+	 * @param properties 		Feature properties JSONObject
+	 * @param geometry 			GeoJSON geometry JSONObject
+	 *
+	 * @throws JSONException on invalid JSON
+	 * @throws IOException on write error
+	 */
+	public void writeFeature(
+		final JSONObject properties,
+		final JSONObject geometry) throws JSONException, IOException {
+
+		writeFeatureStart(properties);
+		writeValue(geometry);
+		generator.writeEndObject();
+		featureCount++;
+	}
+
+	/**
+	 * Number of features written
+	 *
+	 * @return int
+	 */
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	/**
+	 * End the FeatureCollection and return the tile. The writer cannot be used afterwards
+	 *
+	 * @return GeoJSON tile as UTF-8 bytes
+	 *
+	 * @throws IOException on write error
+	 */
+	public byte[] toByteArray() throws IOException {
+		try {
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.close();
+			return buffer.toByteArray();
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Release the thread's buffer for the next tile; called by toByteArray(). The writer cannot be used
+	 * afterwards. Can be called more than once
+	 */
+	@Override
+	public void close() {
+		if (!released) {
+			released = true;
+			buffer.inUse = false;
+			if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE && tileBuffers.get() == buffer) {
+				tileBuffers.remove();
+			}
+		}
+	}
+
+	boolean hasThreadBuffer() {
+		return tileBuffers.get() == buffer;
+	}
+
+	private void writeFeatureStart(final JSONObject properties) throws JSONException, IOException {
+		generator.writeStartObject();
+		generator.writeStringField("type", "Feature");
+		generator.writeFieldName("properties");
+		writeValue(properties);
+		generator.writeFieldName("geometry");
+	}
+
+	/**
+	 * Write org.json value
+	 */
+	private void writeValue(final Object value) throws JSONException, IOException {
+		if (value == null || value == JSONObject.NULL) {
+			generator.writeNull();
+		}
+		else if (value instanceof JSONObject) {
+			JSONObject object = (JSONObject)value;
+			generator.writeStartObject();
+			Iterator<?> keys = object.keys();
+			while (keys.hasNext()) {
+				String key = (String)keys.next();
+				generator.writeFieldName(key);
+				writeValue(object.get(key));
+			}
+			generator.writeEndObject();
+		}
+		else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray)value;
+			generator.writeStartArray();
+			for (int i = 0; i < array.length(); i++) {
+				writeValue(array.get(i));
+			}
+			generator.writeEndArray();
+		}
+		else if (value instanceof Boolean) {
+			generator.writeBoolean((Boolean)value);
+		}
+		else if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+				value instanceof Byte) {
+			generator.writeNumber(((Number)value).longValue());
+		}
+		else if (value instanceof BigInteger) {
+			generator.writeNumber((BigInteger)value);
+		}
+		else if (value instanceof BigDecimal) {
+			generator.writeNumber((BigDecimal)value);
+		}
+		else if (value instanceof Number) {
+			generator.writeNumber(((Number)value).doubleValue());
+		}
+		else {
+			generator.writeString(value.toString());
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * In memory cache for the rif40 reference data used to set up studies: geographies, geolevels, geolevel
+ * areas, health themes and numerator denominator pairs; and the results of checks that they exist.
+ * <p>
+ * These only change when the data loader publishes, so they are held for a time to live (property:
+ * referenceDataCacheTTLSeconds, default: 300; set to 0 to disable). The cache is versioned: invalidate()
+ * (e.g. via JMX, see RIFReferenceDataCacheMXBean) starts a new version, so all entries - including any
+ * being loaded at the time - are reloaded on their next use.
+ * </p>
+ * <p>
+ * Failed loads (including "does not exist" errors) are not cached.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFReferenceDataCache implements RIFReferenceDataCacheMXBean {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int DEFAULT_TTL_SECONDS = 300;
+	private static final int STATISTICS_LOG_INTERVAL = 1000; // Log statistics every n requests
+	private static final char KEY_SEPARATOR = '\u001f';
+
+	private static RIFReferenceDataCache rifReferenceDataCache = null;
+
+	/**
+	 * Loads a value from the database on a cache miss
+	 */
+	@FunctionalInterface
+	interface Loader<T> {
+		T load() throws RIFServiceException;
+	}
+
+	private static final class Entry {
+
+		private final Object value;
+		private final long version;
+		private final long expiresMillis;
+
+		private Entry(final Object value, final long version, final long expiresMillis) {
+			this.value = value;
+			this.version = version;
+			this.expiresMillis = expiresMillis;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final long timeToLiveMillis;
+	private final AtomicLong version = new AtomicLong(1);
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong requests = new AtomicLong(0);
+
+	/**
+	 * Get the shared cache; creating it, and registering it with JMX, on first use
+	 *
+	 * @param options RIFServiceStartupOptions for the time to live
+	 *
+	 * @return RIFReferenceDataCache
+	 */
+	public static synchronized RIFReferenceDataCache getInstance(final RIFServiceStartupOptions options) {
+		if (rifReferenceDataCache == null) {
+			int timeToLiveSeconds = DEFAULT_TTL_SECONDS;
+			try {
+				timeToLiveSeconds = options.getOptionalRIfServiceProperty("referenceDataCacheTTLSeconds",
+					DEFAULT_TTL_SECONDS);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFReferenceDataCache.class,
+					"Invalid referenceDataCacheTTLSeconds; using default: " + DEFAULT_TTL_SECONDS + "s");
+			}
+			rifReferenceDataCache = new RIFReferenceDataCache(TimeUnit.SECONDS.toMillis(timeToLiveSeconds));
+			MBeanRegistration.register(rifReferenceDataCache, "org.sahsu.rif.services:type=ReferenceDataCache",
+				"the reference data cache");
+		}
+		return rifReferenceDataCache;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param timeToLiveMillis 	how long entries are held; 0 disables the cache
+	 */
+	RIFReferenceDataCache(final long timeToLiveMillis) {
+		this.timeToLiveMillis = Math.max(0, timeToLiveMillis);
+		rifLogger.info(getClass(), "Reference data cache time to live: " +
+			TimeUnit.MILLISECONDS.toSeconds(this.timeToLiveMillis) + "s" +
+			(this.timeToLiveMillis == 0 ? " [disabled]" : ""));
+	}
+
+	/**
+	 * Make a cache key
+	 *
+	 * @param parts e.g. the method name and its parameter values
+	 *
+	 * @return key
+	 */
+	static String key(final String... parts) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				key.append(KEY_SEPARATOR);
+			}
+			key.append(parts[i]);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Get a value from the cache, loading it if it is not cached, has expired or is from an older version.
+	 * Callers must not modify the value; copy it first
+	 *
+	 * @param key 		from {@link #key(String...)}
+	 * @param loader 	loads the value from the database
+	 *
+	 * @return the value
+	 *
+	 * @throws RIFServiceException from the loader; nothing is cached
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T get(final String key, final Loader<T> loader) throws RIFServiceException {
+
+		if (requests.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0) {
+			rifLogger.info(getClass(), getStatistics());
+		}
+
+		long currentVersion = version.get();
+		Entry entry = entries.get(key);
+		if (entry != null &&
+		    entry.version == currentVersion &&
+		    entry.expiresMillis > System.currentTimeMillis()) {
+			hits.incrementAndGet();
+			return (T) entry.value;
+		}
+
+		misses.incrementAndGet();
+		T value = loader.load();
+		if (timeToLiveMillis > 0 && value != null) {
+			entries.put(key, new Entry(value, currentVersion, System.currentTimeMillis() + timeToLiveMillis));
+		}
+		return value;
+	}
+
+	/**
+	 * Remove all entries; they are reloaded on their next use
+	 */
+	@Override
+	public void invalidate() {
+		long newVersion = version.incrementAndGet();
+		entries.clear();
+		rifLogger.info(getClass(), "Reference data cache invalidated; version: " + newVersion);
+	}
+
+	@Override
+	public long getTimeToLiveSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(timeToLiveMillis);
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public int getEntries() {
+		return entries.size();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public long getHitRatePercent() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0 : (100 * hitCount) / total;
+	}
+
+	/**
+	 * Get cache statistics for logging
+	 *
+	 * @return String statistics
+	 */
+	public String getStatistics() {
+		return "Reference data cache: " + getEntries() + " entries" +
+			"; version: " + getVersion() +
+			"; hits: " + getHits() +
+			"; misses: " + getMisses() +
+			"; hit rate: " + getHitRatePercent() + "%";
+	}
+}
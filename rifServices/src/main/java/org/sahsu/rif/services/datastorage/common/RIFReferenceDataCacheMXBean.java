@@ -0,0 +1,28 @@
+package org.sahsu.rif.services.datastorage.common;
+
+/**
+ * JMX view of the RIFReferenceDataCache: org.sahsu.rif.services:type=ReferenceDataCache
+ * <p>
+ * Call invalidate() after the data loader publishes new geographies, health themes or numerator denominator
+ * pairs to reload them at once, rather than when they expire.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public interface RIFReferenceDataCacheMXBean {
+
+	long getTimeToLiveSeconds();
+
+	long getVersion();
+
+	int getEntries();
+
+	long getHits();
+
+	long getMisses();
+
+	long getHitRatePercent();
+
+	void invalidate();
+}
@@ -0,0 +1,498 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceError;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * Runs submitted studies with a limit on the number of studies running at once (in total and per user), so
+ * that many large studies submitted together do not saturate the database server and R.
+ * <p>
+ * Queued studies are run in submission order for each user, taking users in turn (round robin), so one user
+ * submitting many studies does not hold up everyone else.
+ * </p>
+ * <p>
+ * Queued studies are saved in &lt;extractDirectory&gt;/scratchspace/studyQueue until they start. Studies still
+ * queued when Tomcat stops are recovered at startup and re-queued the next time the user logs on (the user's
+ * database password is not saved). A study that cannot start when its turn comes (e.g. the user has logged
+ * off, so there is no write connection) is kept and re-queued the same way.
+ * </p>
+ * <p>
+ * Properties: maxConcurrentStudies (default: 2), maxConcurrentStudiesPerUser (default: 1)
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFStudyScheduler implements RIFStudySchedulerMXBean {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int MAX_CONCURRENT_STUDIES = 2;
+	private static final int MAX_CONCURRENT_STUDIES_PER_USER = 1;
+	private static final String QUEUE_FILE_EXTENSION = ".json";
+
+	private static RIFStudyScheduler rifStudyScheduler = null;
+
+	private final int maxConcurrentStudies;
+	private final int maxConcurrentStudiesPerUser;
+	private final Path queueDirectory; // May be null: no persistence
+	private final ThreadPoolExecutor executor;
+
+	// Guarded by this
+	private final LinkedHashMap<String, ArrayDeque<QueuedStudy>> queuedStudiesFromUser = new LinkedHashMap<>();
+	private final Map<String, Integer> runningStudiesFromUser = new HashMap<>();
+	private final Map<String, Long> lastStartedFromUser = new HashMap<>();
+	private final Map<String, List<JSONObject>> recoveredStudiesFromUser = new HashMap<>();
+	private int queuedStudies = 0;
+	private int runningStudies = 0;
+	private long sequence = 0;
+	private long startSequence = 0;
+	private long submittedStudies = 0;
+	private long completedStudies = 0;
+	private long totalQueueMillis = 0;
+	private long maxQueueMillis = 0;
+	private long totalRunMillis = 0;
+	private long maxRunMillis = 0;
+
+	/**
+	 * A study run by the scheduler
+	 */
+	@FunctionalInterface
+	public interface ScheduledStudy {
+
+		/**
+		 * Run the study
+		 *
+		 * @param started to be called once the study has what it needs to run (e.g. a write connection) and
+		 * 				  has started; the saved study is then deleted. If the study returns without calling it,
+		 * 				  the saved study is kept and re-queued the next time the user logs on
+		 */
+		void run(Runnable started);
+	}
+
+	private static final class QueuedStudy {
+
+		private final String userID;
+		private final String description;
+		private final ScheduledStudy study;
+		private final JSONObject savedStudy;
+		private final File queueFile;
+		private final long queuedMillis = System.currentTimeMillis();
+
+		QueuedStudy(
+			final String userID,
+			final String description,
+			final ScheduledStudy study,
+			final JSONObject savedStudy,
+			final File queueFile) {
+
+			this.userID = userID;
+			this.description = description;
+			this.study = study;
+			this.savedStudy = savedStudy;
+			this.queueFile = queueFile;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxConcurrentStudies 			maximum studies running at once
+	 * @param maxConcurrentStudiesPerUser 	maximum studies running at once for one user
+	 * @param queueDirectory 				queued study directory; null for no persistence
+	 */
+	RIFStudyScheduler(
+		final int maxConcurrentStudies,
+		final int maxConcurrentStudiesPerUser,
+		final Path queueDirectory) {
+
+		this.maxConcurrentStudies = Math.max(1, maxConcurrentStudies);
+		this.maxConcurrentStudiesPerUser = Math.max(1, Math.min(maxConcurrentStudiesPerUser,
+			this.maxConcurrentStudies));
+		this.queueDirectory = queueDirectory;
+
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		executor = new ThreadPoolExecutor(this.maxConcurrentStudies, this.maxConcurrentStudies,
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+				Thread thread = new Thread(runnable, "rif-study-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		executor.allowCoreThreadTimeOut(true);
+
+		recoverQueuedStudies();
+	}
+
+	/**
+	 * Get the study scheduler shared by all users, creating it on first use
+	 *
+	 * @param options RIFServiceStartupOptions for the limits and the extract directory
+	 *
+	 * @return RIFStudyScheduler
+	 */
+	public static synchronized RIFStudyScheduler getInstance(final RIFServiceStartupOptions options) {
+		if (rifStudyScheduler == null) {
+			int maxConcurrentStudies = MAX_CONCURRENT_STUDIES;
+			int maxConcurrentStudiesPerUser = MAX_CONCURRENT_STUDIES_PER_USER;
+			try {
+				maxConcurrentStudies = options.getOptionalRIfServiceProperty("maxConcurrentStudies",
+					MAX_CONCURRENT_STUDIES);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFStudyScheduler.class, "Invalid maxConcurrentStudies; using default: " +
+					MAX_CONCURRENT_STUDIES);
+			}
+			try {
+				maxConcurrentStudiesPerUser = options.getOptionalRIfServiceProperty("maxConcurrentStudiesPerUser",
+					MAX_CONCURRENT_STUDIES_PER_USER);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFStudyScheduler.class, "Invalid maxConcurrentStudiesPerUser; using default: " +
+					MAX_CONCURRENT_STUDIES_PER_USER);
+			}
+
+			Path queueDirectory = null;
+			try {
+				queueDirectory = new File(options.getExtractDirectory()).toPath().resolve("scratchspace").
+					resolve("studyQueue");
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFStudyScheduler.class, "Unable to get extract directory; queued studies " +
+					"will not be saved: " + exception.getMessage());
+			}
+
+			rifStudyScheduler = new RIFStudyScheduler(maxConcurrentStudies, maxConcurrentStudiesPerUser,
+				queueDirectory);
+			MBeanRegistration.register(rifStudyScheduler, "org.sahsu.rif.services:type=StudyScheduler",
+				"study scheduler");
+			rifLogger.info(RIFStudyScheduler.class, rifStudyScheduler.getStatistics());
+		}
+		return rifStudyScheduler;
+	}
+
+	/**
+	 * Queue a study, starting it at once if the limits allow
+	 *
+	 * @param userID 			user ID
+	 * @param description 		study description for logging
+	 * @param savedStudy 		study to save until it starts, so it can be re-queued after a restart or if
+	 * 							it cannot start (see getRecoveredStudies()); null if not to be saved
+	 * @param study 			the study
+	 *
+	 * @throws RIFServiceException if the study cannot be saved
+	 */
+	public void submit(
+		final String userID,
+		final String description,
+		final JSONObject savedStudy,
+		final ScheduledStudy study)
+			throws RIFServiceException {
+
+		File queueFile = null;
+		if (savedStudy != null && queueDirectory != null) {
+			savedStudy.put("userID", userID);
+			savedStudy.put("description", description);
+			queueFile = saveStudy(savedStudy);
+		}
+
+		synchronized (this) {
+			queuedStudiesFromUser.computeIfAbsent(userID, key -> new ArrayDeque<>()).
+				addLast(new QueuedStudy(userID, description, study, savedStudy, queueFile));
+			queuedStudies++;
+			submittedStudies++;
+			rifLogger.info(getClass(), "Queued study: " + description + " for user: " + userID + "; " +
+				getStatistics());
+			dispatch();
+		}
+	}
+
+	/**
+	 * Get (and remove) the studies of a user that were still queued when the RIF was last stopped, or that
+	 * could not be started. The caller re-submits them
+	 *
+	 * @param userID 		user ID
+	 *
+	 * @return list of saved studies (see submit()), in submission order; may be empty
+	 */
+	public List<JSONObject> getRecoveredStudies(final String userID) {
+
+		List<JSONObject> recoveredStudies;
+		synchronized (this) {
+			recoveredStudies = recoveredStudiesFromUser.remove(userID);
+		}
+		if (recoveredStudies == null) {
+			return new ArrayList<>();
+		}
+		for (JSONObject recoveredStudy : recoveredStudies) {
+			deleteQueueFile(new File(recoveredStudy.getString("queueFile")));
+			recoveredStudy.remove("queueFile");
+		}
+		return recoveredStudies;
+	}
+
+	@Override
+	public int getMaxConcurrentStudies() {
+		return maxConcurrentStudies;
+	}
+
+	@Override
+	public int getMaxConcurrentStudiesPerUser() {
+		return maxConcurrentStudiesPerUser;
+	}
+
+	@Override
+	public synchronized int getQueuedStudies() {
+		return queuedStudies;
+	}
+
+	@Override
+	public synchronized int getRunningStudies() {
+		return runningStudies;
+	}
+
+	@Override
+	public synchronized int getRecoveredStudies() {
+		int recoveredStudies = 0;
+		for (List<JSONObject> studies : recoveredStudiesFromUser.values()) {
+			recoveredStudies += studies.size();
+		}
+		return recoveredStudies;
+	}
+
+	@Override
+	public synchronized long getSubmittedStudies() {
+		return submittedStudies;
+	}
+
+	@Override
+	public synchronized long getCompletedStudies() {
+		return completedStudies;
+	}
+
+	@Override
+	public synchronized long getAverageQueueMillis() {
+		long startedStudies = completedStudies + runningStudies;
+		return (startedStudies == 0 ? 0 : totalQueueMillis / startedStudies);
+	}
+
+	@Override
+	public synchronized long getMaxQueueMillis() {
+		return maxQueueMillis;
+	}
+
+	@Override
+	public synchronized long getAverageRunMillis() {
+		return (completedStudies == 0 ? 0 : totalRunMillis / completedStudies);
+	}
+
+	@Override
+	public synchronized long getMaxRunMillis() {
+		return maxRunMillis;
+	}
+
+	@Override
+	public synchronized String getStatistics() {
+		return "Study scheduler: running: " + runningStudies + "/" + maxConcurrentStudies +
+			" (per user: " + maxConcurrentStudiesPerUser + ")" +
+			"; queued: " + queuedStudies +
+			"; recovered: " + getRecoveredStudies() +
+			"; submitted: " + submittedStudies +
+			"; completed: " + completedStudies +
+			"; queue time (average: " + getAverageQueueMillis() + "ms; max: " + maxQueueMillis + "ms)" +
+			"; run time (average: " + getAverageRunMillis() + "ms; max: " + maxRunMillis + "ms)";
+	}
+
+	/**
+	 * Start queued studies while the limits allow, taking users in turn (the user who least recently started
+	 * a study goes first). Must hold the lock
+	 */
+	private void dispatch() {
+
+		while (runningStudies < maxConcurrentStudies) {
+			// Choose the user below their limit who least recently started a study
+			String nextUserID = null;
+			long nextUserLastStarted = Long.MAX_VALUE;
+			for (String userID : queuedStudiesFromUser.keySet()) {
+				long lastStarted = lastStartedFromUser.getOrDefault(userID, 0L);
+				if (runningStudiesFromUser.getOrDefault(userID, 0) < maxConcurrentStudiesPerUser &&
+					lastStarted < nextUserLastStarted) {
+					nextUserID = userID;
+					nextUserLastStarted = lastStarted;
+				}
+			}
+			if (nextUserID == null) {
+				return; // Nothing can start
+			}
+
+			ArrayDeque<QueuedStudy> userQueue = queuedStudiesFromUser.get(nextUserID);
+			QueuedStudy queuedStudy = userQueue.pollFirst();
+			if (userQueue.isEmpty()) {
+				queuedStudiesFromUser.remove(nextUserID);
+			}
+			lastStartedFromUser.put(nextUserID, ++startSequence);
+
+			queuedStudies--;
+			runningStudies++;
+			runningStudiesFromUser.merge(queuedStudy.userID, 1, Integer::sum);
+			long queueMillis = System.currentTimeMillis() - queuedStudy.queuedMillis;
+			totalQueueMillis += queueMillis;
+			maxQueueMillis = Math.max(maxQueueMillis, queueMillis);
+
+			final QueuedStudy startedStudy = queuedStudy;
+			executor.execute(() -> run(startedStudy));
+		}
+	}
+
+	private void run(final QueuedStudy queuedStudy) {
+
+		rifLogger.info(getClass(), "Starting study: " + queuedStudy.description + " for user: " +
+			queuedStudy.userID);
+
+		AtomicBoolean started = new AtomicBoolean(false);
+		long startMillis = System.currentTimeMillis();
+		try {
+			queuedStudy.study.run(() -> {
+				if (started.compareAndSet(false, true) && queuedStudy.queueFile != null) {
+					deleteQueueFile(queuedStudy.queueFile);
+				}
+			});
+		}
+		catch (Exception exception) {
+			rifLogger.error(getClass(), "Study: " + queuedStudy.description + " for user: " +
+				queuedStudy.userID + " failed", exception);
+		}
+		finally {
+			long runMillis = System.currentTimeMillis() - startMillis;
+			synchronized (this) {
+				if (!started.get()) {
+					recoverStudy(queuedStudy);
+				}
+				runningStudies--;
+				runningStudiesFromUser.computeIfPresent(queuedStudy.userID,
+					(key, running) -> (running == 1 ? null : running - 1));
+				completedStudies++;
+				totalRunMillis += runMillis;
+				maxRunMillis = Math.max(maxRunMillis, runMillis);
+				rifLogger.info(getClass(), "Finished study: " + queuedStudy.description + " for user: " +
+					queuedStudy.userID + " in " + runMillis + "ms; " + getStatistics());
+				dispatch();
+			}
+		}
+	}
+
+	/**
+	 * Keep a study that could not be started, to be re-queued the next time the user logs on. Must hold
+	 * the lock
+	 */
+	private void recoverStudy(final QueuedStudy queuedStudy) {
+
+		if (queuedStudy.queueFile == null || !queuedStudy.queueFile.exists()) {
+			rifLogger.warning(getClass(), "Study: " + queuedStudy.description + " for user: " +
+				queuedStudy.userID + " could not be started and was not saved");
+			return;
+		}
+		queuedStudy.savedStudy.put("queueFile", queuedStudy.queueFile.getPath());
+		recoveredStudiesFromUser.computeIfAbsent(queuedStudy.userID, key -> new ArrayList<>()).
+			add(queuedStudy.savedStudy);
+		rifLogger.warning(getClass(), "Study: " + queuedStudy.description + " for user: " +
+			queuedStudy.userID + " could not be started; it will be re-queued when the user next logs on");
+	}
+
+	/**
+	 * Save a queued study as &lt;sequence&gt;.json; written to a temporary file and renamed so the file
+	 * is complete
+	 */
+	private File saveStudy(final JSONObject savedStudy) throws RIFServiceException {
+
+		long studySequence;
+		synchronized (this) {
+			studySequence = ++sequence;
+		}
+		File queueFile = queueDirectory.resolve(String.format("%012d", studySequence) + QUEUE_FILE_EXTENSION).
+			toFile();
+		File tmpFile = new File(queueFile.getPath() + ".tmp");
+		try {
+			Files.createDirectories(queueDirectory);
+			Files.write(tmpFile.toPath(), savedStudy.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmpFile.toPath(), queueFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioException) {
+			tmpFile.delete();
+			throw new RIFServiceException(
+				RIFServiceError.STUDY_QUEUE_ERROR,
+				"Unable to save queued study: " + queueFile.toString() + ": " + ioException.getMessage(),
+				ioException);
+		}
+		return queueFile;
+	}
+
+	/**
+	 * Read the studies saved in the queue directory by a previous run
+	 */
+	private void recoverQueuedStudies() {
+
+		if (queueDirectory == null) {
+			return;
+		}
+		File[] queueFiles = queueDirectory.toFile().listFiles();
+		if (queueFiles == null) {
+			return;
+		}
+		Arrays.sort(queueFiles); // Submission order
+
+		for (File queueFile : queueFiles) {
+			String fileName = queueFile.getName();
+			if (!fileName.endsWith(QUEUE_FILE_EXTENSION)) {
+				if (fileName.endsWith(".tmp")) { // Incomplete
+					deleteQueueFile(queueFile);
+				}
+				continue;
+			}
+			try {
+				sequence = Math.max(sequence, Long.parseLong(
+					fileName.substring(0, fileName.length() - QUEUE_FILE_EXTENSION.length())));
+				JSONObject recoveredStudy = new JSONObject(
+					new String(Files.readAllBytes(queueFile.toPath()), StandardCharsets.UTF_8));
+				recoveredStudy.put("queueFile", queueFile.getPath());
+				recoveredStudiesFromUser.computeIfAbsent(recoveredStudy.getString("userID"),
+					key -> new ArrayList<>()).add(recoveredStudy);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(getClass(), "Unable to recover queued study: " + queueFile.toString() + ": " +
+					exception.getMessage());
+			}
+		}
+		if (!recoveredStudiesFromUser.isEmpty()) {
+			rifLogger.info(getClass(), "Recovered queued studies for users: " + recoveredStudiesFromUser.keySet() +
+				"; they will be re-queued when the user next logs on");
+		}
+	}
+
+	private void deleteQueueFile(final File queueFile) {
+		if (queueFile.exists() && !queueFile.delete()) {
+			rifLogger.warning(getClass(), "Unable to delete queued study file: " + queueFile.toString());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package org.sahsu.rif.services.datastorage.common;
+
+/**
+ * JMX view of the RIFStudyScheduler: org.sahsu.rif.services:type=StudyScheduler
+ * <p>
+ * Visible in jconsole/VisualVM, or over HTTP via the Tomcat manager JMX proxy, e.g.
+ * /manager/jmxproxy?qry=org.sahsu.rif.services:type=StudyScheduler
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public interface RIFStudySchedulerMXBean {
+
+	int getMaxConcurrentStudies();
+
+	int getMaxConcurrentStudiesPerUser();
+
+	int getQueuedStudies();
+
+	int getRunningStudies();
+
+	int getRecoveredStudies();
+
+	long getSubmittedStudies();
+
+	long getCompletedStudies();
+
+	long getAverageQueueMillis();
+
+	long getMaxQueueMillis();
+
+	long getAverageRunMillis();
+
+	long getMaxRunMillis();
+
+	String getStatistics();
+}
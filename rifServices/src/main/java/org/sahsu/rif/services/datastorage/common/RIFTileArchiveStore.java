@@ -0,0 +1,740 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.system.RIFServiceError;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Packed tile store: one append only archive file per geolevel instead of a file per tile. This avoids hundreds
+ * of thousands of small files (and directory scans) for national geographies. The archive is:
+ * &lt;tiles directory&gt;/&lt;geography&gt;/&lt;geolevel&gt;/tiles.archive
+ * <p>
+ * Archive format: an 8 byte header ("RIFTILES"), followed by one record per tile: record magic (int), zoomlevel
+ * (int), x (int), y (int), file extension length (byte), file extension (ASCII), tile length (int; -1 for a
+ * removed tile), CRC32 of the tile (int) and the tile bytes.
+ * </p>
+ * <p>
+ * The index (tile to offset and length) is held in memory and is rebuilt by scanning the record headers when
+ * the archive is opened. Tiles are appended under an exclusive file lock so an archive can be shared by the tile
+ * generator and the web services, and a tile is only indexed once it is completely written. Incomplete records
+ * left by a crash are truncated when the archive is next opened or written, and a tile that fails its CRC
+ * check is treated as not cached. Reads are positional FileChannel reads, so they do not block each other.
+ * </p>
+ * <p>
+ * Reads and writes hold an archive's read lock; closing the archive (clearTiles(), close()) takes its write
+ * lock, so it waits for them to finish. A FileChannel is also closed if a thread using it is interrupted (e.g.
+ * by a tile generator shutdown); the archive is then evicted and re-opened on next use.
+ * </p>
+ * <p>
+ * When an archive is opened, tiles in the geolevel directory tree (from RIFTileDirectoryStore) are imported
+ * in bulk; the tile files are removed once the archive has been forced to disk.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTileArchiveStore implements RIFTileStore {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	public static final String ARCHIVE_FILE_NAME = "tiles.archive";
+
+	private static final byte[] ARCHIVE_HEADER = "RIFTILES".getBytes(StandardCharsets.US_ASCII);
+	private static final int RECORD_MAGIC = 0x52494654; // "RIFT"
+	private static final int RECORD_HEADER_SIZE = 17; // Magic, zoomlevel, x, y, file extension length
+	private static final int RECORD_TRAILER_SIZE = 8; // Tile length, CRC32
+	private static final int REMOVED_TILE = -1;
+
+	private final Path tilesDirectory;
+	private final ConcurrentHashMap<Path, TileArchive> archives = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param tilesDirectory 	tile cache directory: EXTRACT_DIRECTORY/scratchspace/tiles
+	 */
+	public RIFTileArchiveStore(final Path tilesDirectory) {
+		this.tilesDirectory = tilesDirectory;
+	}
+
+	@Override
+	public byte[] getTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		checkSlippyTile(slippyTile);
+		return withArchive(geography, geoLevel, RIFServiceError.TILE_CACHE_FILE_READ_ERROR, "reading",
+			archive -> archive.get(slippyTile, fileExtension));
+	}
+
+	@Override
+	public boolean containsTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		checkSlippyTile(slippyTile);
+		return withArchive(geography, geoLevel, RIFServiceError.TILE_CACHE_FILE_READ_ERROR, "reading",
+			archive -> archive.contains(slippyTile, fileExtension));
+	}
+
+	@Override
+	public void putTile(
+		final byte[] tile,
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		checkSlippyTile(slippyTile);
+		withArchive(geography, geoLevel, RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "writing",
+			archive -> {
+				archive.put(slippyTile, fileExtension, tile);
+				return null;
+			});
+	}
+
+	@Override
+	public boolean removeTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		checkSlippyTile(slippyTile);
+		return withArchive(geography, geoLevel, RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "writing",
+			archive -> archive.remove(slippyTile, fileExtension));
+	}
+
+	@Override
+	public boolean hasTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		return withArchive(geography, geoLevel, RIFServiceError.TILE_CACHE_FILE_READ_ERROR, "reading",
+			TileArchive::hasTiles);
+	}
+
+	/**
+	 * Remove all tiles for the geolevel: the archive is closed and deleted. It is re-created on next use
+	 */
+	@Override
+	public synchronized void clearTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		Path directory = getArchiveDirectory(geography, geoLevel);
+		File file = directory.resolve(ARCHIVE_FILE_NAME).toFile();
+		TileArchive archive = archives.remove(directory);
+		try {
+			if (archive != null) {
+				archive.close();
+			}
+			Files.deleteIfExists(file.toPath());
+		}
+		catch (IOException ioException) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+				"Error removing " + file.toString() + ": " + ioException.getMessage(), ioException);
+		}
+		rifLogger.info(getClass(), "Removed tile archive: " + file.toString());
+	}
+
+	/**
+	 * Close all open archives. They are re-opened (and re-indexed) on next use
+	 */
+	@Override
+	public synchronized void close() {
+		for (TileArchive archive : archives.values()) {
+			try {
+				archive.close();
+			}
+			catch (IOException ioException) {
+				rifLogger.warning(getClass(), "Error closing tile archive: " + archive.getFile().toString() +
+					": " + ioException.getMessage());
+			}
+		}
+		archives.clear();
+	}
+
+	/**
+	 * An operation on an archive
+	 */
+	@FunctionalInterface
+	private interface ArchiveOperation<T> {
+
+		T apply(TileArchive archive) throws IOException;
+	}
+
+	/**
+	 * Run an operation on the geolevel's archive. If the archive's channel has been closed (by an interrupted
+	 * read or write on any thread, or by clearTiles() or close()) the archive is evicted, and the operation
+	 * is retried once on a re-opened archive unless this thread has been interrupted
+	 */
+	private <T> T withArchive(
+		final String geography,
+		final String geoLevel,
+		final RIFServiceError error,
+		final String action,
+		final ArchiveOperation<T> operation)
+			throws RIFServiceException {
+
+		TileArchive archive = getArchive(geography, geoLevel);
+		try {
+			try {
+				return operation.apply(archive);
+			}
+			catch (ClosedChannelException closedChannelException) {
+				evict(archive);
+				if (Thread.currentThread().isInterrupted()) {
+					throw closedChannelException;
+				}
+				archive = getArchive(geography, geoLevel);
+				return operation.apply(archive);
+			}
+		}
+		catch (IOException ioException) {
+			throw new RIFServiceException(
+				error,
+				"Error " + action + " " + archive.getFile().toString() + ": " + ioException, ioException);
+		}
+	}
+
+	/**
+	 * Remove a closed archive (if it has not already been replaced), so that it is re-opened on next use
+	 */
+	private void evict(final TileArchive archive) {
+		if (archives.remove(archive.getDirectory(), archive)) {
+			rifLogger.warning(getClass(), "Tile archive closed; re-opening: " + archive.getFile().toString());
+		}
+		try {
+			archive.close();
+		}
+		catch (IOException ioException) {
+			rifLogger.warning(getClass(), "Error closing tile archive: " + archive.getFile().toString() +
+				": " + ioException.getMessage());
+		}
+	}
+
+	private static void checkSlippyTile(final SlippyTile slippyTile) throws RIFServiceException {
+		if (slippyTile == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL slippyTile specified, unable to open tile archive");
+		}
+	}
+
+	private TileArchive getArchive(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		Path directory = getArchiveDirectory(geography, geoLevel);
+		TileArchive archive = archives.get(directory);
+		if (archive == null) {
+			synchronized (this) {
+				archive = archives.get(directory);
+				if (archive == null) {
+					archive = new TileArchive(directory);
+					archives.put(directory, archive);
+				}
+			}
+		}
+		return archive;
+	}
+
+	private Path getArchiveDirectory(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		if (geography == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL geography specified, unable to open tile archive");
+		}
+		if (geoLevel == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL geoLevel specified, unable to open tile archive");
+		}
+		return tilesDirectory.resolve(geography).resolve(geoLevel);
+	}
+
+	private static String getTileKey(final int zoomlevel, final int x, final int y, final String fileExtension) {
+		return zoomlevel + "/" + x + "/" + y + "." + fileExtension;
+	}
+
+	private static int getCrc(final byte[] tile) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(tile, 0, tile.length);
+		return (int)crc32.getValue();
+	}
+
+	/**
+	 * Position, length and CRC32 of an archived tile
+	 */
+	private static final class TileEntry {
+
+		private final long position;
+		private final int length;
+		private final int crc;
+
+		TileEntry(final long position, final int length, final int crc) {
+			this.position = position;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+	/**
+	 * Archive file for a geolevel. Writes and index rebuilds are synchronized on the archive and hold a
+	 * file lock (there is one FileChannel per archive per JVM); reads are not synchronized. Every operation
+	 * holds the read lock (taken before the archive's monitor); close() takes the write lock
+	 */
+	private static final class TileArchive {
+
+		private final Path directory;
+		private final File file;
+		private final FileChannel channel;
+		private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+		private boolean closed = false; // Guarded by channelLock
+		private final ConcurrentHashMap<String, TileEntry> index = new ConcurrentHashMap<>();
+		private volatile long end; // End of the last complete record indexed
+
+		TileArchive(final Path directory) throws RIFServiceException {
+
+			this.directory = directory;
+			file = directory.resolve(ARCHIVE_FILE_NAME).toFile();
+			FileChannel fileChannel = null;
+			try {
+				if (!directory.toFile().exists()) {
+					rifLogger.info(RIFTileArchiveStore.class, "Creating tile cache directory: " + directory.toString());
+					directory.toFile().mkdirs();
+				}
+				fileChannel = FileChannel.open(file.toPath(),
+					StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+				channel = fileChannel;
+
+				synchronized (this) {
+					FileLock lock = channel.lock();
+					try {
+						if (channel.size() == 0) {
+							writeFully(ByteBuffer.wrap(ARCHIVE_HEADER), 0);
+						}
+						else {
+							ByteBuffer header = ByteBuffer.allocate(ARCHIVE_HEADER.length);
+							if (channel.size() < ARCHIVE_HEADER.length ||
+								!readFully(header, 0) ||
+								!Arrays.equals(header.array(), ARCHIVE_HEADER)) {
+								throw new IOException("not a RIF tile archive");
+							}
+						}
+						end = ARCHIVE_HEADER.length;
+						scan(true /* truncate */);
+						importTileDirectories(directory);
+					}
+					finally {
+						lock.release();
+					}
+				}
+				rifLogger.info(RIFTileArchiveStore.class, "Opened tile archive: " + file.toString() +
+					"; tiles: " + index.size() + "; size: " + end + " bytes");
+			}
+			catch (IOException ioException) {
+				if (fileChannel != null) {
+					try {
+						fileChannel.close();
+					}
+					catch (IOException closeException) {
+						rifLogger.warning(RIFTileArchiveStore.class, "Error closing tile archive: " + file.toString() +
+							": " + closeException.getMessage());
+					}
+				}
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_READ_ERROR,
+					"Error opening tile archive " + file.toString() + ": " + ioException.getMessage(), ioException);
+			}
+		}
+
+		Path getDirectory() {
+			return directory;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		byte[] get(final SlippyTile slippyTile, final String fileExtension) throws IOException {
+
+			String key = getTileKey(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(), fileExtension);
+			acquire();
+			try {
+				TileEntry entry = getEntry(key);
+				if (entry == null) {
+					return null;
+				}
+
+				ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+				if (!readFully(buffer, entry.position) || getCrc(buffer.array()) != entry.crc) {
+					rifLogger.warning(RIFTileArchiveStore.class, "Invalid tile: " + key + " in: " + file.toString() +
+						"; treated as not cached");
+					index.remove(key, entry);
+					return null;
+				}
+				rifLogger.info(RIFTileArchiveStore.class, fileExtension + " tile (" + entry.length +
+					" bytes) cache hit: " + file.toString() + ": " + key);
+				return buffer.array();
+			}
+			finally {
+				release();
+			}
+		}
+
+		boolean hasTiles() throws IOException {
+			acquire();
+			try {
+				if (index.isEmpty() && channel.size() > end) {
+					rescan();
+				}
+				return !index.isEmpty();
+			}
+			finally {
+				release();
+			}
+		}
+
+		boolean contains(final SlippyTile slippyTile, final String fileExtension) throws IOException {
+			acquire();
+			try {
+				return getEntry(getTileKey(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(),
+					fileExtension)) != null;
+			}
+			finally {
+				release();
+			}
+		}
+
+		void put(final SlippyTile slippyTile, final String fileExtension, final byte[] tile)
+				throws IOException {
+
+			String key = getTileKey(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(), fileExtension);
+			acquire();
+			try {
+				synchronized (this) {
+					FileLock lock = channel.lock();
+					try {
+						scan(true /* truncate */); // Pick up tiles appended by other processes
+						if (index.containsKey(key)) {
+							rifLogger.info(RIFTileArchiveStore.class, "Tile already cached: " + file.toString() +
+								": " + key);
+							return;
+						}
+						append(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(), fileExtension, tile);
+						rifLogger.info(RIFTileArchiveStore.class, "Cache tile(" + tile.length + " bytes): " +
+							file.toString() + ": " + key);
+					}
+					finally {
+						lock.release();
+					}
+				}
+			}
+			finally {
+				release();
+			}
+		}
+
+		boolean remove(final SlippyTile slippyTile, final String fileExtension) throws IOException {
+
+			String key = getTileKey(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(), fileExtension);
+			acquire();
+			try {
+				synchronized (this) {
+					FileLock lock = channel.lock();
+					try {
+						scan(true /* truncate */);
+						if (!index.containsKey(key)) {
+							return false;
+						}
+						append(slippyTile.getZoomlevel(), slippyTile.getX(), slippyTile.getY(), fileExtension, null);
+						return true;
+					}
+					finally {
+						lock.release();
+					}
+				}
+			}
+			finally {
+				release();
+			}
+		}
+
+		/**
+		 * Close the archive once the operations in progress have finished. Can be called more than once
+		 */
+		void close() throws IOException {
+			channelLock.writeLock().lock();
+			try {
+				if (!closed) {
+					closed = true;
+					channel.close();
+				}
+			}
+			finally {
+				channelLock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Take the read lock for an operation
+		 *
+		 * @throws ClosedChannelException if the archive has been closed
+		 */
+		private void acquire() throws ClosedChannelException {
+			channelLock.readLock().lock();
+			if (closed || !channel.isOpen()) {
+				channelLock.readLock().unlock();
+				throw new ClosedChannelException();
+			}
+		}
+
+		private void release() {
+			channelLock.readLock().unlock();
+		}
+
+		/**
+		 * Get index entry, re-scanning the archive if it has been appended to by another process
+		 */
+		private TileEntry getEntry(final String key) throws IOException {
+			TileEntry entry = index.get(key);
+			if (entry == null && channel.size() > end) {
+				rescan();
+				entry = index.get(key);
+			}
+			return entry;
+		}
+
+		/**
+		 * Index records appended by another process
+		 */
+		private synchronized void rescan() throws IOException {
+			FileLock lock = channel.lock(0, Long.MAX_VALUE, true /* shared */);
+			try {
+				scan(false /* Only writers truncate */);
+			}
+			finally {
+				lock.release();
+			}
+		}
+
+		/**
+		 * Index records from end. Must hold the file lock
+		 */
+		private void scan(final boolean truncate) throws IOException {
+
+			long size = channel.size();
+			long position = end;
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			while (position + RECORD_HEADER_SIZE <= size) {
+				header.clear();
+				if (!readFully(header, position)) {
+					break;
+				}
+				header.flip();
+				if (header.getInt() != RECORD_MAGIC) {
+					break;
+				}
+				int zoomlevel = header.getInt();
+				int x = header.getInt();
+				int y = header.getInt();
+				int fileExtensionLength = header.get() & 0xff;
+
+				long trailerPosition = position + RECORD_HEADER_SIZE;
+				if (trailerPosition + fileExtensionLength + RECORD_TRAILER_SIZE > size) {
+					break;
+				}
+				ByteBuffer trailer = ByteBuffer.allocate(fileExtensionLength + RECORD_TRAILER_SIZE);
+				if (!readFully(trailer, trailerPosition)) {
+					break;
+				}
+				trailer.flip();
+				byte[] fileExtension = new byte[fileExtensionLength];
+				trailer.get(fileExtension);
+				int length = trailer.getInt();
+				int crc = trailer.getInt();
+
+				long tilePosition = trailerPosition + fileExtensionLength + RECORD_TRAILER_SIZE;
+				if (length < REMOVED_TILE || tilePosition + Math.max(length, 0) > size) {
+					break;
+				}
+				String key = getTileKey(zoomlevel, x, y, new String(fileExtension, StandardCharsets.US_ASCII));
+				if (length == REMOVED_TILE) {
+					index.remove(key);
+				}
+				else {
+					index.put(key, new TileEntry(tilePosition, length, crc));
+				}
+				position = tilePosition + Math.max(length, 0);
+			}
+			end = position;
+
+			if (truncate && position < size) {
+				rifLogger.warning(RIFTileArchiveStore.class, "Truncating incomplete tile record at: " + position +
+					" in: " + file.toString() + "; size: " + size);
+				channel.truncate(position);
+			}
+		}
+
+		/**
+		 * Append tile record (null tile: removed). Must hold the file lock
+		 */
+		private void append(
+			final int zoomlevel,
+			final int x,
+			final int y,
+			final String fileExtension,
+			final byte[] tile) throws IOException {
+
+			byte[] fileExtensionBytes = fileExtension.getBytes(StandardCharsets.US_ASCII);
+			if (fileExtensionBytes.length > 255) {
+				throw new IOException("file extension too long: " + fileExtension);
+			}
+			int length = (tile == null ? REMOVED_TILE : tile.length);
+			int crc = (tile == null ? 0 : getCrc(tile));
+
+			ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + fileExtensionBytes.length +
+				RECORD_TRAILER_SIZE + Math.max(length, 0));
+			record.putInt(RECORD_MAGIC).putInt(zoomlevel).putInt(x).putInt(y);
+			record.put((byte)fileExtensionBytes.length).put(fileExtensionBytes);
+			record.putInt(length).putInt(crc);
+			if (tile != null) {
+				record.put(tile);
+			}
+			record.flip();
+
+			long position = end;
+			writeFully(record, position);
+			end = position + record.limit();
+
+			String key = getTileKey(zoomlevel, x, y, fileExtension);
+			if (tile == null) {
+				index.remove(key);
+			}
+			else {
+				index.put(key, new TileEntry(end - length, length, crc));
+			}
+		}
+
+		/**
+		 * Import &lt;zoomlevel&gt;/&lt;x&gt;/&lt;y&gt;.&lt;fileExtension&gt; tile files from the geolevel directory, then
+		 * remove them. Must hold the file lock
+		 */
+		private void importTileDirectories(final Path directory) throws IOException {
+
+			File[] zoomlevelDirectories = directory.toFile().listFiles(
+				candidate -> candidate.isDirectory() && isInteger(candidate.getName()));
+			if (zoomlevelDirectories == null || zoomlevelDirectories.length == 0) {
+				return;
+			}
+
+			List<File> importedFiles = new ArrayList<>();
+			List<File> importedDirectories = new ArrayList<>();
+			for (File zoomlevelDirectory : zoomlevelDirectories) {
+				File[] xDirectories = zoomlevelDirectory.listFiles(
+					candidate -> candidate.isDirectory() && isInteger(candidate.getName()));
+				if (xDirectories == null) {
+					continue;
+				}
+				for (File xDirectory : xDirectories) {
+					File[] tileFiles = xDirectory.listFiles(File::isFile);
+					if (tileFiles == null) {
+						continue;
+					}
+					for (File tileFile : tileFiles) {
+						String[] name = tileFile.getName().split("\\.");
+						if (name.length != 2 || !isInteger(name[0]) || tileFile.length() == 0) { // e.g. .json.tmp
+							continue;
+						}
+						int zoomlevel = Integer.parseInt(zoomlevelDirectory.getName());
+						int x = Integer.parseInt(xDirectory.getName());
+						int y = Integer.parseInt(name[0]);
+						if (!index.containsKey(getTileKey(zoomlevel, x, y, name[1]))) {
+							append(zoomlevel, x, y, name[1], Files.readAllBytes(tileFile.toPath()));
+						}
+						importedFiles.add(tileFile);
+					}
+					importedDirectories.add(xDirectory);
+				}
+				importedDirectories.add(zoomlevelDirectory);
+			}
+
+			channel.force(true); // Imported tiles are on disk before the tile files are removed
+			for (File importedFile : importedFiles) {
+				importedFile.delete();
+			}
+			for (File importedDirectory : importedDirectories) {
+				importedDirectory.delete(); // Only if empty
+			}
+			rifLogger.info(RIFTileArchiveStore.class, "Imported " + importedFiles.size() + " tiles from: " +
+				directory.toString() + " into: " + file.toString());
+		}
+
+		private boolean readFully(final ByteBuffer buffer, final long position) throws IOException {
+			long offset = position;
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, offset);
+				if (read < 0) {
+					return false;
+				}
+				offset += read;
+			}
+			return true;
+		}
+
+		private void writeFully(final ByteBuffer buffer, final long position) throws IOException {
+			long offset = position;
+			while (buffer.hasRemaining()) {
+				offset += channel.write(buffer, offset);
+			}
+		}
+
+		private static boolean isInteger(final String value) {
+			if (value.isEmpty()) {
+				return false;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				if (!Character.isDigit(value.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
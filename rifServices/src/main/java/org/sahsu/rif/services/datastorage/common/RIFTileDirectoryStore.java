@@ -0,0 +1,303 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.system.RIFServiceError;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tile store with one file per tile:
+ * &lt;tiles directory&gt;/&lt;geography&gt;/&lt;geolevel&gt;/&lt;zoomlevel&gt;/&lt;x&gt;/&lt;y&gt;.&lt;fileExtension&gt;
+ * <p>
+ * Tiles are written to .&lt;fileExtension&gt;.tmp and then renamed to ensure file creation is atomic. Directories
+ * are only created when a tile is written.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTileDirectoryStore implements RIFTileStore {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private final Path tilesDirectory;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tilesDirectory 	tile cache directory: EXTRACT_DIRECTORY/scratchspace/tiles
+	 */
+	public RIFTileDirectoryStore(final Path tilesDirectory) {
+		this.tilesDirectory = tilesDirectory;
+	}
+
+	@Override
+	public byte[] getTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		File file=getTileFile(geography, slippyTile, geoLevel, fileExtension);
+		if (file.exists()) {
+			rifLogger.info(getClass(), fileExtension + " tile (" + file.length() + " bytes) cache hit: " +
+				file.getAbsolutePath());
+			try {
+				return Files.readAllBytes(file.toPath());
+			}
+			catch (IOException ioException) {
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_READ_ERROR,
+					"Error reading " + file.toString() + ": " + ioException.getMessage(), ioException);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean containsTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		return getTileFile(geography, slippyTile, geoLevel, fileExtension).exists();
+	}
+
+	@Override
+	public void putTile(
+		final byte[] tile,
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		File tmpFile=getTileFile(geography, slippyTile, geoLevel, fileExtension + ".tmp");
+		File file=getTileFile(geography, slippyTile, geoLevel, fileExtension);
+		if (!file.exists() && !tmpFile.exists()) {
+			File directory=file.getParentFile();
+			if (!directory.exists()) {
+				rifLogger.info(getClass(), "Creating tile cache directory: " + directory.toString());
+				directory.mkdirs();
+			}
+
+			FileOutputStream stream = null;
+			try {
+				stream = new FileOutputStream(tmpFile);
+				stream.write(tile);
+			}
+			catch (IOException ioException) {
+				try {
+					if (tmpFile.exists()) {
+						tmpFile.delete();
+					}
+				}
+				catch (SecurityException securityException) {
+					throw new RIFServiceException(
+						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+						"Recursive error writing " + tmpFile.toString() + ": " + ioException.getMessage() +
+						"; 2nd error: " + securityException.getMessage(), securityException);
+				}
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+					"Error writing " + tmpFile.toString() + ": " + ioException.getMessage(), ioException);
+			}
+			finally {
+				try {
+					if (stream != null) {
+						stream.close();
+					}
+				}
+				catch (IOException ioException) {
+					try {
+						if (tmpFile.exists()) {
+							tmpFile.delete();
+						}
+					}
+					catch (SecurityException securityException) {
+						throw new RIFServiceException(
+							RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+							"Recursive error writing " + tmpFile.toString() + ": " + ioException.getMessage() +
+							"; 2nd error: " + securityException.getMessage(), securityException);
+					}
+					throw new RIFServiceException(
+						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+						"Error writing " + tmpFile.toString() + ": " + ioException.getMessage(), ioException);
+				}
+			}
+
+			if (!tmpFile.exists()) {
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+						"Temporary file: " + tmpFile.toString() + " does not exist");
+			}
+			else if (tmpFile.length() == 0) {
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+						"Temporary file: " + tmpFile.toString() + " is zero sized");
+			}
+
+			if (!file.exists()) {
+				try {
+					rifLogger.info(getClass(), "Cache tile(" + tmpFile.length() + " bytes): " + file.getAbsolutePath());
+					tmpFile.renameTo(file);
+				}
+				catch (Exception exception) {
+					try {
+						if (tmpFile.exists()) {
+							tmpFile.delete();
+						}
+					}
+					catch (SecurityException securityException) {
+						throw new RIFServiceException(
+							RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+							"Recursive error renaming: " + tmpFile.toString() + " to: " + file.toString() + ": " +
+							exception.getMessage() + "; 2nd error: " + securityException.getMessage(), securityException);
+					}
+					throw new RIFServiceException(
+						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+						"Error renaming: " + tmpFile.toString() + " to: " + file.toString() + ": " + exception.getMessage());
+				}
+			}
+		}
+		else if (tmpFile.exists()) {
+			rifLogger.info(getClass(), "Temporary tile(" + tmpFile.length() + " bytes) exists, cannot cache: " + file.getAbsolutePath());
+		}
+		else if (file.exists()) {
+			rifLogger.info(getClass(), "Tile(" + file.length() + " bytes) already cached: " + file.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public boolean removeTile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		File file=getTileFile(geography, slippyTile, geoLevel, fileExtension);
+		return file.exists() && file.delete();
+	}
+
+	@Override
+	public boolean hasTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		File[] zoomlevelDirectories = getZoomlevelDirectories(geography, geoLevel);
+		return zoomlevelDirectories != null && zoomlevelDirectories.length > 0;
+	}
+
+	@Override
+	public void clearTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		File[] zoomlevelDirectories = getZoomlevelDirectories(geography, geoLevel);
+		if (zoomlevelDirectories == null) {
+			return;
+		}
+		for (File zoomlevelDirectory : zoomlevelDirectories) {
+			try (Stream<Path> paths = Files.walk(zoomlevelDirectory.toPath())) {
+				for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.deleteIfExists(path);
+				}
+			}
+			catch (IOException ioException) {
+				throw new RIFServiceException(
+					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+					"Error removing " + zoomlevelDirectory.toString() + ": " + ioException.getMessage(), ioException);
+			}
+		}
+		rifLogger.info(getClass(), "Removed " + zoomlevelDirectories.length + " zoomlevels of tiles from: " +
+			tilesDirectory.resolve(geography).resolve(geoLevel).toString());
+	}
+
+	/**
+	 * Nothing to close: tile files are closed after each read or write
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Get the &lt;zoomlevel&gt; tile directories of a geolevel
+	 *
+	 * @param geography			geography String
+	 * @param geoLevel 			geolevel String
+	 *
+	 * @return File array; null if the geolevel directory does not exist
+	 *
+	 * @throws RIFServiceException on null parameters
+	 */
+	private File[] getZoomlevelDirectories(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		if (geography == null || geoLevel == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL geography or geoLevel specified, unable to create tile cache path");
+		}
+		return tilesDirectory.resolve(geography).resolve(geoLevel).toFile().listFiles(
+			candidate -> candidate.isDirectory() && candidate.getName().matches("[0-9]+"));
+	}
+
+	/**
+	 * Create File object for a tile. The file and its directory do NOT need to exist.
+	 *
+	 * @param geography			geography String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String
+	 * @param fileExtension		File extension: json, png or .tmp
+	 *
+	 * @return File: &lt;tiles directory&gt;/&lt;geography&gt;/&lt;geolevel&gt;/&lt;zoomlevel&gt;/&lt;x&gt;/&lt;y&gt;.&lt;fileExtension&gt;
+	 *
+	 * @throws RIFServiceException on null parameters
+	 */
+	public File getTileFile(
+		final String geography,
+		final SlippyTile slippyTile,
+		final String geoLevel,
+		final String fileExtension)
+			throws RIFServiceException {
+
+		if (geography == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL geography specified, unable to create tile cache path");
+		}
+		if (geoLevel == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL geoLevel specified, unable to create tile cache path");
+		}
+		if (slippyTile == null) {
+			throw new RIFServiceException(
+					RIFServiceError.INVALID_PARAMETER,
+					"NULL slippyTile specified, unable to create tile cache path");
+		}
+		return tilesDirectory.
+						resolve(geography).resolve(geoLevel).
+						resolve(Integer.toString(slippyTile.getZoomlevel())).
+						resolve(Integer.toString(slippyTile.getX())).
+						resolve(slippyTile.getY() + "." + fileExtension).toFile();
+	}
+}
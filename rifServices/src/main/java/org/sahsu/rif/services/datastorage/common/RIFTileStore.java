@@ -0,0 +1,133 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+/**
+ * Storage backend for the RIFTilesCache. Tiles are keyed on: geography, geolevel, zoomlevel, x, y and
+ * file extension (json or png) and held as encoded bytes (UTF-8 GeoJSON or raw PNG).
+ * <p>
+ * Implementations:
+ * <ul>
+ * <li>RIFTileDirectoryStore: one file per tile in EXTRACT_DIRECTORY/scratchspace/tiles/&lt;geography&gt;/&lt;geolevel&gt;/&lt;zoomlevel&gt;/&lt;x&gt;/&lt;y&gt;.&lt;fileExtension&gt;
+ *     (tileCacheStore=directory, the default);</li>
+ * <li>RIFTileArchiveStore: one packed, append only archive file per geolevel (tileCacheStore=archive).</li>
+ * </ul>
+ * Implementations must be thread safe, writes must be atomic (a partially written tile is never returned) and
+ * the first tile written wins.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public interface RIFTileStore {
+
+	/**
+	 * Get tile
+	 *
+	 * @param geography			geography String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String
+	 * @param fileExtension		File extension: json or png
+	 *
+	 * @return tile bytes, or null if not cached
+	 *
+	 * @throws RIFServiceException on read error
+	 */
+	byte[] getTile(
+			String geography,
+			SlippyTile slippyTile,
+			String geoLevel,
+			String fileExtension)
+		throws RIFServiceException;
+
+	/**
+	 * Is the tile cached?
+	 *
+	 * @param geography			geography String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String
+	 * @param fileExtension		File extension: json or png
+	 *
+	 * @return boolean
+	 *
+	 * @throws RIFServiceException on read error
+	 */
+	boolean containsTile(
+			String geography,
+			SlippyTile slippyTile,
+			String geoLevel,
+			String fileExtension)
+		throws RIFServiceException;
+
+	/**
+	 * Cache tile. An already cached tile is not replaced
+	 *
+	 * @param tile 				tile bytes
+	 * @param geography			geography String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String
+	 * @param fileExtension		File extension: json or png
+	 *
+	 * @throws RIFServiceException on write error
+	 */
+	void putTile(
+			byte[] tile,
+			String geography,
+			SlippyTile slippyTile,
+			String geoLevel,
+			String fileExtension)
+		throws RIFServiceException;
+
+	/**
+	 * Remove tile from the cache
+	 *
+	 * @param geography			geography String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String
+	 * @param fileExtension		File extension: json or png
+	 *
+	 * @return true if the tile was cached
+	 *
+	 * @throws RIFServiceException on write error
+	 */
+	boolean removeTile(
+			String geography,
+			SlippyTile slippyTile,
+			String geoLevel,
+			String fileExtension)
+		throws RIFServiceException;
+
+	/**
+	 * Are any tiles cached for the geolevel?
+	 *
+	 * @param geography			geography String
+	 * @param geoLevel 			geolevel String
+	 *
+	 * @return boolean
+	 *
+	 * @throws RIFServiceException on read error
+	 */
+	boolean hasTiles(
+			String geography,
+			String geoLevel)
+		throws RIFServiceException;
+
+	/**
+	 * Remove all tiles for the geolevel
+	 *
+	 * @param geography			geography String
+	 * @param geoLevel 			geolevel String
+	 *
+	 * @throws RIFServiceException on write error
+	 */
+	void clearTiles(
+			String geography,
+			String geoLevel)
+		throws RIFServiceException;
+
+	/**
+	 * Release any open files. The store may still be used afterwards
+	 */
+	void close();
+}
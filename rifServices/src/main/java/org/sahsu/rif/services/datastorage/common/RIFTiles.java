@@ -1,5 +1,6 @@
 package org.sahsu.rif.services.datastorage.common;
 
+import com.vividsolutions.jts.geom.Geometry;
 import org.apache.commons.collections.IteratorUtils;
 
 import org.json.JSONArray;
@@ -7,19 +8,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.sahsu.rif.generic.datastorage.RIFSQLException;
 import org.sahsu.rif.generic.datastorage.SQLQueryUtility;
+import org.sahsu.rif.generic.datastorage.SQLGeneralQueryFormatter;
 import org.sahsu.rif.generic.datastorage.SelectQueryFormatter;
 import org.sahsu.rif.generic.datastorage.ms.MSSQLSelectQueryFormatter;
 import org.sahsu.rif.generic.system.RIFServiceException;
 import org.sahsu.rif.generic.util.RIFLogger;
 import org.sahsu.rif.services.datastorage.common.BaseSQLManager;
 import org.sahsu.rif.services.datastorage.common.RIFTilesCache;
-import org.sahsu.rif.services.datastorage.common.RifWellKnownText;
 import org.sahsu.rif.services.system.RIFServiceError;
 import org.sahsu.rif.services.system.RIFServiceStartupOptions;
 import org.sahsu.rif.services.graphics.SlippyTile;
 import org.sahsu.rif.services.graphics.RIFPdfTiles;
 
-import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -27,6 +28,13 @@ import java.sql.SQLException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Create PNG tiles for geolevels with more than 5000 areas.
@@ -42,10 +50,11 @@ public class RIFTiles  extends BaseSQLManager {
 
 	private static final String NULL_GEOJSON_TILE="{\"features\":[],\"type\":\"FeatureCollection\"}\";";
 	private static final String NULL_TOPOJSON_TILE="{\"type\": \"FeatureCollection\",\"features\":[]}";
+	private static final int TILE_FETCH_SIZE = 100; // TopoJSON tiles per fetch when generating tiles
 	 
-	private static RifWellKnownText rifWellKnownText = null;
 	private static RIFTilesCache rifTilesCache = null;
 	private static RIFPdfTiles rifPdfTiles = null;
+	private volatile boolean stopGeneration = false;
 	
 	/**
 	 * Constructor
@@ -57,7 +66,6 @@ public class RIFTiles  extends BaseSQLManager {
 	public RIFTiles(final RIFServiceStartupOptions options) {
 		super(options);	
 		try {		
-			rifWellKnownText = new RifWellKnownText();
 			rifTilesCache = new RIFTilesCache(options);
 			rifPdfTiles = new RIFPdfTiles(options);
 		}
@@ -71,206 +79,231 @@ public class RIFTiles  extends BaseSQLManager {
 	/** 
 	 * Convert TopoJSON to GeoJSON
 	 * <p>	 
-	 * [Store result in <myTileTable>.optimised_geojson is the column exists and is NOT NULL] - Maybe
-	 * As there is no Java way of converting TopoJSON to GeoJSON like topojson.feature(topology, object)
-	 * https://github.com/topojson/topojson-client/blob/master/README.md#feature
-	 * Various Java libraries are immature, unmaintained and undocumented.
-	 * GDAL can convert, but again it is not documented, especially GDAL Java.
+	 * The TopoJSON tile is decoded directly by RIFTopoJsonDecoder, as topojson.feature(topology, object)
+	 * does in the front end: https://github.com/topojson/topojson-client/blob/master/README.md#feature
+	 * Geometries are decoded one at a time from the shared arcs; there is no <myGeometryTable> lookup.
+	 * Features are streamed by RIFGeoJsonTileWriter into a reused buffer; no GeoJSON object tree is built.
 	 *
-	 * The chosen method here is to populate <myTileTable>.optimised_geojson by parsing the area_ids from
-	 * the topoJSON properties and then fetching the GeoJSON from <myGeometryTable>.
-	 *
-	 * This will eventually be done by the tileMaker.
-	 *
-	 * Called from: ResultsQueryManager.java; needs to determine minZoomlevel and maxZoomlevel
+	 * Called from: ResultsQueryManager.java and RIFTiles.java generateTiles()
 	 * </p>
 	 *
-	 * @param connection			JDBC Connection
-	 * @param tileTopoJson			JSONObject of tile GeoJSON
-	 * @param geography				Uppercase String
+	 * @param tileTopoJson			JSONObject of tile TopoJSON
+	 * @param geography      	  	Geography as a uppercase String
 	 * @param slippyTile 			SlippyTile (zoomlevel, x, y)
-	 * @param hmap 					HashMap<String, String>; hashes are "topoJSON", "tileTable" and "geometryTable"
-	 * @param geoLevel 				Uppercase String
+	 * @param geoLevel     	     	Geolevel as an uppercase String
 	 * @param addBoundingBoxToTile 	Add bounding box as an additional feature for debug purposes
 	 *
-	 * @return GeoJSON as JSONObject
+	 * @return GeoJSON as UTF-8 bytes
 	 *
 	 * @throws RIFServiceException RIF error
-	 * @throws RIFSQLException RIF SQL error
 	 * @throws JSONException Error manipulating JSON
-     */		
-	 	public JSONObject topoJson2geoJson(
-		final Connection connection,
-		final JSONObject tileTopoJson, 
-		final String geography,
-		final SlippyTile slippyTile, 
-		final HashMap<String, String> hmap,
-		final String geoLevel, 
-		final boolean addBoundingBoxToTile)
-			throws RIFSQLException, JSONException, RIFServiceException, SQLException
-	{
-		String myGeometryTable = hmap.get("geometryTable");
-		PreparedStatement statement2 = null;
-		ResultSet resultSet2 = null;
-		
-		SelectQueryFormatter generateTilesForGeoLevelQueryFormatter2
-				= new MSSQLSelectQueryFormatter();	
-				
-		//Get the min and max zoomlevel in the geometry table
-		/*
-		SELECT MIN(zoomlevel) AS min_zoomlevel, MAX(zoomlevel) AS max_zoomlevel
-		  FROM rif_data.geometry_ews2011, rif_data.geometry_ews2011
-		 WHERE rif_data.geometry_ews2011.geolevel_id = rif40.rif40_geolevels.geolevel_id
-		   AND rif40.rif40_geolevels.geolevel_name = 'COA2011';
-		  */
+     */	
+	/* Generated GeoJSON in Json5 format:
+	 *
+	 * {
+	 * 	"features": [{
+	 * 			"geometry": {
+	 * 				"coordinates": [[[[-7.2447, 54.3752], [-7.2332, 54.3759], [-7.2339, 54.3767], [-7.2326, 54.3772], ... ]]]
+	 * 				"type": "MultiPolygon"
+	 *			},
+	 *			"type": "Feature",
+	 *			"properties": {
+	 *				"gid": 0,
+	 *				"SAHSU_GRD_LEVEL1": "01",
+	 *				"zoomlevel": 0,
+	 *				"name": "BBOX",
+	 *				"geographic_centroid": {
+	 *					"coordinates": [-6.30097, 54.1803],
+	 *					"type": "Point"
+	 *				},
+	 *				"x": 0,
+	 *				"y": 0,
+	 *				"area_id": "BBOX"
+	 *			}
+	 *		}, { ...
+	 *	 }
+	 *		 	],
+	 *	"type": "FeatureCollection"
+	 * }
+	 *
+	 * Source TopoJSON in Json5 format:
+	 *
+	 *		{
+	 *			"transform": {
+	 *				"scale": [1.2645986036803175E-4, 1.964578552911635E-4],
+	 *				"translate": [-6.151058640054187, 53.198324512334224]
+	 *			},
+	 *			"objects": {
+	 *				"collection": {
+	 *					"type": "GeometryCollection",
+	 *					"bbox": [-8.649433731630149, 49.87112937372648, 1.7627739932037385, 60.84572000540925],
+	 *					"geometries": [{
+	 *							"type": "GeometryCollection",
+	 *							"properties": {
+	 *								"gid": 1,
+	 *								"area_id": "UK",
+	 *								"name": "United_Kingdom",
+	 *								"geographic_centroid": {
+	 *									"type": "Point",
+	 *									"coordinates": [-4.03309, 55.8001]
+	 *								},
+	 *								"x": 0,
+	 *								"y": 0,
+	 *								"SCNTRY2011": "UK",
+	 *								"zoomlevel": 0
+	 *							},
+	 *							"id": 1,
+	 *							"geometries": [{
+	 *									"type": "Polygon",
+	 *									"arcs": [[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15]]
+	 *								}, ...
+	 *							]
+	 *						}
+	 *					],
+	 *						...
+	 *				}
+	 *			},
+	 *			"bbox": [-6.151058640054187, 53.198324512334224, -4.886586496234238, 55.16270660739057],
+	 *			"type": "Topology",
+	 *			"arcs": [[[95, 7301], ... ]]
+	 *		}				
+	 */			
+	public byte[] topoJson2geoJson(
+			final JSONObject tileTopoJson,
+			final String geography,
+			final SlippyTile slippyTile, 
+			final String geoLevel,
+			final boolean addBoundingBoxToTile)
+			throws JSONException, RIFServiceException
+	{	
+		JSONArray bboxJson = slippyTile.tile2boundingBox();
+		JSONArray geometries = getTopoJsonGeometries(tileTopoJson);
+		byte[] tileGeoJson;
 		
-		generateTilesForGeoLevelQueryFormatter2.addSelectField("MIN(zoomlevel) AS min_zoomlevel");
-		generateTilesForGeoLevelQueryFormatter2.addSelectField("MAX(zoomlevel) AS max_zoomlevel");
-		generateTilesForGeoLevelQueryFormatter2.addFromTable("rif_data." + myGeometryTable.toLowerCase());
-		generateTilesForGeoLevelQueryFormatter2.addFromTable("rif40.rif40_geolevels");
-		generateTilesForGeoLevelQueryFormatter2.addWhereJoinCondition("rif_data." + myGeometryTable, 
-			"geolevel_id", "rif40.rif40_geolevels", "geolevel_id");
-		generateTilesForGeoLevelQueryFormatter2.addWhereParameter(
-			applySchemaPrefixIfNeeded("rif40_geolevels"),
-			"geolevel_name");
+		RIFTopoJsonDecoder topoJsonDecoder = new RIFTopoJsonDecoder(tileTopoJson);
+		JSONObject bboxJsonProperties = null;
+		int removedCount=0;
 		
-		String sqlQueryText = logSQLQuery(
-				"topoJson2geoJson",
-				generateTilesForGeoLevelQueryFormatter2,
-				geoLevel);	
+		try (RIFGeoJsonTileWriter geoJsonTileWriter = new RIFGeoJsonTileWriter()) {
+			for (int i=0; i<geometries.length(); i++) {
+				
+				JSONObject jsonGeometry=geometries.getJSONObject(i);
+				JSONObject properties=jsonGeometry.optJSONObject("properties");		
+				if (i == 0 && properties != null) {
+					bboxJsonProperties = new JSONObject(properties.toString());
+				}
+			
+				if (properties == null) {			
+					List<String> geometryList = IteratorUtils.toList(jsonGeometry.keys());
+					String geometryText = String.join(", ", geometryList);
+					throw new JSONException("TopoJSON Object[\"properties\"] not found; keys: " + geometryText);
+				}
 
-		JSONObject geoJSON;
-		try {
-			statement2 = connection.prepareStatement(generateTilesForGeoLevelQueryFormatter2.generateQuery());
-			statement2.setString(1, geoLevel);
+				// Areas can reduce to POINT/MULTIPOINT/LINESTRING/MULTILINESTRINGs by simplification
+				if (!geoJsonTileWriter.writeFeature(properties, topoJsonDecoder, jsonGeometry)) {
+					removedCount++;
+				}
+			} // End of for loop
 			
-			resultSet2 = statement2.executeQuery();
-			resultSet2.next();
-			int minZoomlevel=resultSet2.getInt(1);	
-			int maxZoomlevel=resultSet2.getInt(2);			
-		
-			geoJSON = topoJson2geoJson(connection, 
-					tileTopoJson,
-					geography, slippyTile, hmap, geoLevel, addBoundingBoxToTile,
-					minZoomlevel, maxZoomlevel);
-		}	
-		catch (SQLException sqlException) {
-			throw new RIFSQLException(this.getClass(), sqlException, statement2, sqlQueryText);
+			if (addBoundingBoxToTile && bboxJsonProperties != null) {
+				JSONObject bboxFeature = createGeoJsonBboxFeature(bboxJson, bboxJsonProperties);
+				geoJsonTileWriter.writeFeature(bboxFeature.getJSONObject("properties"), 
+					bboxFeature.getJSONObject("geometry"));
+			}
+			tileGeoJson = geoJsonTileWriter.toByteArray();
+		}
+		catch (IOException ioException) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_GENERATE_JSON_ERROR,
+				"GeoJSON write error for geoLevel: " + geoLevel +
+				"; slippyTile: " + slippyTile.toString() + ": " + ioException.getMessage(), ioException);
 		}
-		finally { //Cleanup database resources
-			connection.commit();
-			SQLQueryUtility.close(statement2);
-			SQLQueryUtility.close(resultSet2);
-		}	
 		
-		return geoJSON;
+		if (removedCount > 0) {
+			rifLogger.debug(getClass(), "Removed " + removedCount + " areaIds without polygons" +
+				" for geoLevel: " + geoLevel +
+				"; slippyTile: " + slippyTile.toString());
+		}
+
+		if (addBoundingBoxToTile) {
+			rifTilesCache.cacheTile(tileGeoJson, geography, slippyTile, geoLevel, "json");
+		}
+		return tileGeoJson;
 	}
 
 	/** 
-	 * Get well Known Text from RIF database <myGeometryTable> for geoLevel, zoomlevel and list of areaIds in tile
-     *
-	 * @param connection 		Database JDBC Connection object	
-	 * @param zoomlevel 		0-9 (depends in TileMaker maximum zoomlevel)
-	 * @param geoLevel 			Uppercase String	 
-	 * @param myGeometryTable 	Uppercase String	 
-	 * @param areaIdList		ArrayList<String> of areaIds
-	 * @param minZoomlevel		Minimum zoomlevel
-	 * @param maxZoomlevel		Maximum zoomlevel
+	 * Convert TopoJSON to a PNG tile
+	 * <p>	 
+	 * Geometries are decoded from the TopoJSON arcs straight to JTS by RIFTopoJsonDecoder and rasterised by
+	 * RIFPdfTiles.geometries2png(); no GeoJSON is created or parsed
+	 *
+	 * Called from: ResultsQueryManager.java and RIFTiles.java generateTiles()
+	 * </p>
+	 *
+	 * @param tileTopoJson			JSONObject of tile TopoJSON
+	 * @param geography      	  	Geography as a uppercase String
+	 * @param slippyTile 			SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel     	     	Geolevel as an uppercase String
 	 *
-	 * @return HashMap<String, String> of areaID and Well known text
+	 * @return PNG tile bytes
 	 *
 	 * @throws RIFServiceException RIF error
-	 * @throws SQLException logical database error
+	 * @throws JSONException Error manipulating JSON
      */	
-	private HashMap<String, String> getWKT(
-		final Connection connection,
-		final Integer zoomlevel,
-		final String geoLevel,
-		final String myGeometryTable,
-		final ArrayList<String> areaIdList,
-		final int minZoomlevel,
-		final int maxZoomlevel
-		) throws RIFServiceException, SQLException {
-			
-		HashMap<String, String> result = new HashMap<>();
-		
-		PreparedStatement statement = null;
-		ResultSet resultSet = null;
-		
-		SelectQueryFormatter getMapTilesQueryFormatter
-				= new MSSQLSelectQueryFormatter();
-
-		//STEP 2: get the tiles
-		/*
-			SELECT
-			   ST_AsGeoJson(GEOMETRY_SAHSULAND.optimised_topojson) AS geojson
-			FROM
-			   GEOMETRY_SAHSULAND,
-			   rif40_geolevels
-			WHERE
-			   GEOMETRY_SAHSULAND.geolevel_id = rif40_geolevels.geolevel_id AND
-			   rif40_geolevels.geolevel_name='SAHSU_GRD_LEVEL2' AND
-			   GEOMETRY_SAHSULAND.zoomlevel=10 AND
-			   GEOMETRY_SAHSULAND.areaid='01.012' 
-			   
-			   wkt?
-		*/
-
-		getMapTilesQueryFormatter.addSelectField("rif_data." + myGeometryTable, "wkt");
-		getMapTilesQueryFormatter.addSelectField("rif_data." + myGeometryTable, "areaid");
-		getMapTilesQueryFormatter.addFromTable("rif_data." + myGeometryTable);
-		getMapTilesQueryFormatter.addFromTable("rif40.rif40_geolevels");
-		getMapTilesQueryFormatter.addWhereJoinCondition("rif_data." + myGeometryTable, 
-			"geolevel_id", "rif40.rif40_geolevels", "geolevel_id");
-		getMapTilesQueryFormatter.addWhereParameter(
-			applySchemaPrefixIfNeeded("rif40_geolevels"),
-			"geolevel_name");
-		getMapTilesQueryFormatter.addWhereParameter("rif_data." + myGeometryTable, "zoomlevel");
-		getMapTilesQueryFormatter.addWhereIn("rif_data." + myGeometryTable, "areaid", areaIdList);
-
-		String sqlQueryText = logSQLQuery(
-				"topoJson2geoJson",
-				getMapTilesQueryFormatter,
-				geoLevel,
-				zoomlevel.toString());
-
-		try {
-			statement = connection.prepareStatement(getMapTilesQueryFormatter.generateQuery());
-			statement.setString(1, geoLevel);
-			if (zoomlevel >= minZoomlevel && zoomlevel <= maxZoomlevel) {
-				statement.setInt(2, zoomlevel);
-			}
-			else if (zoomlevel < minZoomlevel) {
-				statement.setInt(2, minZoomlevel);
-			}	
-			else { // zoomlevel > maxZoomlevel
-				   // minZoomLevel and maxZoomLevel are the limits of the Geometry lookup table
-				   // minZoomLevel is set by the tile Maker and usually 6, and maxZoomLevel 9. Zoomlevel can
-				   // be from 0 to 22, but is limited in the rest validation  to 11 (i.e. IntelliJ is ambiguous)
-				statement.setInt(2, maxZoomlevel);
-			}	
-			
-			resultSet = statement.executeQuery();
-			while (resultSet.next()) {
-
-				String wkt=resultSet.getString(1);
-				String areaId=resultSet.getString(2);	
-				result.put(areaId, wkt);
-			}		
-			if (result.size() != areaIdList.size()) {
-				throw new SQLException("Error in WKT fetch; expecting: " + areaIdList.size() + "; got: " + result.size());
+	public byte[] topoJson2png(
+			final JSONObject tileTopoJson,
+			final String geography,
+			final SlippyTile slippyTile, 
+			final String geoLevel)
+			throws JSONException, RIFServiceException
+	{	
+		JSONArray geometries = getTopoJsonGeometries(tileTopoJson);
+		RIFTopoJsonDecoder topoJsonDecoder = new RIFTopoJsonDecoder(tileTopoJson);
+		List<Geometry> jtsGeometries = new ArrayList<>(geometries.length());
+		for (int i=0; i<geometries.length(); i++) {
+			// Areas can reduce to POINT/MULTIPOINT/LINESTRING/MULTILINESTRINGs by simplification
+			Geometry geometry = topoJsonDecoder.toJtsGeometry(geometries.getJSONObject(i));
+			if (geometry != null) {
+				jtsGeometries.add(geometry);
 			}
 		}
-		catch (SQLException sqlException) {
-			throw new RIFSQLException(this.getClass(), sqlException, statement, sqlQueryText);
+		if (jtsGeometries.size() < geometries.length()) {
+			rifLogger.debug(getClass(), "Removed " + (geometries.length() - jtsGeometries.size()) + 
+				" areaIds without polygons" +
+				" for geoLevel: " + geoLevel +
+				"; slippyTile: " + slippyTile.toString());
 		}
-		finally { //Cleanup database resources
-				connection.commit();
-				SQLQueryUtility.close(statement);
-				SQLQueryUtility.close(resultSet);
+		
+		return rifPdfTiles.geometries2png(jtsGeometries, geography, slippyTile, geoLevel);
+	}
 
+	/** 
+	 * Get the geometries array: objects.collection.geometries from the tile TopoJSON
+	 *
+	 * @param tileTopoJson			JSONObject of tile TopoJSON
+	 *
+	 * @return JSONArray of TopoJSON geometries
+	 *
+	 * @throws JSONException if the tile TopoJSON has no geometries array
+     */	
+	private JSONArray getTopoJsonGeometries(final JSONObject tileTopoJson) throws JSONException {
+		JSONObject objects = tileTopoJson.optJSONObject("objects");
+		if (objects == null) {
+			List<String> tileTopoJsonList = IteratorUtils.toList(tileTopoJson.keys()); // Ignore NPE warnings from ItelliJ
+			String tileTopoJsonText = String.join(", ", tileTopoJsonList);
+			throw new JSONException("TopoJSON Object[\"objects\"] not found; keys: " + tileTopoJsonText);
 		}
-		return result;
+		JSONObject collection = objects.optJSONObject("collection");
+		if (collection == null) {
+			List<String> objectsList = IteratorUtils.toList(objects.keys());
+			String objectsText = String.join(", ", objectsList);
+			throw new JSONException("TopoJSON Object[\"collection\"] not found; keys: " + objectsText);
+		}
+		JSONArray geometries = collection.optJSONArray("geometries");
+		if (geometries == null) {
+			throw new JSONException("TopoJSON Array[\"geometries\"] not found");
+		}
+		return geometries;
 	}
 
 	/** 
@@ -307,9 +340,10 @@ public class RIFTiles  extends BaseSQLManager {
 		getMapTileTableQueryFormatter.addFromTable("rif40_geographies");
 		getMapTileTableQueryFormatter.addWhereParameter("geography");
 
-		String sqlQueryText = logSQLQuery(
-				"getTileMakerTiles",
-				getMapTileTableQueryFormatter,
+		String sqlQueryText = getMapTileTableQueryFormatter.generateQuery();
+		logSQLQuery(
+				"getTileMakerTileTable",
+				sqlQueryText,
 				geography);
 		if (sqlQueryText == null) {
 			throw new SQLException("sqlQueryText is null");
@@ -320,14 +354,10 @@ public class RIFTiles  extends BaseSQLManager {
 		String tileTable = null;
 		String geometryTable = null;
 		try {
-			String sqlStmt=getMapTileTableQueryFormatter.generateQuery();
-			if (sqlStmt == null) {
-				throw new SQLException("getMapTileTableQueryFormatter.generateQuery() returned null for: " + sqlQueryText);
-			}
-			statement = connection.prepareStatement(sqlStmt);
+			statement = connection.prepareStatement(sqlQueryText);
 			statement.setString(1, geography);
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getTileMakerTileTable", statement);
 			resultSet.next();
 
 			tileTable = resultSet.getString(1);
@@ -350,17 +380,32 @@ public class RIFTiles  extends BaseSQLManager {
 		return hmap;
 	}
 
+	/** 
+	 * Generate tiles for geolevels with more than 5000 areaIds, serially
+	 *
+	 * @param connection 		Database JDBC Connection object	
+     */		
+	public void generateTiles(Connection connection) 
+		throws RIFServiceException, SQLException {
+		generateTiles(connection, 1);
+	}
+
 	/** 
 	 * Generate tiles for geolevels with more than 5000 areaIds
 	 *
 	 * <p>
-	 * Called from RIFTilesGenerator on RIF Services middleware start
+	 * Called from RIFTilesGenerator on RIF Services middleware start. Tiles are generated in parallel on
+	 * workerThreads threads; the TopoJSON is decoded in Java so workers do not need a database connection.
+	 * Progress is checkpointed per geolevel so that a restart resumes where it stopped (see RIFTilesCheckpoint)
 	 * </p>
 	 *
-	 * @param connection 		Database JDBC Connection object	
+	 * @param connection 			Database JDBC Connection object	used to find the tiles
+	 * @param workerThreads 		Number of worker threads; 1 generates tiles serially
      */		
-	public void generateTiles(Connection connection) 
-		throws RIFServiceException, SQLException {
+	public void generateTiles(
+		final Connection connection,
+		final int workerThreads) 
+			throws RIFServiceException, SQLException {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
 		LocalDateTime start = LocalDateTime.now(); 
@@ -393,16 +438,18 @@ public class RIFTiles  extends BaseSQLManager {
 		generateTilesQueryFormatter.addOrderByCondition("areaid_count", SelectQueryFormatter.SortOrder.ASCENDING);
 
 		int minAreaIdCount = 5000; // ItelliJ is wrong will not compile!
-		String sqlQueryText = logSQLQuery(
+		String sqlQueryText = generateTilesQueryFormatter.generateQuery();
+		logSQLQuery(
 				"generateTiles",
-				generateTilesQueryFormatter,
+				sqlQueryText,
 				String.valueOf(minAreaIdCount));
 
+		stopGeneration = false;
 		try {
-			statement = connection.prepareStatement(generateTilesQueryFormatter.generateQuery());
+			statement = connection.prepareStatement(sqlQueryText);
 			statement.setInt(1, minAreaIdCount); 
-			resultSet = statement.executeQuery();
-			while (resultSet.next()) {
+			resultSet = executeQuery("generateTiles", statement);
+			while (resultSet.next() && !stopGeneration) {
 
 				String geography=resultSet.getString(1);
 				int geolevelId=resultSet.getInt(2); // XXXX
@@ -412,13 +459,17 @@ public class RIFTiles  extends BaseSQLManager {
 	 			hmap.put("tileTable", tileTable);
 				hmap.put("geometryTable", geometryTable);
 				geolevelCount++;
-				generatedCount+=determineTilesForGeoLevel(connection, geolevelId, hmap, geography, geolevelName);
+				generatedCount+=determineTilesForGeoLevel(connection, workerThreads, geolevelId, hmap, geography,
+					geolevelName);
 			}	
 			
 			LocalDateTime end = LocalDateTime.now(); 
 			Duration duration = Duration.between(start, end);
 			rifLogger.info(getClass(), "Generated " + generatedCount +
-				" tiles for: " + geolevelCount + " geolevels in " + formatDuration(duration));
+				" tiles for: " + geolevelCount + " geolevels in " + formatDuration(duration) +
+				"; " + formatTileRate(generatedCount, duration) + 
+				"; using " + workerThreads + " worker thread(s)" +
+				(stopGeneration ? "; STOPPED" : ""));
 		}
 		catch (SQLException sqlException) {
 			LocalDateTime end = LocalDateTime.now(); 
@@ -435,6 +486,30 @@ public class RIFTiles  extends BaseSQLManager {
 		}			
 	}
 
+	/** 
+	 * Stop tile generation. Running tiles are completed and the checkpoint saved so that the next
+	 * generateTiles() resumes from where it stopped
+	 */
+	public void stopGenerateTiles() {
+		stopGeneration = true;
+	}
+
+	/** 
+	 * Format tile generation rate
+	 *
+	 * @param tiles 	Number of tiles
+	 * @param duration 	Duration Object
+	 *
+	 * @return rate formatted as n.nn tiles/sec
+	 */
+	private static String formatTileRate(final int tiles, final Duration duration) {
+		double seconds = duration.toMillis() / 1000.0;
+		if (seconds <= 0) {
+			return "0 tiles/sec";
+		}
+		return String.format("%.2f tiles/sec", tiles / seconds);
+	}
+
 	/** 
 	 * Format Duration
 	 *
@@ -459,6 +534,7 @@ public class RIFTiles  extends BaseSQLManager {
 	 * Determine how many tiles to generate for geolevel
 	 *
 	 * @param connection 		Database JDBC Connection object	
+	 * @param workerThreads		Number of worker threads
 	 * @param geolevelId 		Database geolevel ID
 	 * @param hmap 				HashMap<String, String>; hashes are "topoJSON", "tileTable" and "geometryTable"
 	 * @param geography			Uppercase String
@@ -468,6 +544,7 @@ public class RIFTiles  extends BaseSQLManager {
      */	
 	private int determineTilesForGeoLevel(
 		final Connection connection, 
+		final int workerThreads,
 		final int geolevelId, 
 		final HashMap<String, String> hmap,
 		final String geography, 
@@ -475,17 +552,12 @@ public class RIFTiles  extends BaseSQLManager {
 			throws RIFServiceException, SQLException {
 
 		String tileTable = hmap.get("tileTable");
-		String geometryTable = hmap.get("geometryTable");
 		PreparedStatement statement = null;
-		PreparedStatement statement2 = null;
 		ResultSet resultSet = null;
-		ResultSet resultSet2 = null;
 		int generatedCount;
 		
 		SelectQueryFormatter generateTilesForGeoLevelQueryFormatter
 				= new MSSQLSelectQueryFormatter();
-		SelectQueryFormatter generateTilesForGeoLevelQueryFormatter2
-				= new MSSQLSelectQueryFormatter();
 
 		//STEP 2: get the total tiles and areaIds from the tiles table
 		/*
@@ -498,29 +570,18 @@ public class RIFTiles  extends BaseSQLManager {
 		generateTilesForGeoLevelQueryFormatter.addSelectField("SUM(areaid_count) AS areaid_count");
 		generateTilesForGeoLevelQueryFormatter.addFromTable("rif_data.t_" + tileTable.toLowerCase());
 		generateTilesForGeoLevelQueryFormatter.addWhereParameter("rif_data.t_" + tileTable.toLowerCase(), "geolevel_id");
-
-		//STEP 3: get the min and max zoomlevel in the geometry table
-		/*
-		SELECT MIN(zoomlevel) AS min_zoomlevel, MAX(zoomlevel) AS max_zoomlevel
-		  FROM rif_data.geometry_ews2011
-		 WHERE rif_data.geometry_ews2011.geolevel_id = 4;
-		  */
-		  
-		generateTilesForGeoLevelQueryFormatter2.addSelectField("MIN(zoomlevel) AS min_zoomlevel");
-		generateTilesForGeoLevelQueryFormatter2.addSelectField("MAX(zoomlevel) AS max_zoomlevel");
-		generateTilesForGeoLevelQueryFormatter2.addFromTable("rif_data." + geometryTable.toLowerCase());
-		generateTilesForGeoLevelQueryFormatter2.addWhereParameter("rif_data." + geometryTable.toLowerCase(), "geolevel_id");
 		
-		String sqlQueryText = logSQLQuery(
-				"generateTiles",
-				generateTilesForGeoLevelQueryFormatter,
+		String sqlQueryText = generateTilesForGeoLevelQueryFormatter.generateQuery();
+		logSQLQuery(
+				"generateTilesCount",
+				sqlQueryText,
 				String.valueOf(geolevelId));	
 		int tileCount;
 		int areaidCount;
 		try {
-			statement = connection.prepareStatement(generateTilesForGeoLevelQueryFormatter.generateQuery());
+			statement = connection.prepareStatement(sqlQueryText);
 			statement.setInt(1, geolevelId);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("generateTilesCount", statement);
 			resultSet.next();
 			tileCount=resultSet.getInt(1);	
 			areaidCount=resultSet.getInt(2);
@@ -533,43 +594,43 @@ public class RIFTiles  extends BaseSQLManager {
 			SQLQueryUtility.close(statement);
 			SQLQueryUtility.close(resultSet);
 		}
-
-		String sqlQueryText2 = logSQLQuery(
-				"generateTiles",
-				generateTilesForGeoLevelQueryFormatter2,
-				String.valueOf(geolevelId));
-				
-		try {
-			statement2 = connection.prepareStatement(generateTilesForGeoLevelQueryFormatter2.generateQuery());
-			statement2.setInt(1, geolevelId);
-			resultSet2 = statement2.executeQuery();
-			resultSet2.next();	
-			int minZoomlevel=resultSet2.getInt(1);	
-			int maxZoomlevel=resultSet2.getInt(2);	
 			
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(
+			rifTilesCache.getCheckpointFile(geography, geolevelName), tileCount);
+		if (checkpoint.isStale()) { // Geography reloaded: the cached tiles are out of date
+			rifLogger.info(getClass(), "Tile count changed; clearing cached tiles for: " + 
+				geography + "." + geolevelName);
+			rifTilesCache.clearTiles(geography, geolevelName);
+		}
+		else if (checkpoint.getCompletedCount() > 0 && !rifTilesCache.hasTiles(geography, geolevelName)) {
+			rifLogger.info(getClass(), "Tile cache cleared; restarting tile generation for: " + 
+				geography + "." + geolevelName);
+			checkpoint.reset();
+		}
+		if (checkpoint.isComplete()) {
 			rifLogger.info(getClass(), 
-				"Generating up to " + tileCount + " tiles for: " + areaidCount + " areas in: " + geography + "." + geolevelName +
-				"; minZoomlevel: " + minZoomlevel + "; maxZoomlevel: " + maxZoomlevel);
-			generatedCount=generateTilesForGeoLevel(
-				connection, 
-				geolevelId, 
-				hmap,
-				geography, 
-				geolevelName, 
-				tileCount,
-				minZoomlevel,
-				maxZoomlevel);
-			rifLogger.info(getClass(), "Generated " + generatedCount + "/" + tileCount + 
-				" tiles for: " + areaidCount + " areas in: " + geography + "." + geolevelName);
-		}	
-		catch (SQLException sqlException2) {
-			throw new RIFSQLException(this.getClass(), sqlException2, statement2, sqlQueryText2);
+				"All " + tileCount + " tiles already generated for: " + areaidCount + " areas in: " + 
+				geography + "." + geolevelName);
+			return 0;
 		}
-		finally { //Cleanup database resources
-			connection.commit();
-			SQLQueryUtility.close(statement2);
-			SQLQueryUtility.close(resultSet2);
-		}				
+		
+		rifLogger.info(getClass(), 
+			"Generating up to " + tileCount + " tiles for: " + areaidCount + " areas in: " + geography + "." + geolevelName +
+			"; resuming after: " + checkpoint.getCompletedCount() + " tiles");
+		LocalDateTime start = LocalDateTime.now(); 
+		generatedCount=generateTilesForGeoLevel(
+			connection, 
+			workerThreads,
+			checkpoint,
+			geolevelId, 
+			hmap,
+			geography, 
+			geolevelName, 
+			tileCount);
+		Duration duration = Duration.between(start, LocalDateTime.now());
+		rifLogger.info(getClass(), "Generated " + generatedCount + "/" + tileCount + 
+			" tiles for: " + areaidCount + " areas in: " + geography + "." + geolevelName +
+			" in " + formatDuration(duration) + "; " + formatTileRate(generatedCount, duration));
 
 		return generatedCount;
 	}
@@ -627,20 +688,21 @@ public class RIFTiles  extends BaseSQLManager {
 			getMapTilesQueryFormatter.addWhereParameter("rif_data." + tileTable, "x");
 			getMapTilesQueryFormatter.addWhereParameter("rif_data." + tileTable, "y");
 
-			sqlQueryText2 = logSQLQuery(
+			sqlQueryText2 = getMapTilesQueryFormatter.generateQuery();
+			logSQLQuery(
 					"getTileMakerTiles",
-					getMapTilesQueryFormatter,
+					sqlQueryText2,
 					geoLevelSelect,
 					new Integer(slippyTile.getZoomlevel()).toString(),
 					new Integer(slippyTile.getX()).toString(),
 					new Integer(slippyTile.getY()).toString());
 
-			statement2 = connection.prepareStatement(getMapTilesQueryFormatter.generateQuery());
+			statement2 = connection.prepareStatement(sqlQueryText2);
 			statement2.setString(1, geoLevelSelect);
 			statement2.setInt(2, new Integer(slippyTile.getZoomlevel()));
 			statement2.setInt(3, new Integer(slippyTile.getX()));
 			statement2.setInt(4, new Integer(slippyTile.getY()));
-			resultSet2 = statement2.executeQuery();
+			resultSet2 = executeQuery("getTileMakerTiles", statement2);
 			if (resultSet2.next()) {
 				String topoJSON = resultSet2.getString(1);
 				hmap.put("topoJSON", topoJSON);
@@ -660,117 +722,223 @@ public class RIFTiles  extends BaseSQLManager {
 
 	/** 
 	 * Generate tiles for geolevel from T_ tiles table (i.e. not the null tile). Not the tile table in getTopoJsonTileFromDb()
+	 * <p>
+	 * Tiles are read in (zoomlevel, x, y) order on connection and each tile not already in the cache is generated 
+	 * as a separate task on a pool of workerThreads workers. The number of tiles waiting for a worker is bounded 
+	 * to limit the TopoJSON held in memory. The query starts after the checkpoint's last completed tile, so 
+	 * tiles done in a previous run are not read again.
+	 * </p>
 	 *
 	 * @param connection 		Database JDBC Connection object	
+	 * @param workerThreads		Number of worker threads; 1 generates tiles serially
+	 * @param checkpoint		RIFTilesCheckpoint for geolevel
 	 * @param geolevelId 		Database geolevel ID
 	 * @param hmap 				HashMap<String, String>; hashes are "topoJSON", "tileTable" and "geometryTable"
 	 * @param geography			Uppercase String
 	 * @param geolevelName 		Name of geolevel
 	 * @param tileCount 		Number of tiles to be processed	
-	 * @param minZoomlevel		Minimum zoomlevel
-	 * @param maxZoomlevel		Maximum zoomlevel
 	 *
 	 * @return Number of tiles generated
      */		
 	private int generateTilesForGeoLevel(
 		final Connection connection, 
+		final int workerThreads,
+		final RIFTilesCheckpoint checkpoint,
 		final int geolevelId, 
 		final HashMap<String, String> hmap,
 		final String geography, 
 		final String geolevelName,
-		final int tileCount,
-		final int minZoomlevel,
-		final int maxZoomlevel)
+		final int tileCount)
 			throws RIFServiceException, SQLException {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
 
 		String tileTable = hmap.get("tileTable");
-		SelectQueryFormatter generateTilesForGeoLevelQueryFormatter
-				= new MSSQLSelectQueryFormatter();
+		SQLGeneralQueryFormatter generateTilesForGeoLevelQueryFormatter
+				= new SQLGeneralQueryFormatter();
+		final int completedCount = checkpoint.getCompletedCount();
+		final SlippyTile lastCompletedTile = checkpoint.getLastCompletedTile(); // null: start at the first tile
 
-		//STEP 3: get the tile: zoomlevel, x, y, tile_id
+		//STEP 3: get the tiles after the last completed tile, in order
 		/*
-			SELECT zoomlevel, x, y, tile_id
+			SELECT zoomlevel, x, y, optimised_topojson
 			  FROM rif_data.t_tiles_sahsuland
 			 WHERE geolevel_id = 4
+			   AND (zoomlevel > 9 OR (zoomlevel = 9 AND (x > 245 OR (x = 245 AND y > 161))))
 			 ORDER BY zoomlevel, x, y;
 		*/
 
-		generateTilesForGeoLevelQueryFormatter.addSelectField("zoomlevel");
-		generateTilesForGeoLevelQueryFormatter.addSelectField("x");
-		generateTilesForGeoLevelQueryFormatter.addSelectField("y");
-		generateTilesForGeoLevelQueryFormatter.addSelectField("optimised_topojson");
-		generateTilesForGeoLevelQueryFormatter.addFromTable("rif_data.t_" + tileTable.toLowerCase());
-		generateTilesForGeoLevelQueryFormatter.addWhereParameter("rif_data.t_" + tileTable.toLowerCase(), "geolevel_id");
-		generateTilesForGeoLevelQueryFormatter.addOrderByCondition("zoomlevel", SelectQueryFormatter.SortOrder.ASCENDING);
-		generateTilesForGeoLevelQueryFormatter.addOrderByCondition("x", SelectQueryFormatter.SortOrder.ASCENDING);
-		generateTilesForGeoLevelQueryFormatter.addOrderByCondition("y", SelectQueryFormatter.SortOrder.ASCENDING);
+		generateTilesForGeoLevelQueryFormatter.addQueryLine(0, "SELECT zoomlevel, x, y, optimised_topojson");
+		generateTilesForGeoLevelQueryFormatter.addQueryLine(0, "  FROM rif_data.t_" + tileTable.toLowerCase());
+		generateTilesForGeoLevelQueryFormatter.addQueryLine(0, " WHERE geolevel_id = ?");
+		if (lastCompletedTile != null) {
+			generateTilesForGeoLevelQueryFormatter.addQueryLine(0, 
+				"   AND (zoomlevel > ? OR (zoomlevel = ? AND (x > ? OR (x = ? AND y > ?))))");
+		}
+		generateTilesForGeoLevelQueryFormatter.addQueryLine(0, " ORDER BY zoomlevel, x, y");
 
-		String sqlQueryText = logSQLQuery(
-				"generateTiles",
-				generateTilesForGeoLevelQueryFormatter,
-				String.valueOf(geolevelId));
-		int generatedCount=0;
+		String[] queryArgs = (lastCompletedTile == null ? 
+			new String[] { String.valueOf(geolevelId) } :
+			new String[] { String.valueOf(geolevelId),
+				String.valueOf(lastCompletedTile.getZoomlevel()), String.valueOf(lastCompletedTile.getZoomlevel()),
+				String.valueOf(lastCompletedTile.getX()), String.valueOf(lastCompletedTile.getX()),
+				String.valueOf(lastCompletedTile.getY()) });
+		String sqlQueryText = generateTilesForGeoLevelQueryFormatter.generateQuery();
+		logSQLQuery(
+				"generateTilesForGeoLevel",
+				sqlQueryText,
+				queryArgs);
+		final AtomicInteger generatedCount = new AtomicInteger(0);
+		final AtomicReference<Exception> firstException = new AtomicReference<>();
+		final LocalDateTime start = LocalDateTime.now(); 
 
+		// The caller blocks when 2 tiles per worker are waiting
+		final int workers = Math.max(1, workerThreads);
+		final Semaphore waitingTiles = new Semaphore(2 * workers);
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "RIFTilesGenerator-" + geolevelName + "-" +
+					threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
 		try {
-			statement = connection.prepareStatement(generateTilesForGeoLevelQueryFormatter.generateQuery());
+			statement = connection.prepareStatement(sqlQueryText);
+			statement.setFetchSize(TILE_FETCH_SIZE); // Not auto commit: PostgreSQL fetches through a cursor
 			statement.setInt(1, geolevelId);
+			if (lastCompletedTile != null) {
+				statement.setInt(2, lastCompletedTile.getZoomlevel());
+				statement.setInt(3, lastCompletedTile.getZoomlevel());
+				statement.setInt(4, lastCompletedTile.getX());
+				statement.setInt(5, lastCompletedTile.getX());
+				statement.setInt(6, lastCompletedTile.getY());
+			}
 
-			resultSet = statement.executeQuery();
-			int i=0;
-			while (resultSet.next()) {
+			resultSet = executeQuery("generateTilesForGeoLevel", statement);
+			int i=completedCount; // Tiles before the checkpoint are not returned
+			while (resultSet.next() && firstException.get() == null && !stopGeneration) {
+				final int tileIndex=i;
 				i++;
+				
+				final int tileNumber=i;
 				int zoomlevel=resultSet.getInt(1);	
 				int x=resultSet.getInt(2);		
 				int y=resultSet.getInt(3);			
-				String optimisedTopojson=resultSet.getString(4);	
-				hmap.put("topoJSON", optimisedTopojson);
-				SlippyTile slippyTile = new SlippyTile(zoomlevel, x, y);
+				final String optimisedTopojson=resultSet.getString(4);	
+				final SlippyTile slippyTile = new SlippyTile(zoomlevel, x, y);
 					
-				File file=rifTilesCache.getCachedTileFile(geography, slippyTile, geolevelName, "png");	
-				if (!file.exists()) {
-					generatedCount++;
-					rifLogger.debug(getClass(), "Generate GeoJSON (" + i + "/" + tileCount + "): " + file.toString() +
-						"; from optimisedTopojson, size: " + optimisedTopojson.length());
-		
-					JSONObject tileTopoJson = new JSONObject(optimisedTopojson);
-					JSONObject tileGeoJson = topoJson2geoJson(connection, 
-						tileTopoJson,
-						geography, slippyTile, hmap, geolevelName, false /* addBoundingBoxToTile */,
-						minZoomlevel, maxZoomlevel);
-						
-					rifLogger.info(getClass(), "Generate PNG tile (" + i + "/" + tileCount + "): " + file.toString());
-					try {
-						rifPdfTiles.geoJson2png(
-							tileGeoJson,
-							geography,
-							slippyTile,
-							geolevelName);
-					}	
-					catch (Exception exception) {
-						throw new RIFServiceException(
-							RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR,
-							exception.getMessage(), exception);
-					}
+				if (rifTilesCache.isCachedTile(geography, slippyTile, geolevelName, "png")) {
+					checkpoint.markComplete(tileIndex, slippyTile);
+					continue;
 				}
+				
+				waitingTiles.acquire();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (firstException.get() != null || stopGeneration) {
+								return;
+							}
+							generatePngTile(optimisedTopojson, geography, slippyTile, 
+								geolevelName, tileNumber, tileCount);
+							checkpoint.markComplete(tileIndex, slippyTile);
+							int generated=generatedCount.incrementAndGet();
+							if (generated % 100 == 0) {
+								rifLogger.info(RIFTiles.class, "Generated " + generated + " tiles (" + tileNumber + "/" + 
+									tileCount + ") for: " + geography + "." + geolevelName + "; " +
+									formatTileRate(generated, Duration.between(start, LocalDateTime.now())));
+							}
+						}
+						catch (Exception exception) {
+							firstException.compareAndSet(null, exception);
+						}
+						finally {
+							waitingTiles.release();
+						}
+					}
+				});
 			}	
 		}	
 		catch (SQLException sqlException) {
 			throw new RIFSQLException(this.getClass(), sqlException, statement, sqlQueryText);
 		}
-		catch (JSONException jsonException) {
-			throw new RIFServiceException(
-				RIFServiceError.TILE_GENERATE_JSON_ERROR,
-				jsonException.getMessage(), jsonException);
-		}		
+		catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+			firstException.compareAndSet(null, interruptedException);
+		}
 		finally { //Cleanup database resources
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					rifLogger.info(getClass(), "Waiting for tile generation workers for: " + geography + "." + geolevelName);
+				}
+			}
+			catch (InterruptedException interruptedException) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			checkpoint.save();
+			
 			connection.commit();
 			SQLQueryUtility.close(statement);
 			SQLQueryUtility.close(resultSet);
 		}			
 
-		return generatedCount;
+		Exception exception = firstException.get();
+		if (exception instanceof RIFServiceException) {
+			throw (RIFServiceException)exception;
+		}
+		else if (exception instanceof SQLException) {
+			throw (SQLException)exception;
+		}
+		else if (exception instanceof JSONException) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_GENERATE_JSON_ERROR,
+				exception.getMessage(), exception);
+		}
+		else if (exception != null) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR,
+				exception.getMessage(), exception);
+		}
+
+		return generatedCount.get();
+	}
+
+	/** 
+	 * Generate and cache a PNG tile from the TopoJSON tile
+	 *
+	 * @param optimisedTopojson	TopoJSON tile String
+	 * @param geography			Uppercase String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geolevelName 		Name of geolevel
+	 * @param tileNumber 		1 based number of tile (for logging)
+	 * @param tileCount 		Number of tiles to be processed (for logging)
+	 *
+	 * @throws RIFServiceException RIF error
+	 * @throws JSONException Error manipulating JSON
+     */		
+	private void generatePngTile(
+		final String optimisedTopojson,
+		final String geography, 
+		final SlippyTile slippyTile, 
+		final String geolevelName,
+		final int tileNumber,
+		final int tileCount)
+			throws RIFServiceException, JSONException {
+				
+		String tileName=geography + "/" + geolevelName + slippyTile.getPathFileName();
+		rifLogger.debug(getClass(), "Decode TopoJSON (" + tileNumber + "/" + tileCount + "): " + tileName +
+			"; from optimisedTopojson, size: " + optimisedTopojson.length());
+
+		JSONObject tileTopoJson = new JSONObject(optimisedTopojson);
+		rifLogger.info(getClass(), "Generate PNG tile (" + tileNumber + "/" + tileCount + "): " + tileName + ".png");
+		topoJson2png(tileTopoJson, geography, slippyTile, geolevelName);
 	}
 	
 	/** 
@@ -868,282 +1036,4 @@ public class RIFTiles  extends BaseSQLManager {
 		
 		return nullGeoJsonTile.toString();
 	}
-	
-	/** 
-	 * Convert TopoJSON to GeoJSON
-	 * <p>	 
-	 * There is no Java way of converting TopoJSON to GeoJSON like topojson.feature(topology, object)
-	 * https://github.com/topojson/topojson-client/blob/master/README.md#feature
-	 * Various Java libraries to manipulate GeoJSon are immature, unmaintained and undocumented.
-	 * GDAL can convert, but again it is not documented, especially GDAL Java.
-	 *
-	 * The chosen method here is to populate <myTileTable>.optimised_geojson by parsing the area_ids from
-	 * the topoJSON properties and then fetching the GeoJSON from <myGeometryTable>
-	 *	 
-	 * Called from: RIFTiles.java generateTiles(); knows determine minZoomlevel and maxZoomlevel									
-	 * </p>
-	 *
-	 * @param connection			JDBC Connection
-	 * @param tileTopoJson			JSONObject of tile GeoJSON
-	 * @param geography      	  	Geography as a uppercase String
-	 * @param slippyTile 			SlippyTile (zoomlevel, x, y)
-	 * @param hmap 					HashMap<String, String>; hashes are "topoJSON", "tileTable" and "geometryTable"
-	 * @param geoLevel     	     	Geolevel as an uppercase String
-	 * @param addBoundingBoxToTile 	Add bounding box as an additional feature for debug purposes
-	 * @param minZoomlevel      	Minimum zoomlevel
-	 * @param maxZoomlevel     		Maximum zoomlevel
-	 *
-	 * @return GeoJSON as JSONObject
-	 *
-	 * @throws RIFServiceException RIF error
-	 * @throws RIFSQLException RIF SQL error
-	 * @throws JSONException Error manipulating JSON
-     */	
-	/* Generated GeoJSON in Json5 format:
-	 *
-	 * {
-	 * 	"features": [{
-	 * 			"geometry": {
-	 * 				"coordinates": [[[[-7.2447, 54.3752], [-7.2332, 54.3759], [-7.2339, 54.3767], [-7.2326, 54.3772], ... ]]]
-	 * 				"type": "MultiPolygon"
-	 *			},
-	 *			"type": "Feature",
-	 *			"properties": {
-	 *				"gid": 0,
-	 *				"SAHSU_GRD_LEVEL1": "01",
-	 *				"zoomlevel": 0,
-	 *				"name": "BBOX",
-	 *				"geographic_centroid": {
-	 *					"coordinates": [-6.30097, 54.1803],
-	 *					"type": "Point"
-	 *				},
-	 *				"x": 0,
-	 *				"y": 0,
-	 *				"area_id": "BBOX"
-	 *			}
-	 *		}, { ...
-	 *	 }
-	 *		 	],
-	 *	"type": "FeatureCollection"
-	 * }
-	 *
-	 * Source TopoJSON in Json5 format:
-	 *
-	 *		{
-	 *			"transform": {
-	 *				"scale": [1.2645986036803175E-4, 1.964578552911635E-4],
-	 *				"translate": [-6.151058640054187, 53.198324512334224]
-	 *			},
-	 *			"objects": {
-	 *				"collection": {
-	 *					"type": "GeometryCollection",
-	 *					"bbox": [-8.649433731630149, 49.87112937372648, 1.7627739932037385, 60.84572000540925],
-	 *					"geometries": [{
-	 *							"type": "GeometryCollection",
-	 *							"properties": {
-	 *								"gid": 1,
-	 *								"area_id": "UK",
-	 *								"name": "United_Kingdom",
-	 *								"geographic_centroid": {
-	 *									"type": "Point",
-	 *									"coordinates": [-4.03309, 55.8001]
-	 *								},
-	 *								"x": 0,
-	 *								"y": 0,
-	 *								"SCNTRY2011": "UK",
-	 *								"zoomlevel": 0
-	 *							},
-	 *							"id": 1,
-	 *							"geometries": [{
-	 *									"type": "Polygon",
-	 *									"arcs": [[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15]]
-	 *								}, ...
-	 *							]
-	 *						}
-	 *					],
-	 *						...
-	 *				}
-	 *			},
-	 *			"bbox": [-6.151058640054187, 53.198324512334224, -4.886586496234238, 55.16270660739057],
-	 *			"type": "Topology",
-	 *			"arcs": [[[95, 7301], ... ]]
-	 *		}				
-	 */			
-	private JSONObject topoJson2geoJson(
-			final Connection connection,
-			final JSONObject tileTopoJson,
-			final String geography,
-			final SlippyTile slippyTile, 
-			final HashMap<String, String> hmap,
-			final String geoLevel,
-			final boolean addBoundingBoxToTile,
-			final int minZoomlevel,
-			final int maxZoomlevel)
-			throws SQLException, JSONException, RIFServiceException
-	{	
-		String myGeometryTable = hmap.get("geometryTable");
-		JSONArray bboxJson = slippyTile.tile2boundingBox();
-		JSONArray geoJsonFeatures = new JSONArray();	 
-		JSONArray geometries;
-		
-		JSONObject objects = tileTopoJson.optJSONObject("objects");
-		if (objects != null) {
-			JSONObject collection = objects.optJSONObject("collection");
-			if (collection != null) {
-				geometries = collection.optJSONArray("geometries");
-				if (geometries != null) {
-					
-					ArrayList<String> areaIdList = new ArrayList<>();
-					JSONObject bboxJsonProperties = null;
-					HashMap<String, JSONObject> propertiesHash = new HashMap<>();
-					int processedCount=0;
-					
-					for (int i=0; i<geometries.length(); i++) {
-						
-						JSONObject jsonGeometry=geometries.getJSONObject(i);
-						JSONObject properties=jsonGeometry.optJSONObject("properties");		
-						if (i == 0) {
-							bboxJsonProperties = jsonGeometry.optJSONObject("properties");
-						}
-					
-						if (properties != null) {			
-							String areaId = properties.getString("area_id");
-							areaIdList.add(areaId);
-							propertiesHash.put(areaId, properties);	
-						}
-						else {
-							List<String> propertiesList = IteratorUtils.toList(properties.keys());
-							String propertiesText = String.join(", ", propertiesList);
-							throw new JSONException("TopoJSON Object[\"properties\"] not found; keys: " + propertiesText);
-						}
-
-						if (i % 10000 == 0) { // Process in blocks of 10,000
-							processedCount+=processGeoJsonArrayList(connection, slippyTile.getZoomlevel(), geoLevel, myGeometryTable, 
-								areaIdList, geoJsonFeatures, propertiesHash, minZoomlevel, maxZoomlevel);
-							
-							areaIdList.clear();
-							propertiesHash.clear();
-						}
-						
-					} // End of for loop
-					
-					/* processedCount+= */
-					processGeoJsonArrayList(connection, slippyTile.getZoomlevel(), geoLevel, myGeometryTable, areaIdList,
-						geoJsonFeatures, propertiesHash, minZoomlevel, maxZoomlevel);
-//					rifLogger.debug(getClass(), "Processed: " + geometries.length() + " geometries" +
-//						"; geoJsonFeatures: " + geoJsonFeatures.length() +
-//						"; geometries: " + geometries.length() +
-//						"; valid areaIds: " + processedCount +
-//						"; for geoLevel: " + geoLevel +
-//						"; zoomlevel: " + zoomlevel +
-//						"; x: " + x +
-//						"; y: " + y);
-					
-					if (addBoundingBoxToTile && bboxJsonProperties != null) {
-						geoJsonFeatures.put(createGeoJsonBboxFeature(bboxJson, bboxJsonProperties));
-					}
-						
-				}
-				else {
-					throw new JSONException("TopoJSON Array[\"geometries\"] not found");
-				}				
-			}
-			else /* if (collection != null) */ {
-				List<String> collectionList = IteratorUtils.toList(collection.keys()); // Ignore NPE warnings from ItelliJ
-				String collectionText = String.join(", ", collectionList);
-				throw new JSONException("TopoJSON Object[\"objects\"] not found; keys: " + collectionText);
-			}
-		}
-		else /* if (tileTopoJson != null) */ {
-			List<String> tileTopoJsonList = IteratorUtils.toList(tileTopoJson.keys()); // Ignore NPE warnings from ItelliJ
-			String tileTopoJsonText = String.join(", ", tileTopoJsonList);
-			throw new JSONException("TopoJSON Object[\"objects\"] not found; keys: " + tileTopoJsonText);
-		}
-		
-		JSONObject tileGeoJson = new JSONObject();
-		tileGeoJson.put("type", "FeatureCollection");
-		tileGeoJson.put("features", geoJsonFeatures);
-		
-		if (addBoundingBoxToTile) {
-			rifTilesCache.cacheTile(tileGeoJson, null /* pngTileStream */, geography.toLowerCase(), slippyTile, geoLevel.toLowerCase(), "json");
-		}
-		return tileGeoJson;
-	}
-
-	/** 
-	 * Process array list into GeoJSON features
-	 *
-	 * @param connection 		Database JDBC Connection object	
-	 * @param zoomlevel 		0-9 (depends in TileMaker maximum zoomlevel)
-	 * @param geoLevel 			Uppercase String	 
-	 * @param myGeometryTable 	Uppercase String	 
-	 * @param areaIdList		ArrayList<String> of areaIDs
-	 * @param geoJsonFeatures	JSONArray GeoJSON features 
-	 * @param propertiesHash	HashMap<String, JSONObject> of areaID and JSON properties	
-	 * @param minZoomlevel		Minimum zoomlevel
-	 * @param maxZoomlevel		Maximum zoomlevel
-	 *
-	 * @return Number of GeoJSON features processed
-	 *
-	 * @throws RIFServiceException RIF error
-	 * @throws SQLException logical database error
-     */		
-	private int processGeoJsonArrayList(
-		final Connection connection,
-		final Integer zoomlevel,
-		final String geoLevel,
-		final String myGeometryTable,
-		final ArrayList<String> areaIdList,
-		final JSONArray geoJsonFeatures,
-		final HashMap<String, JSONObject> propertiesHash,
-		final int minZoomlevel,
-		final int maxZoomlevel) 
-			throws SQLException, RIFServiceException {
-		
-		int processedCount=0;
-		int removedCount=0;
-		HashMap<String, String> wktHash = getWKT(connection, zoomlevel, geoLevel, myGeometryTable.toLowerCase(), areaIdList,
-			minZoomlevel, maxZoomlevel);
-		if (wktHash != null) {
-			
-			if (wktHash.size() != areaIdList.size()) {
-				throw new SQLException("Error in getWKT; expecting: " + areaIdList.size() + "; got: " + wktHash.size());
-			}
-			Set set = wktHash.entrySet();
-			for (Object o : set) {
-				processedCount++;
-				Map.Entry mentry = (Map.Entry) o;
-				String areaIdKey = (String) mentry.getKey();
-				String wkt = (String) mentry.getValue();
-
-				JSONObject geoJsonFeature = new JSONObject();
-				geoJsonFeature.put("type", "Feature");
-				geoJsonFeature.put("properties", propertiesHash.get(areaIdKey));
-				JSONObject njsonGeometry = rifWellKnownText.wktToGeoJSON(wkt, geoLevel, zoomlevel, areaIdKey);
-				if (njsonGeometry != null) {
-					geoJsonFeature.put("geometry", njsonGeometry);
-					geoJsonFeatures.put(geoJsonFeature);
-				} 
-				else {
-					removedCount++;
-				}
-			} // End of while loop
-		}
-		else {
-			throw new JSONException("Null wktHash for geoLevel: " + geoLevel +
-				"; zoomlevel: " + zoomlevel);
-		}	
-		
-		if (processedCount != areaIdList.size()) {
-			throw new SQLException("Error processing GoeJSON features from WKT; expecting: " + areaIdList.size() + 
-				"; got: " + processedCount);
-		}	
-		else {		
-			rifLogger.debug(getClass(), "Processed: " + processedCount + " areaIds" +
-				"; removed: " + removedCount +
-				"; total geoJsonFeatures: " + geoJsonFeatures.length());
-		}
-							
-		return geoJsonFeatures.length();
-	}
-}
\ No newline at end of file
+}
@@ -8,22 +8,27 @@ import org.sahsu.rif.services.graphics.SlippyTile;
 
 import org.json.JSONObject;
 
-import java.util.Base64;
-import java.util.Base64.Encoder;
-
 import java.io.File;
 import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 
-import java.io.IOException;
-import java.io.FileNotFoundException;
-
 /**
  * Caching for RIF Generated Tiles. Tiles are either in GeoJSON or PNG form
+ * <p>
+ * Tiles are held in a RIFTileStore below EXTRACT_DIRECTORY/scratchspace/tiles, set by tileCacheStore in 
+ * RIFServiceStartupProperties.properties:
+ * <ul>
+ * <li>directory: one file per tile: &lt;geography&gt;/&lt;geolevel&gt;/&lt;zoomlevel&gt;/&lt;x&gt;/&lt;y&gt;.&lt;fileExtension&gt; (default);</li>
+ * <li>archive: one packed archive file per geolevel: &lt;geography&gt;/&lt;geolevel&gt;/tiles.archive. Existing tile 
+ *     directories are imported when the archive is first used.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Geography and geolevel names are lower cased here, for every tile store operation and the checkpoint
+ * file, so callers may pass them in any case.
+ * </p>
  *
  * @author		Peter Hambly
  * @version 	1.0
@@ -34,6 +39,8 @@ public class RIFTilesCache {
 	private static final RIFLogger rifLogger = RIFLogger.getLogger();
 	private static String lineSeparator = System.getProperty("line.separator");
 	private static String EXTRACT_DIRECTORY = null;
+	private static RIFTileStore tileStore = null;
+	private static RIFTilesMemoryCache tileMemoryCache = null;
 
 	/**
 	 * Constructor
@@ -45,6 +52,8 @@ public class RIFTilesCache {
 	public RIFTilesCache(final RIFServiceStartupOptions options) {
 		try {
 			EXTRACT_DIRECTORY = options.getExtractDirectory();
+			createTileStore(options);
+			tileMemoryCache = RIFTilesMemoryCache.getInstance(options);
 		}
 		catch(Exception exception) {
 			rifLogger.warning(this.getClass(), 
@@ -54,7 +63,38 @@ public class RIFTilesCache {
 	}
 	
 	/**
-	 * Cache GeoJSON/PNG tile. Write to .<fileExtension>.tmp and then rename to ensure file creation is atomic
+	 * Create the tile store shared by all RIFTilesCache objects on first use
+	 *
+	 * @param options RIFServiceStartupOptions for the tile store type
+	 */
+	private static synchronized void createTileStore(final RIFServiceStartupOptions options) {
+		if (tileStore == null) {
+			String tileCacheStore = "directory";
+			try {
+				tileCacheStore = options.getOptionalRIfServiceProperty("tileCacheStore", "directory");
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFTilesCache.class, "Invalid tileCacheStore; using default: directory");
+			}
+			
+			Path tilesDirectory = FileSystems.getDefault().getPath(EXTRACT_DIRECTORY, "scratchspace").resolve("tiles");
+			if (tileCacheStore.equals("archive")) {
+				tileStore = new RIFTileArchiveStore(tilesDirectory);
+			}
+			else {
+				if (!tileCacheStore.equals("directory")) {
+					rifLogger.warning(RIFTilesCache.class, "Invalid tileCacheStore: " + tileCacheStore + 
+						"; using default: directory");
+				}
+				tileStore = new RIFTileDirectoryStore(tilesDirectory);
+			}
+			rifLogger.info(RIFTilesCache.class, "Tile cache store: " + tileStore.getClass().getSimpleName() + 
+				" in: " + tilesDirectory.toString());
+		}
+	}
+	
+	/**
+	 * Cache GeoJSON/PNG tile. An already cached tile is not replaced
 	 * <p>
 	 * Write GeoJSON ByteArrayOutputStream to tile: 
 	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.<fileExtension>
@@ -62,9 +102,9 @@ public class RIFTilesCache {
 	 *
 	 * @param tileGeoJson 		Tile GeoJSON as JSONObject (is null if pngTileStream is not null)
 	 * @param pngTileStream 	PNG tile as ByteArrayOutputStream (is null if tileGeoJson is not null)
-	 * @param geography			Uppercase String
+	 * @param geography			geography String (any case)
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
-	 * @param geoLevel 			Uppercase String
+	 * @param geoLevel 			geolevel String (any case)
 	 * @param fileExtension		File extension: .json or .png
 	 *
 	 * @throws RIFServiceException
@@ -78,106 +118,51 @@ public class RIFTilesCache {
 		final String fileExtension) 
 			throws RIFServiceException {
 			
-		File tmpFile=getCachedTileFile(geography, slippyTile, geoLevel, fileExtension + ".tmp");
-		File file=getCachedTileFile(geography, slippyTile, geoLevel, fileExtension);
-		if (!file.exists() && !tmpFile.exists()) {
-//			rifLogger.debug(getClass(), "Cache temporary tile: " + tmpFile.getAbsolutePath());
-			FileOutputStream stream = null;
-			try {
-				stream = new FileOutputStream(tmpFile);
-				if (tileGeoJson == null && pngTileStream == null) {
-					throw new RIFServiceException(
-						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "Both tileGeoJson and pngTileStream are null");
-				}
-				else if (tileGeoJson != null && pngTileStream != null) {
-					throw new RIFServiceException(
-						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "Both tileGeoJson and pngTileStream are not null");
-				}
-				else if (tileGeoJson == null && pngTileStream != null) {
-					stream.write(pngTileStream.toByteArray());
-				}
-				else if (tileGeoJson != null && pngTileStream == null) {
-					stream.write(tileGeoJson.toString().getBytes(StandardCharsets.UTF_8));
-				}
-			} 
-			catch (IOException ioException) {
-				try {
-					if (tmpFile.exists()) {
-						tmpFile.delete();
-					}
-				}
-				catch (SecurityException securityException) {
-					throw new RIFServiceException(
-						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-						"Recursive error writing " + tmpFile.toString() + ": " + ioException.getMessage() + 
-						"; 2nd error: " + securityException.getMessage(), securityException);
-				}
-				throw new RIFServiceException(
-					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-					"Error writing " + tmpFile.toString() + ": " + ioException.getMessage(), ioException);
-			}
-			finally {
-				try {
-					stream.close();
-				} 
-				catch (IOException ioException) {
-					try {
-						if (tmpFile.exists()) {
-							tmpFile.delete();
-						}
-					}
-					catch (SecurityException securityException) {
-						throw new RIFServiceException(
-							RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-							"Recursive error writing " + tmpFile.toString() + ": " + ioException.getMessage() + 
-							"; 2nd error: " + securityException.getMessage(), securityException);
-					}
-					throw new RIFServiceException(
-						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-						"Error writing " + tmpFile.toString() + ": " + ioException.getMessage(), ioException);
-				}
-			}
-			
-			if (!tmpFile.exists()) {
-				throw new RIFServiceException(
-					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-						"Temporary file: " + tmpFile.toString() + " does not exist");
-			}
-			else if (tmpFile.length() == 0) {
-				throw new RIFServiceException(
-					RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-						"Temporary file: " + tmpFile.toString() + " is zero sized");
-			}
-			
-			if (!file.exists()) {
-				try {
-					rifLogger.info(getClass(), "Cache tile(" + tmpFile.length() + " bytes): " + file.getAbsolutePath());
-					tmpFile.renameTo(file);
-				}
-				catch (Exception exception) {
-					try {
-						if (!tmpFile.exists()) {
-							tmpFile.delete();
-						}
-					}
-					catch (SecurityException securityException) {
-						throw new RIFServiceException(
-							RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-							"Recursive error renaming: " + " to: " + file.toString() + tmpFile.toString() + ": " + exception.getMessage() + 
-							"; 2nd error: " + securityException.getMessage(), securityException);
-					}
-					throw new RIFServiceException(
-						RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
-						"Error renaming: " + tmpFile.toString() + " to: " + file.toString() + ": " + exception.getMessage());
-				}
-			}
+		if (tileGeoJson == null && pngTileStream == null) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "Both tileGeoJson and pngTileStream are null");
+		}
+		else if (tileGeoJson != null && pngTileStream != null) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "Both tileGeoJson and pngTileStream are not null");
 		}
-		else if (tmpFile.exists()) {
-			rifLogger.info(getClass(), "Temporary tile(" + tmpFile.length() + " bytes) exists, cannot cache: " + file.getAbsolutePath());
+		else if (tileGeoJson == null) {
+			cacheTile(pngTileStream.toByteArray(), geography, slippyTile, geoLevel, fileExtension);
 		}
-		else if (file.exists()) {
-			rifLogger.info(getClass(), "Tile(" + file.length() + " bytes) already cached: " + file.getAbsolutePath());
+		else {
+			cacheTile(tileGeoJson.toString().getBytes(StandardCharsets.UTF_8), geography, slippyTile, geoLevel, 
+				fileExtension);
+		}
+	}
+
+	/**
+	 * Cache encoded GeoJSON/PNG tile in the tile store. An already cached tile is not replaced
+	 * <p>
+	 * Write tile bytes to: 
+	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.<fileExtension>
+	 * </p>
+	 *
+	 * @param tile 				Tile as encoded bytes (UTF-8 GeoJSON or PNG)
+	 * @param geography			geography String (any case)
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String (any case)
+	 * @param fileExtension		File extension: .json or .png
+	 *
+	 * @throws RIFServiceException
+	 */	
+	public void cacheTile(
+		final byte[] tile,
+		final String geography,
+		final SlippyTile slippyTile, 
+		final String geoLevel, 
+		final String fileExtension) 
+			throws RIFServiceException {
+			
+		if (tile == null) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR, "Null tile");
 		}
+		tileStore.putTile(tile, normalise(geography), slippyTile, normalise(geoLevel), fileExtension);
 	}
 	
 	/**
@@ -187,9 +172,9 @@ public class RIFTilesCache {
 	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.json
 	 * </p>
 	 *
-	 * @param geography			Uppercase String
+	 * @param geography			geography String (any case)
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
-	 * @param geoLevel 			Uppercase String
+	 * @param geoLevel 			geolevel String (any case)
 	 *
 	 * @return String GeoJSON tile
 	 *
@@ -201,139 +186,201 @@ public class RIFTilesCache {
 		final String geoLevel) 
 			throws RIFServiceException {
 			
-		JSONObject tileGeoJson = new JSONObject();
-		File file=getCachedTileFile(geography, slippyTile, geoLevel, "json");
-		if (file.exists()) {
-			rifLogger.info(getClass(), "DeoJSON tile (" + file.length() + " bytes) cache hit: " + file.getAbsolutePath());
-			byte[] bytes = null;
-			try {
-				bytes = Files.readAllBytes(file.toPath());
-			}
-			catch (IOException ioException) {
-				throw new RIFServiceException(
-					RIFServiceError.TILE_CACHE_FILE_READ_ERROR,
-					"Error reading " + file.toString() + ": " + ioException.getMessage(), ioException);
-			}
-			String result = new String(bytes, StandardCharsets.UTF_8);
-			return result;
+		byte[] bytes = getCachedTileBytes(geography, slippyTile, geoLevel, "json");
+		if (bytes != null) {
+			return new String(bytes, StandardCharsets.UTF_8);
 		}
 		
 		return null;
 	}
 
 	/**
-	 * Get PNG tile.
+	 * Get encoded tile.
 	 * <p>
-	 * Fetch PNG ByteArrayOutputStream tile from: 
-	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.png
+	 * Fetch tile bytes from: 
+	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.<fileExtension>
 	 * </p>
 	 *
-	 * @param geography			Uppercase String
+	 * @param geography			geography String (any case)
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
-	 * @param geoLevel 			Uppercase String
+	 * @param geoLevel 			geolevel String (any case)
+	 * @param fileExtension		File extension: .json or .png
 	 *
-	 * @return String GeoJSON tile base64 encoded (to use same code infrastructure as GeoJSON and TopoJSON tiles)
+	 * @return tile bytes, or null if not cached
 	 *
 	 * @throws RIFServiceException
-	 */		
-	public String getCachedPngTile(
+	 */			
+	public byte[] getCachedTileBytes(
 		final String geography,
 		final SlippyTile slippyTile, 
-		final String geoLevel) 
+		final String geoLevel,
+		final String fileExtension) 
 			throws RIFServiceException {
 			
-		File file=getCachedTileFile(geography, slippyTile, geoLevel, "png");	
-		if (file.exists()) {
-			rifLogger.info(getClass(), "PNG tile (" + file.length() + " bytes) cache hit: " + file.getAbsolutePath());
-			byte[] bytes = null;
-			try {
-				bytes = Files.readAllBytes(file.toPath());
-			}
-			catch (IOException ioException) {
-				throw new RIFServiceException(
-					RIFServiceError.TILE_CACHE_FILE_READ_ERROR,
-					"Error reading " + file.toString() + ": " + ioException.getMessage(), ioException);
-			}
-			String result=Base64.getEncoder().encodeToString(bytes);
-			return result;
-		}
-		return null;
+		return tileStore.getTile(normalise(geography), slippyTile, normalise(geoLevel), fileExtension);
 	}
 
 	/**
-	 * Create File object for file in tile cache directory. The file does NOT need to exist.
-	 * <p>
-	 * The cache directory is: EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>
-	 * The file is y.<fileExtension>
-	 * </p>
+	 * Is the tile cached?
 	 *
-	 * @param geography			Uppercase String
+	 * @param geography			geography String (any case)
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
-	 * @param geoLevel 			Uppercase String
+	 * @param geoLevel 			geolevel String (any case)
 	 * @param fileExtension		File extension: .json or .png
 	 *
-	 * @return File object
+	 * @return boolean
 	 *
 	 * @throws RIFServiceException
 	 */			
-	public File getCachedTileFile(
+	public boolean isCachedTile(
 		final String geography,
 		final SlippyTile slippyTile, 
 		final String geoLevel,
-		String fileExtension) 
+		final String fileExtension) 
 			throws RIFServiceException {
 			
-		Path path = createTileDirectoryPath(geography, slippyTile, geoLevel);
-		return new File(path.toString() + File.separator + new Integer(slippyTile.getY()).toString() + "." + fileExtension);
+		return tileStore.containsTile(normalise(geography), slippyTile, normalise(geoLevel), fileExtension);
 	}
 
 	/**
-	 * Create path to tile cache directory. Will create directory if required.
+	 * Remove tile from the cache
+	 *
+	 * @param geography			geography String (any case)
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel String (any case)
+	 * @param fileExtension		File extension: .json or .png
+	 *
+	 * @return true if the tile was cached
+	 *
+	 * @throws RIFServiceException
+	 */			
+	public boolean removeCachedTile(
+		final String geography,
+		final SlippyTile slippyTile, 
+		final String geoLevel,
+		final String fileExtension) 
+			throws RIFServiceException {
+			
+		return tileStore.removeTile(normalise(geography), slippyTile, normalise(geoLevel), fileExtension);
+	}
+
+	/**
+	 * Are any tiles cached for the geolevel?
+	 *
+	 * @param geography			geography String (any case)
+	 * @param geoLevel 			geolevel String (any case)
+	 *
+	 * @return boolean
+	 *
+	 * @throws RIFServiceException
+	 */
+	public boolean hasTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		return tileStore.hasTiles(normalise(geography), normalise(geoLevel));
+	}
+
+	/**
+	 * Remove all cached tiles for the geolevel (e.g. when the geography has been reloaded), on disk and in
+	 * the RIFTilesMemoryCache, and delete the tile generation checkpoint, so the tiles are generated again
+	 *
+	 * @param geography			geography String (any case)
+	 * @param geoLevel 			geolevel String (any case)
+	 *
+	 * @throws RIFServiceException
+	 */
+	public void clearTiles(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		tileStore.clearTiles(normalise(geography), normalise(geoLevel));
+		tileMemoryCache.invalidate(geography, geoLevel);
+		File checkpointFile = getCheckpointFile(geography, geoLevel);
+		if (checkpointFile.exists() && !checkpointFile.delete()) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+				"Error deleting tile checkpoint: " + checkpointFile.toString());
+		}
+	}
+
+	/**
+	 * Get PNG tile.
 	 * <p>
-	 * The cache directory is: EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>
+	 * Fetch raw PNG tile bytes from: 
+	 * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x>/<y>.png
 	 * </p>
 	 *
-	 * @param geography			Uppercase String
+	 * @param geography			geography String (any case)
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
-	 * @param geoLevel 			Uppercase String
+	 * @param geoLevel 			geolevel String (any case)
 	 *
-	 * @return Path to tile cache directory: EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/<zoomlevel>/<x> 
+	 * @return PNG tile bytes, or null if not cached
 	 *
 	 * @throws RIFServiceException
-	 */
-	private Path createTileDirectoryPath(
+	 */		
+	public byte[] getCachedPngTile(
 		final String geography,
 		final SlippyTile slippyTile, 
 		final String geoLevel) 
 			throws RIFServiceException {
+			
+		return getCachedTileBytes(geography, slippyTile, geoLevel, "png");
+	}
 
-		if (geography == null) { 
-			throw new RIFServiceException(
-					RIFServiceError.INVALID_PARAMETER,
-					"NULL geography specified, unable to create tile cache path");
-		}
-		if (geoLevel == null) { 
-			throw new RIFServiceException(
-					RIFServiceError.INVALID_PARAMETER,
-					"NULL geoLevel specified, unable to create tile cache path");
-		}
-		if (slippyTile == null) { 
+	/**
+	 * Create File object for the tile generation checkpoint of a geolevel. The file does NOT need to exist.
+	 * <p>
+	 * The file is: EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/tiles.checkpoint
+	 * </p>
+	 *
+	 * @param geography			geography String (any case)
+	 * @param geoLevel 			geolevel String (any case)
+	 *
+	 * @return File object
+	 *
+	 * @throws RIFServiceException
+	 */
+	public File getCheckpointFile(
+		final String geography,
+		final String geoLevel)
+			throws RIFServiceException {
+
+		if (geography == null || geoLevel == null) {
 			throw new RIFServiceException(
 					RIFServiceError.INVALID_PARAMETER,
-					"NULL slippyTile specified, unable to create tile cache path");
+					"NULL geography or geoLevel specified, unable to create tile checkpoint path");
 		}
 		Path path = FileSystems.getDefault().getPath(EXTRACT_DIRECTORY, "scratchspace").
 						resolve("tiles").
-						resolve(geography).resolve(geoLevel).
-						resolve(new Integer(slippyTile.getZoomlevel()).toString()).
-						resolve(new Integer(slippyTile.getX()).toString());
-	
+						resolve(normalise(geography)).resolve(normalise(geoLevel));
 		if (!path.toFile().exists()) {
 			rifLogger.info(getClass(), "Creating tile cache directory: " + path.toString());
 			path.toFile().mkdirs();
 		}
-				
-		return path;
-	}		
-	
-}
\ No newline at end of file
+		return path.resolve("tiles.checkpoint").toFile();
+	}
+
+	/**
+	 * Close the tile store (e.g. the open tile archives) when the web application stops
+	 */
+	public static synchronized void close() {
+		if (tileStore != null) {
+			tileStore.close();
+		}
+	}
+
+	/**
+	 * Tile store names are lower case, so a tile is found whatever the case of the name it was written with
+	 *
+	 * @param name 		geography or geolevel name; may be null
+	 *
+	 * @return lower case name
+	 */
+	private static String normalise(final String name) {
+		return (name == null ? null : name.toLowerCase());
+	}
+
+}
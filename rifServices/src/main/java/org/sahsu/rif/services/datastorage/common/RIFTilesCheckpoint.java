@@ -0,0 +1,217 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.graphics.RIFTilesException;
+import org.sahsu.rif.services.graphics.SlippyTile;
+import org.sahsu.rif.services.system.RIFServiceError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Tile generation checkpoint for a geolevel, so that RIFTiles.generateTiles() resumes where it
+ * stopped after a restart.
+ * <p>
+ * Tiles are generated in parallel but in (zoomlevel, x, y) order. The checkpoint records how many
+ * tiles in that order have been completed without gaps, the last of those tiles (so that the tile query
+ * can resume after it) and whether the geolevel is complete. It is written to:
+ * EXTRACT_DIRECTORY/scratchspace/tiles/<geography>/<geolevel>/tiles.checkpoint
+ * </p>
+ * <p>
+ * The checkpoint is only valid for the tiles in the tile cache: RIFTilesCache.clearTiles() deletes it, and
+ * RIFTiles resets it if the cache no longer holds any tiles for the geolevel.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTilesCheckpoint {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+	private static final int SAVE_INTERVAL = 100; // Save every n completed tiles
+
+	private final File file;
+	private final int tileCount;
+	private final BitSet completedTiles = new BitSet();
+	private final Map<Integer, SlippyTile> pendingTiles = new HashMap<>(); // Completed after a gap
+	private int completedCount = 0;
+	private SlippyTile lastCompletedTile = null;
+	private int lastSavedCount = 0;
+	private boolean complete = false;
+	private boolean stale = false;
+
+	/**
+	 * Constructor. Reads the checkpoint file if it exists; a checkpoint for a different number of tiles
+	 * (i.e. the geography has been reloaded) is ignored.
+	 *
+	 * @param file 			checkpoint File
+	 * @param tileCount 	Number of tiles in the geolevel
+	 */
+	public RIFTilesCheckpoint(
+		final File file,
+		final int tileCount) {
+
+		this.file = file;
+		this.tileCount = tileCount;
+
+		if (file.exists()) {
+			Properties properties = new Properties();
+			try (InputStream stream = new FileInputStream(file)) {
+				properties.load(stream);
+				int savedTileCount = Integer.parseInt(properties.getProperty("tileCount", "-1"));
+				if (savedTileCount == tileCount) {
+					int savedCompletedCount = Integer.parseInt(properties.getProperty("completedTiles", "0"));
+					if (savedCompletedCount > 0) {
+						lastCompletedTile = new SlippyTile(
+							Integer.parseInt(properties.getProperty("lastZoomlevel")),
+							Integer.parseInt(properties.getProperty("lastX")),
+							Integer.parseInt(properties.getProperty("lastY")));
+					}
+					completedCount = savedCompletedCount;
+					complete = Boolean.parseBoolean(properties.getProperty("complete", "false"));
+					completedTiles.set(0, completedCount);
+					lastSavedCount = completedCount;
+				}
+				else {
+					stale = true;
+					rifLogger.info(getClass(), "Ignoring tile checkpoint: " + file.getAbsolutePath() +
+						"; expected tileCount: " + tileCount + "; got: " + savedTileCount);
+				}
+			}
+			catch (IOException | NumberFormatException | RIFTilesException exception) {
+				rifLogger.warning(getClass(), "Unable to read tile checkpoint: " + file.getAbsolutePath() +
+					"; restarting geolevel: " + exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Is the geolevel complete?
+	 *
+	 * @return boolean
+	 */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Was a checkpoint for a different number of tiles found, i.e. has the geography been reloaded since
+	 * the tiles were generated?
+	 *
+	 * @return boolean
+	 */
+	public synchronized boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Restart the geolevel: forget the completed tiles and delete the checkpoint file (e.g. when the
+	 * tile cache has been cleared)
+	 */
+	public synchronized void reset() {
+		completedTiles.clear();
+		pendingTiles.clear();
+		completedCount = 0;
+		lastCompletedTile = null;
+		lastSavedCount = 0;
+		complete = false;
+		stale = false;
+		if (file.exists() && !file.delete()) {
+			rifLogger.warning(getClass(), "Unable to delete tile checkpoint: " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Get the number of tiles completed, in order, without gaps. Tiles before this index can be skipped
+	 *
+	 * @return int
+	 */
+	public synchronized int getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * Get the last of the tiles completed without gaps; the tiles to generate follow it in (zoomlevel, x, y)
+	 * order
+	 *
+	 * @return SlippyTile; null if no tiles have been completed
+	 */
+	public synchronized SlippyTile getLastCompletedTile() {
+		return lastCompletedTile;
+	}
+
+	/**
+	 * Mark tile as complete (generated or already cached); saves the checkpoint periodically
+	 *
+	 * @param tileIndex 	0 based index of the tile in (zoomlevel, x, y) order
+	 * @param slippyTile 	the tile
+	 *
+	 * @throws RIFServiceException on checkpoint write error
+	 */
+	public synchronized void markComplete(final int tileIndex, final SlippyTile slippyTile)
+			throws RIFServiceException {
+		completedTiles.set(tileIndex);
+		pendingTiles.put(tileIndex, slippyTile);
+		int newCompletedCount = completedTiles.nextClearBit(completedCount);
+		if (newCompletedCount > completedCount) {
+			lastCompletedTile = pendingTiles.get(newCompletedCount - 1);
+			for (int i = completedCount; i < newCompletedCount; i++) {
+				pendingTiles.remove(i);
+			}
+			completedCount = newCompletedCount;
+		}
+		if (completedCount - lastSavedCount >= SAVE_INTERVAL) {
+			save();
+		}
+	}
+
+	/**
+	 * Save the checkpoint, marking the geolevel as complete if all tiles are done
+	 *
+	 * @throws RIFServiceException on checkpoint write error
+	 */
+	public synchronized void save() throws RIFServiceException {
+		complete = (completedCount >= tileCount);
+
+		Properties properties = new Properties();
+		properties.setProperty("tileCount", String.valueOf(tileCount));
+		properties.setProperty("completedTiles", String.valueOf(completedCount));
+		if (lastCompletedTile != null) {
+			properties.setProperty("lastZoomlevel", String.valueOf(lastCompletedTile.getZoomlevel()));
+			properties.setProperty("lastX", String.valueOf(lastCompletedTile.getX()));
+			properties.setProperty("lastY", String.valueOf(lastCompletedTile.getY()));
+		}
+		properties.setProperty("complete", String.valueOf(complete));
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (OutputStream stream = new FileOutputStream(tmpFile)) {
+			properties.store(stream, "RIF tile generation checkpoint");
+		}
+		catch (IOException ioException) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+				"Error writing " + tmpFile.toString() + ": " + ioException.getMessage(), ioException);
+		}
+
+		if (file.exists() && !file.delete()) { // Windows will not rename over an existing file
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+				"Error deleting old checkpoint: " + file.toString());
+		}
+		if (!tmpFile.renameTo(file)) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_CACHE_FILE_WRITE_ERROR,
+				"Error renaming: " + tmpFile.toString() + " to: " + file.toString());
+		}
+		lastSavedCount = completedCount;
+	}
+}
@@ -0,0 +1,307 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory cache for RIF Generated Tiles. Sits in front of the on disk RIFTilesCache and the
+ * database tile tables so that hot tiles are served without JDBC or filesystem access.
+ * <p>
+ * Tiles (TopoJSON, GeoJSON or PNG) are held as encoded bytes keyed on: geography, geolevel,
+ * zoomlevel, x, y and tile type. The cache is shared by all requests, is bounded by size in bytes
+ * and evicts the least recently used tiles first.
+ * </p>
+ * <p>
+ * The size is set by tileMemoryCacheSizeMB in RIFServiceStartupProperties.properties (default: 64MB).
+ * Set to 0 to disable.
+ * </p>
+ * <p>
+ * Tiles stay cached until they are evicted or the web application is stopped; a geolevel's tiles are
+ * removed when RIFTilesCache.clearTiles() clears it (the tile generator does this when a geography has
+ * been reloaded).
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTilesMemoryCache {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int DEFAULT_CACHE_SIZE_MB = 64;
+	private static final int KEY_OVERHEAD_BYTES = 128; // Approximate size of key, entry and array headers
+	private static final int STATISTICS_LOG_INTERVAL = 10000; // Log statistics every n requests
+
+	private static RIFTilesMemoryCache rifTilesMemoryCache = null;
+
+	private final LinkedHashMap<TileKey, byte[]> tiles =
+		new LinkedHashMap<TileKey, byte[]>(1024, 0.75f, true /* Access order: LRU */);
+	private final long maxSizeBytes;
+	private final long maxTileSizeBytes;
+	private long sizeBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private final AtomicLong requests = new AtomicLong(0);
+
+	/**
+	 * Cache key; geography and geolevel are held in lower case
+	 */
+	public static final class TileKey {
+
+		private final String geography;
+		private final String geoLevel;
+		private final int zoomlevel;
+		private final int x;
+		private final int y;
+		private final String tileType;
+
+		/**
+		 * Constructor
+		 *
+		 * @param geography			geography String
+		 * @param geoLevel 			geolevel String
+		 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+		 * @param tileType 			topojson, geojson or png
+		 */
+		public TileKey(
+			final String geography,
+			final String geoLevel,
+			final SlippyTile slippyTile,
+			final String tileType) {
+			this.geography = geography.toLowerCase();
+			this.geoLevel = geoLevel.toLowerCase();
+			this.zoomlevel = slippyTile.getZoomlevel();
+			this.x = slippyTile.getX();
+			this.y = slippyTile.getY();
+			this.tileType = tileType;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (!(object instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey)object;
+			return zoomlevel == other.zoomlevel &&
+				x == other.x &&
+				y == other.y &&
+				geography.equals(other.geography) &&
+				geoLevel.equals(other.geoLevel) &&
+				tileType.equals(other.tileType);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = geography.hashCode();
+			result = 31 * result + geoLevel.hashCode();
+			result = 31 * result + zoomlevel;
+			result = 31 * result + x;
+			result = 31 * result + y;
+			result = 31 * result + tileType.hashCode();
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return geography + "/" + geoLevel + "/" + zoomlevel + "/" + x + "/" + y + "." + tileType;
+		}
+	}
+
+	/**
+	 * Get the shared tile memory cache, creating it on first use
+	 *
+	 * @param options RIFServiceStartupOptions for the cache size
+	 *
+	 * @return RIFTilesMemoryCache
+	 */
+	public static synchronized RIFTilesMemoryCache getInstance(final RIFServiceStartupOptions options) {
+		if (rifTilesMemoryCache == null) {
+			int cacheSizeMB = DEFAULT_CACHE_SIZE_MB;
+			try {
+				cacheSizeMB = options.getOptionalRIfServiceProperty("tileMemoryCacheSizeMB",
+					DEFAULT_CACHE_SIZE_MB);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFTilesMemoryCache.class,
+					"Invalid tileMemoryCacheSizeMB; using default: " + DEFAULT_CACHE_SIZE_MB + "MB");
+			}
+			rifTilesMemoryCache = new RIFTilesMemoryCache((long)cacheSizeMB * 1024 * 1024);
+		}
+		return rifTilesMemoryCache;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSizeBytes 		Maximum size of the cache in bytes; 0 disables the cache
+	 */
+	RIFTilesMemoryCache(final long maxSizeBytes) {
+		this.maxSizeBytes = Math.max(0, maxSizeBytes);
+		this.maxTileSizeBytes = this.maxSizeBytes / 8; // A single tile may not flush most of the cache
+		rifLogger.info(getClass(), "Tile memory cache size: " + (this.maxSizeBytes / (1024 * 1024)) + "MB" +
+			(this.maxSizeBytes == 0 ? " [disabled]" : ""));
+	}
+
+	/**
+	 * Get tile
+	 *
+	 * @param tileKey 		TileKey
+	 *
+	 * @return GeoJSON/TopoJSON tile as a String, or null if not cached (use getTileBytes() for PNG tiles)
+	 */
+	public String getTile(final TileKey tileKey) {
+		byte[] bytes = getTileBytes(tileKey);
+		if (bytes == null) {
+			return null;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get tile bytes
+	 *
+	 * @param tileKey 		TileKey
+	 *
+	 * @return tile as encoded bytes (PNG tiles as raw PNG), or null if not cached
+	 */
+	public byte[] getTileBytes(final TileKey tileKey) {
+		if (maxSizeBytes == 0) {
+			return null;
+		}
+
+		byte[] bytes;
+		synchronized (this) {
+			bytes = tiles.get(tileKey);
+		}
+		if (bytes == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+
+		if (requests.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0) {
+			rifLogger.info(getClass(), getStatistics());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Cache tile
+	 *
+	 * @param tileKey 		TileKey
+	 * @param tile 			GeoJSON/TopoJSON tile as a String (use cacheTileBytes() for PNG tiles)
+	 */
+	public void cacheTile(final TileKey tileKey, final String tile) {
+		if (tile != null) {
+			cacheTileBytes(tileKey, tile.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Cache tile bytes, evicting the least recently used tiles to make space
+	 *
+	 * @param tileKey 		TileKey
+	 * @param bytes 		tile as encoded bytes (PNG tiles as raw PNG)
+	 */
+	public synchronized void cacheTileBytes(final TileKey tileKey, final byte[] bytes) {
+		if (maxSizeBytes == 0 || bytes == null || entrySize(bytes) > maxTileSizeBytes) {
+			return;
+		}
+
+		byte[] previous = tiles.put(tileKey, bytes);
+		if (previous != null) {
+			sizeBytes -= entrySize(previous);
+		}
+		sizeBytes += entrySize(bytes);
+
+		Iterator<Map.Entry<TileKey, byte[]>> iterator = tiles.entrySet().iterator();
+		while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+			Map.Entry<TileKey, byte[]> eldest = iterator.next();
+			sizeBytes -= entrySize(eldest.getValue());
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove all tiles for a geolevel (e.g. when the geography is reloaded)
+	 *
+	 * @param geography 	geography String
+	 * @param geoLevel 		geolevel String
+	 */
+	public synchronized void invalidate(final String geography, final String geoLevel) {
+		String lowerCaseGeography = geography.toLowerCase();
+		String lowerCaseGeoLevel = geoLevel.toLowerCase();
+		Iterator<Map.Entry<TileKey, byte[]>> iterator = tiles.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<TileKey, byte[]> entry = iterator.next();
+			if (entry.getKey().geography.equals(lowerCaseGeography) &&
+				entry.getKey().geoLevel.equals(lowerCaseGeoLevel)) {
+				sizeBytes -= entrySize(entry.getValue());
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all tiles
+	 */
+	public synchronized void clear() {
+		tiles.clear();
+		sizeBytes = 0;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	public synchronized long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	/**
+	 * Get cache statistics for logging
+	 *
+	 * @return String statistics
+	 */
+	public String getStatistics() {
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		long total = hitCount + missCount;
+		return "Tile memory cache: " + getTileCount() + " tiles" +
+			"; size: " + getSizeBytes() + "/" + maxSizeBytes + " bytes" +
+			"; hits: " + hitCount +
+			"; misses: " + missCount +
+			"; evictions: " + evictions.get() +
+			"; hit rate: " + (total == 0 ? 0 : (100 * hitCount) / total) + "%";
+	}
+
+	private static long entrySize(final byte[] bytes) {
+		return bytes.length + KEY_OVERHEAD_BYTES;
+	}
+}
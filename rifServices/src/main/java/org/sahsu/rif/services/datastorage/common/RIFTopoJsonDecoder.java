@@ -0,0 +1,330 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import org.codehaus.jackson.JsonGenerator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decode TopoJSON geometries to GeoJSON, as topojson.feature(topology, object) does in the front end:
+ * https://github.com/topojson/topojson-client/blob/master/README.md#feature
+ * <p>
+ * Arcs are delta decoded and transformed (if the topology is quantised) on first use and shared between
+ * the geometries that use them, so a tile is decoded one geometry at a time without the geometry table
+ * lookup and WKT parsing. Polygons are returned as MultiPolygons, as RifWellKnownText.createGeometryFromWkt()
+ * does; POINT/MULTIPOINT/LINESTRING/MULTILINESTRINGs are removed. Geometries can be written directly to a
+ * Jackson JsonGenerator (see RIFGeoJsonTileWriter), returned as org.json objects or returned as JTS
+ * geometries for PNG tiles (see RIFTileRasteriser).
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTopoJsonDecoder {
+
+	private static final double PRECISION = 1.0e4; // Decimal places in GeoJSON coordinates, as Geotools GeometryJSON
+	private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+	private final JSONArray arcs;
+	private final double[][] decodedArcs;
+	private final double scaleX;
+	private final double scaleY;
+	private final double translateX;
+	private final double translateY;
+	private final boolean quantised;
+
+	/**
+	 * Constructor
+	 *
+	 * @param topology 		TopoJSON Topology JSONObject
+	 *
+	 * @throws JSONException if the topology has no arcs or has an invalid transform
+	 */
+	public RIFTopoJsonDecoder(final JSONObject topology) throws JSONException {
+		arcs = topology.optJSONArray("arcs");
+		if (arcs == null) {
+			throw new JSONException("TopoJSON Array[\"arcs\"] not found");
+		}
+		decodedArcs = new double[arcs.length()][];
+
+		JSONObject transform = topology.optJSONObject("transform");
+		quantised = (transform != null);
+		if (quantised) {
+			JSONArray scale = transform.getJSONArray("scale");
+			JSONArray translate = transform.getJSONArray("translate");
+			scaleX = scale.getDouble(0);
+			scaleY = scale.getDouble(1);
+			translateX = translate.getDouble(0);
+			translateY = translate.getDouble(1);
+		}
+		else {
+			scaleX = 1;
+			scaleY = 1;
+			translateX = 0;
+			translateY = 0;
+		}
+	}
+
+	/**
+	 * Decode TopoJSON geometry object to a GeoJSON MultiPolygon geometry
+	 *
+	 * @param topoJsonGeometry 	TopoJSON geometry object: Polygon, MultiPolygon or GeometryCollection
+	 *
+	 * @return GeoJSON MultiPolygon as JSONObject; null if the geometry contains no polygons
+	 *
+	 * @throws JSONException on invalid TopoJSON
+	 */
+	public JSONObject toGeoJsonGeometry(final JSONObject topoJsonGeometry) throws JSONException {
+		List<JSONArray> polygonArcs = getPolygonArcs(topoJsonGeometry);
+		if (polygonArcs.isEmpty()) {
+			return null;
+		}
+
+		JSONArray polygons = new JSONArray();
+		for (JSONArray ringArcs : polygonArcs) {
+			JSONArray rings = new JSONArray();
+			for (int i = 0; i < ringArcs.length(); i++) {
+				final JSONArray points = new JSONArray();
+				try {
+					forEachRingPoint(ringArcs.getJSONArray(i), (x, y) -> {
+						JSONArray coordinate = new JSONArray();
+						coordinate.put(x);
+						coordinate.put(y);
+						points.put(coordinate);
+					});
+				}
+				catch (IOException ioException) { // Not thrown when building JSONArrays
+					throw new JSONException(ioException.getMessage());
+				}
+				rings.put(points);
+			}
+			polygons.put(rings);
+		}
+
+		JSONObject geometry = new JSONObject();
+		geometry.put("type", "MultiPolygon");
+		geometry.put("coordinates", polygons);
+		return geometry;
+	}
+
+	/**
+	 * Decode TopoJSON geometry object to a JTS MultiPolygon, with the same coordinates as the GeoJSON
+	 *
+	 * @param topoJsonGeometry 	TopoJSON geometry object: Polygon, MultiPolygon or GeometryCollection
+	 *
+	 * @return JTS MultiPolygon; null if the geometry contains no polygons. Rings with fewer than 4 points
+	 * 		   are removed, as are polygons without a valid exterior ring
+	 *
+	 * @throws JSONException on invalid TopoJSON
+	 */
+	public MultiPolygon toJtsGeometry(final JSONObject topoJsonGeometry) throws JSONException {
+		List<JSONArray> polygonArcs = getPolygonArcs(topoJsonGeometry);
+		List<Polygon> polygons = new ArrayList<>(polygonArcs.size());
+		for (JSONArray ringArcs : polygonArcs) {
+			LinearRing shell = null;
+			List<LinearRing> holes = new ArrayList<>();
+			for (int i = 0; i < ringArcs.length(); i++) {
+				LinearRing ring = toLinearRing(ringArcs.getJSONArray(i));
+				if (i == 0) {
+					shell = ring;
+				}
+				else if (ring != null) {
+					holes.add(ring);
+				}
+			}
+			if (shell != null) {
+				polygons.add(geometryFactory.createPolygon(shell, holes.toArray(new LinearRing[0])));
+			}
+		}
+		if (polygons.isEmpty()) {
+			return null;
+		}
+		return geometryFactory.createMultiPolygon(polygons.toArray(new Polygon[0]));
+	}
+
+	/**
+	 * Write TopoJSON geometry object as a GeoJSON MultiPolygon geometry, without building a JSON object tree
+	 *
+	 * @param topoJsonGeometry 	TopoJSON geometry object: Polygon, MultiPolygon or GeometryCollection
+	 * @param generator 		Jackson JsonGenerator positioned at a field value
+	 *
+	 * @return false, and nothing is written, if the geometry contains no polygons
+	 *
+	 * @throws JSONException on invalid TopoJSON
+	 * @throws IOException on write error
+	 */
+	public boolean writeGeoJsonGeometry(
+		final JSONObject topoJsonGeometry,
+		final JsonGenerator generator) throws JSONException, IOException {
+		List<JSONArray> polygonArcs = getPolygonArcs(topoJsonGeometry);
+		if (polygonArcs.isEmpty()) {
+			return false;
+		}
+
+		generator.writeStartObject();
+		generator.writeStringField("type", "MultiPolygon");
+		generator.writeArrayFieldStart("coordinates");
+		for (JSONArray ringArcs : polygonArcs) {
+			generator.writeStartArray();
+			for (int i = 0; i < ringArcs.length(); i++) {
+				generator.writeStartArray();
+				forEachRingPoint(ringArcs.getJSONArray(i), (x, y) -> {
+					generator.writeStartArray();
+					generator.writeNumber(x);
+					generator.writeNumber(y);
+					generator.writeEndArray();
+				});
+				generator.writeEndArray();
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+		return true;
+	}
+
+	/**
+	 * Does the TopoJSON geometry object contain any polygons?
+	 *
+	 * @param topoJsonGeometry 	TopoJSON geometry object
+	 *
+	 * @return boolean; false for null geometries and geometries simplified to POINT/MULTIPOINT/LINESTRING/MULTILINESTRINGs
+	 *
+	 * @throws JSONException on invalid TopoJSON
+	 */
+	public boolean hasPolygons(final JSONObject topoJsonGeometry) throws JSONException {
+		return !getPolygonArcs(topoJsonGeometry).isEmpty();
+	}
+
+	/**
+	 * Get the ring arcs of each polygon in a TopoJSON geometry object
+	 */
+	private List<JSONArray> getPolygonArcs(final JSONObject topoJsonGeometry) throws JSONException {
+		List<JSONArray> polygonArcs = new ArrayList<>();
+		addPolygonArcs(topoJsonGeometry, polygonArcs);
+		return polygonArcs;
+	}
+
+	private void addPolygonArcs(final JSONObject topoJsonGeometry, final List<JSONArray> polygonArcs)
+			throws JSONException {
+		String type = topoJsonGeometry.optString("type", null);
+		if (type == null) { // Null geometry
+			return;
+		}
+		switch (type) {
+			case "Polygon":
+				polygonArcs.add(topoJsonGeometry.getJSONArray("arcs"));
+				break;
+			case "MultiPolygon":
+				JSONArray arcs = topoJsonGeometry.getJSONArray("arcs");
+				for (int i = 0; i < arcs.length(); i++) {
+					polygonArcs.add(arcs.getJSONArray(i));
+				}
+				break;
+			case "GeometryCollection":
+				JSONArray geometries = topoJsonGeometry.getJSONArray("geometries");
+				for (int i = 0; i < geometries.length(); i++) {
+					addPolygonArcs(geometries.getJSONObject(i), polygonArcs);
+				}
+				break;
+			case "Point":
+			case "MultiPoint":
+			case "LineString":
+			case "MultiLineString":
+				break;
+			default:
+				throw new JSONException("Unsupported TopoJSON geometry type: \"" + type + "\"");
+		}
+	}
+
+	/**
+	 * Stitch arcs into a ring. The first point of each arc is the last point of the previous arc;
+	 * a negative arc index (~i) is arc i reversed. Coordinates are rounded to PRECISION
+	 */
+	private void forEachRingPoint(final JSONArray arcIndexes, final PointConsumer consumer)
+			throws JSONException, IOException {
+		int pointCount = 0;
+		double firstX = 0;
+		double firstY = 0;
+		for (int i = 0; i < arcIndexes.length(); i++) {
+			int arcIndex = arcIndexes.getInt(i);
+			boolean reversed = (arcIndex < 0);
+			double[] arc = getArc(reversed ? ~arcIndex : arcIndex);
+			int arcPointCount = arc.length / 2;
+			for (int k = (i == 0 ? 0 : 1); k < arcPointCount; k++) {
+				int point = (reversed ? arcPointCount - 1 - k : k);
+				double x = round(arc[2 * point]);
+				double y = round(arc[2 * point + 1]);
+				if (pointCount == 0) {
+					firstX = x;
+					firstY = y;
+				}
+				consumer.accept(x, y);
+				pointCount++;
+			}
+		}
+		if (pointCount > 0 && pointCount < 4) { // Degenerate ring; close it as topojson-client does
+			consumer.accept(firstX, firstY);
+		}
+	}
+
+	private LinearRing toLinearRing(final JSONArray arcIndexes) throws JSONException {
+		final List<Coordinate> coordinates = new ArrayList<>();
+		try {
+			forEachRingPoint(arcIndexes, (x, y) -> coordinates.add(new Coordinate(x, y)));
+		}
+		catch (IOException ioException) { // Not thrown when building coordinates
+			throw new JSONException(ioException.getMessage());
+		}
+		if (coordinates.size() > 0 && !coordinates.get(0).equals2D(coordinates.get(coordinates.size() - 1))) {
+			coordinates.add(new Coordinate(coordinates.get(0)));
+		}
+		if (coordinates.size() < 4) {
+			return null;
+		}
+		return geometryFactory.createLinearRing(coordinates.toArray(new Coordinate[0]));
+	}
+
+	private double[] getArc(final int arcIndex) throws JSONException {
+		double[] arc = decodedArcs[arcIndex];
+		if (arc == null) {
+			JSONArray arcPoints = arcs.getJSONArray(arcIndex);
+			arc = new double[2 * arcPoints.length()];
+			double x = 0;
+			double y = 0;
+			for (int k = 0; k < arcPoints.length(); k++) {
+				JSONArray position = arcPoints.getJSONArray(k);
+				if (quantised) { // Delta encoded
+					x += position.getDouble(0);
+					y += position.getDouble(1);
+				}
+				else {
+					x = position.getDouble(0);
+					y = position.getDouble(1);
+				}
+				arc[2 * k] = x * scaleX + translateX;
+				arc[2 * k + 1] = y * scaleY + translateY;
+			}
+			decodedArcs[arcIndex] = arc;
+		}
+		return arc;
+	}
+
+	private static double round(final double value) {
+		return Math.round(value * PRECISION) / PRECISION;
+	}
+
+	@FunctionalInterface
+	private interface PointConsumer {
+		void accept(double x, double y) throws IOException;
+	}
+}
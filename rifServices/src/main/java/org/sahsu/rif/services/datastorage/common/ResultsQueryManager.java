@@ -1,5 +1,6 @@
 package org.sahsu.rif.services.datastorage.common;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -11,6 +12,7 @@ import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Base64;
 
 import org.apache.commons.collections.IteratorUtils;
 
@@ -47,11 +49,13 @@ public class ResultsQueryManager extends BaseSQLManager {
 	private static String lineSeparator = System.getProperty("line.separator");
 
 	private RIFServiceStartupOptions options;
+	private RIFTilesMemoryCache tileMemoryCache;
 	
 	public ResultsQueryManager(final RIFServiceStartupOptions options) {
 
 		super(options);
 		this.options = options;
+		tileMemoryCache = RIFTilesMemoryCache.getInstance(options);
 
 		FunctionCallerQueryFormatter getTilesQueryFormatter = new FunctionCallerQueryFormatter();
 		configureQueryFormatterForDB(getTilesQueryFormatter);
@@ -66,23 +70,26 @@ public class ResultsQueryManager extends BaseSQLManager {
 					throws RIFServiceException {
 		String result="{}";
 		
-		SelectQueryFormatter getMapBackgroundQueryFormatter1 =
-				SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
-
-		getMapBackgroundQueryFormatter1.setDatabaseSchemaName("rif40");
-		getMapBackgroundQueryFormatter1.addSelectField("map_background");
-		getMapBackgroundQueryFormatter1.addFromTable("rif40_geographies");
-		getMapBackgroundQueryFormatter1.addWhereParameter("geography");
-
-		logSQLQuery("getMapBackground", getMapBackgroundQueryFormatter1, geography.getName().toUpperCase());
+		String getMapBackgroundQuery = getRegisteredSQL("getMapBackground", () -> {
+			SelectQueryFormatter getMapBackgroundQueryFormatter1 =
+					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
+
+			getMapBackgroundQueryFormatter1.setDatabaseSchemaName("rif40");
+			getMapBackgroundQueryFormatter1.addSelectField("map_background");
+			getMapBackgroundQueryFormatter1.addFromTable("rif40_geographies");
+			getMapBackgroundQueryFormatter1.addWhereParameter("geography");
+			return getMapBackgroundQueryFormatter1;
+		});
+
+		logSQLQuery("getMapBackground", getMapBackgroundQuery, geography.getName().toUpperCase());
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;
 
 		try {
-			statement1 = connection.prepareStatement(getMapBackgroundQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(getMapBackgroundQuery);
 			statement1.setString(1, geography.getName().toUpperCase());
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getMapBackground", statement1);
 				
 			if (!resultSet1.next()) {
 				throw new RIFServiceException(
@@ -127,23 +134,26 @@ public class ResultsQueryManager extends BaseSQLManager {
 						
 		String result="{}";
 		
-		SelectQueryFormatter getSelectStateQueryFormatter1 =
-				SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
-
-		getSelectStateQueryFormatter1.setDatabaseSchemaName("rif40");
-		getSelectStateQueryFormatter1.addSelectField("select_state");
-		getSelectStateQueryFormatter1.addFromTable("rif40_studies");
-		getSelectStateQueryFormatter1.addWhereParameter("study_id");
-
-		logSQLQuery("getSelectState", getSelectStateQueryFormatter1, studyID);
+		String getSelectStateQuery = getRegisteredSQL("getSelectState", () -> {
+			SelectQueryFormatter getSelectStateQueryFormatter1 =
+					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
+
+			getSelectStateQueryFormatter1.setDatabaseSchemaName("rif40");
+			getSelectStateQueryFormatter1.addSelectField("select_state");
+			getSelectStateQueryFormatter1.addFromTable("rif40_studies");
+			getSelectStateQueryFormatter1.addWhereParameter("study_id");
+			return getSelectStateQueryFormatter1;
+		});
+
+		logSQLQuery("getSelectState", getSelectStateQuery, studyID);
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;		
 
 		try {
-			statement1 = connection.prepareStatement(getSelectStateQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(getSelectStateQuery);
 			statement1.setInt(1, Integer.parseInt(studyID));
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getSelectState", statement1);
 		
 			if (!resultSet1.next()) {
 				throw new RIFServiceException(
@@ -281,10 +291,11 @@ public class ResultsQueryManager extends BaseSQLManager {
 			String sqlQueryText = null;
 			try {
 				SQLGeneralQueryFormatter getCovariateLossReportFormatter1 = getCovariateLossReportHash.get(key);
-				sqlQueryText = logSQLQuery("getCovariateLossReport", getCovariateLossReportFormatter1);
+				sqlQueryText = getCovariateLossReportFormatter1.generateQuery();
+				logSQLQuery("getCovariateLossReport", sqlQueryText);
 
-				statement1 = connection.prepareStatement(getCovariateLossReportFormatter1.generateQuery());
-				resultSet1 = statement1.executeQuery();
+				statement1 = connection.prepareStatement(sqlQueryText);
+				resultSet1 = executeQuery("getCovariateLossReport", statement1);
 				if (!resultSet1.next()) {
 					throw new RIFServiceException(
 						RIFServiceError.DATABASE_QUERY_FAILED,
@@ -563,10 +574,11 @@ public class ResultsQueryManager extends BaseSQLManager {
             queryFormatter.addQueryLine(0, "SELECT * FROM a");
             queryFormatter.addQueryLine(0, " ORDER BY 1, 2, 3");
         
-            sqlQueryText = logSQLQuery("getRiskGraph", queryFormatter);
+            sqlQueryText = queryFormatter.generateQuery();
+            logSQLQuery("getRiskGraph", sqlQueryText);
 
-            statement1 = connection.prepareStatement(queryFormatter.generateQuery());
-            resultSet1 = statement1.executeQuery();
+            statement1 = connection.prepareStatement(sqlQueryText);
+            resultSet1 = executeQuery("getRiskGraph", statement1);
             if (!resultSet1.next()) {
                 throw new RIFServiceException(
                     RIFServiceError.DATABASE_QUERY_FAILED,
@@ -713,31 +725,34 @@ public class ResultsQueryManager extends BaseSQLManager {
 						
 		String result="{}";
 		
-		SelectQueryFormatter getHomogeneityQueryFormatter1 =
-				SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
-
-		getHomogeneityQueryFormatter1.setDatabaseSchemaName("rif40");
-		getHomogeneityQueryFormatter1.addSelectField("genders");
-		getHomogeneityQueryFormatter1.addSelectField("homogeneity_dof");
-		getHomogeneityQueryFormatter1.addSelectField("homogeneity_chi2");
-		getHomogeneityQueryFormatter1.addSelectField("homogeneity_p");
-		getHomogeneityQueryFormatter1.addSelectField("linearity_chi2");
-		getHomogeneityQueryFormatter1.addSelectField("linearity_p");
-		getHomogeneityQueryFormatter1.addSelectField("explt5");
-		getHomogeneityQueryFormatter1.addSelectField("adjusted");
+		String getHomogeneityQuery = getRegisteredSQL("getHomogeneity", () -> {
+			SelectQueryFormatter getHomogeneityQueryFormatter1 =
+					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
+
+			getHomogeneityQueryFormatter1.setDatabaseSchemaName("rif40");
+			getHomogeneityQueryFormatter1.addSelectField("genders");
+			getHomogeneityQueryFormatter1.addSelectField("homogeneity_dof");
+			getHomogeneityQueryFormatter1.addSelectField("homogeneity_chi2");
+			getHomogeneityQueryFormatter1.addSelectField("homogeneity_p");
+			getHomogeneityQueryFormatter1.addSelectField("linearity_chi2");
+			getHomogeneityQueryFormatter1.addSelectField("linearity_p");
+			getHomogeneityQueryFormatter1.addSelectField("explt5");
+			getHomogeneityQueryFormatter1.addSelectField("adjusted");
 		
-		getHomogeneityQueryFormatter1.addFromTable("rif40_homogeneity");
-		getHomogeneityQueryFormatter1.addWhereParameter("study_id");
+			getHomogeneityQueryFormatter1.addFromTable("rif40_homogeneity");
+			getHomogeneityQueryFormatter1.addWhereParameter("study_id");
+			return getHomogeneityQueryFormatter1;
+		});
 
-		String sqlQueryText = logSQLQuery("getHomogeneity", getHomogeneityQueryFormatter1, studyID);
+		String sqlQueryText = logSQLQuery("getHomogeneity", getHomogeneityQuery, studyID);
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;		
 
 		try {
-			statement1 = connection.prepareStatement(getHomogeneityQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(getHomogeneityQuery);
 			statement1.setInt(1, Integer.parseInt(studyID));
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getHomogeneity", statement1);
 		
 			JSONObject homogeneity = new JSONObject();
 			JSONObject adjusted = new JSONObject();
@@ -833,23 +848,26 @@ public class ResultsQueryManager extends BaseSQLManager {
 					throws RIFServiceException {
 		String result="{}";
 		
-		SelectQueryFormatter getPrintStateQueryFormatter1 =
-				SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
-
-		getPrintStateQueryFormatter1.setDatabaseSchemaName("rif40");
-		getPrintStateQueryFormatter1.addSelectField("print_state");
-		getPrintStateQueryFormatter1.addFromTable("rif40_studies");
-		getPrintStateQueryFormatter1.addWhereParameter("study_id");
-
-		logSQLQuery("getPrintState", getPrintStateQueryFormatter1, studyID);
+		String getPrintStateQuery = getRegisteredSQL("getPrintState", () -> {
+			SelectQueryFormatter getPrintStateQueryFormatter1 =
+					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
+
+			getPrintStateQueryFormatter1.setDatabaseSchemaName("rif40");
+			getPrintStateQueryFormatter1.addSelectField("print_state");
+			getPrintStateQueryFormatter1.addFromTable("rif40_studies");
+			getPrintStateQueryFormatter1.addWhereParameter("study_id");
+			return getPrintStateQueryFormatter1;
+		});
+
+		logSQLQuery("getPrintState", getPrintStateQuery, studyID);
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;		
 
 		try {
-			statement1 = connection.prepareStatement(getPrintStateQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(getPrintStateQuery);
 			statement1.setInt(1, Integer.parseInt(studyID));
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getPrintState", statement1);
 		
 			if (!resultSet1.next()) {
 				throw new RIFServiceException(
@@ -901,29 +919,32 @@ public class ResultsQueryManager extends BaseSQLManager {
 					throws RIFServiceException {
 		String result="{}";
 		
-		UpdateQueryFormatter setPrintStateQueryFormatter1 =
-				UpdateQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
-
-		setPrintStateQueryFormatter1.setDatabaseSchemaName("rif40");
-		if (rifDatabaseProperties.getDatabaseType() == DatabaseType.POSTGRESQL) { // Supports JSON natively
-			setPrintStateQueryFormatter1.addUpdateField("print_state", "JSON");
-		}
-		else { // SQL Server doesn't yet
-			setPrintStateQueryFormatter1.addUpdateField("print_state");
-		}		
-		setPrintStateQueryFormatter1.setUpdateTable("rif40_studies");
-		setPrintStateQueryFormatter1.addWhereParameter("study_id");
+		String setPrintStateQuery = getRegisteredSQL("setPrintState", () -> {
+			UpdateQueryFormatter setPrintStateQueryFormatter1 =
+					UpdateQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
 
-		logSQLQuery("setPrintState", setPrintStateQueryFormatter1, printStateText, studyID);
+			setPrintStateQueryFormatter1.setDatabaseSchemaName("rif40");
+			if (rifDatabaseProperties.getDatabaseType() == DatabaseType.POSTGRESQL) { // Supports JSON natively
+				setPrintStateQueryFormatter1.addUpdateField("print_state", "JSON");
+			}
+			else { // SQL Server doesn't yet
+				setPrintStateQueryFormatter1.addUpdateField("print_state");
+			}		
+			setPrintStateQueryFormatter1.setUpdateTable("rif40_studies");
+			setPrintStateQueryFormatter1.addWhereParameter("study_id");
+			return setPrintStateQueryFormatter1;
+		});
+
+		logSQLQuery("setPrintState", setPrintStateQuery, printStateText, studyID);
 	
 		PreparedStatement statement1 = null;
 		int rc;		
 
 		try {
-			statement1 = connection.prepareStatement(setPrintStateQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(setPrintStateQuery);
 			statement1.setString(1, printStateText);
 			statement1.setInt(2, Integer.parseInt(studyID));
-			rc = statement1.executeUpdate();
+			rc = executeUpdate("setPrintState", statement1);
 		
 			if (rc != 1) { 
 				throw new RIFServiceException(
@@ -961,24 +982,27 @@ public class ResultsQueryManager extends BaseSQLManager {
 			final Geography geography) throws RIFServiceException {
 		String result="{}";
 
-		SelectQueryFormatter getPostalCodeCapabilitiesQueryFormatter1 =
-				SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
+		String getPostalCodeCapabilitiesQuery = getRegisteredSQL("getPostalCodeCapabilities", () -> {
+			SelectQueryFormatter getPostalCodeCapabilitiesQueryFormatter1 =
+					SelectQueryFormatter.getInstance(rifDatabaseProperties.getDatabaseType());
 
-		getPostalCodeCapabilitiesQueryFormatter1.setDatabaseSchemaName("rif40");
-		getPostalCodeCapabilitiesQueryFormatter1.addSelectField("postal_population_table");
-		getPostalCodeCapabilitiesQueryFormatter1.addSelectField("srid");
-		getPostalCodeCapabilitiesQueryFormatter1.addFromTable("rif40_geographies");
-		getPostalCodeCapabilitiesQueryFormatter1.addWhereParameter("geography");
+			getPostalCodeCapabilitiesQueryFormatter1.setDatabaseSchemaName("rif40");
+			getPostalCodeCapabilitiesQueryFormatter1.addSelectField("postal_population_table");
+			getPostalCodeCapabilitiesQueryFormatter1.addSelectField("srid");
+			getPostalCodeCapabilitiesQueryFormatter1.addFromTable("rif40_geographies");
+			getPostalCodeCapabilitiesQueryFormatter1.addWhereParameter("geography");
+			return getPostalCodeCapabilitiesQueryFormatter1;
+		});
 
-		logSQLQuery("getPostalCodeCapabilities", getPostalCodeCapabilitiesQueryFormatter1, geography.getName().toUpperCase());
+		logSQLQuery("getPostalCodeCapabilities", getPostalCodeCapabilitiesQuery, geography.getName().toUpperCase());
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;
 		
 		try {
-			statement1 = connection.prepareStatement(getPostalCodeCapabilitiesQueryFormatter1.generateQuery());
+			statement1 = connection.prepareStatement(getPostalCodeCapabilitiesQuery);
 			statement1.setString(1, geography.getName().toUpperCase());
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getPostalCodeCapabilities", statement1);
 		
 			if (!resultSet1.next()) {
 				throw new RIFServiceException(
@@ -1082,7 +1106,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 		getPostalCodesQueryFormatter1.addFromTable("rif40_geographies");
 		getPostalCodesQueryFormatter1.addWhereParameter("geography");
 
-		logSQLQuery("getPostalCodes", getPostalCodesQueryFormatter1, geography.getName().toUpperCase());
+		logSQLQuery("getPostalPopulationTable", getPostalCodesQueryFormatter1, geography.getName().toUpperCase());
 	
 		PreparedStatement statement1 = null;
 		ResultSet resultSet1 = null;
@@ -1092,7 +1116,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 		try {
 			statement1 = connection.prepareStatement(getPostalCodesQueryFormatter1.generateQuery());
 			statement1.setString(1, geography.getName().toUpperCase());
-			resultSet1 = statement1.executeQuery();
+			resultSet1 = executeQuery("getPostalPopulationTable", statement1);
 		
 			if (!resultSet1.next()) {
 				throw new Exception("getPostalCodes query 1; expected 1 row, got none");
@@ -1199,7 +1223,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 			
 			statement2 = connection.prepareStatement(getPostalCodesQueryFormatter2.generateQuery());
 			statement2.setString(1, cleanPostcode);
-			resultSet2 = statement2.executeQuery();
+			resultSet2 = executeQuery("getPostalCodes", statement2);
 			String[] columnNames;
 			String[][] data;
 			RIFResultTable.ColumnDataType[] columnDataTypes;
@@ -1400,8 +1424,9 @@ public class ResultsQueryManager extends BaseSQLManager {
 
 		try {
 			//Count the number of results first
+			logSQLQuery("getTileMakerCentroidsCount", getTileMakerCentroidsQueryFormatter);
 			resultCounterStatement = connection.prepareStatement(getTileMakerCentroidsQueryFormatter.generateQuery());
-			resultCounterSet = resultCounterStatement.executeQuery();
+			resultCounterSet = executeQuery("getTileMakerCentroidsCount", resultCounterStatement);
 
 			int totalNumberRowsInResults = 0;
 			while (resultCounterSet.next()) {
@@ -1447,7 +1472,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 
 			int ithRow = 0;
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getTileMakerCentroids", statement);
 			while (resultSet.next()) {
 				data[ithRow][0] = resultSet.getString(1);
 				data[ithRow][1] = resultSet.getString(2);
@@ -1501,7 +1526,52 @@ public class ResultsQueryManager extends BaseSQLManager {
 		}
 	}
 
+	/**
+	 * Get TileMaker tile. The shared in memory tile cache is checked first, then the on disk tile cache 
+	 * (GeoJSON and PNG tiles), and finally the tile is fetched from the database and converted as required.
+	 *
+	 * @param connection 		Database JDBC Connection object	
+	 * @param geography 		Geography
+	 * @param geoLevelSelect 	GeoLevelSelect
+	 * @param zoomlevel 		0-11
+	 * @param x 				X tile number
+	 * @param y 				Y tile number
+	 * @param tileType 			null (topojson), topojson, geojson or png
+	 *
+	 * @return tile as a String (PNG tiles are base64 encoded)
+	 */
 	public String getTileMakerTiles(
+			final Connection connection, 
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect, 
+			final Integer zoomlevel, 
+			final Integer x,
+			final Integer y,
+			final String tileType) throws RIFServiceException, RIFTilesException, SQLException {
+
+		byte[] tile = getTileMakerTileBytes(connection, geography, geoLevelSelect, zoomlevel, x, y, tileType);
+		if (tileType != null && tileType.equals("png")) {
+			return Base64.getEncoder().encodeToString(tile);
+		}
+		return new String(tile, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get TileMaker tile as encoded bytes, as held in the tile caches; used to write the tile straight to the 
+	 * HTTP response. The shared in memory tile cache is checked first, then the on disk tile cache 
+	 * (GeoJSON and PNG tiles), and finally the tile is fetched from the database and converted as required.
+	 *
+	 * @param connection 		Database JDBC Connection object	
+	 * @param geography 		Geography
+	 * @param geoLevelSelect 	GeoLevelSelect
+	 * @param zoomlevel 		0-11
+	 * @param x 				X tile number
+	 * @param y 				Y tile number
+	 * @param tileType 			null (topojson), topojson, geojson or png
+	 *
+	 * @return tile as UTF-8 bytes; PNG tiles as raw PNG bytes
+	 */
+	public byte[] getTileMakerTileBytes(
 			final Connection connection, 
 			final Geography geography,
 			final GeoLevelSelect geoLevelSelect, 
@@ -1509,25 +1579,83 @@ public class ResultsQueryManager extends BaseSQLManager {
 			final Integer x,
 			final Integer y,
 			String tileType) throws RIFServiceException, RIFTilesException, SQLException {
+
+		if (tileType == null) {
+			tileType="topojson";
+		}
+		SlippyTile slippyTile = new SlippyTile(zoomlevel, x, y); // Will raise RIFTilesException is x/y/zoomlevel are invalid
+		RIFTilesMemoryCache.TileKey tileKey = new RIFTilesMemoryCache.TileKey(
+			geography.getName(), geoLevelSelect.getName(), slippyTile, tileType);
+		byte[] result=tileMemoryCache.getTileBytes(tileKey);
+		if (result != null) {
+			return result;
+		}
+
+		result=getUncachedTileMakerTiles(connection, geography, geoLevelSelect, slippyTile, tileType);
+		tileMemoryCache.cacheTileBytes(tileKey, result);
+		return result;
+	}
+
+	/**
+	 * Get TileMaker tile from the shared in memory tile cache only; no database connection is used, so the
+	 * caller need only assign one if the tile is not cached. See: getTileMakerTileBytes()
+	 *
+	 * @param geography 		Geography
+	 * @param geoLevelSelect 	GeoLevelSelect
+	 * @param zoomlevel 		0-11
+	 * @param x 				X tile number
+	 * @param y 				Y tile number
+	 * @param tileType 			null (topojson), topojson, geojson or png
+	 *
+	 * @return tile as UTF-8 bytes; PNG tiles as raw PNG bytes; null if the tile is not in the memory cache
+	 */
+	public byte[] getMemoryCachedTileMakerTileBytes(
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect, 
+			final Integer zoomlevel, 
+			final Integer x,
+			final Integer y,
+			final String tileType) throws RIFTilesException {
+
+		SlippyTile slippyTile = new SlippyTile(zoomlevel, x, y); // Will raise RIFTilesException is x/y/zoomlevel are invalid
+		return tileMemoryCache.getTileBytes(new RIFTilesMemoryCache.TileKey(
+			geography.getName(), geoLevelSelect.getName(), slippyTile, tileType == null ? "topojson" : tileType));
+	}
+
+	/**
+	 * Get TileMaker tile from the on disk tile cache or the database
+	 *
+	 * @param connection 		Database JDBC Connection object	
+	 * @param geography 		Geography
+	 * @param geoLevelSelect 	GeoLevelSelect
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param tileType 			topojson, geojson or png
+	 *
+	 * @return tile as UTF-8 bytes; PNG tiles as raw PNG bytes
+	 */
+	private byte[] getUncachedTileMakerTiles(
+			final Connection connection, 
+			final Geography geography,
+			final GeoLevelSelect geoLevelSelect, 
+			final SlippyTile slippyTile,
+			final String tileType) throws RIFServiceException, RIFTilesException, SQLException {
 		
 		String result = null;
 		RIFTiles rifTiles = new RIFTiles(options);
 		RIFTilesCache rifTilesCache = new RIFTilesCache(options);
 		RIFPdfTiles rifPdfTiles = new RIFPdfTiles(options);
-		SlippyTile slippyTile = new SlippyTile(zoomlevel, x, y); // Will raise RIFTilesException is x/y/zoomlevel are invalid
-		if (tileType == null) {
-			tileType="topojson";
-		}
-		else if (tileType.equals("geojson")) {
-			result=rifTilesCache.getCachedGeoJsonTile(geography.getName().toLowerCase(), slippyTile, geoLevelSelect.getName().toLowerCase());
-			if (result != null) {
-				return result;
+		if (tileType.equals("geojson")) {
+			byte[] cachedTile=rifTilesCache.getCachedTileBytes(geography.getName(), slippyTile, 
+				geoLevelSelect.getName(), "json");
+			if (cachedTile != null) {
+				return cachedTile;
 			}
 		}
  		else if (tileType.equals("png")) {	
-			result=rifTilesCache.getCachedPngTile(geography.getName().toLowerCase(), slippyTile, geoLevelSelect.getName().toLowerCase());
-			if (result != null) {
-				return result; // In base64
+			byte[] cachedTile=rifTilesCache.getCachedPngTile(geography.getName(), slippyTile, 
+				geoLevelSelect.getName());
+			if (cachedTile != null) {
+				return cachedTile;
 			}
 		}
 
@@ -1586,7 +1714,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 			}
 			
 			if (tileType.equals("topojson")) {		
-				return result;
+				return result.getBytes(StandardCharsets.UTF_8);
 			}
 			else if (tileType.equals("geojson") || tileType.equals("png")) {	
 				if (result != null && result.length() > 0 && 
@@ -1595,35 +1723,29 @@ public class ResultsQueryManager extends BaseSQLManager {
 						
 						JSONObject tileTopoJson = new JSONObject(result);
 						
-						boolean addBoundingBoxToTile=false;
-						if (tileType.equals("geojson")) {
-							addBoundingBoxToTile=true;
-						}
-						JSONObject tileGeoJson = rifTiles.topoJson2geoJson(connection, 
-							tileTopoJson, 
-							geography.getName().toUpperCase(),
-							slippyTile, hmap, geoLevelSelect.getName().toUpperCase(), addBoundingBoxToTile);
-						
+						byte[] tile;
 						if (tileType.equals("png")) {	
-							result = rifPdfTiles.geoJson2png(tileGeoJson, geography.getName().toUpperCase(), slippyTile, 
+							tile = rifTiles.topoJson2png(tileTopoJson, geography.getName().toUpperCase(), slippyTile, 
 								geoLevelSelect.getName().toUpperCase());
-							if (result == null) {
+							if (tile == null) {
 								throw new RIFServiceException(
 									RIFServiceError.JSON_PARSE_ERROR,
 									"Unable to generate " + geoLevelSelect.getName().toUpperCase() + " PNG tile");
 							}
 						}
 						else {
-							result = tileGeoJson.toString();
+							tile = rifTiles.topoJson2geoJson(tileTopoJson, 
+								geography.getName().toUpperCase(),
+								slippyTile, geoLevelSelect.getName().toUpperCase(), true /* addBoundingBoxToTile */);
 						}
 						rifLogger.info(getClass(), 
 							"topoJson2geoJson tile for geography: " + geography.getName().toUpperCase() +
 							"; tileType: " + tileType +
 							"; geolevel: " + geoLevelSelect.getName().toUpperCase() + lineSeparator + 
 						    "; slippyTile: " + slippyTile.toString() +
-							"; length: " + result.length());
+							"; length: " + tile.length);
 				
-						return result;
+						return tile;
 					}
 					catch (JSONException jsonException) {
 						throw new RIFServiceException(
@@ -1636,12 +1758,12 @@ public class ResultsQueryManager extends BaseSQLManager {
 									
 					try {				
 						SlippyTile nullSlippyTile = new SlippyTile(0, 0, 0);
-						result=rifTilesCache.getCachedPngTile("NULL", nullSlippyTile, "NULL");
-						if (result == null) {
+						byte[] nullTile=rifTilesCache.getCachedPngTile("NULL", nullSlippyTile, "NULL");
+						if (nullTile == null) {
 							JSONObject nullTileGeoJson = new JSONObject(rifTiles.getNullGeoJSONTile());
-							result = rifPdfTiles.geoJson2png(nullTileGeoJson, "NULL" /* Geography */, nullSlippyTile, "NULL" /* Geolevel name */);
+							nullTile = rifPdfTiles.geoJson2png(nullTileGeoJson, "NULL" /* Geography */, nullSlippyTile, "NULL" /* Geolevel name */);
 							
-							if (result == null) {
+							if (nullTile == null) {
 								throw new RIFServiceException(
 									RIFServiceError.JSON_PARSE_ERROR,
 									"Unable to generate NULL PNG tile");
@@ -1651,7 +1773,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 							}
 								
 						}
-						return result; // In base64
+						return nullTile;
 					}
 					catch (JSONException jsonException) {
 						throw new RIFServiceException(
@@ -1665,7 +1787,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 					try {		
 						JSONArray bboxJson = slippyTile.tile2boundingBox();		
 						result = rifTiles.getNullGeoJSONTile(bboxJson); // Add bounding box for debug purposes
-						return result; 
+						return result.getBytes(StandardCharsets.UTF_8); 
 					}
 					catch (JSONException jsonException) {
 						throw new RIFServiceException(
@@ -1674,7 +1796,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 					}
 				}
 				else {
-					return result;
+					return result.getBytes(StandardCharsets.UTF_8);
 				}
 			}
 			else {
@@ -1732,7 +1854,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 		getLookupTableQueryFormatter.addWhereParameter("geolevel_name");
 
 		logSQLQuery(
-				"getTileMakerAttributes",
+				"getTileMakerAttributesLookupTable",
 				getLookupTableQueryFormatter,
 				geography.getName().toUpperCase(),
 				geoLevelSelect.getName().toUpperCase());
@@ -1751,7 +1873,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 			statement.setString(1, geography.getName().toUpperCase());
 			statement.setString(2, geoLevelSelect.getName().toUpperCase());
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getTileMakerAttributesLookupTable", statement);
 			resultSet.next();
 
 			//This is the tile table name for this geography
@@ -1779,7 +1901,7 @@ public class ResultsQueryManager extends BaseSQLManager {
 
 			statement2 = connection.prepareStatement(getTileMakerAttributesQueryFormatter.generateQuery());
 
-			resultSet2 = statement2.executeQuery();
+			resultSet2 = executeQuery("getTileMakerAttributes", statement2);
 			int rowCount=0;
 			
 			JSONObject attributes = new JSONObject();
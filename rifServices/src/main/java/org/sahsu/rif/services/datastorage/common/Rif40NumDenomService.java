@@ -296,17 +296,18 @@ geographies: {
 				commentObject(connection, "VIEW", user.getUserID().toLowerCase(), "rif40_num_denom", 
 					"Numerator and indirect standardisation denominator pairs. Use RIF40_NUM_DENOM_ERROR if your numerator and denominator table pair is missing. You must have your own copy of RIF40_NUM_DENOM or you will only see the tables RIF40 has access to. Tables not rejected if the user does not have access or the table does not contain the correct geography geolevel fields.");	
             }	
-            sqlQueryText = logSQLQuery(
+            sqlQueryText = queryFormatter.generateQuery();
+            logSQLQuery(
 					"getNumeratorDenominatorPairs",
-					queryFormatter);
+					sqlQueryText);
 
 			//Parameterise and execute query
 			statement
 					= createPreparedStatement(
 					connection,
-					queryFormatter);
+					sqlQueryText);
 
-			dbResultSet = statement.executeQuery();
+			dbResultSet = executeQuery("getNumeratorDenominatorPairs", statement);
 			connection.commit();
 
 			while (dbResultSet.next()) {
@@ -518,19 +519,21 @@ geographies: {
 			}
 			queryFormatter2.addQueryLine(0, newViewDefinition);
             
-            sqlQueryText = logSQLQuery(
+            sqlQueryText = queryFormatter.generateQuery();
+            logSQLQuery(
 					"dropView",
-					queryFormatter);
+					sqlQueryText);
             statement = connection.createStatement();
-			statement.execute(queryFormatter.generateQuery());
+			statement.execute(sqlQueryText);
 			statement.close();
 			
-            sqlQueryText = logSQLQuery(
+            sqlQueryText = queryFormatter2.generateQuery();
+            logSQLQuery(
 					"createView",
-					queryFormatter2);
+					sqlQueryText);
 
             statement = connection.createStatement();
-			statement.execute(queryFormatter2.generateQuery());
+			statement.execute(sqlQueryText);
 			
 			for (String columnName : columnCommentHash.keySet()) {
 				String comment = columnCommentHash.get(columnName);
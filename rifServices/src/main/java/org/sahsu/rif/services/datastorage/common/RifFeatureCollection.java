@@ -2,13 +2,18 @@ package org.sahsu.rif.services.datastorage.common;
 
 import org.sahsu.rif.generic.util.RIFLogger;
 
+import java.io.IOException;
+
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
 import org.opengis.referencing.cs.CoordinateSystemAxis;
 import org.opengis.referencing.cs.CoordinateSystem;	 
 
-import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.feature.FeatureIterator;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.geotools.referencing.CRS;
@@ -91,8 +96,9 @@ public class RifFeatureCollection {
 	
 	private static RifCoordinateReferenceSystem rifCoordinateReferenceSystem = null;
 		
-	private DefaultFeatureCollection featureCollection=null;
-	private DefaultFeatureCollection backgroundAreasFeatureCollection=null;
+	private SimpleFeatureSource featureSource=null;
+	private SimpleFeatureSource backgroundAreasFeatureSource=null;
+	private Filter backgroundAreasFilter=Filter.INCLUDE;
 	private CoordinateReferenceSystem crs=null;
 	private ReferencedEnvelope expandedEnvelope=null;
 	private ReferencedEnvelope initialEnvelope=null;
@@ -112,18 +118,22 @@ public class RifFeatureCollection {
 	/**
      * Constructor.
 	 *
-	 * @param DefaultFeatureCollection featureCollection, 
-	 * @param DefaultFeatureCollection backgroundAreasFeatureCollection, 
+	 * The features are read back on demand from the (spatially indexed) shapefiles written by 
+	 * RifGeospatialOutputs, so the study geometry is never held on the heap. Call dispose() 
+	 * when the maps have been rendered.
+	 *
+	 * @param SimpleFeatureSource featureSource, 
+	 * @param SimpleFeatureSource backgroundAreasFeatureSource (may be null), 
 	 * @param CoordinateReferenceSystem crs
 	 */
 	public RifFeatureCollection(
-			DefaultFeatureCollection featureCollection,
-			DefaultFeatureCollection backgroundAreasFeatureCollection,
+			SimpleFeatureSource featureSource,
+			SimpleFeatureSource backgroundAreasFeatureSource,
 			CoordinateReferenceSystem crs) {
 		this.rifCoordinateReferenceSystem = new RifCoordinateReferenceSystem();
 		
-		this.featureCollection=featureCollection;
-		this.backgroundAreasFeatureCollection=backgroundAreasFeatureCollection;
+		this.featureSource=featureSource;
+		this.backgroundAreasFeatureSource=backgroundAreasFeatureSource;
 		this.crs=crs;		
 	}
 	
@@ -147,8 +157,12 @@ public class RifFeatureCollection {
 		}
 		this.gridUnits=coordinateSystemAxis.getUnit().toString();
 		
-		// Set initialEnvelope from featureCollection
-		this.initialEnvelope=featureCollection.getBounds(); // In rif40GeographiesCRS
+		// Set initialEnvelope from featureSource: the shapefile header bounds
+		ReferencedEnvelope bounds=featureSource.getBounds();
+		if (bounds == null) { // Not available cheaply; scan the features
+			bounds=featureSource.getFeatures().getBounds();
+		}
+		this.initialEnvelope=new ReferencedEnvelope(bounds, this.crs); // In rif40GeographiesCRS
 		ReferencedEnvelope nexpandedEnvelope=rifCoordinateReferenceSystem.expandMapBounds(
 				this.initialEnvelope.transform(DefaultGeographicCRS.WGS84, true /* Be lenient */),
 				1.03 	/* otherExpansion */);
@@ -402,43 +416,17 @@ public class RifFeatureCollection {
 			throw new Exception("gridEnvelope create return NULL ReferencedEnvelope");
 		}
 				
-		if (backgroundAreasFeatureCollection != null) {				
-			rifLogger.info(this.getClass(), "Crop backgroundAreas feature set to expandedEnvelope, size: " + 
-					backgroundAreasFeatureCollection.size());
+		if (backgroundAreasFeatureSource != null) {
+			// Crop to the features completely within expandedEnvelopeGeometry (no touching edges). 
+			// The filter is applied as the features are read, using the shapefile spatial index
 			Geometry expandedEnvelopeGeometry=(Geometry)createPolygonFromBBox(xMin, yMin, xMax-xMin, yMax-yMin);
-			FeatureIterator<SimpleFeature> iterator = backgroundAreasFeatureCollection.features();
-			DefaultFeatureCollection newBackgroundAreasFeatureCollection = new DefaultFeatureCollection(
-				backgroundAreasFeatureCollection.getID(), 
-				backgroundAreasFeatureCollection.getSchema());
-			int removes=0;
-			try {
-				int k=0;
-				while (iterator.hasNext()) {
-					k++;
-					SimpleFeature feature = iterator.next();
-					Geometry geometry = (Geometry) feature.getAttribute(0);
-					if (geometry == null) {
-						rifLogger.warning(this.getClass(), "No geometry for backgroundAreasFeature: " + k);
-					}
-					else if (geometry.within(expandedEnvelopeGeometry)) { // geometry is completely within expandedEnvelopeGeometry
-																		 // (no touching edges)
-						newBackgroundAreasFeatureCollection.add(feature);
-					}
-					else { // Remove
-						String areaId=(String)feature.getAttribute("AREAID");
-						String areaName=(String)feature.getAttribute("AREANAME");
-						rifLogger.info(this.getClass(), "Remove backgroundAreasFeature: " + k + "; areaId:" + areaId + "; areaName: " + areaName);
-						removes++;
-					}
-				}
-			}
-			finally {
-				 iterator.close();
-				 if (removes > 0) {
-					rifLogger.info(this.getClass(), "Removed " + removes + " features from backgroundAreasFeatureCollection");
-					backgroundAreasFeatureCollection=newBackgroundAreasFeatureCollection;
-				 }
-			}
+			FilterFactory2 filterFactory=CommonFactoryFinder.getFilterFactory2();
+			String geometryName=backgroundAreasFeatureSource.getSchema().getGeometryDescriptor().getLocalName();
+			backgroundAreasFilter=filterFactory.within(
+				filterFactory.property(geometryName), 
+				filterFactory.literal(expandedEnvelopeGeometry));
+			rifLogger.info(this.getClass(), "Crop backgroundAreas feature set to expandedEnvelope, size: " + 
+					backgroundAreasFeatureSource.getCount(Query.ALL));
 		}
 		else {
 			rifLogger.info(this.getClass(), "No backgroundAreas feature collection to Crop");
@@ -471,21 +459,77 @@ public class RifFeatureCollection {
 	}
 
 	/**
-     * Get feature collection
+     * Get feature collection. The features are streamed from disk each time the collection is iterated
+	 *
+	 * @returns SimpleFeatureCollection
+	 */	
+	public SimpleFeatureCollection getFeatureCollection() 
+			throws IOException {
+		return featureSource.getFeatures(getQuery(Filter.INCLUDE));
+	}
+	
+	/**
+     * Get filtered feature collection
+	 *
+	 * @param Filter filter
+	 *
+	 * @returns SimpleFeatureCollection
+	 */	
+	public SimpleFeatureCollection getFeatureCollection(final Filter filter) 
+			throws IOException {
+		return featureSource.getFeatures(getQuery(filter));
+	}
+	
+	/**
+     * Get feature source, for map layers
 	 *
-	 * @returns DefaultFeatureCollection
+	 * @returns SimpleFeatureSource
 	 */	
-	public DefaultFeatureCollection getFeatureCollection() {
-		return featureCollection;
+	public SimpleFeatureSource getFeatureSource() {
+		return featureSource;
 	}
 	
 	/**
-     * Get background Areas Feature collection
+     * Get query for the feature source in the SRID CRS
+	 *
+	 * @param Filter filter
 	 *
-	 * @returns DefaultFeatureCollection
+	 * @returns Query
 	 */	
-	public DefaultFeatureCollection getBackgroundAreasFeatureCollection() {
-		return backgroundAreasFeatureCollection;
+	public Query getQuery(final Filter filter) {
+		Query query=new Query(featureSource.getSchema().getTypeName(), filter);
+		query.setCoordinateSystem(crs);
+		return query;
+	}
+	
+	/**
+     * Get background areas feature source (may be null)
+	 *
+	 * @returns SimpleFeatureSource
+	 */	
+	public SimpleFeatureSource getBackgroundAreasFeatureSource() {
+		return backgroundAreasFeatureSource;
+	}
+	
+	/**
+     * Get query for the background areas feature source; cropped to the expanded envelope
+	 *
+	 * @returns Query
+	 */	
+	public Query getBackgroundAreasQuery() {
+		Query query=new Query(backgroundAreasFeatureSource.getSchema().getTypeName(), backgroundAreasFilter);
+		query.setCoordinateSystem(crs);
+		return query;
+	}
+	
+	/**
+     * Release the shapefile stores
+	 */	
+	public void dispose() {
+		featureSource.getDataStore().dispose();
+		if (backgroundAreasFeatureSource != null) {
+			backgroundAreasFeatureSource.getDataStore().dispose();
+		}
 	}
 	
 	/**
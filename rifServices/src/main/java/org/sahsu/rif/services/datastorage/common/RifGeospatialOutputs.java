@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -22,8 +23,7 @@ import java.util.Set;
 import org.geotools.data.FeatureWriter;
 import org.geotools.data.Transaction;
 import org.geotools.data.shapefile.ShapefileDataStore;
-import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.geometry.jts.Geometries;
@@ -66,6 +66,9 @@ public class RifGeospatialOutputs {
 
 	private static final String GEOGRAPHY_SUBDIRECTORY = "geography";
 	private static final String DATA_SUBDIRECTORY = "data";
+	// WKT rows per fetch. Pooled connections are not auto commit, so PostgreSQL fetches through a cursor
+	// rather than reading the whole result set before the first row is written
+	private static final int FETCH_SIZE = 1000;
 
 	private RIFServiceStartupOptions rifServiceStartupOptions;
 	private static DatabaseType databaseType;
@@ -180,6 +183,7 @@ public class RifGeospatialOutputs {
 				", a.area_id, a.band_id, b.zoomlevel, c.areaname",	/* extraColumns */
 				null 									/* additionalJoin */,
 				locale);
+		studyFeatureCollection.dispose(); // Not mapped
 		
 		//Write comparison area
 		tileFileName = new StringBuilder();
@@ -201,6 +205,7 @@ public class RifGeospatialOutputs {
 				", a.area_id, b.zoomlevel, c.areaname",	/* extraColumns */
 				null 									/* additionalJoin */,
 				locale);	
+		comparisonFeatureCollection.dispose(); // Not mapped
 		
 		//Write results
 		tileFileName = new StringBuilder();
@@ -296,16 +301,21 @@ public class RifGeospatialOutputs {
 				additionalJoin,			
 				locale);
 				
-		rifMaps.writeResultsMaps(
-				mapFeatureCollection,
-				connection,
-				temporaryDirectory,
-				baseStudyName,
-				zoomLevel,
-				rifStudySubmission,
-				rif40Studies,
-				rif40Investigations,
-				locale);
+		try {
+			rifMaps.writeResultsMaps(
+					mapFeatureCollection,
+					connection,
+					temporaryDirectory,
+					baseStudyName,
+					zoomLevel,
+					rifStudySubmission,
+					rif40Studies,
+					rif40Investigations,
+					locale);
+		}
+		finally {
+			mapFeatureCollection.dispose();
+		}
 				
 		return createMapsHTML(studyID, rif40Investigations, isDiseaseMappingStudy);
 	}		
@@ -725,7 +735,7 @@ public class RifGeospatialOutputs {
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, Integer.parseInt(geolevel));
 			statement.setInt(3, Integer.parseInt(zoomLevel));				
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getMapReferencedEnvelope", statement);
 			
 			if (resultSet.next()) {
 				String envelopeText=resultSet.getString(1);
@@ -801,9 +811,9 @@ public class RifGeospatialOutputs {
 	 * @param int srid,
 	 * @param String geographyName
 	 *
-	 * @returns DefaultFeatureCollection
+	 * @returns SimpleFeatureSource, reading from the shapefile; null if there are no background areas
      */	 
-	private DefaultFeatureCollection getBackgroundAreas(
+	private SimpleFeatureSource getBackgroundAreas(
 			final Connection connection,
 			final RIFStudySubmission rifStudySubmission,
 			final String areaTableName,
@@ -826,8 +836,6 @@ public class RifGeospatialOutputs {
 			dirName, outputFileName, true /* enableIndexes */);	
 		FeatureWriter<SimpleFeatureType, SimpleFeature> shapefileWriter = null; 
 			// Created once feature types are defined
-
-		DefaultFeatureCollection backgroundAreasFeatureCollection=null;
 	
 		SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();	
 		queryFormatter.addQueryLine(0, "SELECT b.wkt, b.areaid AS area_id, b.zoomlevel, c.areaname");	
@@ -838,47 +846,51 @@ public class RifGeospatialOutputs {
 		
 		PreparedStatement statement = manager.createPreparedStatement(connection, queryFormatter);
 		
-		SimpleFeatureType simpleFeatureType=null;
-		
 		try {	
 			ResultSet resultSet = null;
 			String[] queryArgs = new String[2];
 			queryArgs[0]=geolevel;
 			queryArgs[1]=zoomLevel;
 			manager.logSQLQuery("getBackgroundAreas", queryFormatter, queryArgs);
-			statement = manager.createPreparedStatement(connection, queryFormatter);
+			statement.setFetchSize(FETCH_SIZE);
 			statement.setInt(1, Integer.parseInt(geolevel));
 			statement.setInt(2, Integer.parseInt(zoomLevel));				
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getBackgroundAreas", statement);
+			
+			// Column names and types are the same for every row
+			ResultSetMetaData rsmd = resultSet.getMetaData();
+			int columnCount = rsmd.getColumnCount();
+			String[] columnNames = new String[columnCount + 1];
+			String[] columnTypes = new String[columnCount + 1];
+			int areaIdColumn = 0;
+			for (int j = 2; j <= columnCount; j++) {
+				columnNames[j] = rsmd.getColumnName(j);
+				columnTypes[j] = rsmd.getColumnTypeName(j);
+				if (columnNames[j].equals("area_id")) {
+					areaIdColumn = j;
+				}
+			}
+			int zl=Integer.parseInt(zoomLevel);
 			
 			int i = 0;
 		
 			while (resultSet.next()) {
-				
-				ResultSetMetaData rsmd = resultSet.getMetaData();
-				int columnCount = rsmd.getColumnCount();
 				i++;
 				
 				String areaId = "(????)";
-				for (int j = 2; j <= columnCount; j++) {		
-					String name = rsmd.getColumnName(j);
-					if (name.equals("area_id")) {
-						areaId = resultSet.getString(j);
-					}
+				if (areaIdColumn > 0) {
+					areaId = resultSet.getString(areaIdColumn);
 				}				
-				Geometry geometry = rifWellKnownText.createGeometryFromWkt(resultSet.getString(1), geolevel, Integer.parseInt(zoomLevel), 
+				Geometry geometry = rifWellKnownText.createGeometryFromWkt(resultSet.getString(1), geolevel, zl, 
 					areaId);
 				if (i == 1) {
-					simpleFeatureType=setupShapefile(rsmd, columnCount, shapeDataStore, null /* areaType */, 
+					setupShapefile(rsmd, columnCount, shapeDataStore, null /* areaType */, 
 						outputFileName, geometry, rif40GeographiesCRS);
 					
 					shapefileWriter = shapeDataStore.getFeatureWriter(shapeDataStore.getTypeNames()[0],
-							Transaction.AUTO_COMMIT);				
-					backgroundAreasFeatureCollection = new DefaultFeatureCollection(geolevelName, 
-						simpleFeatureType);
+							Transaction.AUTO_COMMIT);
 				}
 				SimpleFeature shapefileFeature = (SimpleFeature) shapefileWriter.next(); 
-				SimpleFeatureBuilder builder = new SimpleFeatureBuilder(simpleFeatureType);
 				if (i == 1) {		
 					printShapefileColumns(shapefileFeature, rsmd, outputFileName, rif40GeographiesCRS, geographyName, srid);
 				}	
@@ -896,11 +908,9 @@ public class RifGeospatialOutputs {
 								polygons[0]=(Polygon)geometry;
 								MultiPolygon multipolygon=geometryBuilder.multiPolygon(polygons);
 								shapefileFeature.setAttribute(0, multipolygon); 
-								builder.set(0, multipolygon); 
 								break;
 							case MULTIPOLYGON:
 								shapefileFeature.setAttribute(0, geometry); 
-								builder.set(0, geometry); 
 								break;
 							default:
 								throw new Exception("Unsupported Geometry:" + geomType.toString());
@@ -913,7 +923,6 @@ public class RifGeospatialOutputs {
 					else { // Transform from WGS84 to SRID CRS
 						Geometry newGeometry = JTS.transform(geometry, transform); // Re-project
 						shapefileFeature.setAttribute(0, newGeometry); 
-						builder.set(0, newGeometry); 
 					}
 				} 
 				else { 
@@ -922,20 +931,14 @@ public class RifGeospatialOutputs {
 				}
 
 				shapefileFeature.setAttribute(1, geolevelName); 
-				builder.set(1, geolevelName); 
 				
 				// The column count starts from 2
 				for (int j = 2; j <= columnCount; j++ ) {		
-					String name = rsmd.getColumnName(j);
-					String value = resultSet.getString(j);	
-					String columnType = rsmd.getColumnTypeName(j);
-					
-					addDatumToShapefile(shapefileFeature, builder,
-						null, name, value, columnType, j, i,
+					addDatumToShapefile(shapefileFeature,
+						null, columnNames[j], resultSet.getString(j), columnTypes[j], j, i,
 						locale);
 				}
 					
-				backgroundAreasFeatureCollection.add(builder.buildFeature("id" + i));
 				shapefileWriter.write();
 			} // End of while loop			
 		}
@@ -943,6 +946,11 @@ public class RifGeospatialOutputs {
 			rifLogger.error(this.getClass(), "Error in SQL Statement: >>> " + 
 				lineSeparator + queryFormatter.generateQuery(),
 				exception);
+			if (shapefileWriter != null) {
+				shapefileWriter.close();
+				shapefileWriter = null;
+			}	
+			shapeDataStore.dispose();
 			throw exception;
 		}
 		finally {
@@ -953,11 +961,19 @@ public class RifGeospatialOutputs {
 			connection.commit();
 		}
 		
-		return backgroundAreasFeatureCollection;
+		if (shapefileWriter == null) { // No background areas
+			shapeDataStore.dispose();
+			return null;
+		}
+		return shapeDataStore.getFeatureSource();
 	}
 	
 	/** 
      * Write results map query to geoJSON file and shapefile
+     *
+     * Both files are written in one pass, a feature at a time, so memory use does not depend on the
+     * size of the geography. The returned RifFeatureCollection reads the features back from the 
+     * shapefile (using its spatial index) and must be disposed of by the caller.
      * 
 	 * Query types:
 	 *
@@ -1087,9 +1103,6 @@ public class RifGeospatialOutputs {
 		
 		PreparedStatement statement = manager.createPreparedStatement(connection, queryFormatter);
 		
-		DefaultFeatureCollection featureCollection = null;
-		SimpleFeatureType simpleFeatureType=null;
-		
 		try {	
 			ResultSet resultSet = null;
 			String[] queryArgs = new String[3];
@@ -1097,13 +1110,28 @@ public class RifGeospatialOutputs {
 			queryArgs[1]=geolevel;
 			queryArgs[2]=zoomLevel;
 			manager.logSQLQuery("writeMapQueryTogeoJSONFile", queryFormatter, queryArgs);
-			statement = manager.createPreparedStatement(connection, queryFormatter);
+			statement.setFetchSize(FETCH_SIZE);
 			statement.setInt(1, Integer.parseInt(studyID));	
 			statement.setInt(2, Integer.parseInt(geolevel));
 			statement.setInt(3, Integer.parseInt(zoomLevel));				
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("writeMapQueryTogeoJSONFile", statement);
 			
-			//Write WKT to geoJSON
+			// Column names and types are the same for every row
+			ResultSetMetaData rsmd = resultSet.getMetaData();
+			int columnCount = rsmd.getColumnCount();
+			String[] columnNames = new String[columnCount + 1];
+			String[] columnTypes = new String[columnCount + 1];
+			int areaIdColumn = 0;
+			for (int j = 2; j <= columnCount; j++) {
+				columnNames[j] = rsmd.getColumnName(j);
+				columnTypes[j] = rsmd.getColumnTypeName(j);
+				if (columnNames[j].equals("area_id")) {
+					areaIdColumn = j;
+				}
+			}
+			int zl=Integer.parseInt(zoomLevel);
+			
+			//Write WKT to geoJSON and the shapefile in one pass; one feature at a time
 			int i = 0;
 			
 			rifLogger.debug(this.getClass(), "Bounding box: " + geoJSONWriter.toString((BoundingBox)envelope));
@@ -1114,26 +1142,18 @@ public class RifGeospatialOutputs {
 			bufferedWriter.write("\"features\":[");	
 		
 			while (resultSet.next()) {
-				StringBuffer stringFeature = new StringBuffer();
-				
-				ResultSetMetaData rsmd = resultSet.getMetaData();
-				int columnCount = rsmd.getColumnCount();
 				i++;
 				
 				String areaId = "(????)";
-				for (int j = 2; j <= columnCount; j++) {		
-					String name = rsmd.getColumnName(j);
-					if (name.equals("area_id")) {
-						areaId = resultSet.getString(j);
-					}
-				}		
+				if (areaIdColumn > 0) {
+					areaId = resultSet.getString(areaIdColumn);
+				}	
 				Geometry geometry = null;
 				if (rifWellKnownText == null) {
 					rifWellKnownText = new RifWellKnownText();
 				}
 				try {
 					String wkt=resultSet.getString(1);
-					int zl=Integer.parseInt(zoomLevel);
 					geometry = rifWellKnownText.createGeometryFromWkt(
 						wkt, geolevel, zl, areaId);
 				}
@@ -1142,24 +1162,14 @@ public class RifGeospatialOutputs {
 					throw exception;
 				}
 				
-				stringFeature.append("{\"type\":\"Feature\",\"geometry\":"); // GeoJSON feature header 	
-				stringFeature.append(geoJSONWriter.toString(geometry));
 				if (i == 1) {
-					simpleFeatureType=setupShapefile(rsmd, columnCount, shapeDataStore, areaType, outputFileName, 
+					setupShapefile(rsmd, columnCount, shapeDataStore, areaType, outputFileName, 
 						geometry, rif40GeographiesCRS);
 					
 					shapefileWriter = shapeDataStore.getFeatureWriter(shapeDataStore.getTypeNames()[0],
-							Transaction.AUTO_COMMIT);				
-							
-					if (areaType != null) {	
-						featureCollection = new DefaultFeatureCollection(areaType, simpleFeatureType);
-					}
-					else {
-						featureCollection = new DefaultFeatureCollection("Results", simpleFeatureType);
-					}
+							Transaction.AUTO_COMMIT);
 				}
 				SimpleFeature shapefileFeature = (SimpleFeature) shapefileWriter.next(); 
-				SimpleFeatureBuilder builder = new SimpleFeatureBuilder(simpleFeatureType);
 				if (i == 1) {		
 					printShapefileColumns(shapefileFeature, rsmd, outputFileName, rif40GeographiesCRS, geographyName, srid);
 				}	
@@ -1170,6 +1180,7 @@ public class RifGeospatialOutputs {
 					// Need to handle CoordinateReferenceSystem
 					if (CRS.toSRS(rif40GeographiesCRS).equals(CRS.toSRS(DefaultGeographicCRS.WGS84))) {
 						// Multipolygon conversion now done by RifWellKnownText
+						shapefileFeature.setAttribute(0, geometry); 
 					} 
 					else if (transform == null) {
 						throw new Exception("Null transform from: " + CRS.toSRS(rif40GeographiesCRS) + " to: " +
@@ -1178,7 +1189,6 @@ public class RifGeospatialOutputs {
 					else { // Transform from WGS84 to SRID CRS
 						Geometry newGeometry = JTS.transform(geometry, transform); // Re-project
 						shapefileFeature.setAttribute(0, newGeometry); 
-						builder.set(0, newGeometry); 
 					}
 				} 
 				else { 
@@ -1186,45 +1196,41 @@ public class RifGeospatialOutputs {
 						ad.getName().toString());
 				}
 				
-				stringFeature.append(",\"properties\":{"); // Add DBF properties
+				if (i > 1) {
+					bufferedWriter.write(","); 	// Array separator between features
+				}
+				bufferedWriter.write("{\"type\":\"Feature\",\"geometry\":"); // GeoJSON feature header 	
+				bufferedWriter.write(geoJSONWriter.toString(geometry));
+				
+				bufferedWriter.write(",\"properties\":{"); // Add DBF properties
 				if (areaType != null) {
-					stringFeature.append("\"areatype\":\"" + areaType + "\"");
+					bufferedWriter.write("\"areatype\":\"" + areaType + "\"");
 					shapefileFeature.setAttribute(1, areaType); 
-					builder.set(1, areaType); 
 				}
 				else {
-					stringFeature.append("\"maptype\":\"Results\"");
+					bufferedWriter.write("\"maptype\":\"Results\"");
 					shapefileFeature.setAttribute(1, "results"); 
-					builder.set(1, "results"); 
 				}
 				
 				if (extraColumns != null) {
 					
 					// The column count starts from 2
 					for (int j = 2; j <= columnCount; j++ ) {		
-						String name = rsmd.getColumnName(j);
 						String value = resultSet.getString(j);	
-						String columnType = rsmd.getColumnTypeName(j);
+						String columnType = columnTypes[j];
 						if (columnType.equals("timestamp") ||
 							columnType.equals("timestamptz") ||
 							columnType.equals("datetime")) {
-							Timestamp dateTimeValue=resultSet.getTimestamp(i, calendar);
+							Timestamp dateTimeValue=resultSet.getTimestamp(j, calendar);
 							value=df.format(dateTimeValue);
 						}
-						addDatumToShapefile(shapefileFeature, builder,
-							stringFeature, name, value, columnType, j, i,
+						addDatumToShapefile(shapefileFeature, 
+							bufferedWriter, columnNames[j], value, columnType, j, i,
 							locale);
 					}
 				}				
 				
-				featureCollection.add(builder.buildFeature("id" + i));		
-				stringFeature.append("}");
-				stringFeature.append("}");
-				
-				if (i > 1) {
-					bufferedWriter.write(","); 	// Array separator between features
-				}
-				bufferedWriter.write(stringFeature.toString());	
+				bufferedWriter.write("}}");
 				shapefileWriter.write();
 			} // End of while loop
 			
@@ -1234,6 +1240,11 @@ public class RifGeospatialOutputs {
 			rifLogger.error(this.getClass(), "Error in SQL Statement: >>> " + 
 				lineSeparator + queryFormatter.generateQuery(),
 				exception);
+			if (shapefileWriter != null) {
+				shapefileWriter.close();
+				shapefileWriter = null;
+			}	
+			shapeDataStore.dispose();
 			throw exception;
 		}
 		finally {
@@ -1247,38 +1258,56 @@ public class RifGeospatialOutputs {
 			connection.commit();
 		}
 		
+		if (shapefileWriter == null) {
+			shapeDataStore.dispose();
+			throw new Exception("No features found for shapefile: " + outputFileName);
+		}
+		
 		String backgroundAreasGeolevel=manager.getColumnFromResultSet(rif40Geolevels, "bg_geolevel_id",
 			true /* allowNulls */, false /*  allowNoRows */);
 		String backgroundAreasGeolevelName=manager.getColumnFromResultSet(rif40Geolevels, "bg_geolevel_name",
 			true /* allowNulls */, false /*  allowNoRows */);
-		DefaultFeatureCollection backgroundAreasFeatureCollection=null;
+		SimpleFeatureSource backgroundAreasFeatureSource=null;
 		if (backgroundAreasGeolevelName != null) {
 			String backgroundAreasOutputFileName=backgroundAreasGeolevelName.toLowerCase() + "_map";
 			
-			backgroundAreasFeatureCollection=getBackgroundAreas(
-				connection,
-				rifStudySubmission,
-				areaTableName,
-				temporaryDirectory,
-				dirName,
-				schemaName,
-				tileTableName,
-				backgroundAreasGeolevelName,
-				backgroundAreasOutputFileName,
-				zoomLevel,
-				backgroundAreasGeolevel,
-				rif40GeographiesCRS,
-				locale,
-				transform,
-				srid,
-				geographyName);
+			try {
+				backgroundAreasFeatureSource=getBackgroundAreas(
+					connection,
+					rifStudySubmission,
+					areaTableName,
+					temporaryDirectory,
+					dirName,
+					schemaName,
+					tileTableName,
+					backgroundAreasGeolevelName,
+					backgroundAreasOutputFileName,
+					zoomLevel,
+					backgroundAreasGeolevel,
+					rif40GeographiesCRS,
+					locale,
+					transform,
+					srid,
+					geographyName);
+			}
+			catch (Exception exception) {
+				shapeDataStore.dispose();
+				throw exception;
+			}
 		}
 		
+		// Map rendering reads the features back from the shapefiles
 		RifFeatureCollection rifFeatureCollection=new RifFeatureCollection(
-			featureCollection, 
-			backgroundAreasFeatureCollection,
+			shapeDataStore.getFeatureSource(), 
+			backgroundAreasFeatureSource,
 			rif40GeographiesCRS);
-		rifFeatureCollection.SetupRifFeatureCollection();
+		try {
+			rifFeatureCollection.SetupRifFeatureCollection();
+		}
+		catch (Exception exception) {
+			rifFeatureCollection.dispose();
+			throw exception;
+		}
 		
 		return rifFeatureCollection;
 	}
@@ -1369,8 +1398,7 @@ public class RifGeospatialOutputs {
 	 * Add datum point to shapefile
 	 *	
      * @param SimpleFeature shapefileFeature (required)
-     * @param SimpleFeatureBuilder builder (required)
-     * @param StringBuffer stringFeature (required)
+     * @param Writer geoJsonWriter (null if no GeoJSON properties are required)
      * @param String name (required)
      * @param String value (required)
      * @param String columnType (required)
@@ -1380,8 +1408,7 @@ public class RifGeospatialOutputs {
 	 */	
 	private void addDatumToShapefile(
 		final SimpleFeature shapefileFeature, 
-		final SimpleFeatureBuilder builder, 
-		final StringBuffer stringFeature, 
+		final Writer geoJsonWriter, 
 		final String name, 
 		final String value, 
 		final String columnType, 
@@ -1446,22 +1473,19 @@ public class RifGeospatialOutputs {
 			}
 		}		
 		
-		if (stringFeature != null) {			
-			stringFeature.append(",\"" + name + "\":\"" + newValue + "\"");
+		if (geoJsonWriter != null) {			
+			geoJsonWriter.write(",\"" + name + "\":\"" + newValue + "\"");
 		}
 		
 		try {
 			if (ad.getType().getBinding() == Double.class) {
 				shapefileFeature.setAttribute(columnIndex, doubleVal);
-				builder.set(columnIndex, doubleVal);
 			}
 			else if (ad.getType().getBinding() == Long.class) {
 				shapefileFeature.setAttribute(columnIndex, longVal);
-				builder.set(columnIndex, longVal);
 			}
 			else if (ad.getType().getBinding() == String.class) {
 				shapefileFeature.setAttribute(columnIndex, newValue);
-				builder.set(columnIndex, newValue);
 			}
 			else {
 				throw new Exception("Unsupported attribute type: " + ad.getType().getBinding());
@@ -10,7 +10,6 @@ import org.json.JSONException;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
 
 import org.geotools.geometry.jts.Geometries;
 import org.geotools.geometry.jts.GeometryBuilder;
@@ -40,16 +39,19 @@ public class RifWellKnownText {
 
 	private static final RIFLogger rifLogger = RIFLogger.getLogger();
 	private static final String lineSeparator = System.getProperty("line.separator");
-	private static WKTReader reader = null;
-	private static GeometryBuilder geometryBuilder = null;
-	private static GeometryJSON geoJSONWriter = null;
-	private static Semaphore mutex = new Semaphore(1);
+	
+	// WKTReader, GeometryBuilder and GeometryJSON are not thread safe; sharing one reader produced
+	// bizarre parsing errors such as: Unknown geometry type: LT (line 1). Each thread has its own
+	// instances so WKT parsing no longer needs to be serialised. GeometryFactory is thread safe.
+	private static final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
+	private static final ThreadLocal<WKTReader> reader =
+		ThreadLocal.withInitial(() -> new WKTReader(geometryFactory));
+	private static final ThreadLocal<GeometryBuilder> geometryBuilder =
+		ThreadLocal.withInitial(() -> new GeometryBuilder(geometryFactory));
+	private static final ThreadLocal<GeometryJSON> geoJSONWriter =
+		ThreadLocal.withInitial(GeometryJSON::new);
 	
 	public RifWellKnownText() { // constructor
-		GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory(null);
-		geoJSONWriter = new GeometryJSON();
-		reader = new WKTReader(geometryFactory);		
-		geometryBuilder = new GeometryBuilder(geometryFactory);
 	}
 
 	/** 
@@ -83,15 +85,13 @@ public class RifWellKnownText {
 			int ignored=0;
 			
 			try {
-				mutex.acquire(); // Mutex lock reader to prevent bizarre parsing errors:
-								 // wktParseException: Unknown geometry type: LT (line 1) for geoLevel: MSOA2011; zoomlevel: 5; areaId: E02000001; wkt: MULTIPOLYGON(((-0.0852151666503289 51.5203350553905,-0.0833260460146139 51.5198194013493,-0.081758698673994 51.5207629385311,-0.0810528733815286 51.5219478456898,-0.0784683072370616 51.5215089911866,-0.0787278018298796 51.5210372225956,-0.079433627122345 51.5188429500797,-0.0780842552396912 51.51896
-				geometry = reader.read(wkt); // Geotools JTS
+				geometry = reader.get().read(wkt); // Geotools JTS
 				Geometries geomType = Geometries.get(geometry);
 				switch (geomType) {
 					case POLYGON: // Convert POLYGON to MULTIPOLYGON
 						Polygon polygons[] = new Polygon[1];
 						polygons[0]=(Polygon)geometry;
-						multipolygon=geometryBuilder.multiPolygon(polygons);
+						multipolygon=geometryBuilder.get().multiPolygon(polygons);
 						break;
 					case MULTIPOLYGON:
 						multipolygon=(MultiPolygon)geometry; 
@@ -107,7 +107,7 @@ public class RifWellKnownText {
 									break;		
 								case MULTIPOLYGON:
 									for (int j=0; j<nthGeometry.getNumGeometries(); j++) {
-										Polygon nthPolygon=(Polygon)nthGeometry.getGeometryN(i);
+										Polygon nthPolygon=(Polygon)nthGeometry.getGeometryN(j);
 										nthGeometryList.add(nthPolygon);
 									}
 									break;
@@ -122,7 +122,7 @@ public class RifWellKnownText {
 										"\" for geoLevel: " + geoLevel +
 										"; zoomlevel: " + zoomlevel +
 										"; areaId: " + areaId + lineSeparator +
-										"; GeoJSON " + geoJSONWriter.toString(nthGeometry));
+										"; GeoJSON " + geoJSONWriter.get().toString(nthGeometry));
 									throw new RIFServiceException(RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR, 
 										"Unsupported nthGeometry[" + i + "]: \"" + nthGeomType.toString() + 
 										"\" for geoLevel: " + geoLevel +
@@ -135,7 +135,7 @@ public class RifWellKnownText {
 						for (int k=0; k<nthGeometryList.size(); k++) {
 							nthPolygons[k]=(Polygon)nthGeometryList.get(k);
 						}
-						multipolygon=geometryBuilder.multiPolygon(nthPolygons);
+						multipolygon=geometryBuilder.get().multiPolygon(nthPolygons);
 						
 						break;
 					case LINESTRING:
@@ -150,7 +150,7 @@ public class RifWellKnownText {
 							"\" for geoLevel: " + geoLevel +
 							"; zoomlevel: " + zoomlevel +
 							"; areaId: " + areaId + lineSeparator +
-							"; GeoJSON " + geoJSONWriter.toString(geometry));
+							"; GeoJSON " + geoJSONWriter.get().toString(geometry));
 						throw new RIFServiceException(RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR, 
 							"Unsupported Geometry: \"" + geomType.toString() + 
 							"\" for geoLevel: " + geoLevel +
@@ -183,9 +183,6 @@ public class RifWellKnownText {
 					"; areaId: " + areaId +
 					"; wkt: " + ((wkt.length() > 300) ? wkt.substring(0, 300): wkt), exception);
 			}	
-			finally {
-				mutex.release();
-			}
 		}			
 		else {
 			throw new RIFServiceException(RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR, 
@@ -236,7 +233,7 @@ public class RifWellKnownText {
 		}
 		else {			
 			try { // Convert Geometry to GeoJSON string
-				geoJSONString = geoJSONWriter.toString(multipolygon);
+				geoJSONString = geoJSONWriter.get().toString(multipolygon);
 			}
 			catch (Exception exception) {
 				rifLogger.warning(getClass(), "Geometry to GeoJSON string convert Exception: \"" + wkt + "\"");
@@ -2,9 +2,9 @@ package org.sahsu.rif.services.datastorage.common;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -25,9 +25,9 @@ import java.util.Calendar;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONObject;
 import org.sahsu.rif.generic.concepts.User;
@@ -302,7 +302,6 @@ public class RifZipFile {
      * @param Locale locale (required)
      * @param String url [deduced from calling URL] (required)
      * @param String taxonomyServicesServer [parameter] (required)
-     * @return JSONObject [front end saves as JSON5 file]
      */
 	public void createStudyExtract(
 			final Connection connection,
@@ -314,10 +313,41 @@ public class RifZipFile {
 			final String url,
 			final String taxonomyServicesServer)
 					throws RIFServiceException {
+		createStudyExtract(connection, user, rifStudySubmission, zoomLevel, studyID, locale, url, 
+			taxonomyServicesServer, null);
+	}
+	
+	/** 
+     * Create study extract, reporting progress to a background extract job. If the job is cancelled the 
+     * extract stops at the next stage and the partial ZIP file is removed; no error file is written.
+     * The denominator, numerator, study JSON, maps and study summary are created concurrently (see 
+     * StudyExtractStages); the stage timings are logged and added to the job status.
+	 *
+     * @param Connection connection (required)
+     * @param User user (required)
+     * @param RIFStudySubmission rifStudySubmission (required)
+     * @param String zoomLevel (required)
+     * @param String studyID (required)
+     * @param Locale locale (required)
+     * @param String url [deduced from calling URL] (required)
+     * @param String taxonomyServicesServer [parameter] (required)
+     * @param StudyExtractJobs.Progress progress (may be null)
+     */
+	public void createStudyExtract(
+			final Connection connection,
+			final User user,
+			final RIFStudySubmission rifStudySubmission,
+			final String zoomLevel,
+			final String studyID,
+			final Locale locale,
+			final String url,
+			final String taxonomyServicesServer,
+			final StudyExtractJobs.Progress progress)
+					throws RIFServiceException {
 
 		//Validate parameters
 		File submissionZipFile = null;
-		ZipOutputStream submissionZipOutputStream = null;
+		RifZipWriter submissionZipWriter = null;
 		File submissionZipSavFile = null;
 		File submissionZipErrorFile = null;
 		
@@ -350,99 +380,138 @@ public class RifZipFile {
 				submissionZipErrorFile=new File(submissionZipErrorFileName);
 			}
 			if (submissionZipFile.isFile()) { // ZIP file exists - no need to recreate
-				Thread.sleep(500); // Sleep to allow JS promises time to work
 				rifLogger.info(this.getClass(), "No need to create ZIP file: " + 
 					submissionZipFile.getAbsolutePath() + "; already exists");
 			}
 			else if (submissionZipSavFile.isFile()) { // Sav file exists - being created
-				Thread.sleep(500); // Sleep to allow JS promises time to work
 				rifLogger.info(this.getClass(), "No need to create ZIP file: " + 
 					submissionZipSavFile.getAbsolutePath() + "; being created");
 			}
 			else { // No zip file - can be created 
-				submissionZipOutputStream = new ZipOutputStream(new FileOutputStream(submissionZipSavFile));
+				submissionZipWriter = RifZipWriter.newInstance(submissionZipSavFile.toPath(), 
+					rifServiceStartupOptions);
 							
+				updateProgress(progress, "Fetching study", 5);
 				CachedRowSet rif40Studies=getRif40Studies(connection, studyID);	
 				CachedRowSet rif40Investigations=getRif40Investigations(connection, studyID);	
 					// Assumes one study at present
 				rifLogger.info(this.getClass(), 
 					"Create study extract for: " + studyID + "; databaseType: " + databaseType);
-				String denominatorHTML=addDenominator(
-					user,
-					connection, 
-					temporaryDirectoryPath.toFile(),
-					studyID,
-					1 /* Header level */,
-					locale,
-					rif40Studies);
-				String numeratorHTML=addNumerator(
-					user,
-					connection, 
-					temporaryDirectoryPath.toFile(),
-					studyID,
-					1 /* Header level */,
-					locale,
-					rif40Studies);	
 					
-				addJsonFile(
-						temporaryDirectoryPath.toFile(),
-						submissionZipOutputStream,
-						connection, user, studyID, locale, url);
-
-				addCssFile(
-						temporaryDirectoryPath.toFile(),
-						submissionZipOutputStream,
+				// The extract is built as a graph of stages, run concurrently. Each stage has its own read 
+				// connection and its own copy of the study rows: CachedRowSet cursors are not thread safe
+				final File temporaryDirectory = temporaryDirectoryPath.toFile();
+				final RifZipWriter zipWriter = submissionZipWriter;
+				final CachedRowSet denominatorStudies = rif40Studies.createCopy();
+				final CachedRowSet numeratorStudies = rif40Studies.createCopy();
+				final CachedRowSet mapStudies = rif40Studies.createCopy();
+				final CachedRowSet mapInvestigations = rif40Investigations.createCopy();
+				StudyExtractStages stages = new StudyExtractStages(rifServiceStartupOptions, manager, 
+					user, studyID, progress, 10 /* startPercent */, 80 /* endPercent */);
+					
+				CompletableFuture<String> denominatorHTML = stages.add("denominator", 
+					stageConnection -> addDenominator(
+						user,
+						stageConnection, 
+						temporaryDirectory,
 						studyID,
-						"RIFStudyHeader.css");
-				addCssFile(
-						temporaryDirectoryPath.toFile(),
-						submissionZipOutputStream,
+						1 /* Header level */,
+						locale,
+						denominatorStudies));
+				CompletableFuture<String> numeratorHTML = stages.add("numerator", 
+					stageConnection -> addNumerator(
+						user,
+						stageConnection, 
+						temporaryDirectory,
 						studyID,
-						"RIFPopulationPyramid.css");
-						
-				RifGeospatialOutputs rifGeospatialOutputs = 
-					new RifGeospatialOutputs(rifServiceStartupOptions, manager);
-				String mapHTML=rifGeospatialOutputs.writeGeospatialFiles(
-						connection,
-						temporaryDirectoryPath.toFile(),
-						baseStudyName,
-						zoomLevel,
-						rifStudySubmission,
-						rif40Studies,
-						rif40Investigations,
-						locale);
-						
-				addHtmlFile(
-						temporaryDirectoryPath.toFile(),
-						submissionZipOutputStream,
-						connection, user, studyID, locale, url, taxonomyServicesServer,
-						denominatorHTML, numeratorHTML, mapHTML);
+						1 /* Header level */,
+						locale,
+						numeratorStudies));
+				stages.add("study JSON", 
+					stageConnection -> {
+						addJsonFile(
+							temporaryDirectory,
+							zipWriter,
+							stageConnection, user, studyID, locale, url);
+						return null;
+					});
+				CompletableFuture<String> mapHTML = stages.add("GeoJSON, shapefiles and maps", 
+					stageConnection -> {
+						RifGeospatialOutputs rifGeospatialOutputs = 
+							new RifGeospatialOutputs(rifServiceStartupOptions, manager);
+						return rifGeospatialOutputs.writeGeospatialFiles(
+							stageConnection,
+							temporaryDirectory,
+							baseStudyName,
+							zoomLevel,
+							rifStudySubmission,
+							mapStudies,
+							mapInvestigations,
+							locale);
+					});
+				CompletableFuture<String> reportHTML = stages.add("study summary", 
+					stageConnection -> createHtmlReport(
+						stageConnection, studyID, locale, url, taxonomyServicesServer));
+				stages.add("HTML report", false /* usesDatabase */,
+					stageConnection -> {
+						addHtmlFile(
+							temporaryDirectory,
+							zipWriter,
+							studyID,
+							reportHTML.join(), denominatorHTML.join(), numeratorHTML.join(), mapHTML.join());
+						return null;
+					},
+					reportHTML, denominatorHTML, numeratorHTML, mapHTML);
+				// A stage, so that a failure here also stops the other stages before the ZIP file is aborted
+				stages.add("CSS and query files", false /* usesDatabase */,
+					stageConnection -> {
+						addCssFile(
+								temporaryDirectory,
+								zipWriter,
+								studyID,
+								"RIFStudyHeader.css");
+						addCssFile(
+								temporaryDirectory,
+								zipWriter,
+								studyID,
+								"RIFPopulationPyramid.css");
+								
+						//write the study the user made when they first submitted their query
+						writeQueryFile(
+								zipWriter,
+								user,
+								baseStudyName,
+								rifStudySubmission);
+						return null;
+					});
 						
-				//write the study the user made when they first submitted their query
-				writeQueryFile(
-						submissionZipOutputStream,
-						user,
-						baseStudyName,
-						rifStudySubmission);
+				stages.awaitAll();
+				rifLogger.info(this.getClass(), "Study extract: " + studyID + " stage timings (ms): " + 
+					stages.getTimings());
+				addTimingsFile(
+					submissionZipWriter,
+					studyID,
+					stages.getTimings());
 						
+				updateProgress(progress, "Adding files to ZIP", 80);
 				addAllFilesToZip(
 					temporaryDirectoryPath.toFile(),
-					submissionZipOutputStream,
+					submissionZipWriter,
 					null);
 
 				/*
 				writeStatisticalPostProcessingFiles(
 					connection,
 					temporaryDirectoryPath,
-					submissionZipOutputStream,				
+					submissionZipWriter,				
 					baseStudyName,
 					rifStudySubmission);
 
 				writeTermsAndConditionsFiles(
-					submissionZipOutputStream);	
+					submissionZipWriter);	
 				 */	
-				submissionZipOutputStream.flush();
-				submissionZipOutputStream.close();
+				submissionZipWriter.close(); // Writes the remaining entries
+				updateProgress(progress, "Finishing ZIP file", 95);
 				submissionZipSavFile.renameTo(submissionZipFile);
 				rifLogger.info(this.getClass(), "Created ZIP file: " + 
 					submissionZipFile.getAbsolutePath());
@@ -463,9 +532,8 @@ public class RifZipFile {
 						user.getUserID(),
 						submissionZipFile.getAbsolutePath());
 			try {
-				if (submissionZipOutputStream != null) {
-					submissionZipOutputStream.flush();
-					submissionZipOutputStream.close();
+				if (submissionZipWriter != null) {
+					submissionZipWriter.abort();
 				}
 				if (submissionZipSavFile != null) {
 					submissionZipSavFile.delete();
@@ -524,9 +592,8 @@ public class RifZipFile {
 //			temporaryDirectory.delete();
 				
 			try {
-				if (submissionZipOutputStream != null) {
-					submissionZipOutputStream.flush();
-					submissionZipOutputStream.close();
+				if (submissionZipWriter != null) {
+					submissionZipWriter.abort();
 				}
 				if (submissionZipSavFile != null) {
 					submissionZipSavFile.delete();
@@ -537,12 +604,20 @@ public class RifZipFile {
 					"createStudyExtract() close ZIP stream ERROR: " + err.getMessage());
 			}
 			
-			try {
-				// Dump error to file
-				writeErrorFile(exception, submissionZipErrorFile);
+			if (progress != null && progress.isCancelled()) { // Not an error; the extract can be re-run
+				rifLogger.info(this.getClass(), "Study extract cancelled for: " + studyID);
+				if (exception instanceof RIFServiceException) {
+					throw (RIFServiceException) exception;
+				}
 			}
-			catch (Exception e) {
-				rifLogger.error(this.getClass(), "writeErrorFile() ERROR", e);
+			else {
+				try {
+					// Dump error to file
+					writeErrorFile(exception, submissionZipErrorFile);
+				}
+				catch (Exception e) {
+					rifLogger.error(this.getClass(), "writeErrorFile() ERROR", e);
+				}
 			}
 
 			throw new RIFServiceException(
@@ -551,6 +626,25 @@ public class RifZipFile {
 		}
 	}
 
+	/**
+	 * Report extract job progress
+	 *
+	 * @param progress extract job progress (may be null)
+	 * @param stage stage description
+	 * @param percentComplete percentage complete
+	 *
+	 * @throws RIFServiceException if the job has been cancelled
+	 */
+	private void updateProgress(
+			final StudyExtractJobs.Progress progress,
+			final String stage,
+			final int percentComplete)
+					throws RIFServiceException {
+		if (progress != null) {
+			progress.update(stage, percentComplete);
+		}
+	}
+
 	/** Write error file for exception
 	  *
 	  * @param Exception exception, 
@@ -590,7 +684,7 @@ public class RifZipFile {
 	
 	private void addCssFile(
 			final File temporaryDirectory,
-			final ZipOutputStream submissionZipOutputStream,
+			final RifZipWriter submissionZipWriter,
 			final String studyID,
 			final String cssFileName) 
 			throws Exception {
@@ -599,43 +693,20 @@ public class RifZipFile {
 		rifLogger.info(this.getClass(), "Adding CSS for report file: " + temporaryDirectory.getAbsolutePath() + File.separator + 
 			cssFileName + " to ZIP file");
 		
-		File file=new File(temporaryDirectory.getAbsolutePath() + File.separator + cssFileName);
-		ZipEntry zipEntry = new ZipEntry(cssFileName);
-
-		submissionZipOutputStream.putNextEntry(zipEntry);
-		byte[] b=cssFileText.toString().getBytes();
-		submissionZipOutputStream.write(b, 0, b.length);
-
-		submissionZipOutputStream.closeEntry();	
-	}
-	
-	private void addZipDir(
-			final File temporaryDirectory,
-			final ZipOutputStream submissionZipOutputStream,
-			final String dirName) 
-			throws Exception {
-			
-		String zipDirName=temporaryDirectory.getAbsolutePath() + File.separator + dirName + File.separator;
-		rifLogger.info(this.getClass(), "Adding " + dirName + " directory: " + zipDirName + 
-			" to ZIP file");
-		
-		ZipEntry zipEntry = new ZipEntry(zipDirName);
-		submissionZipOutputStream.putNextEntry(zipEntry);
-		submissionZipOutputStream.closeEntry();	
+		submissionZipWriter.addEntry(cssFileName, cssFileText.getBytes());
 	}
 	
-	private void addHtmlFile(
-			final File temporaryDirectory,
-			final ZipOutputStream submissionZipOutputStream,
+	/**
+	 * Create the study summary tables for the HTML report
+	 *
+	 * @return HTML header, navigation and study tables
+	 */
+	private String createHtmlReport(
 			final Connection connection,
-			final User user,
 			final String studyID,
 			final Locale locale,
 			final String url,
-			final String taxonomyServicesServer,
-			final String denominatorHTML,
-			final String numeratorHTML,
-			final String mapHTML) 
+			final String taxonomyServicesServer) 
 			throws Exception {
 				
 		GetStudyJSON getStudyJSON = new GetStudyJSON(manager);
@@ -755,6 +826,26 @@ public class RifZipFile {
 			"rif40", // Schema
 			getStudyJSON, locale, url);
 		
+		if (getStudyJSON.getTaxonomyInitialiseError()) {	
+			rifLogger.error(this.getClass(), 
+				"Taxonomy service still initialising; please run again in 5 minutes");
+			throw new Exception("Taxonomy service still initialising; please run again in 5 minutes");
+		}
+		
+		return htmlFileText.toString();
+	}
+	
+	private void addHtmlFile(
+			final File temporaryDirectory,
+			final RifZipWriter submissionZipWriter,
+			final String studyID,
+			final String reportHTML,
+			final String denominatorHTML,
+			final String numeratorHTML,
+			final String mapHTML) 
+			throws Exception {
+				
+		StringBuilder htmlFileText=new StringBuilder(reportHTML);
 		htmlFileText.append(denominatorHTML);
 		htmlFileText.append(numeratorHTML);
 		htmlFileText.append(mapHTML);
@@ -767,20 +858,7 @@ public class RifZipFile {
 		rifLogger.info(this.getClass(), "Adding HTML report file: " + temporaryDirectory.getAbsolutePath() + File.separator + 
 			htmlFileName + " to ZIP file");
 		
-		File file=new File(temporaryDirectory.getAbsolutePath() + File.separator + htmlFileName);
-		ZipEntry zipEntry = new ZipEntry(htmlFileName);
-
-		submissionZipOutputStream.putNextEntry(zipEntry);
-		byte[] b=htmlFileText.toString().getBytes();
-		submissionZipOutputStream.write(b, 0, b.length);
-
-		submissionZipOutputStream.closeEntry();	
-
-		if (getStudyJSON.getTaxonomyInitialiseError()) {	
-			rifLogger.error(this.getClass(), 
-				"Taxonomy service still initialising; please run again in 5 minutes");
-			throw new Exception("Taxonomy service still initialising; please run again in 5 minutes");
-		}		
+		submissionZipWriter.addEntry(htmlFileName, htmlFileText.toString().getBytes());
 	}
 	
 	private String addNumerator(
@@ -820,7 +898,7 @@ public class RifZipFile {
 		PreparedStatement statement = manager.createPreparedStatement(connection, investigationsQueryFormatter);
 		try {	
 			statement.setInt(1, Integer.parseInt(studyID));	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addNumerator", statement);
 			if (resultSet.next()) {
 				int rowCount=0;
 				do {	
@@ -1195,7 +1273,7 @@ public class RifZipFile {
 		PreparedStatement statement = manager.createPreparedStatement(connection, studyAndComparisonReportQueryFormatter);
 		try {
 			statement.setInt(1, Integer.parseInt(studyID));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addStudyAndComparisonAreas", statement);
 			String studyGeolevelName=null;
 			String comparisonGeolevelName=null;
 			String geographyName=null;
@@ -1285,7 +1363,7 @@ public class RifZipFile {
 				statement.setString(3, schemaName);	
 				statement.setString(4, tableName);	
 			}			
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getTableComment", statement);
 			if (resultSet.next()) {		
 				tableComment=resultSet.getString(1);
 				if (tableComment == null) {
@@ -1327,6 +1405,7 @@ public class RifZipFile {
 			
 		String tableName="rif40_inv_conditions";	
 		String tableComment=getTableComment(connection, "rif40", tableName, null);
+		getStudyJSON.prefetchHealthCodeDescriptions(connection, studyID, url, taxonomyServicesServer);
 		
 		SQLGeneralQueryFormatter invConditionsQueryFormatter = new SQLGeneralQueryFormatter();		
 				
@@ -1344,7 +1423,7 @@ public class RifZipFile {
 			int rowCount = 0;
 				
 			statement.setInt(1, Integer.parseInt(studyID));		
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("addInvConditions", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -1562,7 +1641,7 @@ public class RifZipFile {
 		String outcomeGroup=null;
 		try {			
 			statement.setString(1, outcome_group_name);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("getOutcomeType", statement);
 			if (resultSet.next()) {
 				outcomeGroup=resultSet.getString(1) + resultSet.getString(2);
 				if (resultSet.next()) {
@@ -1726,7 +1805,7 @@ public class RifZipFile {
 			if (studyID != null) {
 				statement.setInt(1, Integer.parseInt(studyID));	
 			}	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("executeHTmlReport", statement);
 			if (resultSet.next()) {
 				ResultSetMetaData rsmd = resultSet.getMetaData();
 				int columnCount = rsmd.getColumnCount();
@@ -1905,7 +1984,7 @@ public class RifZipFile {
 	
 	private void addJsonFile(
 			final File temporaryDirectory,
-			final ZipOutputStream submissionZipOutputStream,
+			final RifZipWriter submissionZipWriter,
 			final Connection connection,
 			final User user,
 			final String studyID,
@@ -1926,14 +2005,27 @@ public class RifZipFile {
 		rifLogger.info(this.getClass(), "Adding JSONfile: " + temporaryDirectory.getAbsolutePath() + File.separator + 
 			JSONFileName + " to ZIP file");
 		
-		File file=new File(temporaryDirectory.getAbsolutePath() + File.separator + JSONFileName);
-		ZipEntry zipEntry = new ZipEntry(JSONFileName);
+		submissionZipWriter.addEntry(JSONFileName, jsonFileText.getBytes());
+	}
+
+	/**
+	 * Record the elapsed time of each extract stage in the ZIP file, as RIFstudy_&lt;studyID&gt;_timings.json:
+	 * {"study_id": ..., "stage_timings_ms": {&lt;stage&gt;: &lt;milliseconds&gt;, ...}}
+	 */
+	private void addTimingsFile(
+			final RifZipWriter submissionZipWriter,
+			final String studyID,
+			final Map<String, Long> timings)
+			throws Exception {
+
+		JSONObject json=new JSONObject();
+		json.put("study_id", studyID);
+		json.put("stage_timings_ms", new JSONObject(timings));
 
-		submissionZipOutputStream.putNextEntry(zipEntry);
-		byte[] b=jsonFileText.getBytes();
-		submissionZipOutputStream.write(b, 0, b.length);
+		String timingsFileName="RIFstudy_" + studyID + "_timings.json";
+		rifLogger.info(this.getClass(), "Adding extract stage timings: " + timingsFileName + " to ZIP file");
 
-		submissionZipOutputStream.closeEntry();		
+		submissionZipWriter.addEntry(timingsFileName, json.toString(2).getBytes());
 	}
 
 	private String readFile(String file) throws IOException {
@@ -2034,7 +2126,7 @@ public class RifZipFile {
 	}
 	
 	private void writeQueryFile(
-		final ZipOutputStream submissionZipOutputStream,
+		final RifZipWriter submissionZipWriter,
 		final User user,
 		final String baseStudyName,
 		final RIFStudySubmission rifStudySubmission)
@@ -2043,8 +2135,9 @@ public class RifZipFile {
 		XMLCommentInjector commentInjector = new XMLCommentInjector();
 		RIFStudySubmissionContentHandler rifStudySubmissionContentHandler
 			= new RIFStudySubmissionContentHandler();
+		ByteArrayOutputStream queryFileOutputStream = new ByteArrayOutputStream();
 		rifStudySubmissionContentHandler.initialise(
-			submissionZipOutputStream, 
+			queryFileOutputStream, 
 			commentInjector);
 	
 		//KLG @TODO.  Right now we have only 
@@ -2057,19 +2150,17 @@ public class RifZipFile {
 		queryFileName.append(baseStudyName);
 		queryFileName.append("_query.xml");
 		
-		ZipEntry rifQueryFileNameZipEntry = new ZipEntry(queryFileName.toString());
-		submissionZipOutputStream.putNextEntry(rifQueryFileNameZipEntry);
 		rifStudySubmissionContentHandler.writeXML(
 			user, 
 			rifStudySubmission);
-		submissionZipOutputStream.closeEntry();
+		submissionZipWriter.addEntry(queryFileName.toString(), queryFileOutputStream.toByteArray());
 
 		rifLogger.info(this.getClass(), "Add to ZIP file: " + queryFileName);		
 	}
 	
 	private void addAllFilesToZip(
 			final File startDirectory,
-			final ZipOutputStream submissionZipOutputStream,
+			final RifZipWriter submissionZipWriter,
 			final String relativePath)
 					throws Exception {
 						
@@ -2083,47 +2174,27 @@ public class RifZipFile {
 				rifLogger.debug(this.getClass(), "Adding R file: " + startDirectory.getAbsolutePath() + File.separator + 
 					listOfFiles[i].getName() + " to ZIP file" + lineSeparator + "; relativePath: " + relativePath);
 				
-				File file=new File(startDirectory.getAbsolutePath() + File.separator + listOfFiles[i].getName());
-				ZipEntry zipEntry = null;
+				// Compressed in parallel; written to the ZIP file in order as each file is compressed
 				if (relativePath != null) {
-					zipEntry = new ZipEntry(relativePath + File.separator + listOfFiles[i].getName());
+					submissionZipWriter.addFile(relativePath + "/" + listOfFiles[i].getName(), 
+						listOfFiles[i].toPath());
 				}
 				else {
-					zipEntry = new ZipEntry(listOfFiles[i].getName());
-				}
-				submissionZipOutputStream.putNextEntry(zipEntry);
-
-				FileInputStream fileInputStream  = new FileInputStream(file);
-				byte[] buffer = new byte[4092];
-				int byteCount = 0;
-				while ((byteCount = fileInputStream.read(buffer)) != -1) {
-					submissionZipOutputStream.write(buffer, 0, byteCount);
+					submissionZipWriter.addFile(listOfFiles[i].getName(), listOfFiles[i].toPath());
 				}
-
-				fileInputStream.close();
-				submissionZipOutputStream.closeEntry();
 			}
 			else if (listOfFiles[i].isDirectory()) {
 				rifLogger.debug(this.getClass(), "Adding R directory: " + startDirectory.getAbsolutePath() + File.separator + 
 					listOfFiles[i].getName() + File.separator + " to ZIP file" + 
 					lineSeparator + "; relativePath: " + relativePath);
-					/*
-				if (relativePath != null) {
-					submissionZipOutputStream.putNextEntry(
-						new ZipEntry(relativePath + File.separator + listOfFiles[i].getName() + File.separator));
-				}
-				else {
-					submissionZipOutputStream.putNextEntry(
-						new ZipEntry(listOfFiles[i].getName() + File.separator));
-				} */
 				
 				if (relativePath == null) {
-					addAllFilesToZip(listOfFiles[i], submissionZipOutputStream, 
+					addAllFilesToZip(listOfFiles[i], submissionZipWriter, 
 						listOfFiles[i].getName()); // Recurse!!
 				}
 				else {
-					addAllFilesToZip(listOfFiles[i], submissionZipOutputStream, 
-						relativePath + File.separator + listOfFiles[i].getName()); // Recurse!!
+					addAllFilesToZip(listOfFiles[i], submissionZipWriter, 
+						relativePath + "/" + listOfFiles[i].getName()); // Recurse!!
 				}
 			}
 			else {
@@ -2152,7 +2223,7 @@ public class RifZipFile {
 			PreparedStatement studyStatusStatement = manager.createPreparedStatement(connection,
 					studyStatusQueryFormatter);
 			studyStatusStatement.setInt(1, Integer.parseInt(studyID));	
-			studyStatusResultSet = studyStatusStatement.executeQuery();
+			studyStatusResultSet = manager.executeQuery("getRif40StudyState", studyStatusStatement);
 			studyStatusResultSet.next();
 			studyStatus = studyStatusResultSet.getString(1);
 		}
@@ -0,0 +1,568 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * Write a ZIP file, compressing the entries in parallel.
+ * <p>
+ * Each entry is compressed (raw deflate) on a worker thread as soon as it is added; the compressed entries
+ * are then written to the ZIP file in the order they were added, so at most maxPendingEntries entries are
+ * in progress at once. Small entries are compressed in memory; larger files are compressed to a temporary
+ * file, which is copied into the ZIP file with a channel transfer. Files that are already compressed (e.g.
+ * PNG, JPEG and TIFF images) are stored, copied straight from the original file.
+ * </p>
+ * <p>
+ * Worker threads are shared by all ZIP files (property: zipCompressionThreads, default: the number of
+ * processors, up to 4). ZIP64 extensions are used for entries and files over 4GB.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class RifZipWriter implements AutoCloseable {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int MAX_COMPRESSION_THREADS = 4;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long IN_MEMORY_LIMIT = 1024 * 1024; // Larger files are compressed to a temporary file
+	private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+		"png", "jpg", "jpeg", "tif", "tiff", "gif", "zip", "gz"));
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final short ZIP64_EXTRA_ID = 0x0001;
+	private static final short VERSION = 20;
+	private static final short ZIP64_VERSION = 45;
+	private static final short UTF8_FLAG = 0x0800;
+	private static final short STORED = 0;
+	private static final short DEFLATED = 8;
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+
+	private static ThreadPoolExecutor compressionExecutor = null;
+
+	/**
+	 * A compressed entry, ready to write
+	 */
+	private static final class Entry {
+		private final byte[] name;
+		private final short method;
+		private final int dosTime;
+		private long crc;
+		private long size;
+		private long compressedSize;
+		private long offset;
+		private byte[] data; 			// In memory data; or
+		private Path dataFile; 			// File containing the (compressed) data
+		private boolean isTemporary; 	// dataFile is a temporary file
+
+		private Entry(final String name, final short method, final long modifiedMillis) {
+			this.name = name.getBytes(StandardCharsets.UTF_8);
+			this.method = method;
+			this.dosTime = toDosTime(modifiedMillis);
+		}
+	}
+
+	private final Path zipFile;
+	private final FileChannel channel;
+	private final ExecutorService executor;
+	private final int compressionLevel;
+	private final int maxPendingEntries;
+	private final Deque<Future<Entry>> pendingEntries = new ArrayDeque<>();
+	private final List<Entry> writtenEntries = new ArrayList<>();
+	private final Set<String> entryNames = new HashSet<>();
+	private boolean isClosed = false;
+	private volatile boolean isAborted = false; // Checked by the compression threads
+
+	/**
+	 * Constructor
+	 *
+	 * @param zipFile 				ZIP file to create
+	 * @param executor 				compresses the entries
+	 * @param compressionLevel 		deflate level: 0-9, or Deflater.DEFAULT_COMPRESSION
+	 * @param maxPendingEntries 	maximum entries compressed ahead of the ZIP file
+	 */
+	RifZipWriter(
+			final Path zipFile,
+			final ExecutorService executor,
+			final int compressionLevel,
+			final int maxPendingEntries)
+					throws IOException {
+
+		this.zipFile = zipFile;
+		this.executor = executor;
+		this.compressionLevel = compressionLevel;
+		this.maxPendingEntries = Math.max(1, maxPendingEntries);
+		this.channel = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Create a ZIP file writer using the shared compression threads
+	 *
+	 * @param zipFile ZIP file to create
+	 * @param options RIFServiceStartupOptions for zipCompressionThreads and zipCompressionLevel
+	 *
+	 * @return RifZipWriter
+	 */
+	static RifZipWriter newInstance(final Path zipFile, final RIFServiceStartupOptions options)
+			throws IOException {
+
+		int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		try {
+			compressionLevel = options.getOptionalRIfServiceProperty("zipCompressionLevel",
+				Deflater.DEFAULT_COMPRESSION);
+			if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+				throw new IllegalArgumentException("zipCompressionLevel: " + compressionLevel);
+			}
+		}
+		catch (Exception exception) {
+			rifLogger.warning(RifZipWriter.class, "Invalid zipCompressionLevel; using default");
+			compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		}
+		ThreadPoolExecutor executor = getCompressionExecutor(options);
+		return new RifZipWriter(zipFile, executor, compressionLevel, executor.getMaximumPoolSize() * 2);
+	}
+
+	private static synchronized ThreadPoolExecutor getCompressionExecutor(final RIFServiceStartupOptions options) {
+		if (compressionExecutor == null) {
+			int defaultThreads = Math.min(MAX_COMPRESSION_THREADS, Runtime.getRuntime().availableProcessors());
+			int threads = defaultThreads;
+			try {
+				threads = options.getOptionalRIfServiceProperty("zipCompressionThreads", defaultThreads);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RifZipWriter.class, "Invalid zipCompressionThreads; using default: " +
+					defaultThreads);
+			}
+			threads = Math.max(1, threads);
+			AtomicInteger threadNumber = new AtomicInteger(0);
+			compressionExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "rif-zip-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			compressionExecutor.allowCoreThreadTimeOut(true);
+			rifLogger.info(RifZipWriter.class, "ZIP file compression: " + threads + " worker thread(s)");
+		}
+		return compressionExecutor;
+	}
+
+	/**
+	 * Add an entry from memory, e.g. a generated report
+	 *
+	 * @param entryName 	name in the ZIP file
+	 * @param bytes 		contents
+	 */
+	synchronized void addEntry(final String entryName, final byte[] bytes) throws IOException {
+
+		String name = checkName(entryName);
+		submit(() -> {
+			Entry entry = new Entry(name, DEFLATED, System.currentTimeMillis());
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 64);
+			deflate(entry, new ByteArrayInputStream(bytes), compressed);
+			entry.data = compressed.toByteArray();
+			return entry;
+		});
+	}
+
+	/**
+	 * Add a file
+	 *
+	 * @param entryName 	name in the ZIP file
+	 * @param file 			file to add
+	 */
+	synchronized void addFile(final String entryName, final Path file) throws IOException {
+
+		String name = checkName(entryName);
+		submit(() -> {
+			long modifiedMillis = Files.getLastModifiedTime(file).toMillis();
+			long size = Files.size(file);
+			Entry entry;
+			if (isCompressed(name)) { // Store as is
+				entry = new Entry(name, STORED, modifiedMillis);
+				entry.crc = checksum(file);
+				entry.size = size;
+				entry.compressedSize = size;
+				entry.dataFile = file;
+			}
+			else if (size <= IN_MEMORY_LIMIT) {
+				entry = new Entry(name, DEFLATED, modifiedMillis);
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) size / 2 + 64);
+				try (InputStream inputStream = Files.newInputStream(file)) {
+					deflate(entry, inputStream, compressed);
+				}
+				entry.data = compressed.toByteArray();
+			}
+			else {
+				entry = new Entry(name, DEFLATED, modifiedMillis);
+				Path temporaryFile = Files.createTempFile(zipFile.toAbsolutePath().getParent(), ".rifzip", ".tmp");
+				entry.dataFile = temporaryFile;
+				entry.isTemporary = true;
+				try (InputStream inputStream = Files.newInputStream(file);
+				     OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+					deflate(entry, inputStream, outputStream);
+				}
+				catch (IOException | RuntimeException exception) {
+					Files.deleteIfExists(temporaryFile);
+					throw exception;
+				}
+			}
+			return entry;
+		});
+	}
+
+	/**
+	 * Write the remaining entries and the central directory, and close the ZIP file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (isClosed) {
+			return;
+		}
+		try {
+			while (!pendingEntries.isEmpty()) {
+				writeEntry(pendingEntries.removeFirst());
+			}
+			writeCentralDirectory();
+			channel.force(false);
+		}
+		catch (IOException | RuntimeException exception) {
+			abort();
+			throw exception;
+		}
+		isClosed = true;
+		channel.close();
+	}
+
+	/**
+	 * Abandon the ZIP file: stop compressing, remove any temporary files and close the (partial) ZIP file.
+	 * The caller deletes the ZIP file
+	 */
+	synchronized void abort() {
+
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		isAborted = true; // Entries still compressing remove their own temporary files
+		while (!pendingEntries.isEmpty()) {
+			Future<Entry> future = pendingEntries.removeFirst();
+			if (!future.cancel(false)) {
+				try {
+					deleteTemporaryFile(future.get());
+				}
+				catch (Exception exception) { // Failed entries remove their own temporary files
+				}
+			}
+		}
+		try {
+			channel.close();
+		}
+		catch (IOException ioException) {
+			rifLogger.warning(getClass(), "Unable to close ZIP file: " + zipFile + ": " + ioException.getMessage());
+		}
+	}
+
+	/**
+	 * Queue an entry for compression; write the oldest entries once too many are pending
+	 */
+	private void submit(final Callable<Entry> compression) throws IOException {
+
+		if (isClosed) {
+			throw new IOException("ZIP file: " + zipFile + " is closed");
+		}
+		pendingEntries.addLast(executor.submit(() -> {
+			Entry entry = compression.call();
+			if (isAborted) {
+				deleteTemporaryFile(entry);
+				throw new IOException("ZIP file: " + zipFile + " abandoned");
+			}
+			return entry;
+		}));
+		while (pendingEntries.size() > maxPendingEntries) {
+			writeEntry(pendingEntries.removeFirst());
+		}
+	}
+
+	private String checkName(final String entryName) throws ZipException {
+		String name = entryName.replace('\\', '/');
+		if (!entryNames.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+		return name;
+	}
+
+	private void writeEntry(final Future<Entry> future) throws IOException {
+
+		Entry entry;
+		try {
+			entry = future.get();
+		}
+		catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted writing ZIP file: " + zipFile, interruptedException);
+		}
+		catch (ExecutionException executionException) {
+			Throwable cause = executionException.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Unable to compress ZIP file entry: " + cause.getMessage(), cause);
+		}
+
+		try {
+			entry.offset = channel.position();
+			boolean isZip64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+			ByteBuffer header = newBuffer(30 + entry.name.length + (isZip64 ? 20 : 0));
+			header.putInt(LOCAL_HEADER_SIGNATURE);
+			header.putShort(isZip64 ? ZIP64_VERSION : VERSION);
+			header.putShort(UTF8_FLAG);
+			header.putShort(entry.method);
+			header.putInt(entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) (isZip64 ? ZIP64_LIMIT : entry.compressedSize));
+			header.putInt((int) (isZip64 ? ZIP64_LIMIT : entry.size));
+			header.putShort((short) entry.name.length);
+			header.putShort((short) (isZip64 ? 20 : 0));
+			header.put(entry.name);
+			if (isZip64) {
+				header.putShort(ZIP64_EXTRA_ID);
+				header.putShort((short) 16);
+				header.putLong(entry.size);
+				header.putLong(entry.compressedSize);
+			}
+			write(header);
+
+			if (entry.data != null) {
+				write(ByteBuffer.wrap(entry.data));
+			}
+			else {
+				try (FileChannel dataChannel = FileChannel.open(entry.dataFile, StandardOpenOption.READ)) {
+					long position = 0;
+					while (position < entry.compressedSize) {
+						long transferred = dataChannel.transferTo(position, entry.compressedSize - position,
+							channel);
+						if (transferred <= 0 && dataChannel.size() < entry.compressedSize) {
+							throw new IOException("File changed while adding it to ZIP file: " + entry.dataFile);
+						}
+						position += transferred;
+					}
+				}
+			}
+		}
+		finally {
+			deleteTemporaryFile(entry);
+		}
+		entry.data = null; // Only the central directory fields are kept
+		writtenEntries.add(entry);
+	}
+
+	private void writeCentralDirectory() throws IOException {
+
+		long centralDirectoryOffset = channel.position();
+		for (Entry entry : writtenEntries) {
+			int zip64Length = (entry.size >= ZIP64_LIMIT ? 8 : 0) +
+			                  (entry.compressedSize >= ZIP64_LIMIT ? 8 : 0) +
+			                  (entry.offset >= ZIP64_LIMIT ? 8 : 0);
+			int extraLength = zip64Length > 0 ? zip64Length + 4 : 0;
+			ByteBuffer header = newBuffer(46 + entry.name.length + extraLength);
+			header.putInt(CENTRAL_HEADER_SIGNATURE);
+			header.putShort(ZIP64_VERSION); // Made by
+			header.putShort(zip64Length > 0 ? ZIP64_VERSION : VERSION);
+			header.putShort(UTF8_FLAG);
+			header.putShort(entry.method);
+			header.putInt(entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+			header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+			header.putShort((short) entry.name.length);
+			header.putShort((short) extraLength);
+			header.putShort((short) 0); // Comment length
+			header.putShort((short) 0); // Disk number
+			header.putShort((short) 0); // Internal attributes
+			header.putInt(0); 			// External attributes
+			header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+			header.put(entry.name);
+			if (zip64Length > 0) {
+				header.putShort(ZIP64_EXTRA_ID);
+				header.putShort((short) zip64Length);
+				if (entry.size >= ZIP64_LIMIT) {
+					header.putLong(entry.size);
+				}
+				if (entry.compressedSize >= ZIP64_LIMIT) {
+					header.putLong(entry.compressedSize);
+				}
+				if (entry.offset >= ZIP64_LIMIT) {
+					header.putLong(entry.offset);
+				}
+			}
+			write(header);
+		}
+
+		long centralDirectoryEnd = channel.position();
+		long centralDirectorySize = centralDirectoryEnd - centralDirectoryOffset;
+		int entryCount = writtenEntries.size();
+		if (entryCount >= ZIP64_ENTRY_LIMIT || centralDirectorySize >= ZIP64_LIMIT ||
+		    centralDirectoryOffset >= ZIP64_LIMIT) {
+			ByteBuffer zip64End = newBuffer(56 + 20);
+			zip64End.putInt(ZIP64_END_SIGNATURE);
+			zip64End.putLong(44); // Size of the rest of the record
+			zip64End.putShort(ZIP64_VERSION);
+			zip64End.putShort(ZIP64_VERSION);
+			zip64End.putInt(0); // Disk number
+			zip64End.putInt(0); // Central directory disk
+			zip64End.putLong(entryCount);
+			zip64End.putLong(entryCount);
+			zip64End.putLong(centralDirectorySize);
+			zip64End.putLong(centralDirectoryOffset);
+			zip64End.putInt(ZIP64_LOCATOR_SIGNATURE);
+			zip64End.putInt(0);
+			zip64End.putLong(centralDirectoryEnd);
+			zip64End.putInt(1); // Total disks
+			write(zip64End);
+		}
+
+		ByteBuffer end = newBuffer(22);
+		end.putInt(END_SIGNATURE);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(entryCount, ZIP64_ENTRY_LIMIT));
+		end.putShort((short) Math.min(entryCount, ZIP64_ENTRY_LIMIT));
+		end.putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT));
+		end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_LIMIT));
+		end.putShort((short) 0); // Comment length
+		write(end);
+
+		rifLogger.info(getClass(), "Created ZIP file: " + zipFile + "; entries: " + entryCount + "; size: " +
+			centralDirectoryEnd + " bytes");
+	}
+
+	private void deflate(final Entry entry, final InputStream inputStream, final OutputStream outputStream)
+			throws IOException {
+
+		Deflater deflater = new Deflater(compressionLevel, true /* nowrap: raw deflate for ZIP */);
+		try {
+			CRC32 crc = new CRC32();
+			DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater,
+				BUFFER_SIZE);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long size = 0;
+			int byteCount;
+			while ((byteCount = inputStream.read(buffer)) != -1) {
+				if (isAborted) {
+					throw new IOException("ZIP file: " + zipFile + " abandoned");
+				}
+				crc.update(buffer, 0, byteCount);
+				deflaterOutputStream.write(buffer, 0, byteCount);
+				size += byteCount;
+			}
+			deflaterOutputStream.finish();
+			deflaterOutputStream.flush();
+			entry.crc = crc.getValue();
+			entry.size = size;
+			entry.compressedSize = deflater.getBytesWritten();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	private static long checksum(final Path file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE * 4);
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (fileChannel.read(buffer) != -1) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static boolean isCompressed(final String name) {
+		int dot = name.lastIndexOf('.');
+		return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private static void deleteTemporaryFile(final Entry entry) {
+		if (entry != null && entry.isTemporary && entry.dataFile != null) {
+			try {
+				Files.deleteIfExists(entry.dataFile);
+			}
+			catch (IOException ioException) {
+				rifLogger.warning(RifZipWriter.class, "Unable to delete: " + entry.dataFile);
+			}
+		}
+	}
+
+	private void write(final ByteBuffer buffer) throws IOException {
+		if (buffer.position() > 0) { // Filled: flip for writing
+			buffer.flip();
+		}
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer newBuffer(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * MS-DOS date and time, as used by ZIP files (local time; 2 second resolution; from 1980)
+	 */
+	private static int toDosTime(final long millis) {
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		if (time.getYear() < 1980) {
+			return (1 << 21) | (1 << 16); // 1980-01-01
+		}
+		return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+		       time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+	}
+}
@@ -3,6 +3,7 @@ package org.sahsu.rif.services.datastorage.common;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import org.sahsu.rif.generic.concepts.User;
@@ -118,6 +119,16 @@ public interface SQLManager {
 			QueryFormatter queryFormatter,
 			String... parameters);
 	
+	ResultSet executeQuery(
+			String queryName,
+			PreparedStatement statement)
+		throws SQLException;
+	
+	int executeUpdate(
+			String queryName,
+			PreparedStatement statement)
+		throws SQLException;
+	
 	void logSQLException(SQLException sqlException);
 	
 	boolean doesColumnExist(final Connection connection, final String schemaName, final String tableName, final String columnName)
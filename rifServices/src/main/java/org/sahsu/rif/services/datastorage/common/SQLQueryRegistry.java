@@ -0,0 +1,50 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.sahsu.rif.generic.datastorage.DatabaseType;
+import org.sahsu.rif.generic.datastorage.QueryFormatter;
+
+/**
+ * The SQL text of named queries, generated once per database type.
+ * <p>
+ * Only for queries whose text does not depend on their arguments (which are bound as parameters): the
+ * query formatter is built and generateQuery() is called the first time the query is used; later uses
+ * get the same text.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class SQLQueryRegistry {
+
+	private static final char KEY_SEPARATOR = '\u001f';
+
+	private static final ConcurrentHashMap<String, String> queries = new ConcurrentHashMap<>();
+
+	private SQLQueryRegistry() {
+	}
+
+	/**
+	 * Get the SQL text of a named query, generating it on first use
+	 *
+	 * @param databaseType 				database type
+	 * @param queryName 				query name, as logged
+	 * @param queryFormatterBuilder 	builds the query formatter
+	 *
+	 * @return SQL text
+	 */
+	static String getSQL(
+			final DatabaseType databaseType,
+			final String queryName,
+			final Supplier<QueryFormatter> queryFormatterBuilder) {
+
+		return queries.computeIfAbsent(databaseType + String.valueOf(KEY_SEPARATOR) + queryName,
+			key -> queryFormatterBuilder.get().generateQuery());
+	}
+
+	static int size() {
+		return queries.size();
+	}
+}
@@ -0,0 +1,165 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.sahsu.rif.generic.util.RIFLogger;
+
+/**
+ * Counts and latency histograms for the named SQL queries (the query names passed to
+ * BaseSQLManager.logSQLQuery(), executeQuery() and executeUpdate()).
+ * <p>
+ * Two figures are kept for each query: logged, the calls to logSQLQuery() (whether or not the query is
+ * actually logged); and executed, the statements run, and timed, through SQLManager.executeQuery() or
+ * executeUpdate(). They differ: a query may be logged once and run many times, or run without being logged.
+ * Latencies are held in decade buckets: under 1ms, 10ms, 100ms, 1s, 10s and over. See
+ * SQLQueryStatisticsMXBean for the JMX view.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class SQLQueryStatistics implements SQLQueryStatisticsMXBean {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final long[] BUCKET_LIMITS_MILLIS = { 1, 10, 100, 1000, 10000 };
+	private static final String[] BUCKET_NAMES = { "<1ms", "<10ms", "<100ms", "<1s", "<10s", ">=10s" };
+
+	private static SQLQueryStatistics sqlQueryStatistics = null;
+
+	private static final class QueryStatistics {
+
+		private final String queryName;
+		private final LongAdder loggedQueries = new LongAdder();
+		private final LongAdder executedQueries = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maximumNanos = new AtomicLong(0);
+		private final LongAdder[] buckets = new LongAdder[BUCKET_NAMES.length];
+
+		private QueryStatistics(final String queryName) {
+			this.queryName = queryName;
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		private void record(final long elapsedNanos) {
+			executedQueries.increment();
+			totalNanos.add(elapsedNanos);
+			maximumNanos.accumulateAndGet(elapsedNanos, Math::max);
+			buckets[getBucket(elapsedNanos)].increment();
+		}
+
+		private String format() {
+			long executed = executedQueries.sum();
+			long total = totalNanos.sum();
+			StringBuilder result = new StringBuilder(queryName)
+				.append(": ").append(loggedQueries.sum()).append(" logged; ")
+				.append(executed).append(" executed");
+			if (executed > 0) {
+				result.append("; total: ").append(TimeUnit.NANOSECONDS.toMillis(total)).append("ms")
+					.append("; mean: ")
+					.append(String.format(Locale.ROOT, "%.3f", total / (executed * 1000000.0))).append("ms")
+					.append("; max: ").append(TimeUnit.NANOSECONDS.toMillis(maximumNanos.get())).append("ms");
+				for (int i = 0; i < buckets.length; i++) {
+					result.append(i == 0 ? "; " : ", ").append(BUCKET_NAMES[i]).append(": ").append(buckets[i].sum());
+				}
+			}
+			return result.toString();
+		}
+	}
+
+	private final Map<String, QueryStatistics> queryStatistics = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the shared statistics; creating them, and registering them with JMX, on first use
+	 *
+	 * @return SQLQueryStatistics
+	 */
+	public static synchronized SQLQueryStatistics getInstance() {
+		if (sqlQueryStatistics == null) {
+			sqlQueryStatistics = new SQLQueryStatistics();
+			MBeanRegistration.register(sqlQueryStatistics, "org.sahsu.rif.services:type=SQLQueryStatistics",
+				"the SQL query statistics");
+		}
+		return sqlQueryStatistics;
+	}
+
+	SQLQueryStatistics() {
+	}
+
+	/**
+	 * Count a call to logSQLQuery()
+	 *
+	 * @param queryName query name
+	 */
+	void count(final String queryName) {
+		getQueryStatistics(queryName).loggedQueries.increment();
+	}
+
+	/**
+	 * Record an executed query and the time taken to run it
+	 *
+	 * @param queryName 	query name
+	 * @param elapsedNanos 	time taken, from System.nanoTime()
+	 */
+	void record(final String queryName, final long elapsedNanos) {
+		getQueryStatistics(queryName).record(elapsedNanos);
+	}
+
+	@Override
+	public long getLoggedQueries() {
+		return queryStatistics.values().stream().mapToLong(statistics -> statistics.loggedQueries.sum()).sum();
+	}
+
+	@Override
+	public long getExecutedQueries() {
+		return queryStatistics.values().stream().mapToLong(statistics -> statistics.executedQueries.sum()).sum();
+	}
+
+	@Override
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(
+			queryStatistics.values().stream().mapToLong(statistics -> statistics.totalNanos.sum()).sum());
+	}
+
+	/**
+	 * @return one line per query name, the most total time first
+	 */
+	@Override
+	public String[] getQueryStatistics() {
+		List<QueryStatistics> allStatistics = new ArrayList<>(queryStatistics.values());
+		allStatistics.sort((statistics1, statistics2) -> {
+			int result = Long.compare(statistics2.totalNanos.sum(), statistics1.totalNanos.sum());
+			return result != 0 ? result : statistics1.queryName.compareTo(statistics2.queryName);
+		});
+		return allStatistics.stream().map(QueryStatistics::format).toArray(String[]::new);
+	}
+
+	@Override
+	public void reset() {
+		queryStatistics.clear();
+		rifLogger.info(getClass(), "SQL query statistics reset");
+	}
+
+	static int getBucket(final long elapsedNanos) {
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+			if (elapsedMillis < BUCKET_LIMITS_MILLIS[i]) {
+				return i;
+			}
+		}
+		return BUCKET_LIMITS_MILLIS.length;
+	}
+
+	private QueryStatistics getQueryStatistics(final String queryName) {
+		return queryStatistics.computeIfAbsent(queryName, QueryStatistics::new);
+	}
+}
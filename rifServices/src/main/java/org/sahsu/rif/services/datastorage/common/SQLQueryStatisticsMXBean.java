@@ -0,0 +1,30 @@
+package org.sahsu.rif.services.datastorage.common;
+
+/**
+ * JMX view of the SQLQueryStatistics: org.sahsu.rif.services:type=SQLQueryStatistics
+ * <p>
+ * getQueryStatistics() lists the named queries, the most total database time first; call reset() to
+ * start a new measurement.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public interface SQLQueryStatisticsMXBean {
+
+	/**
+	 * @return calls to logSQLQuery()
+	 */
+	long getLoggedQueries();
+
+	/**
+	 * @return statements run through executeQuery() or executeUpdate(); the only ones timed
+	 */
+	long getExecutedQueries();
+
+	long getTotalMillis();
+
+	String[] getQueryStatistics();
+
+	void reset();
+}
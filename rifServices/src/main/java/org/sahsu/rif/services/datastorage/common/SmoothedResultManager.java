@@ -10,7 +10,7 @@ import java.util.HashSet;
 import java.util.Hashtable;
 
 import org.sahsu.rif.generic.concepts.RIFResultTable;
-import org.sahsu.rif.generic.datastorage.CountTableRowsQueryFormatter;
+import org.sahsu.rif.generic.concepts.RIFResultTableColumn;
 import org.sahsu.rif.generic.datastorage.DatabaseType;
 import org.sahsu.rif.generic.datastorage.SQLGeneralQueryFormatter;
 import org.sahsu.rif.generic.datastorage.SelectQueryFormatter;
@@ -131,7 +131,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 
 			statement = connection.prepareStatement(queryFormatter.generateQuery());
 			statement.setInt(1, Integer.valueOf(studyID));
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getSexes", statement);
 			resultSet.next();
 
 			int sexID = resultSet.getInt(1);
@@ -184,7 +184,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 		try {
 			statement
 					= connection.prepareStatement(queryFormatter.generateQuery());
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getYears", statement);
 			while (resultSet.next()) {
 				results.add(resultSet.getInt(1));
 			}
@@ -239,7 +239,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 			connection.setAutoCommit(false);
 			statement = connection.prepareStatement(queryFormatter.generateQuery());
 			statement.setInt(1, Integer.valueOf(studyID));
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getGeographyAndLevelForStudy", statement);
 			resultSet.next();
 			results[0] = resultSet.getString(1);
 			results[1] = resultSet.getString(2);
@@ -306,16 +306,17 @@ public class SmoothedResultManager extends BaseSQLManager {
 		queryFormatter.addQueryLine(1, " WHERE a.study_id = c.study_id");
 		queryFormatter.addQueryLine(1, "   AND a.study_id = ?");
 
-		String sqlQueryText = logSQLQuery("getDetailsForProcessedStudy", queryFormatter, studyID);
+		String sqlQueryText = queryFormatter.generateQuery();
+		logSQLQuery("getDetailsForProcessedStudy", sqlQueryText, studyID);
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
 		String[] results = new String[20];
 		try {
 			connection.setAutoCommit(false);
-			statement = connection.prepareStatement(queryFormatter.generateQuery());
+			statement = connection.prepareStatement(sqlQueryText);
 			statement.setInt(1, Integer.valueOf(studyID));
 			statement.setInt(2, Integer.valueOf(studyID));
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getDetailsForProcessedStudy", statement);
 			resultSet.next();
 			results[0] = resultSet.getString(1);
 			results[1] = resultSet.getString(2);
@@ -401,7 +402,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 					= connection.prepareStatement(countTableRowsQueryFormatter.generateQuery());
 			countTableRowsStatement.setInt(1, Integer.valueOf(studyID));
 			totalRowCountResultSet
-					= countTableRowsStatement.executeQuery();
+					= executeQuery("getHealthCodesForProcessedStudy", countTableRowsStatement);
 			totalRowCountResultSet.next();
 			numberOfRows = totalRowCountResultSet.getInt(1);
 
@@ -410,7 +411,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 			statement = connection.prepareStatement(queryFormatter.generateQuery());
 			statement.setInt(1, Integer.valueOf(studyID));
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getHealthCodesForProcessedStudy", statement);
 			int currentRow = 0;
 			while(resultSet.next()) {
 				results[currentRow] = resultSet.getString("min_condition") + "-" + resultSet.getString("field_name");
@@ -500,7 +501,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 
 		try {
 			resultCounterStatement = connection.prepareStatement(countTableRowsQueryFormatter.generateQuery());
-			resultCounterSet = resultCounterStatement.executeQuery();
+			resultCounterSet = executeQuery("getNumberOfResultsForMapDataSet", resultCounterStatement);
 			resultCounterSet.next();
 			int totalNumberRowsInTable = resultCounterSet.getInt(1);
 
@@ -520,7 +521,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 			mainResultsStatement.setInt(1, startRow);
 			mainResultsStatement.setInt(2, stopRow);
 
-			mainResultSet = mainResultsStatement.executeQuery();
+			mainResultSet = executeQuery("getNumberOfResultsForMapDataSet", mainResultsStatement);
 			mainResultSet.next();
 			ResultSetMetaData rsmd = mainResultSet.getMetaData();
 			Integer totalNumberColumnsInResults = rsmd.getColumnCount();
@@ -593,41 +594,7 @@ public class SmoothedResultManager extends BaseSQLManager {
 		String extractTableName = deriveExtractTableName(studyID);
 		String mapTableName	= deriveMapTableName(studyID);
 
-		/*
-		 * Create the statement to obtain the total number of rows we should
-		 * expect to get back when we fetch the entire table.  using a
-		 * SELECT
-		 *    COUNT(study_id)
-		 * FROM
-		 *    rif_studies.s[study_id]_map
-		 *
-		 * This is being used as an alternative to finding out the number of rows by using
-		 *
-		 * resultSet.last()
-		 * resultSet.getRow()
-		 *
-		 * resultSet.beforeFirst()
-		 * while (resultSet.next()) {
-		 *    ... do stuff ...
-		 * }
-		 */
-
-		SQLGeneralQueryFormatter countTableRowsQueryFormatter = new SQLGeneralQueryFormatter();
-		//otherwise, if it's both, don't filter by any sex value
 		boolean isDiseaseMappingStudy = isDiseaseMapping(connection, studyID);
-		if (isDiseaseMappingStudy) {
-			countTableRowsQueryFormatter.addQueryLine(0, "SELECT");
-			countTableRowsQueryFormatter.addQueryLine(1, "COUNT(DISTINCT area_id) /* Disease Mapping */ AS total");
-			countTableRowsQueryFormatter.addQueryLine(0, "FROM");
-			countTableRowsQueryFormatter.addQueryLine(1, mapTableName);
-			countTableRowsQueryFormatter.padAndFinishLine();
-		}
-		else {
-			countTableRowsQueryFormatter.addQueryLine(1, "(SELECT COUNT(DISTINCT area_id) AS total");
-			countTableRowsQueryFormatter.addQueryLine(1, "   FROM rif40.rif40_study_areas");
-			countTableRowsQueryFormatter.addQueryLine(1, "  WHERE study_id = ?)");
-			countTableRowsQueryFormatter.padAndFinishLine();
-		}
 
 		/*
 		 * Create the SQL query to return all of the fields of interest
@@ -789,10 +756,6 @@ public class SmoothedResultManager extends BaseSQLManager {
 		queryFormatter.padAndFinishLine();
 
 		//add in join condition related to genders
-		logSQLQuery(
-				"getNumberOfResultsForMapDataSet",
-				countTableRowsQueryFormatter,
-				studyID);
 
 /* Disease mapping version:
 
@@ -883,22 +846,9 @@ WHERE
 				queryFormatter,
 				studyID);
 
-		PreparedStatement countTableRowsStatement = null;
 		PreparedStatement retrieveDataStatement = null;
-		ResultSet totalRowCountResultSet = null;
 		ResultSet smoothedResultSet = null;
-		int numberOfRows = 0;
 		try {
-			countTableRowsStatement
-					= connection.prepareStatement(countTableRowsQueryFormatter.generateQuery());
-			if (!isDiseaseMappingStudy) { 
-				countTableRowsStatement.setInt(1, Integer.valueOf(studyID));
-			}
-			totalRowCountResultSet
-					= countTableRowsStatement.executeQuery();
-			totalRowCountResultSet.next();
-			numberOfRows = totalRowCountResultSet.getInt(1);
-
 			retrieveDataStatement
 					= connection.prepareStatement(queryFormatter.generateQuery());
 
@@ -926,7 +876,7 @@ WHERE
 				}
 			}
 
-			smoothedResultSet = retrieveDataStatement.executeQuery();
+			smoothedResultSet = executeQuery("retrieveResultsForMapDataSet", retrieveDataStatement);
 
 
 			/*
@@ -942,39 +892,6 @@ WHERE
 			 * + n
 			 */
 
-			int numberOfColumns = smoothedAttributesToInclude.size();
-			String[][] data = new String[numberOfRows][7 + numberOfColumns];
-
-			//Build up results table
-			int currentRow = 0;
-			while(smoothedResultSet.next()) {
-				//grab data that will be used to set values in columns which will definitely appear in the extract
-				data[currentRow][0] = smoothedResultSet.getString("area_id");
-				data[currentRow][1] = smoothedResultSet.getString("band_id");
-				data[currentRow][2] = smoothedResultSet.getString("genders");
-				data[currentRow][3] = smoothedResultSet.getString("observed");
-				data[currentRow][4] = smoothedResultSet.getString("expected");
-				data[currentRow][5] = smoothedResultSet.getString("population");
-				data[currentRow][6] = smoothedResultSet.getString("adjusted");
-
-				//Add in the optional fields that end users will have selected in the front end UI
-				int currentColumn = 7;
-				for (String smoothedAttributeToInclude : smoothedAttributesToInclude) {
-                    String res = smoothedResultSet.getString(smoothedAttributeToInclude);							
-                    if (res != null &&
-                        res.equals("NaN")) { // Handle NaN
-                        res = "0";
-                    }
-                    else if (res == null) {
-                        res = "0";
-                    }
-					data[currentRow][currentColumn] = res;
-					currentColumn++;
-				}
-
-				currentRow++;
-			}
-
 			//Stuff everything the client will have to know about the results and send it back
 			RIFResultTable rifResultTable = new RIFResultTable();
 			int numberOfSmoothedAttributesToInclude = smoothedAttributesToInclude.size();
@@ -989,12 +906,29 @@ WHERE
 			for (int i = 0; i < numberOfSmoothedAttributesToInclude; i++) {
 				columnNames[7 + i] = smoothedAttributesToInclude.get(i);
 			}
+			RIFResultTable.ColumnDataType[] columnDataTypes = deriveColumnDataTypes(columnNames);
 
-			String[] columnNameDescriptions = getColumnNameDescriptions(columnNames);
+			//Build up the results table a column at a time. Columns grow as rows are read, so there is
+			//no need to count the rows first. Numeric columns are read as numbers, not text
+			ResultSetMetaData resultSetMetaData = smoothedResultSet.getMetaData();
+			RIFResultTableColumn[] columns = new RIFResultTableColumn[columnNames.length];
+			int[] columnIndexes = new int[columnNames.length];
+			for (int i = 0; i < columnNames.length; i++) {
+				columnIndexes[i] = smoothedResultSet.findColumn(columnNames[i]);
+				columns[i] = RIFResultTableColumn.newInstance(columnDataTypes[i], 
+					resultSetMetaData.getColumnType(columnIndexes[i]));
+			}
+			while(smoothedResultSet.next()) {
+				//columns which will definitely appear in the extract; then the optional fields that end 
+				//users will have selected in the front end UI (null and NaN as zero)
+				for (int i = 0; i < columns.length; i++) {
+					columns[i].add(smoothedResultSet, columnIndexes[i], i >= 7);
+				}
+			}
 
-			RIFResultTable.ColumnDataType[] columnDataTypes = deriveColumnDataTypes(columnNames);
+			String[] columnNameDescriptions = getColumnNameDescriptions(columnNames);
 			rifResultTable.setColumnProperties(columnNames, columnNameDescriptions, columnDataTypes);
-			rifResultTable.setData(data);
+			rifResultTable.setColumns(columns);
 			return rifResultTable;
 
 		}
@@ -1010,9 +944,7 @@ WHERE
 			throw rifServiceException;
 		}
 		finally {
-			SQLQueryUtility.close(totalRowCountResultSet);
 			SQLQueryUtility.close(smoothedResultSet);
-			SQLQueryUtility.close(countTableRowsStatement);
 			SQLQueryUtility.close(retrieveDataStatement);
 		}
 
@@ -1041,7 +973,7 @@ WHERE
 			isDiseaseMappingStatement
 					= connection.prepareStatement(queryFormatter.generateQuery());
 			isDiseaseMappingStatement.setInt(1, Integer.valueOf(studyID));
-			isDiseaseMappingResultSet = isDiseaseMappingStatement.executeQuery();
+			isDiseaseMappingResultSet = executeQuery("isDiseaseMapping", isDiseaseMappingStatement);
 			isDiseaseMappingResultSet.next();
 			Integer studyType = isDiseaseMappingResultSet.getInt(1);
 			// 1 - disease mapping, 11 - Risk Analysis (many areas, one band), 12 - Risk Analysis (point sources), 
@@ -1151,11 +1083,6 @@ WHERE
 
 		String extractTableName = deriveExtractTableName(studyID);
 
-		CountTableRowsQueryFormatter getPyramidResultsCounter = new CountTableRowsQueryFormatter();
-		getPyramidResultsCounter.setCountFieldName("age_group", true);
-		getPyramidResultsCounter.setTableName(extractTableName);
-
-
 		SQLGeneralQueryFormatter getPopulationPyramidData = new SQLGeneralQueryFormatter();
 		getPopulationPyramidData.addQueryLine(0, "WITH males AS");
 		getPopulationPyramidData.addQueryLine(1, "(SELECT");
@@ -1198,23 +1125,14 @@ WHERE
 		getPopulationPyramidData.addQueryLine(1, "rif40.rif40_age_groups.offset");
 
 
-		PreparedStatement resultCounterStatement = null;
 		PreparedStatement mainResultsStatement = null;
-
-		ResultSet resultCounterSet = null;
 		ResultSet mainResultSet = null;
 
 		RIFResultTable results = new RIFResultTable();
 
 		try {
 
-			//Count the number of results first
-			resultCounterStatement = connection.prepareStatement(getPyramidResultsCounter.generateQuery());
-			resultCounterSet = resultCounterStatement.executeQuery();
-			resultCounterSet.next();
-			int totalNumberRowsInResults = resultCounterSet.getInt(1);
-
-			//Now get the results
+			//Get the results
 			mainResultsStatement = connection.prepareStatement(getPopulationPyramidData.generateQuery());
 			mainResultsStatement.setInt(1, year);
 			mainResultsStatement.setInt(2, year);
@@ -1232,19 +1150,21 @@ WHERE
 			columnDataTypes[1] = RIFResultTable.ColumnDataType.NUMERIC;
 			columnDataTypes[2] = RIFResultTable.ColumnDataType.NUMERIC;
 
-			String[][] data = new String[totalNumberRowsInResults][3];
-			int ithRow = 0;
-
-			mainResultSet = mainResultsStatement.executeQuery();
+			mainResultSet = executeQuery("getPopulationPyramidData", mainResultsStatement);
+			ResultSetMetaData resultSetMetaData = mainResultSet.getMetaData();
+			RIFResultTableColumn[] columns = new RIFResultTableColumn[3];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = RIFResultTableColumn.newInstance(columnDataTypes[i], 
+					resultSetMetaData.getColumnType(i + 1));
+			}
 			while (mainResultSet.next()) {
-				data[ithRow][0] = mainResultSet.getString(1);
-				data[ithRow][1] = mainResultSet.getString(2);
-				data[ithRow][2] = mainResultSet.getString(3);
-				ithRow++;
+				for (int i = 0; i < columns.length; i++) {
+					columns[i].add(mainResultSet, i + 1);
+				}
 			}
 
 			results.setColumnProperties(columnNames, columnDataTypes);
-			results.setData(data);
+			results.setColumns(columns);
 
 			return results;
 		} catch(SQLException sqlException) {
@@ -1257,9 +1177,6 @@ WHERE
 					RIFServiceError.DATABASE_QUERY_FAILED,
 					errorMessage);
 		} finally {
-			SQLQueryUtility.close(resultCounterStatement);
-			SQLQueryUtility.close(resultCounterSet);
-
 			SQLQueryUtility.close(mainResultsStatement);
 			SQLQueryUtility.close(mainResultSet);
 		}
@@ -9,9 +9,12 @@ import org.sahsu.rif.generic.system.RIFServiceException;
 import org.sahsu.rif.generic.util.FieldValidationUtility;
 import org.sahsu.rif.generic.util.RIFLogger;
 import org.sahsu.rif.services.concepts.RIFStudySubmission;
+import org.sahsu.rif.services.system.RIFServiceError;
+
+import org.json.JSONObject;
 
 /**
- * Creates a study extract.
+ * Creates a study extract in the background.
  *
  * <p>This code was extracted from
  * {@link StudySubmissionService}.
@@ -40,14 +43,24 @@ public class StudyExtract {
 		this.rifServiceResources = rifServiceResources;
 	}
 	
-	public void create() throws RIFServiceException {
+	/**
+	 * Validate the request and queue the extract as a background job (see StudyExtractJobs). Returns at once;
+	 * if an extract is already queued or running for the user and study, that job is returned.
+	 *
+	 * @return extract status JSON, e.g. {"status":"STUDY_ZIP_IN_PROGRESS","jobID":"46-1",...}; null if the
+	 * 			user is blocked
+	 *
+	 * @throws RIFServiceException on validation errors
+	 */
+	public String submit() throws RIFServiceException {
 		
 		SQLManager sqlConnectionManager = rifServiceResources.getSqlConnectionManager();
 		if (sqlConnectionManager.isUserBlocked(user)) {
-			return;
+			return null;
 		}
 		
 		RIFLogger rifLogger = RIFLogger.getLogger();
+		String result = null;
 		try {
 
 			FieldValidationUtility fieldValidationUtility = new FieldValidationUtility();
@@ -69,6 +82,43 @@ public class StudyExtract {
 							user.getUserID(), user.getIPAddress(), studyID, zoomLevel);
 			rifLogger.info(getClass(), auditTrailMessage);
 
+			StudyExtractJobs.Job job = StudyExtractJobs.getInstance(
+					rifServiceResources.getRIFServiceStartupOptions()).submit(
+							user.getUserID(), studyID, this::create);
+
+			JSONObject status = new JSONObject();
+			status.put("status", "STUDY_ZIP_IN_PROGRESS");
+			job.addToStatus(status);
+			result = status.toString();
+
+		} catch(RIFServiceException rifServiceException) {
+
+			new ExceptionLog(user, "createStudyExtract", rifServiceException,
+					rifServiceResources, rifLogger).log();
+		}
+		return result;
+	}
+	
+	/**
+	 * Create the extract. Run by a StudyExtractJobs worker thread
+	 *
+	 * @param progress extract job progress
+	 *
+	 * @throws RIFServiceException on failure or cancellation (including if the user has been blocked since
+	 * 			the extract was queued), so that the job is marked FAILED or CANCELLED
+	 */
+	void create(final StudyExtractJobs.Progress progress) throws RIFServiceException {
+		
+		SQLManager sqlConnectionManager = rifServiceResources.getSqlConnectionManager();
+		if (sqlConnectionManager.isUserBlocked(user)) {
+			throw new RIFServiceException(
+					RIFServiceError.ZIPFILE_CREATE_FAILED,
+					"User: " + user.getUserID() + " is blocked; study extract for study: " + studyID +
+					" not created");
+		}
+		
+		RIFLogger rifLogger = RIFLogger.getLogger();
+		try {
 			connection = sqlConnectionManager.assignPooledWriteConnection(user);
 
 			SubmissionManager sqlRIFSubmissionManager =
@@ -79,13 +129,13 @@ public class StudyExtract {
 			StudyExtractManager studyExtractManager =
 					rifServiceResources.getSQLStudyExtractManager();
 			studyExtractManager.createStudyExtract(connection, user, rifStudySubmission, zoomLevel,
-			                                       studyID, locale, url);
+			                                       studyID, locale, url, progress);
 			rifLogger.info(getClass(), "Create ZIP file completed OK");
 
 		} catch(RIFServiceException rifServiceException) {
 
 			new ExceptionLog(user, "createStudyExtract", rifServiceException,
-					rifServiceResources, rifLogger).log();
+					rifServiceResources, rifLogger).log(); // Re-throws: the job is marked FAILED
 		} finally {
 			
 			sqlConnectionManager.reclaimPooledWriteConnection(user, connection);
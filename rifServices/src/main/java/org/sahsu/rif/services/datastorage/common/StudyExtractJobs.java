@@ -0,0 +1,347 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceError;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * Background study extract (ZIP file) jobs.
+ * <p>
+ * Extracts run on a bounded pool of worker threads (property: maxConcurrentExtracts, default: 2) so the
+ * HTTP request returns at once. There is at most one queued or running job for each user and study; a second
+ * request for the same extract returns the existing job. Jobs report their current stage and percentage
+ * complete, and can be cancelled: a queued job is removed from the queue, a running job stops at the next
+ * stage and its partial ZIP file is removed. The time taken by each extract stage is added to the status.
+ * </p>
+ * <p>
+ * Finished jobs are kept for an hour so that getExtractStatus can report failures and cancellations.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class StudyExtractJobs {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int MAX_CONCURRENT_EXTRACTS = 2;
+	private static final long FINISHED_JOB_RETENTION_MILLIS = 3600000;
+
+	private static StudyExtractJobs studyExtractJobs = null;
+
+	/**
+	 * Job state
+	 */
+	public enum JobState {
+		QUEUED,
+		RUNNING,
+		COMPLETED,
+		FAILED,
+		CANCELLED
+	}
+
+	/**
+	 * Progress reporting for a running extract
+	 */
+	public interface Progress {
+
+		/**
+		 * Report the start of a stage
+		 *
+		 * @param stage 			stage description
+		 * @param percentComplete 	percentage complete
+		 *
+		 * @throws RIFServiceException if the job has been cancelled
+		 */
+		void update(final String stage, final int percentComplete) throws RIFServiceException;
+
+		/**
+		 * Report the end of a stage
+		 *
+		 * @param stage 			stage name
+		 * @param elapsedMillis 	stage elapsed time
+		 */
+		void stageCompleted(final String stage, final long elapsedMillis);
+
+		boolean isCancelled();
+	}
+
+	/**
+	 * The extract
+	 */
+	@FunctionalInterface
+	public interface ExtractTask {
+
+		void run(final Progress progress) throws RIFServiceException;
+	}
+
+	/**
+	 * An extract job
+	 */
+	public static final class Job implements Progress {
+
+		private final String jobID;
+		private final String userID;
+		private final String studyID;
+		private final long submittedMillis = System.currentTimeMillis();
+		private volatile JobState state = JobState.QUEUED;
+		private volatile String stage = "Queued";
+		private volatile int percentComplete = 0;
+		private volatile String errorMessage = null;
+		private volatile boolean cancelled = false;
+		private volatile long finishedMillis = 0;
+		private volatile Future<?> future;
+		private final Map<String, Long> stageTimings = new ConcurrentHashMap<>();
+
+		private Job(final String jobID, final String userID, final String studyID) {
+			this.jobID = jobID;
+			this.userID = userID;
+			this.studyID = studyID;
+		}
+
+		@Override
+		public void update(final String stage, final int percentComplete) throws RIFServiceException {
+			if (cancelled) {
+				throw new RIFServiceException(
+					RIFServiceError.ZIPFILE_CREATE_FAILED,
+					"Study extract job: " + jobID + " for study: " + studyID + " cancelled");
+			}
+			this.stage = stage;
+			this.percentComplete = percentComplete;
+			rifLogger.info(StudyExtractJobs.class, "Study extract job: " + jobID + " for study: " + studyID +
+				"; " + percentComplete + "%: " + stage);
+		}
+
+		@Override
+		public void stageCompleted(final String stage, final long elapsedMillis) {
+			stageTimings.put(stage, elapsedMillis);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public String getJobID() {
+			return jobID;
+		}
+
+		public String getStudyID() {
+			return studyID;
+		}
+
+		public JobState getState() {
+			return state;
+		}
+
+		public boolean isActive() {
+			return state == JobState.QUEUED || state == JobState.RUNNING;
+		}
+
+		/**
+		 * Add the job details to an extract status
+		 *
+		 * @param status 	extract status JSON, e.g. {"status":"STUDY_ZIP_IN_PROGRESS"}
+		 */
+		public void addToStatus(final JSONObject status) {
+			status.put("jobID", jobID);
+			status.put("jobState", state.name());
+			status.put("stage", stage);
+			status.put("percentComplete", percentComplete);
+			if (errorMessage != null) {
+				status.put("errorMessage", errorMessage);
+			}
+			if (!stageTimings.isEmpty()) {
+				status.put("stageTimings", new JSONObject(stageTimings)); // Stage name: milliseconds
+			}
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>(); // Latest job for each user and study
+	private final AtomicLong jobSequence = new AtomicLong(0);
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxConcurrentExtracts 	maximum extracts running at once
+	 */
+	StudyExtractJobs(final int maxConcurrentExtracts) {
+
+		int threads = Math.max(1, maxConcurrentExtracts);
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+			runnable -> {
+				Thread thread = new Thread(runnable, "rif-extract-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get the extract jobs shared by all users, creating them on first use
+	 *
+	 * @param options RIFServiceStartupOptions for maxConcurrentExtracts
+	 *
+	 * @return StudyExtractJobs
+	 */
+	public static synchronized StudyExtractJobs getInstance(final RIFServiceStartupOptions options) {
+		if (studyExtractJobs == null) {
+			int maxConcurrentExtracts = MAX_CONCURRENT_EXTRACTS;
+			try {
+				maxConcurrentExtracts = options.getOptionalRIfServiceProperty("maxConcurrentExtracts",
+					MAX_CONCURRENT_EXTRACTS);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(StudyExtractJobs.class, "Invalid maxConcurrentExtracts; using default: " +
+					MAX_CONCURRENT_EXTRACTS);
+			}
+			studyExtractJobs = new StudyExtractJobs(maxConcurrentExtracts);
+			rifLogger.info(StudyExtractJobs.class, "Study extract jobs: " + maxConcurrentExtracts +
+				" worker thread(s)");
+		}
+		return studyExtractJobs;
+	}
+
+	/**
+	 * Queue an extract job, unless one is already queued or running for the user and study
+	 *
+	 * @param userID 		user ID
+	 * @param studyID 		study ID
+	 * @param extractTask 	the extract
+	 *
+	 * @return the new or existing job
+	 */
+	public Job submit(final String userID, final String studyID, final ExtractTask extractTask) {
+
+		removeFinishedJobs();
+
+		Job[] submitted = new Job[1];
+		Job job = jobs.compute(jobKey(userID, studyID), (key, existingJob) -> {
+			if (existingJob != null && existingJob.isActive()) {
+				return existingJob;
+			}
+			Job newJob = new Job(studyID + "-" + jobSequence.incrementAndGet(), userID, studyID);
+			submitted[0] = newJob;
+			return newJob;
+		});
+
+		if (submitted[0] == null) {
+			rifLogger.info(getClass(), "Study extract job: " + job.jobID + " for study: " + studyID +
+				" already " + job.state.name().toLowerCase());
+		}
+		else {
+			job.future = executor.submit(() -> run(job, extractTask));
+			rifLogger.info(getClass(), "Queued study extract job: " + job.jobID + " for study: " + studyID +
+				"; queued: " + executor.getQueue().size() + "; running: " + executor.getActiveCount());
+		}
+		return job;
+	}
+
+	/**
+	 * Get the latest job for a user and study
+	 *
+	 * @param userID 		user ID
+	 * @param studyID 		study ID
+	 *
+	 * @return job; null if none
+	 */
+	public Job getJob(final String userID, final String studyID) {
+		return jobs.get(jobKey(userID, studyID));
+	}
+
+	/**
+	 * Cancel the queued or running job for a user and study
+	 *
+	 * @param userID 		user ID
+	 * @param studyID 		study ID
+	 *
+	 * @return the job; null if there is no job
+	 */
+	public Job cancel(final String userID, final String studyID) {
+
+		Job job = getJob(userID, studyID);
+		if (job != null && job.isActive()) {
+			job.cancelled = true;
+			Future<?> future = job.future;
+			if (future != null && future.cancel(false) && job.state == JobState.QUEUED) { // Not started
+				finish(job, JobState.CANCELLED, null);
+			}
+			rifLogger.info(getClass(), "Cancelled study extract job: " + job.jobID + " for study: " + studyID);
+		}
+		return job;
+	}
+
+	private void run(final Job job, final ExtractTask extractTask) {
+
+		if (job.cancelled) {
+			finish(job, JobState.CANCELLED, null);
+			return;
+		}
+		job.state = JobState.RUNNING;
+		long startMillis = System.currentTimeMillis();
+		try {
+			job.update("Started", 0);
+			extractTask.run(job);
+			finish(job, JobState.COMPLETED, null);
+		}
+		catch (RIFServiceException rifServiceException) {
+			if (job.cancelled) {
+				finish(job, JobState.CANCELLED, null);
+			}
+			else {
+				finish(job, JobState.FAILED, rifServiceException.getMessage());
+			}
+		}
+		catch (Exception exception) { // Do not lose the worker thread
+			rifLogger.error(getClass(), "Study extract job: " + job.jobID + " ERROR", exception);
+			finish(job, JobState.FAILED, exception.getMessage());
+		}
+		finally {
+			rifLogger.info(getClass(), "Study extract job: " + job.jobID + " for study: " + job.studyID + " " +
+				job.state.name().toLowerCase() + " in " + (System.currentTimeMillis() - startMillis) + "ms" +
+				"; waited " + (startMillis - job.submittedMillis) + "ms");
+		}
+	}
+
+	private void finish(final Job job, final JobState state, final String errorMessage) {
+		job.errorMessage = errorMessage;
+		if (state == JobState.COMPLETED) {
+			job.stage = "Completed";
+			job.percentComplete = 100;
+		}
+		else if (state == JobState.CANCELLED) {
+			job.stage = "Cancelled";
+		}
+		job.finishedMillis = System.currentTimeMillis();
+		job.state = state;
+	}
+
+	private void removeFinishedJobs() {
+		long now = System.currentTimeMillis();
+		Iterator<Job> iterator = jobs.values().iterator();
+		while (iterator.hasNext()) {
+			Job job = iterator.next();
+			if (!job.isActive() && job.finishedMillis > 0 && now - job.finishedMillis > FINISHED_JOB_RETENTION_MILLIS) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static String jobKey(final String userID, final String studyID) {
+		return userID + ":" + studyID;
+	}
+}
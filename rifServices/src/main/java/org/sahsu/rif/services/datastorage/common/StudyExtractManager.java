@@ -177,6 +177,7 @@ public class StudyExtractManager extends BaseSQLManager {
 	 * @param studyID (required)
 	 * @param locale (required)
 	 * @param url [deduced from calling URL] (required)
+	 * @param progress extract job progress (may be null)
 	 */
 	void createStudyExtract(
 			final Connection connection,
@@ -185,7 +186,8 @@ public class StudyExtractManager extends BaseSQLManager {
 			final String zoomLevel,
 			final String studyID,
 			final Locale locale,
-			final String url)
+			final String url,
+			final StudyExtractJobs.Progress progress)
 			throws RIFServiceException {
 
 		RifZipFile rifZipFile = new RifZipFile(rifServiceStartupOptions, this);
@@ -196,6 +198,7 @@ public class StudyExtractManager extends BaseSQLManager {
 		                              studyID,
 		                              locale,
 		                              url,
-		                              TAXONOMY_SERVICES_SERVER);
+		                              TAXONOMY_SERVICES_SERVER,
+		                              progress);
 	}
 }
@@ -0,0 +1,322 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sahsu.rif.generic.concepts.User;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.system.RIFServiceError;
+import org.sahsu.rif.services.system.RIFServiceStartupOptions;
+
+/**
+ * The stages of a study extract, run as a graph: each stage starts as soon as the stages it depends on
+ * have finished, so independent stages (e.g. the denominator report and the maps) run at the same time.
+ * <p>
+ * Stages run on a pool of worker threads shared by all extracts (property: maxConcurrentExtractStages,
+ * default: 4). Each stage that needs the database has its own pooled read connection. The elapsed time of
+ * each stage is logged, reported to the extract job and recorded in the extract ZIP file
+ * (RIFstudy_&lt;studyID&gt;_timings.json).
+ * </p>
+ * <p>
+ * If a stage fails, stages that have not yet started are cancelled; {@link #awaitAll()} waits for the stages
+ * already running to finish (so none is still using the extract's files) and then re-throws the first failure.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class StudyExtractStages {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final int MAX_CONCURRENT_EXTRACT_STAGES = 4;
+
+	private static ThreadPoolExecutor stageExecutor = null;
+
+	/**
+	 * An extract stage
+	 */
+	@FunctionalInterface
+	interface Stage<T> {
+
+		/**
+		 * Run the stage
+		 *
+		 * @param connection 	pooled read connection; null if the stage does not use the database
+		 *
+		 * @return the stage result
+		 */
+		T run(final Connection connection) throws Exception;
+	}
+
+	private final SQLManager manager;
+	private final User user;
+	private final String studyID;
+	private final StudyExtractJobs.Progress progress;
+	private final ExecutorService executor;
+	private final int startPercent;
+	private final int endPercent;
+	private final List<CompletableFuture<?>> stages = new CopyOnWriteArrayList<>();
+	private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final AtomicInteger completedStages = new AtomicInteger(0);
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param options 		RIFServiceStartupOptions for maxConcurrentExtractStages
+	 * @param manager 		for pooled read connections
+	 * @param user 			extract user
+	 * @param studyID 		study ID
+	 * @param progress 		extract job progress (may be null)
+	 * @param startPercent 	percentage complete when the first stage starts
+	 * @param endPercent 	percentage complete when the last stage finishes
+	 */
+	StudyExtractStages(
+			final RIFServiceStartupOptions options,
+			final SQLManager manager,
+			final User user,
+			final String studyID,
+			final StudyExtractJobs.Progress progress,
+			final int startPercent,
+			final int endPercent) {
+
+		this(getStageExecutor(options), manager, user, studyID, progress, startPercent, endPercent);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param executor 		runs the stages
+	 * @param manager 		for pooled read connections
+	 * @param user 			extract user
+	 * @param studyID 		study ID
+	 * @param progress 		extract job progress (may be null)
+	 * @param startPercent 	percentage complete when the first stage starts
+	 * @param endPercent 	percentage complete when the last stage finishes
+	 */
+	StudyExtractStages(
+			final ExecutorService executor,
+			final SQLManager manager,
+			final User user,
+			final String studyID,
+			final StudyExtractJobs.Progress progress,
+			final int startPercent,
+			final int endPercent) {
+
+		this.executor = executor;
+		this.manager = manager;
+		this.user = user;
+		this.studyID = studyID;
+		this.progress = progress;
+		this.startPercent = startPercent;
+		this.endPercent = endPercent;
+	}
+
+	/**
+	 * Get the stage executor shared by all extracts, creating it on first use
+	 *
+	 * @param options RIFServiceStartupOptions for maxConcurrentExtractStages
+	 *
+	 * @return ExecutorService
+	 */
+	private static synchronized ExecutorService getStageExecutor(final RIFServiceStartupOptions options) {
+		if (stageExecutor == null) {
+			int maxConcurrentExtractStages = MAX_CONCURRENT_EXTRACT_STAGES;
+			try {
+				maxConcurrentExtractStages = options.getOptionalRIfServiceProperty("maxConcurrentExtractStages",
+					MAX_CONCURRENT_EXTRACT_STAGES);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(StudyExtractStages.class, "Invalid maxConcurrentExtractStages; using default: " +
+					MAX_CONCURRENT_EXTRACT_STAGES);
+			}
+			int threads = Math.max(1, maxConcurrentExtractStages);
+			AtomicInteger threadNumber = new AtomicInteger(0);
+			stageExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "rif-extract-stage-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			stageExecutor.allowCoreThreadTimeOut(true);
+			rifLogger.info(StudyExtractStages.class, "Study extract stages: " + threads + " worker thread(s)");
+		}
+		return stageExecutor;
+	}
+
+	/**
+	 * Add a stage using the database
+	 *
+	 * @param name 			stage name, e.g. "denominator"
+	 * @param stage 		the stage
+	 * @param dependencies 	stages that must finish first; use join() on them in the stage for their results
+	 *
+	 * @return the stage result
+	 */
+	<T> CompletableFuture<T> add(
+			final String name,
+			final Stage<T> stage,
+			final CompletableFuture<?>... dependencies) {
+		return add(name, true, stage, dependencies);
+	}
+
+	/**
+	 * Add a stage
+	 *
+	 * @param name 				stage name
+	 * @param usesDatabase 		true if the stage needs a pooled read connection
+	 * @param stage 			the stage
+	 * @param dependencies 		stages that must finish first
+	 *
+	 * @return the stage result
+	 */
+	<T> CompletableFuture<T> add(
+			final String name,
+			final boolean usesDatabase,
+			final Stage<T> stage,
+			final CompletableFuture<?>... dependencies) {
+
+		CompletableFuture<T> future = CompletableFuture.allOf(dependencies).thenApplyAsync(
+			ignored -> runStage(name, usesDatabase, stage), executor);
+		stages.add(future);
+		return future;
+	}
+
+	/**
+	 * Wait for all the stages to finish. On a failure (or interruption) the stages that have not started are
+	 * cancelled, and the stages already running are waited for before returning.
+	 *
+	 * @throws Exception the first stage failure
+	 */
+	void awaitAll() throws Exception {
+
+		CompletableFuture<?>[] allStages = stages.toArray(new CompletableFuture<?>[0]);
+		CompletableFuture<Object> firstFailure = new CompletableFuture<>();
+		for (CompletableFuture<?> stage : allStages) {
+			stage.whenComplete((result, throwable) -> {
+				if (throwable != null) {
+					firstFailure.completeExceptionally(throwable);
+				}
+			});
+		}
+
+		try {
+			CompletableFuture.anyOf(CompletableFuture.allOf(allStages), firstFailure).get();
+		}
+		catch (ExecutionException executionException) {
+			stopStages(allStages);
+			Throwable cause = executionException.getCause();
+			while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+			       cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) { // E.g. OutOfMemoryError
+				throw (Error) cause;
+			}
+			throw executionException;
+		}
+		catch (InterruptedException interruptedException) {
+			stopStages(allStages);
+			Thread.currentThread().interrupt();
+			throw interruptedException;
+		}
+	}
+
+	/**
+	 * Cancel the stages that have not started and wait for those already running
+	 *
+	 * @param allStages the stages
+	 */
+	private void stopStages(final CompletableFuture<?>[] allStages) {
+		stopped = true; // Stages not yet started throw CancellationException in runStage()
+		CompletableFuture.allOf(allStages).handle((result, throwable) -> null).join();
+	}
+
+	/**
+	 * Get the elapsed time of each stage, in the order the stages finished
+	 *
+	 * @return stage name to milliseconds
+	 */
+	Map<String, Long> getTimings() {
+		synchronized (timings) {
+			return new LinkedHashMap<>(timings);
+		}
+	}
+
+	private <T> T runStage(
+			final String name,
+			final boolean usesDatabase,
+			final Stage<T> stage) {
+
+		if (stopped) {
+			throw new CancellationException("Study extract: " + studyID + " stage: " + name + " cancelled");
+		}
+
+		long startMillis = System.currentTimeMillis();
+		Connection connection = null;
+		try {
+			if (progress != null) {
+				progress.update("Writing " + name, getPercentComplete()); // Throws if cancelled
+			}
+			if (usesDatabase) {
+				connection = manager.assignPooledReadConnection(user);
+				if (connection == null) {
+					throw new RIFServiceException(
+						RIFServiceError.ZIPFILE_CREATE_FAILED,
+						"Unable to get a read connection for study extract stage: " + name);
+				}
+			}
+			T result = stage.run(connection);
+
+			long elapsedMillis = System.currentTimeMillis() - startMillis;
+			timings.put(name, elapsedMillis);
+			completedStages.incrementAndGet();
+			if (progress != null) {
+				progress.stageCompleted(name, elapsedMillis);
+			}
+			rifLogger.info(getClass(), "Study extract: " + studyID + " stage: " + name + " completed in " +
+				elapsedMillis + "ms");
+			return result;
+		}
+		catch (Exception exception) {
+			rifLogger.warning(getClass(), "Study extract: " + studyID + " stage: " + name + " failed after " +
+				(System.currentTimeMillis() - startMillis) + "ms: " + exception.getMessage());
+			throw new CompletionException(exception);
+		}
+		finally {
+			if (connection != null) {
+				try {
+					manager.reclaimPooledReadConnection(user, connection);
+				}
+				catch (RIFServiceException rifServiceException) {
+					rifLogger.warning(getClass(), "Unable to reclaim read connection for study extract stage: " +
+						name);
+				}
+			}
+		}
+	}
+
+	private int getPercentComplete() {
+		int stageCount = Math.max(1, stages.size());
+		return startPercent + (endPercent - startPercent) * completedStages.get() / stageCount;
+	}
+}
@@ -1,8 +1,10 @@
 package org.sahsu.rif.services.datastorage.common;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Locale;
 
 import org.sahsu.rif.generic.concepts.RIFResultTable;
@@ -793,6 +795,27 @@ public class StudyService implements RIFStudyServiceAPI {
 				final String tileType)
 			throws RIFServiceException {
 
+			byte[] result = getTileMakerTileBytes(_user, _geography, _geoLevelSelect, zoomlevel, x, y, tileType);
+			if (result == null) {
+				return null;
+			}
+			else if (tileType != null && tileType.equals("png")) { // PNG tiles are base64 encoded as Strings
+				return Base64.getEncoder().encodeToString(result);
+			}
+			return new String(result, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public byte[] getTileMakerTileBytes(
+				final User _user,
+				final Geography _geography,
+				final GeoLevelSelect _geoLevelSelect,
+				final Integer zoomlevel,
+				final Integer x,
+				final Integer y,
+				final String tileType)
+			throws RIFServiceException {
+
 			//Defensively copy parameters and guard against blocked users
 			User user = User.createCopy(_user);
 			SQLManager sqlConnectionManager
@@ -805,7 +828,7 @@ public class StudyService implements RIFStudyServiceAPI {
 			GeoLevelSelect geoLevelSelect
 				= GeoLevelSelect.createCopy(_geoLevelSelect);
 
-			String result = "";
+			byte[] result = new byte[0];
 			Connection connection = null;
 			try {
 				//Check for empty parameters
@@ -869,22 +892,30 @@ public class StudyService implements RIFStudyServiceAPI {
 					getClass(),
 					auditTrailMessage);
 
-				//Assign pooled connection
-				connection
-					= sqlConnectionManager.assignPooledReadConnection(user);
-
 				//Delegate operation to a specialised manager class
 				ResultsQueryManager sqlResultsQueryManager
 					= rifServiceResources.getSqlResultsQueryManager();
 				result
-					= sqlResultsQueryManager.getTileMakerTiles(
-						connection,
+					= sqlResultsQueryManager.getMemoryCachedTileMakerTileBytes(
 						geography,
 						geoLevelSelect,
 						zoomlevel,
 						x,
 						y,
 						tileType);
+				if (result == null) { // Not in the tile memory cache: assign pooled connection
+					connection
+						= sqlConnectionManager.assignPooledReadConnection(user);
+					result
+						= sqlResultsQueryManager.getTileMakerTileBytes(
+							connection,
+							geography,
+							geoLevelSelect,
+							zoomlevel,
+							x,
+							y,
+							tileType);
+				}
 			}
 			catch (SQLException sqlException) {
 				throw new RIFSQLException(this.getClass(), sqlException, null, null);
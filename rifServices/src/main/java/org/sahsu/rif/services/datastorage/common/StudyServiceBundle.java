@@ -80,6 +80,12 @@ public class StudyServiceBundle implements ServiceBundle {
 			SQLManager sqlConnectionManager
 				= rifServiceResources.getSqlConnectionManager();
 			sqlConnectionManager.login(userID, password);
+
+			//Re-queue any studies still queued when the RIF was last stopped
+			if (sqlConnectionManager.isLoggedIn(userID) &&
+				rifStudySubmissionService instanceof StudySubmissionService) {
+				((StudySubmissionService) rifStudySubmissionService).resubmitRecoveredStudies(userID);
+			}
 		}
 		catch(RIFServiceException rifServiceException) {
 			User user = User.newInstance(userID, password);
@@ -1,15 +1,15 @@
 package org.sahsu.rif.services.datastorage.common;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringEscapeUtils;
@@ -31,6 +31,7 @@ import org.sahsu.rif.services.concepts.RIFStudySubmission;
 import org.sahsu.rif.services.concepts.RIFStudySubmissionAPI;
 import org.sahsu.rif.services.concepts.Sex;
 import org.sahsu.rif.services.concepts.YearRange;
+import org.sahsu.rif.services.fileformats.RIFStudySubmissionXMLWriter;
 import org.sahsu.rif.services.system.RIFServiceMessages;
 import org.sahsu.rif.services.system.RIFServiceStartupOptions;
 
@@ -491,6 +492,18 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 			result=studyExtractManager.getExtractStatus(
 					connection, user, rifStudySubmission, studyID);
 
+			//Add the progress of the latest extract job, if any
+			StudyExtractJobs.Job job = StudyExtractJobs.getInstance(
+					getRIFServiceStartupOptions()).getJob(user.getUserID(), studyID);
+			if (job != null) {
+				JSONObject status = new JSONObject(result);
+				if (job.isActive()) { // Queued jobs have not created the .sav file yet
+					status.put("status", "STUDY_ZIP_IN_PROGRESS");
+				}
+				job.addToStatus(status);
+				result = status.toString();
+			}
+
 		}
 		catch(RIFServiceException rifServiceException) {
 			//Audit failure of operation
@@ -661,11 +674,65 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 					studyID);
 		}
 
-	public void createStudyExtract(final User user, final String studyID, final String zoomLevel,
+	public String createStudyExtract(final User user, final String studyID, final String zoomLevel,
 			final Locale locale, final String url) throws RIFServiceException {
 
-		new StudyExtract(user, studyID, zoomLevel, locale, url,
-		                 rifServiceResources).create();
+		return new StudyExtract(user, studyID, zoomLevel, locale, url,
+		                 rifServiceResources).submit();
+	}
+
+	/**
+	 * Cancel a queued or running study extract job, then return the extract status
+	 *
+	 * @param  _user 		Database username of logged on user.
+	 * @param  studyID 		Integer study identifier (database study_id field).
+	 *
+	 * @return 				Textual extract status
+	 *						NULL on exception or permission denied by sqlConnectionManager
+	 */
+	public String cancelStudyExtract(
+			final User _user,
+			final String studyID)
+					throws RIFServiceException {
+
+		//Defensively copy parameters and guard against blocked users
+		User user = User.createCopy(_user);
+		SQLManager sqlConnectionManager
+		= rifServiceResources.getSqlConnectionManager();
+
+		if (sqlConnectionManager.isUserBlocked(user)) {
+			return null;
+		}
+
+		try {
+			FieldValidationUtility fieldValidationUtility
+			= new FieldValidationUtility();
+			fieldValidationUtility.checkNullMethodParameter(
+					"cancelStudyExtract",
+					"user",
+					user);
+			fieldValidationUtility.checkNullMethodParameter(
+					"cancelStudyExtract",
+					"studyID",
+					studyID);
+
+			//Check for security violations
+			validateUser(user);
+			fieldValidationUtility.checkMaliciousMethodParameter(
+					"cancelStudyExtract",
+					"studyID",
+					studyID);
+
+			rifLogger.info(getClass(), "Cancel ZIP file extract, user: " + user.getUserID() +
+			                           "; study: " + studyID);
+			StudyExtractJobs.getInstance(getRIFServiceStartupOptions()).cancel(user.getUserID(), studyID);
+		}
+		catch(RIFServiceException rifServiceException) {
+			//Audit failure of operation
+			logException(user, "cancelStudyExtract", rifServiceException);
+		}
+
+		return getExtractStatus(user, studyID);
 	}
 
 	/**
@@ -929,8 +996,6 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 			outputFile = new File(_outputFile.getAbsolutePath());
 		}
 
-		Connection connection = null;
-		ExecutorService exec = Executors.newSingleThreadExecutor();
 		try {
 
 			//Part II: Check for empty parameter values
@@ -964,9 +1029,84 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 					outputFileName);
 			rifLogger.info(getClass(), auditTrailMessage);
 
+			//Save the submission so it can be re-queued if the RIF is restarted before it runs
+			JSONObject savedStudy = new JSONObject();
+			savedStudy.put("ipAddress", user.getIPAddress());
+			savedStudy.put("url", url);
+			savedStudy.put("submission",
+				new RIFStudySubmissionXMLWriter().writeToString(user, rifStudySubmission));
+			if (rifStudySubmission.getStudySelection() != null) {
+				savedStudy.put("studySelection", rifStudySubmission.getStudySelection());
+			}
+
+			//Queue the study; the scheduler limits the number of studies running at once
+			RIFStudyScheduler.getInstance(getRIFServiceStartupOptions()).submit(
+				user.getUserID(),
+				rifStudySubmission.getDisplayName(),
+				savedStudy,
+				started -> runStudy(user, rifStudySubmission, url, started));
+		}
+		catch(RIFServiceException rifServiceException) {
+			//Audit failure of operation
+			logException(
+				user,
+				"submitStudy",
+				rifServiceException);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Re-queue studies that were still queued when the RIF was last stopped. Called when the user logs on
+	 *
+	 * @param userID the user id
+	 */
+	public void resubmitRecoveredStudies(final String userID) {
+
+		RIFStudyScheduler rifStudyScheduler = RIFStudyScheduler.getInstance(getRIFServiceStartupOptions());
+		for (JSONObject recoveredStudy : rifStudyScheduler.getRecoveredStudies(userID)) {
+			User user = User.newInstance(userID, recoveredStudy.optString("ipAddress", null));
+			try {
+				RIFStudySubmission rifStudySubmission = RIFStudySubmission.newInstance(
+					new ByteArrayInputStream(
+						recoveredStudy.getString("submission").getBytes(StandardCharsets.UTF_8)));
+				JSONObject studySelection = recoveredStudy.optJSONObject("studySelection");
+				if (studySelection != null) {
+					rifStudySubmission.setStudySelection(studySelection);
+				}
+				submitStudy(user, rifStudySubmission, null, recoveredStudy.optString("url", null));
+			}
+			catch(RIFServiceException rifServiceException) {
+				rifLogger.error(getClass(), "Unable to re-queue study: " +
+					recoveredStudy.optString("description") + " for user: " + userID, rifServiceException);
+			}
+		}
+	}
+
+	/**
+	 * Run a study on a pooled write connection. Called by the RIFStudyScheduler; the connection is held
+	 * until the study finishes. started is called once the connection has been assigned: if the user has
+	 * logged off, the scheduler keeps the study and it is re-queued when the user next logs on
+	 */
+	private void runStudy(
+		final User user,
+		final RIFStudySubmission rifStudySubmission,
+		final String url,
+		final Runnable started) {
+
+		SQLManager sqlConnectionManager
+			= rifServiceResources.getSqlConnectionManager();
+
+		Connection connection = null;
+		try {
 			//Assign pooled connection
 			connection = sqlConnectionManager.assignPooledWriteConnection(user);
+			if (connection == null) { // Blocked
+				return;
+			}
 			String password=sqlConnectionManager.getUserPassword(user);
+			started.run();
 
 			//Delegate operation to a specialised manager class
 			RIFServiceStartupOptions rifServiceStartupOptions = getRIFServiceStartupOptions();
@@ -980,26 +1120,24 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 				rifServiceResources,
 				url);
 
-			exec.execute(runStudyThread);
+			runStudyThread.run();
 		}
 		catch(RIFServiceException rifServiceException) {
-			//Audit failure of operation
-			logException(
-				user,
-				"submitStudy",
-				rifServiceException);
+			rifLogger.error(getClass(), "Unable to run study: " + rifStudySubmission.getDisplayName() +
+				" for user: " + user.getUserID(), rifServiceException);
 		}
 		finally {
-
-			exec.shutdown();
-
 			//Reclaim pooled connection
-			sqlConnectionManager.reclaimPooledWriteConnection(
-				user,
-				connection);
+			try {
+				sqlConnectionManager.reclaimPooledWriteConnection(
+					user,
+					connection);
+			}
+			catch(RIFServiceException rifServiceException) {
+				rifLogger.error(getClass(), "Unable to reclaim write connection for user: " + user.getUserID(),
+					rifServiceException);
+			}
 		}
-
-		return result;
 	}
 
 	public List<Sex> getSexes(
@@ -1058,53 +1196,15 @@ public class StudySubmissionService extends StudyService implements RIFStudySubm
 	public void test(final User user, String url)
 		throws RIFServiceException {
 
-		//Defensively copy parameters and guard against blocked users
-		SQLManager sqlConnectionManager
-			= rifServiceResources.getSqlConnectionManager();
-
-		Connection connection = null;
-		ExecutorService exec = Executors.newSingleThreadExecutor();
-		try {
-
-			//Assign pooled connection
-			connection = sqlConnectionManager.assignPooledWriteConnection(user);
-			String password=sqlConnectionManager.getUserPassword(user);
-
-			SampleTestObjectGenerator testDataGenerator = new SampleTestObjectGenerator();
-			RIFStudySubmission studySubmission = testDataGenerator.createSampleRIFJobSubmission();
-
-			//Delegate operation to a specialised manager class
-			RIFServiceStartupOptions rifServiceStartupOptions = getRIFServiceStartupOptions();
-			RunStudyThread runStudyThread = new RunStudyThread();
-			runStudyThread.initialise(
-				connection,
-				user,
-				password,
-				studySubmission,
-				rifServiceStartupOptions,
-				rifServiceResources,
-				url);
-
-			exec.execute(runStudyThread);
-		}
-		catch(RIFServiceException rifServiceException) {
-			rifServiceException.printErrors();
-			//Audit failure of operation
-			logException(
-				user,
-				"test",
-				rifServiceException);
-		}
-		finally {
-
-			exec.shutdown();
-
-			//Reclaim pooled connection
-			sqlConnectionManager.reclaimPooledReadConnection(
-				user,
-				connection);
-		}
+		SampleTestObjectGenerator testDataGenerator = new SampleTestObjectGenerator();
+		RIFStudySubmission studySubmission = testDataGenerator.createSampleRIFJobSubmission();
 
+		//Delegate operation to the study scheduler
+		RIFStudyScheduler.getInstance(getRIFServiceStartupOptions()).submit(
+			user.getUserID(),
+			"test",
+			null,
+			started -> runStudy(user, studySubmission, url, started));
 	}
 
 	//Features for RIF Context
@@ -6,9 +6,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.json.JSONObject;
 import org.sahsu.rif.generic.concepts.User;
@@ -100,7 +100,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			statement1 = connection.prepareStatement(updateSelectStateFormatter1.generateQuery());
 			statement1.setString(1, studySelectionText);
 			statement1.setInt(2, Integer.parseInt(studyID));
-			int rc = statement1.executeUpdate();
+			int rc = executeUpdate("updateSelectState", statement1);
 		
 			if (rc != 1) { 
 				throw new RIFServiceException(
@@ -168,7 +168,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			statement1 = connection.prepareStatement(updateSelectStateFormatter1.generateQuery());
 			statement1.setString(1, printSelectionText);
 			statement1.setInt(2, Integer.parseInt(studyID));
-			int rc = statement1.executeUpdate();
+			int rc = executeUpdate("updateSelectState", statement1);
 		
 			if (rc != 1) { 
 				throw new RIFServiceException(
@@ -322,7 +322,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			logSQLQuery("getCurrentStudyID", queryFormatter);
 
 			statement = createPreparedStatement(connection, queryFormatter);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getCurrentStudyID", statement);
 			resultSet.next();
 
 			result = String.valueOf(resultSet.getInt(1));
@@ -375,7 +375,8 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			studyQueryFormatter.addInsertField("stats_method");
 			studyQueryFormatter.addInsertField("risk_analysis_exposure_field");
 
-			addStudyStatement = createPreparedStatement(connection, studyQueryFormatter);
+			sqlQueryText = studyQueryFormatter.generateQuery();
+			addStudyStatement = createPreparedStatement(connection, sqlQueryText);
 			String[] parameters = new String[studyQueryFormatter.getInsertFieldCount()];
 			int ithQueryParameter = 1;
 
@@ -482,9 +483,9 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			parameters[(ithQueryParameter-1)] = studySubmission.getRiskAnalysisExposureField();
 			addStudyStatement.setString(ithQueryParameter++, studySubmission.getRiskAnalysisExposureField());
 			
-			sqlQueryText = logSQLQuery("addGeneralInformationToStudy", studyQueryFormatter, parameters);
+			logSQLQuery("addGeneralInformationToStudy", sqlQueryText, parameters);
 
-			addStudyStatement.executeUpdate();
+			executeUpdate("addGeneralInformationToStudy", addStudyStatement);
 			SQLQueryUtility.printWarnings(addStudyStatement); // Print output from T-SQL or PL/pgsql
 
 			//add information about who can share the study
@@ -499,7 +500,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 					studyShareQueryFormatter);
 			studyShareStatement.setString(1, user.getUserID());
 			
-			studyShareStatement.executeUpdate();
+			executeUpdate("addStudyShare", studyShareStatement);
 			SQLQueryUtility.printWarnings(studyShareStatement); // Print output from T-SQL or PL/pgsql
 			
 		} catch(Exception exception) {
@@ -548,7 +549,8 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			queryFormatter.addInsertField("max_age_group");
 			queryFormatter.addInsertField("min_age_group");
 
-			statement = createPreparedStatement(connection, queryFormatter);
+			sqlQueryText = queryFormatter.generateQuery();
+			statement = createPreparedStatement(connection, sqlQueryText);
 
 			FieldValidationUtility fieldValidationUtility = new FieldValidationUtility();
 			for (Investigation investigation : investigations) {
@@ -592,9 +594,9 @@ public final class StudySubmissionStep extends BaseSQLManager {
 						ndPair,
 						minimumAgeGroup);
 
-				sqlQueryText = logSQLQuery(
+				logSQLQuery(
 						"addInvestigation",
-						queryFormatter,
+						sqlQueryText,
 						invNameParameter,
 						invDescriptionParameter,
 						String.valueOf(genderCodeParameter),
@@ -631,7 +633,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 						ithQueryParameter++,
 						minAgeGroupParameter);
 
-				statement.executeUpdate();
+				executeUpdate("addInvestigation", statement);
 				SQLQueryUtility.printWarnings(statement); // Print output from T-SQL or PL/pgsql
 
 				addCovariatesToStudy(
@@ -703,7 +705,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			statement.setInt(1, 1);
 			statement.setString(2, numeratorTableName);
 			statement.setString(3, ageGroup.getName());
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getOffsetFromAgeGroup", statement);
 			resultSet.next();
 			return resultSet.getInt(1);
 		} finally {
@@ -732,123 +734,55 @@ public final class StudySubmissionStep extends BaseSQLManager {
 					true /* StudyArea */,
 					rifMappingStudy.isDiseaseMapping());
 
-			InsertQueryFormatter queryFormatter = InsertQueryFormatter.getInstance(
-					rifDatabaseProperties.getDatabaseType());
-			queryFormatter.setIntoTable("rif40.rif40_study_areas");
-			queryFormatter.addInsertField("area_id");
-			queryFormatter.addInsertField("band_id");
-			queryFormatter.addInsertField("intersect_count");
-			queryFormatter.addInsertField("distance_from_nearest_source");
-			queryFormatter.addInsertField("nearest_rifshapepolyid");
-			queryFormatter.addInsertField("exposure_value");
-
-			statement
-					= createPreparedStatement(
-					connection,
-					queryFormatter);
-			
-//			DatabaseType databaseType = rifDatabaseProperties.getDatabaseType();
-			ArrayList<String> areaIdList = new ArrayList<String>();
-			ArrayList<Integer> bandIdList = new ArrayList<Integer>();
-			ArrayList<Integer> intersectCountList = new ArrayList<Integer>();
-			ArrayList<Double> distanceFromNearestSourceList = new ArrayList<Double>();
-			ArrayList<String> nearestRifShapePolyIdList = new ArrayList<String>();
-			ArrayList<Double> exposureValueList = new ArrayList<Double>();
+			BulkInsert bulkInsert = new BulkInsert(
+					rifDatabaseProperties.getDatabaseType(),
+					"rif40.rif40_study_areas",
+					BulkInsert.getBatchSize(rifServiceStartupOptions));
+			bulkInsert.addField("area_id", Types.VARCHAR);
+			bulkInsert.addField("band_id", Types.INTEGER);
+			bulkInsert.addField("intersect_count", Types.INTEGER);
+			bulkInsert.addField("distance_from_nearest_source", Types.DOUBLE);
+			bulkInsert.addField("nearest_rifshapepolyid", Types.VARCHAR);
+			bulkInsert.addField("exposure_value", Types.DOUBLE);
 			for (MapArea currentMapArea : allMapAreas) {
-				areaIdList.add(currentMapArea.getLabel());
-				bandIdList.add(currentMapArea.getBand());
-				intersectCountList.add((currentMapArea.getIntersectCount() > 0) ? currentMapArea.getIntersectCount(): 0);
-				distanceFromNearestSourceList.add((currentMapArea.getDistanceFromNearestSource() > 0.0) ? 
-					currentMapArea.getDistanceFromNearestSource() : 0.0);
-				nearestRifShapePolyIdList.add((currentMapArea.getNearestRifShapePolyId() != null) ?
-					currentMapArea.getNearestRifShapePolyId() : "");
-				exposureValueList.add((currentMapArea.getExposureValue() > 0.0) ? 
-					currentMapArea.getExposureValue() : 0.0);
+				bulkInsert.addRow(
+					currentMapArea.getLabel(),
+					currentMapArea.getBand(),
+					currentMapArea.getIntersectCount(),
+					currentMapArea.getDistanceFromNearestSource(),
+					currentMapArea.getNearestRifShapePolyId(),
+					currentMapArea.getExposureValue());
 			}
-			String areaIdListString = String.join(", ", areaIdList);
-			String bandIdListString = bandIdList.stream().map(Object::toString)
-					.collect(Collectors.joining(", "));
-			String intersectCountListString = null;
-			String distanceFromNearestSourceListString = null;
-			String nearestRifShapePolyIdListString = null;
-			String exposureValueListString = null;
-			intersectCountListString = intersectCountList.stream().map(Object::toString)
-					.collect(Collectors.joining(", "));
-			distanceFromNearestSourceListString = distanceFromNearestSourceList.stream().map(Object::toString)
-					.collect(Collectors.joining(", "));
-			nearestRifShapePolyIdListString = String.join(", ", nearestRifShapePolyIdList);
-			exposureValueListString = exposureValueList.stream().map(Object::toString)
-					.collect(Collectors.joining(", "));
-//			if (databaseType == DatabaseType.POSTGRESQL) { 	// Do array insert: not possible, see: https://github.com/swaldman/c3p0/issues/88
-//
-//				statement.setArray(1, connection.createArrayOf("VARCHAR", areaIdList.toArray()));
-//				statement.setArray(2, connection.createArrayOf("INTEGER", bandIdList.toArray()));
-//				statement.setArray(3, connection.createArrayOf("INTEGER", intersectCountList.toArray()));
-//				statement.setArray(4, connection.createArrayOf("NUMERIC", distanceFromNearestSourceList.toArray()));
-//				statement.setArray(5, connection.createArrayOf("VARCHAR", nearestRifShapePolyIdList.toArray()));
-//				statement.setArray(4, connection.createArrayOf("NUMERIC", exposureValueListString.toArray()));
-//
-//				rifLogger.info(this.getClass(), "Do Postgres study area array insert; 1: " + areaIdList.size() + "; " + 
-//					(areaIdListString.length() > 100 ? areaIdListString.substring(0, 100) : areaIdListString) +				
-//					"; 2: " + bandIdList.size() + "; " + 
-//					(bandIdListString.length() > 100 ? bandIdListString.substring(0, 100) : bandIdListString
-//					"; 3: " + intersectCountList.size() + "; " + 
-//					(intersectCountListString.length() > 100 ? intersectCountListString.substring(0, 100) : intersectCountListString) +				
-//					"; 4: " + distanceFromNearestSourceList.size() + "; " + 
-//					(distanceFromNearestSourceListString.length() > 100 ? distanceFromNearestSourceListString.substring(0, 100) : distanceFromNearestSourceListString) +				
-//					"; 5: " + nearestRifShapePolyIdList.size() + "; " + 
-//					(nearestRifShapePolyIdListString.length() > 100 ? nearestRifShapePolyIdListString.substring(0, 100) : nearestRifShapePolyIdListString));
-//					"; 6: " + exposureValueList.size() + "; " + 
-//					(exposureValueListString.length() > 100 ? exposureValueListString.substring(0, 100) : exposureValueListString) +				
-
-//				statement.executeUpdate();
-//			}
-//			else if (databaseType == DatabaseType.SQL_SERVER) { 	// Don't or you will get:
-													// java.sql.SQLFeatureNotSupportedException: This operation is not supported.
-													//		at com.microsoft.sqlserver.jdbc.SQLServerConnection.createArrayOf(SQLServerConnection.java:5073)
-
-//				rifLogger.info(this.getClass(), "Done SQL Server study area non array insert; 1: " + 
-				rifLogger.info(this.getClass(), "Done study area non array insert; 1: " + 
-					(areaIdListString.length() > 100 ? areaIdListString.substring(0, 100) : areaIdListString) +				
-					"; 2: " + bandIdList.size() + "; " + 
-					(bandIdListString.length() > 100 ? bandIdListString.substring(0, 100) : bandIdListString) +				
-					"; 3: " + intersectCountList.size() + "; " + 
-					(intersectCountListString.length() > 100 ? intersectCountListString.substring(0, 100) : intersectCountListString) +				
-					"; 4: " + distanceFromNearestSourceList.size() + "; " + 
-					(distanceFromNearestSourceListString.length() > 100 ? distanceFromNearestSourceListString.substring(0, 100) : distanceFromNearestSourceListString) +				
-					"; 5: " + nearestRifShapePolyIdList.size() + "; " + 
-					(nearestRifShapePolyIdListString.length() > 100 ? nearestRifShapePolyIdListString.substring(0, 100) : nearestRifShapePolyIdListString) +
-					"; 6: " + exposureValueList.size() + "; " + 
-					(exposureValueListString.length() > 100 ? exposureValueListString.substring(0, 100) : exposureValueListString));			
-					
-				int i=1;
-				for (MapArea currentMapArea : allMapAreas) {
-					if (i == 1) {
-						sqlQueryText=logSQLQuery(
-							"addStudyAreaToStudy",
-							queryFormatter,
-							currentMapArea.getLabel(),
-							String.valueOf(currentMapArea.getBand()),
-							String.valueOf(currentMapArea.getIntersectCount()),
-							String.valueOf(currentMapArea.getDistanceFromNearestSource()),
-							currentMapArea.getNearestRifShapePolyId(),
-							String.valueOf(currentMapArea.getExposureValue()));
-					}
-					statement.setString(1, currentMapArea.getLabel());
-					statement.setInt(2, currentMapArea.getBand());
-					statement.setInt(3, currentMapArea.getIntersectCount());
-					statement.setDouble(4, currentMapArea.getDistanceFromNearestSource());
-					statement.setString(5, currentMapArea.getNearestRifShapePolyId());
-					statement.setDouble(6, currentMapArea.getExposureValue());
-					statement.executeUpdate();
-					i++;
-				}
-//			}
-//			else {
-//				throw new IllegalStateException("Unknown database type in "
-//				                                + "GenerateResultsSubmissionStep");
-//			}			
-			rifLogger.info(this.getClass(), "addStudyAreaToStudy() OK");
+
+			InsertQueryFormatter queryFormatter = bulkInsert.getInsertQueryFormatter();
+			sqlQueryText = queryFormatter.generateQuery();
+			if (!allMapAreas.isEmpty()) { // Log the first row only
+				MapArea firstMapArea = allMapAreas.get(0);
+				logSQLQuery(
+					"addStudyAreaToStudy",
+					sqlQueryText,
+					firstMapArea.getLabel(),
+					String.valueOf(firstMapArea.getBand()),
+					String.valueOf(firstMapArea.getIntersectCount()),
+					String.valueOf(firstMapArea.getDistanceFromNearestSource()),
+					firstMapArea.getNearestRifShapePolyId(),
+					String.valueOf(firstMapArea.getExposureValue()));
+			}
+
+			long startMillis = System.currentTimeMillis();
+			String insertMethod = "COPY";
+			if (!bulkInsert.copy(connection)) {
+				insertMethod = "batched insert";
+				statement
+						= createPreparedStatement(
+						connection,
+						sqlQueryText);
+				bulkInsert.executeBatches(statement);
+			}
+			rifLogger.info(this.getClass(), "addStudyAreaToStudy() OK: " + bulkInsert.getRowCount() +
+				" study areas by " + insertMethod + " in " + bulkInsert.getBatchCount() +
+				" batch(es) of up to " + bulkInsert.getBatchSize() + "; " +
+				(System.currentTimeMillis() - startMillis) + "ms");
 		} catch(Exception exception) {
 			if (statement != null) {
 				sqlWarnings.append(SQLQueryUtility.printWarnings(statement) + lineSeparator); // Print output from PL/PGSQL
@@ -868,18 +802,16 @@ public final class StudySubmissionStep extends BaseSQLManager {
 		PreparedStatement statement = null;
 		String sqlQueryText = null;
 		try {
-			InsertQueryFormatter queryFormatter = InsertQueryFormatter.getInstance(
-					rifDatabaseProperties.getDatabaseType());
-			queryFormatter.setIntoTable("rif40.rif40_comparison_areas");
-			queryFormatter.addInsertField("area_id");
-			sqlQueryText = logSQLQuery(
+			BulkInsert bulkInsert = new BulkInsert(
+					rifDatabaseProperties.getDatabaseType(),
+					"rif40.rif40_comparison_areas",
+					BulkInsert.getBatchSize(rifServiceStartupOptions));
+			bulkInsert.addField("area_id", Types.VARCHAR);
+			InsertQueryFormatter queryFormatter = bulkInsert.getInsertQueryFormatter();
+			sqlQueryText = queryFormatter.generateQuery();
+			logSQLQuery(
 					"addComparisonAreaToStudy",
-					queryFormatter);
-					
-			statement
-					= createPreparedStatement(
-					connection,
-					queryFormatter);
+					sqlQueryText);
 
 			Geography geography
 					= rifMappingStudy.getGeography();
@@ -902,41 +834,24 @@ public final class StudySubmissionStep extends BaseSQLManager {
 					false /* ComparisonArea */,
 					rifMappingStudy.isDiseaseMapping()
 					);
-					
-//			DatabaseType databaseType = rifDatabaseProperties.getDatabaseType();
-			ArrayList<String> list = new ArrayList<String>();
 			for (MapArea currentMapArea : allMapAreas) {
-				list.add(currentMapArea.getLabel());
-			}	
-			String listString = String.join(", ", list);
-//			if (databaseType == DatabaseType.POSTGRESQL) { 	// Do array insert: not possible, see: https://github.com/swaldman/c3p0/issues/88
-//	
-//
-//				Array array = connection.createArrayOf("VARCHAR", list.toArray());
-//				statement.setArray(1, array);
-//				rifLogger.info(this.getClass(), "Do Postgres comparison area array insert; 1: " + list.size() + 
-//					"; " + (listString.length() > 100 ? listString.substring(0, 100) : listString));
-//				statement.executeUpdate();
-//			}
-//			else if (databaseType == DatabaseType.SQL_SERVER) { 	// Don't or you will get:
-													// java.sql.SQLFeatureNotSupportedException: This operation is not supported.
-													//		at com.microsoft.sqlserver.jdbc.SQLServerConnection.createArrayOf(SQLServerConnection.java:5073)
-				for (MapArea currentMapArea : allMapAreas) {
-					statement.setString(1, currentMapArea.getLabel());
-					statement.executeUpdate();
-				}
-//				rifLogger.info(this.getClass(), "Done SQL Server comparison area non array insert; 1: " + list.size() + 
-//					"; " + (listString.length() > 100 ? listString.substring(0, 100) : listString));
-				rifLogger.info(this.getClass(), "Done comparison area non array insert; 1: " + list.size() + 
-					"; " + (listString.length() > 100 ? listString.substring(0, 100) : listString));
-//			}
-//			else {
-//				throw new IllegalStateException("Unknown database type in "
-//				                                + "GenerateResultsSubmissionStep");
-//			}
-//		} catch (Exception e) {		
-//			logException(e);	
-//			throw e;	
+				bulkInsert.addRow(currentMapArea.getLabel());
+			}
+
+			long startMillis = System.currentTimeMillis();
+			String insertMethod = "COPY";
+			if (!bulkInsert.copy(connection)) {
+				insertMethod = "batched insert";
+				statement
+						= createPreparedStatement(
+						connection,
+						sqlQueryText);
+				bulkInsert.executeBatches(statement);
+			}
+			rifLogger.info(this.getClass(), "addComparisonAreaToStudy() OK: " + bulkInsert.getRowCount() +
+				" comparison areas by " + insertMethod + " in " + bulkInsert.getBatchCount() +
+				" batch(es) of up to " + bulkInsert.getBatchSize() + "; " +
+				(System.currentTimeMillis() - startMillis) + "ms");
 		}
 		catch(RIFServiceException rifServiceException) {
 			throw rifServiceException;
@@ -984,15 +899,17 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			addCovariateQueryFormatter.addInsertField("min");
 			addCovariateQueryFormatter.addInsertField("max");
 
+			String getMinMaxCovariateValuesQuery = getMinMaxCovariateValuesQueryFormatter.generateQuery();
 			getMinMaxCovariateValueStatement
 					= createPreparedStatement(
 					connection,
-					getMinMaxCovariateValuesQueryFormatter);
+					getMinMaxCovariateValuesQuery);
 
+			String addCovariateQuery = addCovariateQueryFormatter.generateQuery();
 			addCovariateStatement
 					= createPreparedStatement(
 					connection,
-					addCovariateQueryFormatter);
+					addCovariateQuery);
 			int ithQueryParameter = 1;
 
 			Geography geography = study.getGeography();
@@ -1007,9 +924,10 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			ResultSet getMinMaxCovariateValueResultSet;
 			for (AbstractCovariate covariate : covariates) {
 
-				sqlQueryText = logSQLQuery(
+				sqlQueryText = getMinMaxCovariateValuesQuery;
+				logSQLQuery(
 						"getMinMaxCovariateValue",
-						getMinMaxCovariateValuesQueryFormatter,
+						sqlQueryText,
 						geographyName,
 						studyGeoLevelName,
 						covariate.getName().toUpperCase());
@@ -1019,15 +937,16 @@ public final class StudySubmissionStep extends BaseSQLManager {
 				getMinMaxCovariateValueStatement.setString(3, covariate.getName().toUpperCase());
 				//we can assume that the covariate will exist
 				getMinMaxCovariateValueResultSet
-						= getMinMaxCovariateValueStatement.executeQuery();
+						= executeQuery("getMinMaxCovariateValue", getMinMaxCovariateValueStatement);
 				getMinMaxCovariateValueResultSet.next();
 				Double minimumCovariateValue = getMinMaxCovariateValueResultSet.getDouble(1);
 				Double maximumCovariateValue = getMinMaxCovariateValueResultSet.getDouble(2);
 				getMinMaxCovariateValueResultSet.close();
 
-				sqlQueryText = logSQLQuery(
+				sqlQueryText = addCovariateQuery;
+				logSQLQuery(
 						"addCovariateValue",
-						addCovariateQueryFormatter,
+						sqlQueryText,
 						geographyName,
 						covariate.getName().toUpperCase(),
 						studyGeoLevelName,
@@ -1049,7 +968,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 				addCovariateStatement.setDouble(
 						ithQueryParameter++,
 						maximumCovariateValue);
-				addCovariateStatement.executeUpdate();
+				executeUpdate("addCovariateValue", addCovariateStatement);
 				SQLQueryUtility.printWarnings(addCovariateStatement); // Print output from T-SQL or PL/pgsql
 				ithQueryParameter = 1;
 			}
@@ -1089,20 +1008,21 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			Geography geography = study.getGeography();
 			NumeratorDenominatorPair ndPair = investigation.getNdPair();
 
-			sqlQueryText = logSQLQuery(
+			sqlQueryText = getOutcomeGroupNameQueryFormatter.generateQuery();
+			logSQLQuery(
 					"getOutcomeGroupName",
-					getOutcomeGroupNameQueryFormatter,
+					sqlQueryText,
 					geography.getName(),
 					ndPair.getNumeratorTableName());
 
 			getOutcomeGroupNameStatement
 					= createPreparedStatement(
 					connection,
-					getOutcomeGroupNameQueryFormatter);
+					sqlQueryText);
 			getOutcomeGroupNameStatement.setString(1, geography.getName());
 			getOutcomeGroupNameStatement.setString(2, ndPair.getNumeratorTableName());
 			getOutcomeGroupNameResultSet
-					= getOutcomeGroupNameStatement.executeQuery();
+					= executeQuery("getOutcomeGroupName", getOutcomeGroupNameStatement);
 			if (getOutcomeGroupNameResultSet.next()) {
                 String outcomeGroupName
                         = getOutcomeGroupNameResultSet.getString(1);
@@ -1126,6 +1046,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
                     addHealthOutcomeQueryFormatter.addInsertField("max_condition");
                     addHealthOutcomeQueryFormatter.addInsertField("predefined_group_name");
                     addHealthOutcomeQueryFormatter.addInsertField("line_number");
+                    String addHealthOutcomeQuery = addHealthOutcomeQueryFormatter.generateQuery();
 
                     for (int i = 1; i <= totalHealthCodes; i++) {
                         HealthCode currentHealthCode = healthCodes.get(i - 1);
@@ -1141,14 +1062,15 @@ public final class StudySubmissionStep extends BaseSQLManager {
                         addHealthCodeStatement
                                 = createPreparedStatement(
                                 connection,
-                                addHealthOutcomeQueryFormatter);
+                                addHealthOutcomeQuery);
                                 
                         if (currentHealthCode.getCode().contains("-")) { // 
                             String minCondition=currentHealthCode.getCode().substring(0, currentHealthCode.getCode().indexOf("-"));
                             String maxCondition=currentHealthCode.getCode().substring(currentHealthCode.getCode().indexOf("-")+1);
-                            sqlQueryText = logSQLQuery(
+                            sqlQueryText = addHealthOutcomeQuery;
+                            logSQLQuery(
                                     "add_inv_condition",
-                                    addHealthOutcomeQueryFormatter,
+                                    sqlQueryText,
                                     outcomeGroupName,
                                     minCondition,
                                     maxCondition,
@@ -1162,9 +1084,10 @@ public final class StudySubmissionStep extends BaseSQLManager {
                             addHealthCodeStatement.setInt(5, i);
                         }
                         else {
-                            sqlQueryText = logSQLQuery(
+                            sqlQueryText = addHealthOutcomeQuery;
+                            logSQLQuery(
                                     "add_inv_condition",
-                                    addHealthOutcomeQueryFormatter,
+                                    sqlQueryText,
                                     outcomeGroupName,
                                     currentHealthCode.getCode(),
                                     null, //max_condition not supported yet
@@ -1178,7 +1101,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 
                         }
 
-                        addHealthCodeStatement.executeUpdate();
+                        executeUpdate("add_inv_condition", addHealthCodeStatement);
                         SQLQueryUtility.printWarnings(addHealthCodeStatement); // Print output from T-SQL or PL/pgsql
                     }
                 }
@@ -1260,7 +1183,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 
 			checkProjectExistsStatement.setString(1, project.getName());
 			checkProjectExistsResultSet
-					= checkProjectExistsStatement.executeQuery();
+					= executeQuery("checkProjectExists", checkProjectExistsStatement);
 
 			if (!checkProjectExistsResultSet.next()) {
 				//ERROR: no such project exists
@@ -1348,7 +1271,7 @@ public final class StudySubmissionStep extends BaseSQLManager {
 			if (stack != null) {
 				statement1.setString(4, stack);
 			}
-			int rc = statement1.executeUpdate();
+			int rc = executeUpdate("setStudyExtractToFail", statement1);
 		
 			if (rc != 1) { 
 				throw new RIFServiceException(
@@ -141,7 +141,7 @@ public class SubmissionManager extends BaseSQLManager {
 					queryFormatter);
 			statement.setInt(1, Integer.valueOf(diseaseMappingStudy.getIdentifier()));
 
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("retrieveGeneralInformationForStudy", statement);
 			resultSet.next();
 
 			diseaseMappingStudy.setName(resultSet.getString(1));
@@ -204,7 +204,7 @@ public class SubmissionManager extends BaseSQLManager {
 
 			//KLG: TODO - how can we improve this so we can add in extra
 			//information?
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("retrieveStudyAreaForStudy", statement);
 			while (resultSet.next()) {
 				String geographicalIdentifier
 						= resultSet.getString(1);
@@ -256,7 +256,7 @@ public class SubmissionManager extends BaseSQLManager {
 					= ComparisonArea.newInstance();
 			//KLG: TODO - how can we improve this so we can add in extra
 			//information?
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("retrieveComparisonAreaForStudy", statement);
 			while (resultSet.next()) {
 				String geographicalIdentifier
 						= resultSet.getString(1);
@@ -313,7 +313,7 @@ public class SubmissionManager extends BaseSQLManager {
 					queryFormatter);
 			statement.setInt(1, Integer.valueOf(diseaseMappingStudy.getIdentifier()));
 			resultSet
-					= statement.executeQuery();
+					= executeQuery("retrieveInvestigationsForStudy", statement);
 			while (resultSet.next()) {
 
 				Investigation investigation = Investigation.newInstance();
@@ -433,7 +433,7 @@ public class SubmissionManager extends BaseSQLManager {
 			statement.setInt(1, 1);
 			statement.setInt(2, Integer.valueOf(ageGroupIdentifier));
 			resultSet
-					= statement.executeQuery();
+					= executeQuery("getAgeGroupFromIdentifier", statement);
 			resultSet.next();
 			result
 					= AgeGroup.newInstance(
@@ -481,7 +481,7 @@ public class SubmissionManager extends BaseSQLManager {
 					connection,
 					queryFormatter);
 			statement.setString(1, numeratorTableName);
-			resultSet = statement.executeQuery();
+			resultSet = executeQuery("getNDPairForNumeratorTableName", statement);
 			resultSet.next();
 			result = NumeratorDenominatorPair.newInstance();
 			result.setNumeratorTableName(numeratorTableName);
@@ -76,7 +76,7 @@ public final class PGSQLGenerateResultsSubmissionStep implements GenerateResults
 			runStudyStatement.setInt(1, Integer.valueOf(studyID));
 			runStudyStatement.setBoolean(2, true); // Debug
 				
-			runStudyResultSet = runStudyStatement.executeQuery(); // Returns true/false
+			runStudyResultSet = manager.executeQuery("runStudy", runStudyStatement); // Returns true/false
 			runStudyResultSet.next();
 			res = runStudyResultSet.getBoolean(1);
 			
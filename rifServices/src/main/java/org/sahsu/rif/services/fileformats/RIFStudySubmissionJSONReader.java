@@ -0,0 +1,272 @@
+package org.sahsu.rif.services.fileformats;
+
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.json.JSONObject;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.system.RIFServiceExceptionFactory;
+import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.concepts.RIFStudySubmission;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads a study submission from the JSON sent by the web front end.
+ * <p>
+ * The JSON is read a token at a time and fed to the same content handler (RIFStudySubmissionContentHandler)
+ * as RIFStudySubmissionXMLReader, as the SAX events of the XML that org.json XML.toString() would make of it:
+ * objects become elements, array members repeat the element, scalars become text and null becomes "null".
+ * So the JSON is never held as a whole, as a string, as XML or as a tree; large map area lists are turned
+ * into MapArea objects as they are read.
+ * </p>
+ * <p>
+ * rif_job_submission.study_selection is front end state rather than part of the submission; it is not
+ * passed to the content handler, but is kept as a JSONObject (see {@link #getStudySelection()}).
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public final class RIFStudySubmissionJSONReader {
+
+	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+
+	private static final JsonFactory JSON_FACTORY = new ObjectMapper().getJsonFactory();
+	private static final AttributesImpl NO_ATTRIBUTES = new AttributesImpl();
+	private static final char[] NO_CHARACTERS = new char[0];
+
+	private static final String RIF_JOB_SUBMISSION = "rif_job_submission";
+	private static final String STUDY_SELECTION = "study_selection";
+	private static final String DISEASE_MAPPING_STUDY = "disease_mapping_study";
+	private static final String RISK_ANALYSIS_STUDY = "risk_analysis_study";
+	private static final String CONTENT = "content"; // org.json XML: text of the enclosing element
+	private static final String NESTED_ARRAY_MEMBER = "array"; // org.json XML: members of an array in an array
+
+	private final RIFStudySubmissionContentHandler rifStudySubmissionContentHandler;
+	private JsonParser parser;
+	private int depth;
+	private boolean hasRIFJobSubmission;
+	private String studyElementName;
+	private JSONObject studySelection;
+	private long elementCount;
+
+	/**
+	 * Instantiates a new RIF job submission JSON reader.
+	 */
+	public RIFStudySubmissionJSONReader() {
+		rifStudySubmissionContentHandler = new RIFStudySubmissionContentHandler();
+	}
+
+	/**
+	 * Read a study submission; the stream is closed
+	 *
+	 * @param inputStream JSON study submission
+	 *
+	 * @throws RIFServiceException if the JSON is invalid or the content handler fails
+	 */
+	public void readFile(final InputStream inputStream) throws RIFServiceException {
+
+		long startTime = System.currentTimeMillis();
+		try {
+			parser = JSON_FACTORY.createJsonParser(inputStream);
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IllegalStateException("JSON study submission is not an object");
+			}
+			rifStudySubmissionContentHandler.startDocument();
+			readObjectContents();
+			rifStudySubmissionContentHandler.endDocument();
+			if (parser.nextToken() != null) {
+				throw new IllegalStateException("Unexpected JSON after the study submission: " +
+					parser.getCurrentToken());
+			}
+
+			rifLogger.info(getClass(), "Read JSON study submission: " + studyElementName +
+				"; " + elementCount + " elements; " + parser.getCurrentLocation().getCharOffset() +
+				" characters" + (studySelection == null ? "" : "; with study_selection") +
+				" in " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+		catch(Exception exception) {
+			rifLogger.error(this.getClass(), "Caught exception in RIFStudySubmissionJSONReader.readFile(InputStream)" +
+				(parser == null ? "" : " at: " + parser.getCurrentLocation()), exception);
+			RIFServiceExceptionFactory exceptionFactory
+				= new RIFServiceExceptionFactory();
+			throw exceptionFactory.createFileReadingProblemException("");
+		}
+		finally {
+			closeParser();
+		}
+	}
+
+	public RIFStudySubmission getStudySubmission() {
+		return rifStudySubmissionContentHandler.getRIFJobSubmission();
+	}
+
+	/**
+	 * @return true if the JSON has a rif_job_submission
+	 */
+	public boolean hasRIFJobSubmission() {
+		return hasRIFJobSubmission;
+	}
+
+	/**
+	 * @return disease_mapping_study or risk_analysis_study; null if the rif_job_submission has neither
+	 */
+	public String getStudyElementName() {
+		return studyElementName;
+	}
+
+	/**
+	 * @return rif_job_submission.study_selection; null if there is none
+	 */
+	public JSONObject getStudySelection() {
+		return studySelection;
+	}
+
+	/*
+	 * Read the fields of an object, the parser being on its START_OBJECT; to its END_OBJECT
+	 */
+	private void readObjectContents() throws Exception {
+
+		depth++;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+
+			if (depth == 1 && name.equals(RIF_JOB_SUBMISSION)) {
+				hasRIFJobSubmission = true;
+			}
+			else if (depth == 2 && name.equals(STUDY_SELECTION) && token == JsonToken.START_OBJECT) {
+				JsonNode node = parser.readValueAsTree();
+				studySelection = new JSONObject(node.toString());
+				continue;
+			}
+			else if (depth == 2 && (name.equals(DISEASE_MAPPING_STUDY) || name.equals(RISK_ANALYSIS_STUDY))) {
+				studyElementName = name;
+			}
+
+			if (name.equals(CONTENT)) {
+				readContent(token);
+			}
+			else {
+				readField(name, token);
+			}
+		}
+		depth--;
+	}
+
+	/*
+	 * Read a field or array member, the parser being on its first token
+	 */
+	private void readField(final String name, final JsonToken token) throws Exception {
+
+		if (token == JsonToken.START_ARRAY) {
+			JsonToken memberToken = parser.nextToken();
+			while (memberToken != JsonToken.END_ARRAY) {
+				if (memberToken == JsonToken.START_ARRAY) {
+					startElement(name);
+					readArrayMembers(NESTED_ARRAY_MEMBER);
+					endElement(name);
+				}
+				else {
+					readField(name, memberToken);
+				}
+				memberToken = parser.nextToken();
+			}
+		}
+		else if (token == JsonToken.START_OBJECT) {
+			startElement(name);
+			readObjectContents();
+			endElement(name);
+		}
+		else {
+			startElement(name);
+			characters(getScalarText(token));
+			endElement(name);
+		}
+	}
+
+	/*
+	 * Read the members of an array as elements with the same name, the parser being on its START_ARRAY
+	 */
+	private void readArrayMembers(final String name) throws Exception {
+
+		JsonToken memberToken = parser.nextToken();
+		while (memberToken != JsonToken.END_ARRAY) {
+			if (memberToken == JsonToken.START_ARRAY) {
+				readArrayMembers(name);
+			}
+			else {
+				readField(name, memberToken);
+			}
+			memberToken = parser.nextToken();
+		}
+	}
+
+	/*
+	 * A field named "content" is the text of the enclosing element; array members are joined with newlines
+	 */
+	private void readContent(final JsonToken token) throws Exception {
+
+		if (token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT) {
+			JsonNode node = parser.readValueAsTree();
+			StringBuilder text = new StringBuilder();
+			Iterator<JsonNode> members = node.getElements();
+			while (members.hasNext()) {
+				JsonNode member = members.next();
+				if (text.length() > 0) {
+					text.append('\n');
+				}
+				text.append(member.isValueNode() ? member.asText() : member.toString());
+			}
+			characters(token == JsonToken.START_OBJECT ? node.toString() : text.toString());
+		}
+		else {
+			characters(getScalarText(token));
+		}
+	}
+
+	private String getScalarText(final JsonToken token) throws Exception {
+
+		if (token == JsonToken.VALUE_NULL) {
+			return "null";
+		}
+		if (token.isScalarValue()) {
+			return parser.getText();
+		}
+		throw new IllegalStateException("Unexpected JSON: " + token);
+	}
+
+	private void startElement(final String name) throws SAXException {
+		elementCount++;
+		rifStudySubmissionContentHandler.startElement("", name, name, NO_ATTRIBUTES);
+	}
+
+	private void endElement(final String name) throws SAXException {
+		rifStudySubmissionContentHandler.endElement("", name, name);
+	}
+
+	/*
+	 * Empty strings are passed too: so an empty field does not keep the value of the field before it
+	 */
+	private void characters(final String text) {
+		char[] characters = text.isEmpty() ? NO_CHARACTERS : text.toCharArray();
+		rifStudySubmissionContentHandler.characters(characters, 0, characters.length);
+	}
+
+	private void closeParser() {
+		if (parser != null) {
+			try {
+				parser.close();
+			}
+			catch (Exception exception) {
+				rifLogger.warning(getClass(), "Unable to close JSON study submission: " + exception.getMessage());
+			}
+		}
+	}
+}
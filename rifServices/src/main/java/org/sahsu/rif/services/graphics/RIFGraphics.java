@@ -585,7 +585,7 @@ Could not write TIFF file because no WriteAdapter is availble
 		try {	
 			statement.setString(1, denominatorTable);
 			statement.setInt(2, year);	
-			resultSet = statement.executeQuery();
+			resultSet = manager.executeQuery("createDataset", statement);
 			if (resultSet.next()) {
 				int rowCount=0;
 				data = new DefaultKeyedValues2DDataset();
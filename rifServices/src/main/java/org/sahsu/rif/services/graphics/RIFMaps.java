@@ -20,8 +20,18 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -31,10 +41,9 @@ import org.apache.batik.svggen.SVGGraphics2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataEncoder.TagSet;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.gce.geotiff.GeoTiffFormat;
 import org.geotools.gce.geotiff.GeoTiffWriter;
@@ -79,9 +88,24 @@ import com.vividsolutions.jts.geom.Polygon;
 
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 
+/**
+ * Results maps for the study extract.
+ * <p>
+ * Each map (results column) and sex is rendered as a separate task on a pool of at most
+ * maxConcurrentMapRenders threads shared by all extracts; the renders share the read only feature
+ * collection and map styles. Each task rasterises the transparent background map once and encodes
+ * it as GeoTIFF, PNG and, flattened onto the white background, JPEG; then renders the white
+ * background map to SVG, which is transcoded to EPS and PS.
+ * </p>
+ */
 public class RIFMaps {
 
 	private static final RIFLogger rifLogger = RIFLogger.getLogger();
+	
+	// Full resolution renders: each holds an image of mapWidthPixels squared or so
+	private static final int MAX_CONCURRENT_MAP_RENDERS = 2;
+	private static ThreadPoolExecutor mapRenderExecutor = null;
+
 	private static String lineSeparator = System.getProperty("line.separator");
 	private Class rifMapsClass=this.getClass();
 	
@@ -95,9 +119,7 @@ public class RIFMaps {
 	
 	private int mapWidthPixels=0;
 	private int printingDPI=0;
-	
-	protected int errors=0;
-	protected int features=0;
+	private float jpegQuality=0.8f;
 	
 	private RIFMapsParameters rifMapsParameters = null;
 	
@@ -123,6 +145,8 @@ public class RIFMaps {
 			mapWidthPixels=this.rifServiceStartupOptions.getOptionalRIfServiceProperty(
 					"mapWidthPixels", 7480);		
 			printingDPI=this.rifServiceStartupOptions.getOptionalRIfServiceProperty("printingDPI", 1000);
+			jpegQuality=this.rifServiceStartupOptions.getOptionalRIfServiceProperty("jpegQuality", 
+				new Float(0.8));
 			copyrightInfo=this.rifServiceStartupOptions.getOptionalRIfServiceProperty("copyrightInfo", 
 				(String)null);
 			enableMapGrids=this.rifServiceStartupOptions.getOptionalRIfServiceProperty("enableMapGrids", true);
@@ -148,6 +172,40 @@ public class RIFMaps {
 				"Error in RIFMaps() constructor");
 			throw new NullPointerException();
 		}
+		getMapRenderExecutor(rifServiceStartupOptions);
+	}
+
+	/**
+	 * Get the map render pool shared by all extracts, creating it on first use
+	 *
+	 * @param options RIFServiceStartupOptions for maxConcurrentMapRenders
+	 *
+	 * @return ExecutorService
+	 */
+	private static synchronized ExecutorService getMapRenderExecutor(final RIFServiceStartupOptions options) {
+		if (mapRenderExecutor == null) {
+			int maxConcurrentMapRenders = MAX_CONCURRENT_MAP_RENDERS;
+			try {
+				maxConcurrentMapRenders = options.getOptionalRIfServiceProperty("maxConcurrentMapRenders",
+					MAX_CONCURRENT_MAP_RENDERS);
+			}
+			catch (Exception exception) {
+				rifLogger.warning(RIFMaps.class, "Invalid maxConcurrentMapRenders; using default: " +
+					MAX_CONCURRENT_MAP_RENDERS);
+			}
+			int threads = Math.max(1, maxConcurrentMapRenders);
+			AtomicInteger threadNumber = new AtomicInteger(0);
+			mapRenderExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "rif-map-render-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			mapRenderExecutor.allowCoreThreadTimeOut(true);
+			rifLogger.info(RIFMaps.class, "Results maps: " + threads + " render thread(s)");
+		}
+		return mapRenderExecutor;
 	}
 
 
@@ -157,7 +215,7 @@ public class RIFMaps {
 	 *
 	 * The column list for the map table is hard coded and reduced to 10 characters for DBF support
      * 
-	 * @param DefaultFeatureCollection featureCollection,
+	 * @param RifFeatureCollection featureCollection,
 	 * @param Connection connection, 
 	 * @param File temporaryDirectory,
 	 * @param String baseStudyName,
@@ -193,12 +251,13 @@ public class RIFMaps {
 		String geog = rifStudySubmission.getStudy().getGeography().getName();			
 		tileTableName.append(geog);
 		
-		String studyDescription=manager.getColumnFromResultSet(rif40Studies, "description",
+		String description=manager.getColumnFromResultSet(rif40Studies, "description",
 			true /* allowNulls */, false /* allowNoRows */);	
-		if (studyDescription == null) {
-			studyDescription=manager.getColumnFromResultSet(rif40Studies, "study_name",
+		if (description == null) {
+			description=manager.getColumnFromResultSet(rif40Studies, "study_name",
 				true /* allowNulls */, false /* allowNoRows */);
 		} 
+		final String studyDescription=description; // Shared by the map renders
 		
 		// Available: inv_id, inv_name, inv_description, genders, numer_tab, year_start, year_stop, 
 		// min_age_group, max_age_group
@@ -227,50 +286,81 @@ public class RIFMaps {
 			throw new Exception("Invalid gender code: " + genders);
 		}
 			
-		// Interate RIFMapsParameters hash map for each RIFMapsParameter and write map
-		for (String key : rifMapsParameters.getKeySet()) {
-			RIFMapsParameters.RIFMapsParameter rifMapsParameter=
-				rifMapsParameters.getRIFMapsParameter(key);	
+		RIFGraphics rifGraphics = new RIFGraphics(rifServiceStartupOptions, manager);
+		ExecutorService executor = getMapRenderExecutor(rifServiceStartupOptions);
+		List<Future<Void>> renders = new ArrayList<>();
+		try {
+			// Interate RIFMapsParameters hash map for each RIFMapsParameter and write map
+			for (String key : rifMapsParameters.getKeySet()) {
+				RIFMapsParameters.RIFMapsParameter rifMapsParameter=
+					rifMapsParameters.getRIFMapsParameter(key);	
+					
+				String mapTitle=rifMapsParameter.getMapTitle();
+				String resultsColumn=rifMapsParameter.getResultsColumn();
+				RIFStyle rifSyle=rifMapsParameter.getRIFStyle(featureCollection.getFeatureCollection());
 				
-			String mapTitle=rifMapsParameter.getMapTitle();
-			String resultsColumn=rifMapsParameter.getResultsColumn();
-			RIFStyle rifSyle=rifMapsParameter.getRIFStyle(featureCollection.getFeatureCollection());
+				// Create SLD styling file for GIS tools; once for all genders
+				// Use NamedLayer instead of UserLayer as more standard (e.g. QGis likes it)
+				rifSyle.writeSldFile(resultsColumn, studyID, temporaryDirectory, MAPS_SUBDIRECTORY, mapTitle,
+					true /* useNamedLayer */);
+							
+				Iterator <Sex> GenderIter = allSexes.iterator();
+				while (GenderIter.hasNext()) { // Iterate through genders
+					Sex sex=GenderIter.next();
+					
+					renders.add(executor.submit(() -> {
+						writeMap( // GeoTIFF, PNG and JPEG
+							false /* whiteBackground */, // Transparent background
+							featureCollection,
+							temporaryDirectory,
+							studyID,
+							invID,
+							mapTitle, 
+							resultsColumn,
+							rifSyle,
+							baseStudyName,
+							studyDescription,
+							invName,
+							invDescription,
+							sex,
+							rifGraphics);
 						
-			Iterator <Sex> GenderIter = allSexes.iterator();
-			while (GenderIter.hasNext()) { // Iterate through genders
-				Sex sex=GenderIter.next();
-				
-				writeMap( // JPEG, PS, EPS, SVG
-					true /* whiteBackground */,
-					featureCollection,
-					temporaryDirectory,
-					studyID,
-					invID,
-					mapTitle, 
-					resultsColumn,
-					rifSyle,
-					baseStudyName,
-					studyDescription,
-					invName,
-					invDescription,
-					sex);
-				
-				writeMap( // GeoTIFF and PNG
-					false /* whiteBackground */, // Transparent background
-					featureCollection,
-					temporaryDirectory,
-					studyID,
-					invID,
-					mapTitle, 
-					resultsColumn,
-					rifSyle,
-					baseStudyName,
-					studyDescription,
-					invName,
-					invDescription,
-					sex);		
-			}					
-		}	
+						writeMap( // SVG, PS, EPS
+							true /* whiteBackground */,
+							featureCollection,
+							temporaryDirectory,
+							studyID,
+							invID,
+							mapTitle, 
+							resultsColumn,
+							rifSyle,
+							baseStudyName,
+							studyDescription,
+							invName,
+							invDescription,
+							sex,
+							rifGraphics);
+						return null;
+					}));
+				}					
+			}
+			
+			for (Future<Void> render : renders) {
+				render.get();
+			}
+		}
+		catch (ExecutionException executionException) {
+			Throwable cause = executionException.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw new Exception("Results map render failed", cause);
+		}
+		finally {
+			for (Future<Void> render : renders) { // After a failure or interrupt: stop the rest
+				render.cancel(true);
+			}
+		}
 	}
 	
 	/** Write map
@@ -287,7 +377,8 @@ public class RIFMaps {
 	 * @param: String studyDescription,
 	 * @param: String invName,
 	 * @param: String invDescription,
-	 * @param: Sex sex
+	 * @param: Sex sex,
+	 * @param: RIFGraphics rifGraphics
 	 */
 	private void writeMap(
 		final boolean whiteBackground,
@@ -302,7 +393,8 @@ public class RIFMaps {
 		final String studyDescription,
 		final String invName,
 		final String invDescription,
-		final Sex sex) 
+		final Sex sex,
+		final RIFGraphics rifGraphics) 
 			throws Exception {
 				
 		FilterFactory filterFactory = CommonFactoryFinder.getFilterFactory();
@@ -310,12 +402,11 @@ public class RIFMaps {
 			filterFactory.property("genders"), 
 			filterFactory.literal(""+sex.getCode() /* As string */),
 			true);
-		DefaultFeatureCollection dataFeatureCollection=rifFeatureCollection.getFeatureCollection();
-		FeatureCollection featureCollection=dataFeatureCollection.subCollection(genderFilter); 
-			// Apply gender filter
+		SimpleFeatureCollection featureCollection=rifFeatureCollection.getFeatureCollection(genderFilter); 
+			// Apply gender filter; read from the shapefile as required
 		
-		DefaultFeatureCollection backgroundAreasFeatureCollection=
-			rifFeatureCollection.getBackgroundAreasFeatureCollection();
+		SimpleFeatureSource backgroundAreasFeatureSource=
+			rifFeatureCollection.getBackgroundAreasFeatureSource();
 		CoordinateReferenceSystem crs=rifFeatureCollection.getCoordinateReferenceSystem();
 		ReferencedEnvelope expandedEnvelope=rifFeatureCollection.getExpandedEnvelope();
 		ReferencedEnvelope initialEnvelope=rifFeatureCollection.getInitialEnvelope();
@@ -326,11 +417,7 @@ public class RIFMaps {
 		String filePrefix=resultsColumn + "_";
 		String dirName=MAPS_SUBDIRECTORY;
 		
-		// Create SLD styling file for GIS tools
-		Style style=rifStyle.getStyle();
-		// Use NamedLayer instead of UserLayer as more standard (e.g. QGis likes it)
-		rifStyle.writeSldFile(resultsColumn, studyID, temporaryDirectory, dirName, mapTitle,
-			true /* useNamedLayer */);
+		Style style=rifStyle.getStyle(); // SLD styling file written by writeResultsMaps()
 
 		//Create map		
 		MapContent map = new MapContent();
@@ -373,11 +460,11 @@ public class RIFMaps {
 			
 		// Add layers to map
 		Layer gridLayer = null;
-		if (whiteBackground) { // JPEG, PS, EPS, SVG
+		if (whiteBackground) { // PS, EPS, SVG
 			gridLayer = createGridLayer(expandedEnvelope, gridSquareWidth, gridVertexSpacing, crs,
 				gridBackgroundColor, rifStyle, xPixels, yPixels);
 		}
-		else { // Transparent background: GeoTIFF and PNG
+		else { // Transparent background: GeoTIFF, PNG and JPEG
 			gridLayer = createGridLayer(expandedEnvelope, gridSquareWidth, gridVertexSpacing, crs,
 				null /* gridBackgroundColor */, rifStyle, xPixels, yPixels);
 		}
@@ -385,22 +472,26 @@ public class RIFMaps {
 			throw new Exception("Failed to add gridLayer to map: " + mapTitle);
 		}
 	
-		Layer backgroundAreasLayer = null;
-		if (backgroundAreasFeatureCollection != null) {
-			backgroundAreasLayer = new FeatureLayer(backgroundAreasFeatureCollection, 
+		// The layers query the shapefiles for the map bounds, so the renderer streams the features
+		// using the spatial index
+		FeatureLayer backgroundAreasLayer = null;
+		if (backgroundAreasFeatureSource != null) {
+			backgroundAreasLayer = new FeatureLayer(backgroundAreasFeatureSource, 
 				SLD.createPolygonStyle(
 					Color.LIGHT_GRAY /* outlineColor */,
 					Color.decode("#ececec") /* fillColor */,
 					1	/* opacity */,
 					null /* labelField */,
 					null /* labelFont */));
+			backgroundAreasLayer.setQuery(rifFeatureCollection.getBackgroundAreasQuery());
 			backgroundAreasLayer.setTitle("Background areas");			
 			if (!map.addLayer(backgroundAreasLayer)) {
 				throw new Exception("Failed to add backgroundAreasLayer to map: " + mapTitle);
 			}
 		}
 		
-        FeatureLayer featureLayer = new FeatureLayer(featureCollection, style);	
+        FeatureLayer featureLayer = new FeatureLayer(rifFeatureCollection.getFeatureSource(), style);	
+		featureLayer.setQuery(rifFeatureCollection.getQuery(genderFilter));
 		featureLayer.setTitle(mapTitle);		
 		if (!map.addLayer(featureLayer)) {
 			throw new Exception("Failed to add FeatureLayer to map: " + mapTitle);
@@ -422,20 +513,28 @@ public class RIFMaps {
 			"screenArea: " + screenArea.toString());	
 					
 		// Save image	
-		if (whiteBackground) { // JPEG, PS, EPS, SVG
-			exportSVG(map, temporaryDirectory, dirName, filePrefix, studyID, invID, featureCollection.size(), 
-				imageWidth, imageHeight, sex);	
-				
-			createGraphicsMaps(temporaryDirectory, dirName, filePrefix, studyID, invID, sex);
+		try {
+			if (whiteBackground) { // PS, EPS, SVG
+				exportSVG(map, temporaryDirectory, dirName, filePrefix, studyID, invID, featureCollection.size(), 
+					imageWidth, imageHeight, sex);	
+					
+				createGraphicsMaps(temporaryDirectory, dirName, filePrefix, studyID, invID, sex, rifGraphics);
+			}
+			else { // Transparent background: GeoTIFF, PNG and JPEG: rendered once
+				BufferedImage bufferedImage = renderGeotoolsMap(map, imageWidth, imageHeight, mapTitle, sex);
+				createGeotoolsMaps(map, bufferedImage, temporaryDirectory, dirName, filePrefix, studyID, invID,
+					studyDescription, "tif", sex);			
+				createGeotoolsMaps(map, bufferedImage, temporaryDirectory, dirName, filePrefix, studyID, invID,
+					studyDescription, "png", sex);
+				if (RIFGraphicsOutputType.RIFGRAPHICS_JPEG.isRIFGraphicsOutputTypeEnabled()) {
+					createGeotoolsMaps(map, bufferedImage, temporaryDirectory, dirName, filePrefix, studyID, invID,
+						studyDescription, "jpg", sex);
+				}
+			}
 		}
-		else { // Transparent background: GeoTIFF and PNG	
-			createGeotoolsMaps(map, temporaryDirectory, dirName, filePrefix, studyID, invID, studyDescription,
-				imageWidth, imageHeight, "tif", sex);			
-			createGeotoolsMaps(map, temporaryDirectory, dirName, filePrefix, studyID, invID, studyDescription,
-				imageWidth, imageHeight, "png", sex);				
+		finally {
+			map.dispose();
 		}
-		
-		map.dispose();
 	}
 	
 	/**
@@ -793,14 +892,16 @@ public class RIFMaps {
 		
 		g2d.setSVGCanvasSize(canvasSize);
 		
+		AtomicInteger features = new AtomicInteger(0);
+		AtomicInteger errors = new AtomicInteger(0);
 		StreamingRenderer renderer = new StreamingRenderer();
 		renderer.addRenderListener(new RenderListener() {
 			public void featureRenderer(SimpleFeature feature) {
-				features++;
+				features.incrementAndGet();
 			}
 			public void errorOccurred(Exception exception) {			
 				rifLogger.warning(this.getClass(), "Renderer error: " + exception.getMessage());
-				errors++;
+				errors.incrementAndGet();
 			}
 		});
 		renderer.setMapContent(map);
@@ -823,21 +924,99 @@ public class RIFMaps {
 			if (osw != null) {
 				osw.close();
 			}
-			if (errors > 0) {
+			if (errors.get() > 0) {
 				rifLogger.warning(this.getClass(), errors + " occurred rendering " + features + " SVG features");
 			}
 			else {
 				rifLogger.info(this.getClass(),  "No errors occurred rendering " + features + " SVG features");
 			}
-			errors=0;
-			features=0;
 			
 			g2d.dispose();
 		}			
 	}
 	
 	/**
-	 * Generate map using Geotools GTRenderer and:
+	 * Render map using Geotools GTRenderer onto a transparent image, once for all the raster formats
+	 *
+	 * @param MapContent map - Contains the layers (features + styles) to be rendered,
+	 * @param int imageWidth. This sets the overall scale factor for the map, and is adjusted dependent on the 
+	 *						  size of the map,
+	 * @param int imageHeight. Fixed by the aspect ratio,
+	 * @param String mapTitle,
+	 * @param: Sex sex
+	 *
+	 * @returns BufferedImage (ARGB)
+	 */
+	private BufferedImage renderGeotoolsMap(
+		final MapContent map, 
+		final int imageWidth,
+		final int imageHeight,
+		final String mapTitle,
+		final Sex sex) throws Exception {
+
+		List<Layer>	mapLayers = map.layers();
+		StringBuffer sb = new StringBuffer();
+		int j=0;
+		for (Layer mapLayer : mapLayers) {
+			j++;
+			if (mapLayer != null) {
+				ReferencedEnvelope envel=mapLayer.getBounds();
+				if (envel != null) {
+					sb.append("Layer2[" + j + "]: " + mapLayer.getTitle() + 
+						"; bounds: " + envel.toString() + lineSeparator);
+				}
+				else  {
+					sb.append("Layer2[" + j + "]: " + mapLayer.getTitle() + 
+						"; bounds: NONE" + lineSeparator);
+				}
+			}
+		}
+		rifLogger.info(this.getClass(), sb.toString());
+		
+		rifLogger.info(this.getClass(), "Render map " + mapTitle + " (" + sex.getName() + ") " + 
+			imageWidth + "x" + imageHeight);
+		BufferedImage bufferedImage = new BufferedImage(imageWidth, imageHeight, 
+			BufferedImage.TYPE_INT_ARGB); // Allow transparency [will work for PNG as well!]
+		Graphics2D g2d = bufferedImage.createGraphics();
+		ReferencedEnvelope envelope=map.getMaxBounds();	
+
+/*
+ * Paint MapContent onto a buffered image
+ */				
+		AtomicInteger features = new AtomicInteger(0);
+		AtomicInteger errors = new AtomicInteger(0);
+		GTRenderer gtRenderer = new StreamingRenderer();		
+		gtRenderer.addRenderListener(new RenderListener() {
+			public void featureRenderer(SimpleFeature feature) {
+				features.incrementAndGet();
+			}
+			public void errorOccurred(Exception exception) {			
+				rifLogger.warning(this.getClass(), "GTRenderer error: " + exception.getMessage());
+				errors.incrementAndGet();
+			}
+		}); 	
+
+		try {
+			gtRenderer.setMapContent(map);
+			Rectangle outputArea = new Rectangle(imageWidth, imageHeight);
+			gtRenderer.paint(g2d, outputArea, envelope); 
+		}
+		finally {
+			if (errors.get() > 0) {
+				rifLogger.warning(this.getClass(), errors + " occurred rendering " + features + 
+					" features for map: " + mapTitle);
+			}
+			else {
+				rifLogger.info(this.getClass(),  "No errors occurred rendering " + features + 
+					" features for map: " + mapTitle);
+			}
+			g2d.dispose();
+		}
+		return bufferedImage;
+	}
+	
+	/**
+	 * Write map rendered by renderGeotoolsMap() using:
 	 *
 	 * a) ImageIO;
 	 * b) GeoTiffWriter
@@ -848,16 +1027,17 @@ public class RIFMaps {
 	 * rotational information, and world coordinates for a map); and .prj projection files
 	 * The goespatial information is embedded in the file anyway!
 	 *
-	 * @param MapContent map - Contains the layers (features + styles) to be rendered,
+	 * Formats without transparency (JPEG) are flattened onto the grid background colour, as the white
+	 * background maps are.
+	 *
+	 * @param MapContent map - Contains the layers (features + styles) that were rendered,
+	 * @param BufferedImage bufferedImage - the rendered map (ARGB); not modified,
 	 * @param File temporaryDirectory,
 	 * @param String dirName, 
 	 * @param String filePrefix, 
 	 * @param String studyID,  
 	 * @param String invID,  
 	 * @param String studyDescription, 
-	 * @param int imageWidth. This sets the overall scale factor for the map, and is adjusted dependent on the 
-	 *						  size of the map,
-	 * @param int imageHeight. Fixed by the aspect ratio,
 	 * @param String imageType. In theory should support: Jtiff, bmp, gif, btiff, tif, wbmp, jpeg, jpg,
 	 *							png, raw, pnm, jpeg2000.
 	 *							Tested on TIFF before converting to geotiff,
@@ -865,38 +1045,17 @@ public class RIFMaps {
 	 */
 	private void createGeotoolsMaps(
 		final MapContent map, 
+		final BufferedImage bufferedImage,
 		final File temporaryDirectory,
 		final String dirName, 
 		final String filePrefix, 
 		final String studyID,
 		final String invID,
 		final String studyDescription,
-		final int imageWidth,
-		final int imageHeight,
 		final String imageType,
 		final Sex sex) throws Exception {
 
-		List<Layer>	mapLayers = map.layers();
-		StringBuffer sb = new StringBuffer();
-		int j=0;
-		for (Layer mapLayer : mapLayers) {
-			j++;
-			if (mapLayer != null) {
-				ReferencedEnvelope envel=mapLayer.getBounds();
-				if (envel != null) {
-					sb.append("Layer2[" + j + "]: " + mapLayer.getTitle() + 
-						"; bounds: " + envel.toString() + lineSeparator);
-				}
-				else  {
-					sb.append("Layer2[" + j + "]: " + mapLayer.getTitle() + 
-						"; bounds: NONE" + lineSeparator);
-				}
-			}
-		}
-		rifLogger.info(this.getClass(), sb.toString());
-		
 		String mapDirName=temporaryDirectory.getAbsolutePath() + File.separator + dirName;
-		File mapDirectory = new File(mapDirName);
 		File newDirectory = new File(mapDirName);
 		if (newDirectory.exists()) {
 			rifLogger.debug(this.getClass(), 
@@ -914,6 +1073,8 @@ public class RIFMaps {
 		if (outputFile.exists()) {
 			outputFile.delete();
 		}		
+		int imageWidth=bufferedImage.getWidth();
+		int imageHeight=bufferedImage.getHeight();
 			
 		ImageOutputStream outputImageFile = null;
 		FileOutputStream fileOutputStream = null;
@@ -936,44 +1097,10 @@ public class RIFMaps {
 				rifLogger.info(this.getClass(), "Create " + imageType + " map " + 
 					imageWidth + "x" + imageHeight + "; file: " + outputFileName);
 
-				BufferedImage bufferedImage = null;	
-				if (imageType.toLowerCase().equals("tif") || 
-				    imageType.toLowerCase().equals("tiff") ||
-				    imageType.toLowerCase().equals("png")) {	
-					bufferedImage = new BufferedImage(imageWidth, imageHeight, 
-						BufferedImage.TYPE_INT_ARGB); // Allow transparency [will work for PNG as well!]
-				}
-				else {	
-					bufferedImage = new BufferedImage(imageWidth, imageHeight, 
-						BufferedImage.TYPE_INT_RGB);
-				}
-				Graphics2D g2d = bufferedImage.createGraphics();
-
-				CoordinateReferenceSystem crs=map.getCoordinateReferenceSystem();
-				ReferencedEnvelope envelope=map.getMaxBounds();	
-				Rectangle screenBounds = new Rectangle(0, 0, imageWidth, imageHeight);
-
-/*
- * Paint MapContent onto a buffered image
- */				
-				GTRenderer gtRenderer = new StreamingRenderer();		
-				gtRenderer.addRenderListener(new RenderListener() {
-					public void featureRenderer(SimpleFeature feature) {
-						features++;
-					}
-					public void errorOccurred(Exception exception) {			
-						rifLogger.warning(this.getClass(), "GTRenderer error: " + exception.getMessage());
-						errors++;
-					}
-				}); 	
-
-				gtRenderer.setMapContent(map);
-				Rectangle outputArea = new Rectangle(imageWidth, imageHeight);
-				gtRenderer.paint(g2d, outputArea, envelope); 
-					
 				if (imageType.toLowerCase().equals("tif") || imageType.toLowerCase().equals("tiff")) {	
 					// USe GeoTIFF renderer
-					// Turn Graphics2D into a Coverage, and then save it to GeoTiff	
+					// Turn the image into a Coverage, and then save it to GeoTiff	
+					ReferencedEnvelope envelope=map.getMaxBounds();	
 				
 					GridCoverageFactory factory = new GridCoverageFactory();
 					GridCoverage2D coverage = factory.create("geotiff", bufferedImage, envelope);
@@ -1000,8 +1127,7 @@ public class RIFMaps {
 					tfw.setValue(true);
 					try {		
 						geoTiffWriter.write(coverage, new GeneralParameterValue[]{tfw});
-						rifLogger.info(this.getClass(),  "No errors occurred rendering " + features + " " + 
-							imageType + " " + " features to: " + outputFileName);
+						rifLogger.info(this.getClass(),  "Wrote " + imageType + " file: " + outputFileName);
 					}
 					catch (Exception exception) {
 						rifLogger.error(this.getClass(), "Unable to write " + imageType + " file: " + 
@@ -1009,7 +1135,7 @@ public class RIFMaps {
 					}
 					finally {
 						geoTiffWriter.dispose();
-						coverage.dispose(true);
+						coverage.dispose(false); // The image is shared with the other formats
 					}
 				}
 				else {	// Use imageIO renderer				
@@ -1018,30 +1144,22 @@ public class RIFMaps {
 				
 					boolean res=false;
 					try {
-						res=ImageIO.write(bufferedImage, imageType, outputImageFile);
+						if (imageType.toLowerCase().equals("jpg") || imageType.toLowerCase().equals("jpeg")) {
+							res=writeJpeg(flatten(bufferedImage, gridBackgroundColor), outputImageFile);
+						}
+						else {
+							res=ImageIO.write(bufferedImage, imageType, outputImageFile);
+						}
 					}
 					catch (IllegalAccessError exception) {
 						rifLogger.error(this.getClass(), "Unable to write " + imageType + " file: " + 
 							outputFileName, exception);			
 					}
-					finally {
-						if (errors > 0) {
-							rifLogger.warning(this.getClass(), errors + " occurred rendering " + features + " " + imageType + 
-								" " + " features to: " + outputFileName);
-						}
-						else {
-							rifLogger.info(this.getClass(),  "No errors occurred rendering " + features + " " + imageType + 
-								" " + " features to: " + outputFileName);
-						}
-						errors=0;
-						features=0;
-						
-						g2d.dispose();
-					}	
 					
 					if (!res) {
 						throw new Exception("ImageIO.write failed writing file: " + outputFileName);
 					}				
+					rifLogger.info(this.getClass(),  "Wrote " + imageType + " file: " + outputFileName);
 				} 
 			}
 			else {
@@ -1064,21 +1182,73 @@ public class RIFMaps {
 		} 		
 	} 
 	
+	/**
+	 * Flatten transparent image onto a background colour
+	 *
+	 * @param BufferedImage image (ARGB),
+	 * @param Color backgroundColor
+	 *
+	 * @returns BufferedImage (RGB)
+	 */
+	private static BufferedImage flatten(final BufferedImage image, final Color backgroundColor) {
+		BufferedImage flattenedImage = new BufferedImage(image.getWidth(), image.getHeight(), 
+			BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = flattenedImage.createGraphics();
+		try {
+			g2d.setColor(backgroundColor);
+			g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+			g2d.drawImage(image, 0, 0, null);
+		}
+		finally {
+			g2d.dispose();
+		}
+		return flattenedImage;
+	}
+	
+	/**
+	 * Write JPEG at jpegQuality (as RIFGraphics)
+	 *
+	 * @param BufferedImage image (RGB),
+	 * @param ImageOutputStream outputImageFile
+	 *
+	 * @returns true if written; false if there is no JPEG writer
+	 */
+	private boolean writeJpeg(final BufferedImage image, final ImageOutputStream outputImageFile) 
+			throws IOException {
+		Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!imageWriters.hasNext()) {
+			return false;
+		}
+		ImageWriter imageWriter = imageWriters.next();
+		try {
+			ImageWriteParam imageWriteParam = imageWriter.getDefaultWriteParam();
+			imageWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			imageWriteParam.setCompressionQuality(jpegQuality);
+			imageWriter.setOutput(outputImageFile);
+			imageWriter.write(null, new IIOImage(image, null, null), imageWriteParam);
+		}
+		finally {
+			imageWriter.dispose();
+		}
+		return true;
+	}
+	
 	/** Build Graphics file from SVG source
 	  *
 	  * Graphics file name: <filePrefix><studyID>_<sex>_<printingDPI>dpi_<year>.<outputType.getGraphicsExtentsion()>
       *
 	  * SVG file name:  <filePrefix><studyID>.svg	  
 	  *
-	  * Does not build RIFGRAPHICS_GEOTIFF files (see createGeotoolsMaps)
+	  * Does not build RIFGRAPHICS_GEOTIFF, RIFGRAPHICS_PNG or RIFGRAPHICS_JPEG files: they are encoded from
+	  * the rendered map (see createGeotoolsMaps)
 	  *
 	  * @param: File temporaryDirectory,
 	  * @param: String dirName,
 	  * @param: String filePrefix,
 	  * @param: String studyID,
 	  * @param: String invID,
-	  * @param: RIFGraphicsOutputType outputType,
-	  * @param: Sex sex
+	  * @param: Sex sex,
+	  * @param: RIFGraphics rifGraphics
 	  */
 	private void createGraphicsMaps(
 		final File temporaryDirectory,
@@ -1086,41 +1256,26 @@ public class RIFMaps {
 		final String filePrefix,
 		final String studyID,
 		final String invID,
-		final Sex sex) 
+		final Sex sex,
+		final RIFGraphics rifGraphics) 
 			throws Exception {
-						
-		RIFGraphics rifGraphics = new RIFGraphics(rifServiceStartupOptions, manager);
 		
 		Set<RIFGraphicsOutputType> allOutputTypes = EnumSet.of(
-			RIFGraphicsOutputType.RIFGRAPHICS_JPEG,   
 			RIFGraphicsOutputType.RIFGRAPHICS_EPS,
 			RIFGraphicsOutputType.RIFGRAPHICS_PS);
 		Iterator <RIFGraphicsOutputType> allOutputTypeIter = allOutputTypes.iterator();
 		while (allOutputTypeIter.hasNext()) {
 			RIFGraphicsOutputType outputType=allOutputTypeIter.next();
 			if (outputType.isRIFGraphicsOutputTypeEnabled()) {	
-				if (outputType.doesRIFGraphicsOutputTypeUseFop()) {	
-					rifGraphics.addGraphicsFile(
-						temporaryDirectory,							/* Study scratch space diretory */
-						dirName, 									/* directory */
-						filePrefix, 								/* File prefix */
-						studyID,
-						invID,
-						outputType,
-						mapWidthPixels,
-						sex);
-				}
-				else {
-					rifGraphics.addGraphicsFile(
-						temporaryDirectory,							/* Study scratch space diretory */
-						dirName, 									/* directory */
-						filePrefix, 								/* File prefix */
-						studyID,
-						invID,
-						outputType,
-						mapWidthPixels,
-						sex);
-				}
+				rifGraphics.addGraphicsFile(
+					temporaryDirectory,							/* Study scratch space diretory */
+					dirName, 									/* directory */
+					filePrefix, 								/* File prefix */
+					studyID,
+					invID,
+					outputType,
+					mapWidthPixels,
+					sex);
 			}
 		}		
 	}
@@ -5,7 +5,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
 
-import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.sahsu.rif.generic.fileformats.AppFile;
@@ -146,7 +146,7 @@ public class RIFMapsParameters {
 		public String getResultsColumn() {
 			return resultsColumn;
 		}
-		public RIFStyle getRIFStyle(DefaultFeatureCollection featureCollection) {
+		public RIFStyle getRIFStyle(SimpleFeatureCollection featureCollection) {
 			RIFStyle rifStyle=null;
 			
 			if (breaks != null && breaks.length > 0) { // User defined
@@ -37,12 +37,12 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
- * Create PNG tiles from geoJSON
+ * Create PNG tiles from JTS geometries (see RIFTileRasteriser) or geoJSON
  *
  * @author		Peter Hambly
  * @version 	1.0
@@ -79,15 +79,15 @@ public class RIFPdfTiles {
 	 *
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
 	 *
-	 * @return PNG coded in base64, or null if not relevant (non 0/0/0 null tile)
+	 * @return PNG tile bytes
 	 *
 	 * @throws RIFServiceException RIF error
      */		
-	private String createNullTile(
+	private byte[] createNullTile(
 		final SlippyTile slippyTile,
 		final String geography,
 		final String geoLevel) throws RIFServiceException {
-		String result;
+		byte[] result;
 		try {
 			int w = 256;
 			int h = 256;
@@ -100,20 +100,16 @@ public class RIFPdfTiles {
 			g2d.fillRect(0, 0, w, h);
 			ImageIO.write(bufferedImage, "png", os);
 
-			rifTilesCache.cacheTile(null /* tileGeoJson */, os, "NULL", slippyTile, "NULL", "png");
-			result=Base64.getEncoder().encodeToString(os.toByteArray());
-		
-			rifTilesCache.cacheTile(null /* tileGeoJson */, os, geography, slippyTile, geoLevel, "png");	
+			result=os.toByteArray();
+			rifTilesCache.cacheTile(result, "NULL", slippyTile, "NULL", "png");
+			rifTilesCache.cacheTile(result, geography, slippyTile, geoLevel, "png");	
 			g2d.dispose();
 			
 			return result;		
 		}
 		catch (Exception exception) {
 			try { // Write failing JSON to cache
-				File file=rifTilesCache.getCachedTileFile("NULL", slippyTile, "NULL", "json");	
-				if (file.exists()) {
-					file.delete();
-				}
+				rifTilesCache.removeCachedTile("NULL", slippyTile, "NULL", "json");
 			}
 			catch (Exception cacheException) {
 				rifLogger.error(getClass(), "Failed to cache failing GeoJSON for NULL tile" +
@@ -125,6 +121,66 @@ public class RIFPdfTiles {
 		}
 	}
 	
+	/** 
+	 * Rasterise geometries to transparent PNG tile, cropped to BBOX
+	 * <p>
+	 * The geometries are decoded directly from the TopoJSON tile (RIFTiles.topoJson2png()); there is no
+	 * GeoJSON parse, validity test or GeoTools rendering. A tile where no geometry envelope overlaps the
+	 * bounding box is the NULL tile.
+	 * </p>
+	 *
+	 * @param geometries		JTS Polygons/MultiPolygons in WGS84
+	 * @param geography			geography as uppercase String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel as uppercase String
+	 *
+	 * @return PNG tile bytes
+	 *
+	 * @throws RIFServiceException RIF error
+     */	
+	public byte[] geometries2png(
+		final List<Geometry> geometries,
+		final String geography,
+		final SlippyTile slippyTile, 
+		final String geoLevel) throws RIFServiceException {
+
+		if (geometries.isEmpty()) {
+			if (geography.equals("NULL") || geoLevel.equals("NULL")) {
+				return createNullTile(slippyTile, "NULL", "NULL");
+			}
+			throw new RIFServiceException(
+				RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR,
+				"Tile generation error: no features for geography: " + geography +
+				"; geoLevel: " + geoLevel +
+				"; slippyTile: " + slippyTile.getPathFileName());
+		}
+
+		byte[] result;
+		try {
+			JSONArray bboxJson = slippyTile.tile2boundingBox();
+			RIFTileRasteriser rasteriser = new RIFTileRasteriser(new double[] {
+				bboxJson.getDouble(0), bboxJson.getDouble(1), bboxJson.getDouble(2), bboxJson.getDouble(3) });
+			if (!rasteriser.intersects(geometries)) {
+				return createNullTile(slippyTile, geography, geoLevel); // And cache
+			}
+			result = rasteriser.toPng(geometries);
+			rifTilesCache.cacheTile(result, geography, slippyTile, geoLevel, "png");
+		}
+		catch (RIFServiceException rifServiceException) {
+			throw rifServiceException;
+		}
+		catch (Exception exception) {
+			throw new RIFServiceException(
+				RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR,
+				"Tile generation error: " + exception.getMessage() + 
+				"; geography: " + geography +
+				"; geoLevel: " + geoLevel +
+				"; slippyTile: " + slippyTile.getPathFileName(), exception);
+		}
+		
+		return result;
+	}
+
 	/** 
 	 * Convert geoJSON to transparent PNG tile, cropped to BBOX
 	 * <p>
@@ -136,29 +192,50 @@ public class RIFPdfTiles {
 	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
 	 * @param geoLevel 			geolevel as uppercase String
 	 *
-	 * @return PNG coded in base64, or null if not relevant (non 0/0/0 null tile)
+	 * @return PNG tile bytes
 	 *
 	 * @throws RIFServiceException RIF error
 	 * @throws JSONException Error manipulating JSON
      */	
-	public String geoJson2png(
+	public byte[] geoJson2png(
 		final JSONObject tileGeoJson,
 		final String geography,
 		final SlippyTile slippyTile, 
 		final String geoLevel) throws JSONException, RIFServiceException {
+		return geoJson2png(tileGeoJson.toString().getBytes(StandardCharsets.UTF_8), geography, slippyTile, geoLevel);
+	}
+
+	/** 
+	 * Convert geoJSON to transparent PNG tile, cropped to BBOX
+	 *
+	 * @param tileGeoJson		tile GeoJSON as UTF-8 bytes (from RIFTiles.topoJson2geoJson())
+	 * @param geography			geography as uppercase String
+	 * @param slippyTile 		SlippyTile (zoomlevel, x, y)
+	 * @param geoLevel 			geolevel as uppercase String
+	 *
+	 * @return PNG tile bytes
+	 *
+	 * @throws RIFServiceException RIF error
+	 * @throws JSONException Error manipulating JSON
+     */	
+	public byte[] geoJson2png(
+		final byte[] tileGeoJson,
+		final String geography,
+		final SlippyTile slippyTile, 
+		final String geoLevel) throws JSONException, RIFServiceException {
 
-		String result;
+		byte[] result;
 		try {
 			JSONArray bboxJson = slippyTile.tile2boundingBox();
 			FeatureJSON featureJSON = new FeatureJSON();
-			InputStream is = new ByteArrayInputStream(tileGeoJson.toString().getBytes());
+			InputStream is = new ByteArrayInputStream(tileGeoJson);
 			ByteArrayOutputStream os = new ByteArrayOutputStream();
 
 			// Convert GeoJSON toFeatureCollection 	
 			FeatureCollection features = featureJSON.readFeatureCollection(is);
 			if (features.size() == 0) {
 				if (!(geography.equals("NULL") || geoLevel.equals("NULL"))) {
-					String tileGeoJsonStr = tileGeoJson.toString();
+					String tileGeoJsonStr = new String(tileGeoJson, StandardCharsets.UTF_8);
 					if (tileGeoJsonStr.length() > 300 ) {
 						tileGeoJsonStr = tileGeoJsonStr.substring(0, 300);
 					}
@@ -215,7 +292,7 @@ public class RIFPdfTiles {
 						rifLogger.info(getClass(), "Unsupported Geometry: \"" + geomType.toString() + 
 							"\" for geoLevel: " + geoLevel +
 							"; slippyTile: " + slippyTile.getPathFileName() +
-							"; tileGeoJson " + tileGeoJson.toString());
+							"; tileGeoJson " + new String(tileGeoJson, StandardCharsets.UTF_8));
 						throw new RIFServiceException(RIFServiceError.TILE_GENERATE_GEOTOOLS_ERROR, 
 							"Unsupported Geometry: \"" + geomType.toString() + 
 							"\" for geoLevel: " + geoLevel +
@@ -231,7 +308,7 @@ public class RIFPdfTiles {
 			}
 			
 			if (!intersects) {
-				return createNullTile(slippyTile, geography.toLowerCase(), geoLevel.toLowerCase()); // And cache
+				return createNullTile(slippyTile, geography, geoLevel); // And cache
 			}
 
 			MapViewport mapViewport = mapContent.getViewport();
@@ -264,19 +341,16 @@ public class RIFPdfTiles {
 			renderer.paint(g2d, outputArea, bounds); 
 			ImageIO.write(bufferedImage, "png", os);
 
-			rifTilesCache.cacheTile(null /* tileGeoJson */, os, geography.toLowerCase(), slippyTile, geoLevel.toLowerCase(), "png");
-			result=Base64.getEncoder().encodeToString(os.toByteArray());
+			result=os.toByteArray(); // Raw PNG; written to the cache and the HTTP response as is
+			rifTilesCache.cacheTile(result, geography, slippyTile, geoLevel, "png");
 			
 			mapContent.dispose();
 			g2d.dispose();
 		}
 		catch (Exception exception) {
 			try { // Write failing JSON to cache
-				File file=rifTilesCache.getCachedTileFile(geography.toLowerCase(), slippyTile, geoLevel.toLowerCase(), "json");	
-				if (file.exists()) {
-					if (file.delete()) {
-						rifTilesCache.cacheTile(tileGeoJson, null /* pngTileStream */, geography.toLowerCase(), slippyTile, geoLevel.toLowerCase(), 	"json");
-					}
+				if (rifTilesCache.removeCachedTile(geography, slippyTile, geoLevel, "json")) {
+					rifTilesCache.cacheTile(tileGeoJson, geography, slippyTile, geoLevel, "json");
 				}
 			}
 			catch (Exception cacheException) {
@@ -284,7 +358,7 @@ public class RIFPdfTiles {
 					"; geoLevel: " + geoLevel +
 					"; slippyTile: " + slippyTile.getPathFileName() + " [Ignored]", cacheException);
 			}
-			String tileGeoJsonStr=tileGeoJson.toString(2);
+			String tileGeoJsonStr=new String(tileGeoJson, StandardCharsets.UTF_8);
 			if (tileGeoJsonStr.length() > 600) {
 				tileGeoJsonStr=tileGeoJsonStr.substring(1, 600);
 			}
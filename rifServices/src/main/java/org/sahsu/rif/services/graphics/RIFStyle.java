@@ -22,7 +22,7 @@ import org.geotools.styling.AnchorPoint;
 import org.geotools.styling.PointPlacement;
 import org.geotools.styling.Displacement;
 
-import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
 
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.FilterFactory2;
@@ -179,7 +179,7 @@ public class RIFStyle {
 	 * @param String paletteName,
 	 * @param int numberOfBreaks,
 	 * @param boolean invert,
-	 * @param DefaultFeatureCollection featureCollection
+	 * @param SimpleFeatureCollection featureCollection
      */
 	public RIFStyle(
 			final String rifMethod,
@@ -187,7 +187,7 @@ public class RIFStyle {
 			final String paletteName,
 			final int numberOfBreaks,
 			final boolean invert,
-			final DefaultFeatureCollection featureCollection) {
+			final SimpleFeatureCollection featureCollection) {
 		
 		try {
 			style=createPredefinedRifStyle(rifMethod, columnName, paletteName, numberOfBreaks, 
@@ -208,7 +208,7 @@ public class RIFStyle {
 	 * @param String paletteName,
 	 * @param double[] breaks,
 	 * @param boolean invert,
-	 * @param DefaultFeatureCollection featureCollection
+	 * @param SimpleFeatureCollection featureCollection
      */
 	public RIFStyle(
 			final String userStyleName,
@@ -216,7 +216,7 @@ public class RIFStyle {
 			final String paletteName,
 			final double[] breaks,
 			final boolean invert,
-			final DefaultFeatureCollection featureCollection) {
+			final SimpleFeatureCollection featureCollection) {
 		
 		try {
 			style=createUserDefinedRifStyle(userStyleName, columnName, paletteName, breaks, 
@@ -254,7 +254,7 @@ public class RIFStyle {
 	  * @param String paletteName,
 	  * @param int numberOfBreaks,
 	  * @param boolean invert,
-	  * @param DefaultFeatureCollection featureCollection
+	  * @param SimpleFeatureCollection featureCollection
 	  *
 	  * @return Style 
 	  */													
@@ -264,7 +264,7 @@ public class RIFStyle {
 			final String lpaletteName,
 			final int lnumberOfBreaks,
 			final boolean linvert,
-			final DefaultFeatureCollection featureCollection) 
+			final SimpleFeatureCollection featureCollection) 
 				throws Exception {
 		Classifier groups=null;
 		
@@ -329,7 +329,7 @@ public class RIFStyle {
 	  * @param String paletteName,
 	  * @param int numberOfBreaks,
 	  * @param boolean invert,
-	  * @param DefaultFeatureCollection featureCollection
+	  * @param SimpleFeatureCollection featureCollection
 	  *
 	  * @return Style 
 	  */													
@@ -339,7 +339,7 @@ public class RIFStyle {
 			final String lpaletteName,
 			final double[] breaks,
 			final boolean linvert,
-			final DefaultFeatureCollection featureCollection) 
+			final SimpleFeatureCollection featureCollection) 
 				throws Exception {
 		Classifier groups=null;
 		
@@ -371,7 +371,7 @@ public class RIFStyle {
 	  * @param int numberOfBreaks,
 	  * @param boolean invert,
 	  * @param Classifier groups,
-	  * @param DefaultFeatureCollection featureCollection,
+	  * @param SimpleFeatureCollection featureCollection,
 	  * @param PropertyName propertyExpression
 	  *
 	  * @return Style 
@@ -383,7 +383,7 @@ public class RIFStyle {
 		final int numberOfBreaks, 
 		final boolean invert,
 		final Classifier groups,
-		final DefaultFeatureCollection featureCollection,
+		final SimpleFeatureCollection featureCollection,
 		final PropertyName propertyExpression) 
 			throws Exception {
 				
@@ -0,0 +1,164 @@
+package org.sahsu.rif.services.graphics;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Rasterise JTS polygons to a transparent 256x256 PNG tile.
+ * <p>
+ * Replaces rendering a GeoTools FeatureCollection parsed back from the tile GeoJSON with StreamingRenderer.
+ * Geometries come straight from RIFTopoJsonDecoder; those whose envelope misses the tile are skipped
+ * without any geometry operations. The tile bounding box is mapped linearly to the image, as the
+ * StreamingRenderer viewport did, and area boundaries are drawn in the fixed tile style.
+ * </p>
+ * <p>
+ * Each thread keeps its own image, Graphics2D and PNG buffer, cleared and reused from tile to tile
+ * (see RIFGeoJsonTileWriter).
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+public class RIFTileRasteriser {
+
+	public static final int TILE_SIZE = 256;
+
+	// Tile style: boundaries only, so the tile overlays the front end's own layers
+	private static final Color BOUNDARY_COLOUR = Color.BLACK;
+	private static final Stroke BOUNDARY_STROKE = new BasicStroke(1.0f, BasicStroke.CAP_ROUND,
+		BasicStroke.JOIN_ROUND);
+	private static final Composite CLEAR = AlphaComposite.getInstance(AlphaComposite.CLEAR);
+	private static final Composite SOURCE_OVER = AlphaComposite.getInstance(AlphaComposite.SRC_OVER);
+
+	private static final ThreadLocal<Canvas> canvases = ThreadLocal.withInitial(Canvas::new);
+
+	private final Envelope tileEnvelope;
+	private final double scaleX;
+	private final double scaleY;
+
+	/**
+	 * Per thread image, graphics context and PNG buffer
+	 */
+	private static final class Canvas {
+
+		private final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE,
+			BufferedImage.TYPE_INT_ARGB); // Allow transparency
+		private final Graphics2D graphics = image.createGraphics();
+		private final ByteArrayOutputStream png = new ByteArrayOutputStream(16 * 1024);
+		private final Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD, 1024);
+
+		Canvas() {
+			graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			graphics.setColor(BOUNDARY_COLOUR);
+			graphics.setStroke(BOUNDARY_STROKE);
+		}
+
+		void clear() {
+			graphics.setComposite(CLEAR);
+			graphics.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+			graphics.setComposite(SOURCE_OVER);
+			png.reset();
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param bbox 	tile bounding box in WGS84 (from SlippyTile.tile2boundingBox()): [x1, y1, x2, y2]
+	 */
+	public RIFTileRasteriser(final double[] bbox) {
+		tileEnvelope = new Envelope(bbox[0], bbox[2], bbox[1], bbox[3]); // Normalises min/max
+		scaleX = TILE_SIZE / tileEnvelope.getWidth();
+		scaleY = TILE_SIZE / tileEnvelope.getHeight();
+	}
+
+	/**
+	 * Does any geometry overlap the tile? Envelope test only
+	 *
+	 * @param geometries 	JTS geometries
+	 *
+	 * @return boolean
+	 */
+	public boolean intersects(final List<Geometry> geometries) {
+		for (Geometry geometry : geometries) {
+			if (geometry != null && tileEnvelope.intersects(geometry.getEnvelopeInternal())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Draw the polygon boundaries of the geometries that overlap the tile and encode the tile as PNG
+	 *
+	 * @param geometries 	JTS Polygons and MultiPolygons; other geometry types are ignored
+	 *
+	 * @return PNG tile bytes
+	 *
+	 * @throws IOException on PNG encoding error
+	 */
+	public byte[] toPng(final List<Geometry> geometries) throws IOException {
+
+		Canvas canvas = canvases.get();
+		canvas.clear();
+		for (Geometry geometry : geometries) {
+			if (geometry == null || !tileEnvelope.intersects(geometry.getEnvelopeInternal())) {
+				continue;
+			}
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				Geometry part = geometry.getGeometryN(i);
+				if (part instanceof Polygon && tileEnvelope.intersects(part.getEnvelopeInternal())) {
+					drawPolygon(canvas, (Polygon)part);
+				}
+			}
+		}
+		ImageIO.write(canvas.image, "png", canvas.png);
+		return canvas.png.toByteArray();
+	}
+
+	private void drawPolygon(final Canvas canvas, final Polygon polygon) {
+		Path2D.Double path = canvas.path;
+		path.reset();
+		addRing(path, polygon.getExteriorRing());
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+			addRing(path, polygon.getInteriorRingN(i));
+		}
+		canvas.graphics.draw(path);
+	}
+
+	/**
+	 * Add ring to the path in pixel co-ordinates: x east from the west edge, y south from the north edge
+	 */
+	private void addRing(final Path2D.Double path, final LineString ring) {
+		CoordinateSequence coordinates = ring.getCoordinateSequence();
+		int size = coordinates.size();
+		if (size < 2) {
+			return;
+		}
+		double minX = tileEnvelope.getMinX();
+		double maxY = tileEnvelope.getMaxY();
+		path.moveTo((coordinates.getX(0) - minX) * scaleX, (maxY - coordinates.getY(0)) * scaleY);
+		for (int i = 1; i < size; i++) {
+			path.lineTo((coordinates.getX(i) - minX) * scaleX, (maxY - coordinates.getY(i)) * scaleY);
+		}
+		path.closePath();
+	}
+}
@@ -28,6 +28,8 @@ public class RIFTilesGenerator implements Runnable {
 	private static String username = null;
 	private static boolean doStop = false;
 	private static int sleepInteval=1;
+	private static int workerThreads=1;
+	private static RIFTiles rifTiles = null;
 	
 	public RIFTilesGenerator() { // Dummy constructor
 	}
@@ -49,6 +51,17 @@ public class RIFTilesGenerator implements Runnable {
 		this.username = username;
 		baseSQLManager = new BaseSQLManager(rifServiceStartupOptions);
 		sleepInteval=2;
+		int defaultWorkerThreads=Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		try {
+			workerThreads=rifServiceStartupOptions.getOptionalRIfServiceProperty("tileGeneratorThreads", 
+				defaultWorkerThreads);
+		}
+		catch (Exception exception) {
+			workerThreads=defaultWorkerThreads;
+		}
+		if (workerThreads < 1) {
+			workerThreads=1;
+		}
 
 		Class.forName(rifServiceStartupOptions.getDatabaseDriverClassName()); // Load JDBC driver
 	}
@@ -57,8 +70,9 @@ public class RIFTilesGenerator implements Runnable {
 	 * Required Thread run function
 	 */
 	public void run() {
+		Connection connection = null;
 		try {			
-			RIFTiles rifTiles = new RIFTiles(rifServiceStartupOptions);
+			rifTiles = new RIFTiles(rifServiceStartupOptions);
 
 			User user = User.newInstance(username, "::1" /* IP address */);
 			String password=null;
@@ -85,13 +99,19 @@ public class RIFTilesGenerator implements Runnable {
 				}
 			} while (password == null && keepRunning());
 
+			if (!keepRunning()) {
+				return;
+			}
+			
 			/* isFirstConnectionForUser */
 			/* isReadOnly */
-			Connection connection = baseSQLManager.createConnection(username, password,
+			connection = baseSQLManager.createConnection(username, password,
 					false    /* isFirstConnectionForUser */,
 					true    /* isReadOnly */);
 
-			rifTiles.generateTiles(connection); // Generated 913 tiles for: 3 geolevels in 00:14:07.567 (EWS2011)
+			rifLogger.info(this.getClass(), "Tile generator run() using " + workerThreads + " worker thread(s)");
+			rifTiles.generateTiles(connection, workerThreads); // Serially: generated 913 tiles for: 3 geolevels 
+																   // in 00:14:07.567 (EWS2011)
 			rifLogger.info(this.getClass(), "Tile generator run() Finished OK!");
 		}		
 		catch(SQLException sqlException) { // Finally {} has failed closing cursors or releasing resultsets: 
@@ -102,6 +122,26 @@ public class RIFTilesGenerator implements Runnable {
 			rifLogger.info(this.getClass(), "Tile generator run() FAILED: " + rifServiceException.getMessage());
 			rifServiceException.printErrors();
 		}	
+		finally {
+			closeConnection(connection);
+		}
+	}
+
+	/** 
+	 * Close connection, logging any errors
+	 *
+	 * @param connection JDBC Connection; may be null
+	 */
+	private void closeConnection(final Connection connection) {
+		if (connection != null) {
+			try {
+				connection.close();
+			}
+			catch (SQLException sqlException) {
+				rifLogger.warning(this.getClass(), "Tile generator unable to close connection: " + 
+					sqlException.getMessage());
+			}
+		}
 	}
 
 	/** 
@@ -110,6 +150,9 @@ public class RIFTilesGenerator implements Runnable {
     public synchronized void doStop() {
 		rifLogger.info(this.getClass(), "Tile generator doStop() called from RIFService");
         doStop = true;
+		if (rifTiles != null) {
+			rifTiles.stopGenerateTiles(); // Progress is checkpointed; will resume on restart
+		}
     }
 
 	/** 
@@ -1,6 +1,17 @@
 package org.sahsu.rif.services.rest;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.StreamingOutput;
+
 import org.sahsu.rif.generic.concepts.RIFResultTable;
+import org.sahsu.rif.generic.concepts.RIFResultTableColumn;
 import org.json.JSONObject;
 
 
@@ -90,22 +101,61 @@ public final class RIFResultTableJSONGenerator {
 		final RIFResultTable resultTable) {
 		
 		return writeResultTable(resultTable, null);
-			
 	}
 	
 	public String writeResultTable(
 		final RIFResultTable resultTable,
 		final JSONObject additionalTableJson) {
 		
-		StringBuilder result = new StringBuilder();
+		StringWriter result = new StringWriter();
+		try {
+			writeResultTable(resultTable, additionalTableJson, result);
+		}
+		catch (IOException ioException) { // Not thrown by StringWriter
+			throw new UncheckedIOException(ioException);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Stream a result table as UTF-8 JSON, e.g. as the entity of a response; so large tables are not 
+	 * built up as one string
+	 *
+	 * @param resultTable the table
+	 *
+	 * @return StreamingOutput
+	 */
+	public StreamingOutput streamResultTable(
+		final RIFResultTable resultTable) {
 		
+		return outputStream -> {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 
+				64 * 1024);
+			writeResultTable(resultTable, null, writer);
+			writer.flush();
+		};
+	}
+	
+	/**
+	 * Write a result table as JSON
+	 *
+	 * @param resultTable 			the table
+	 * @param additionalTableJson 	written as "additionalTableJson" (may be null)
+	 * @param result 				where to write the JSON
+	 */
+	public void writeResultTable(
+		final RIFResultTable resultTable,
+		final JSONObject additionalTableJson,
+		final Writer result) 
+		throws IOException {
+
 		String[] columnNames = resultTable.getColumnNames();
 		RIFResultTable.ColumnDataType[] dataTypes = resultTable.getColumnDataTypes();
-		String[][] data = resultTable.getData();
-		
-		int numberOfRows = data.length;
+		RIFResultTableColumn[] columns = resultTable.getColumns();
+		String[][] data = (columns == null ? resultTable.getData() : null);
+		int numberOfRows = resultTable.getNumberOfRows();
 		int numberOfColumns = columnNames.length;		
-			
+		
 		result.append("{");
 		if (additionalTableJson != null) {
 			result.append("\"additionalTableJson\":");
@@ -115,6 +165,7 @@ public final class RIFResultTableJSONGenerator {
 		
 		//write out table header
 		result.append("\"smoothed_results_header\":[");
+		String[] columnNameFields = new String[numberOfColumns];
 		for (int ithColumnName = 0; ithColumnName < numberOfColumns; ithColumnName++) {
 			if (ithColumnName != 0) {
 				result.append(",");
@@ -122,6 +173,7 @@ public final class RIFResultTableJSONGenerator {
 			result.append("\"");
 			result.append(columnNames[ithColumnName]);
 			result.append("\"");
+			columnNameFields[ithColumnName] = "\"" + columnNames[ithColumnName] + "\":";
 		}
 		result.append("],");
 		
@@ -131,47 +183,30 @@ public final class RIFResultTableJSONGenerator {
 			if (currentRow != 0) {
 				result.append(",");
 			}
-			
 			result.append("{");
 			for (int currentColumn = 0; currentColumn < numberOfColumns; currentColumn++) {
 				if (currentColumn != 0) {
 					result.append(",");
 				}
-				if (dataTypes[currentColumn] == RIFResultTable.ColumnDataType.TEXT) {
-					result.append("\"");
-					result.append(columnNames[currentColumn]);
-					result.append("\"");
-					result.append(":");
+				result.append(columnNameFields[currentColumn]);
+				if (columns != null) {
+					columns[currentColumn].writeJSON(currentRow, result);
+				}
+				else if (dataTypes[currentColumn] == RIFResultTable.ColumnDataType.TEXT) {
 					result.append(RIFResultTable.quote(data[currentRow][currentColumn]));	
 				}				
-				else if (dataTypes[currentColumn] == RIFResultTable.ColumnDataType.JSON) { // No escaping at all: you do it yourself!!!!
-					result.append("\"");
-					result.append(columnNames[currentColumn]);
-					result.append("\"");
-					result.append(":");
-					result.append(data[currentRow][currentColumn]);	
-				}
-				else {
-					//it is numeric
-					result.append("\"");
-					result.append(columnNames[currentColumn]);
-					result.append("\"");
-					result.append(":");
+				else { // Numeric or JSON. JSON: no escaping at all: you do it yourself!!!!
 					result.append(data[currentRow][currentColumn]);					
 				}
-				
 			}			
 			result.append("}");
-			
 		}		
 		result.append("]");
-
+		
 		//finish off the whole data set
 		result.append("}");
-		
-		return result.toString();		
 	}
-		
+
 	// ==========================================
 	// Section Errors and Validation
 	// ==========================================
@@ -341,7 +341,7 @@ public class StudyResultRetrievalServiceResource extends WebService {
 	@GET
 	@Produces({"application/json"})
 	@Path("/getSmoothedResults")
-	public String getSmoothedResults(
+	public Response getSmoothedResults(
 			@Context HttpServletRequest servletRequest,
 			@QueryParam("userID") String userID,
 			@QueryParam("studyID") String studyID,
@@ -361,9 +361,12 @@ public class StudyResultRetrievalServiceResource extends WebService {
 					studyID,
 					sex);
 
+			//Streamed straight to the response, not built up as one string
 			RIFResultTableJSONGenerator rifResultTableJSONGenerator
 					= new RIFResultTableJSONGenerator();
-			result = rifResultTableJSONGenerator.writeResultTable(resultTable);
+			return Response.ok(
+					rifResultTableJSONGenerator.streamResultTable(resultTable),
+					MediaType.APPLICATION_JSON + ";charset=UTF-8").build();
 
 		}
 		catch(Exception exception) {
@@ -378,13 +381,13 @@ public class StudyResultRetrievalServiceResource extends WebService {
 					exception);
 		}
 
-		return result;
+		return Response.ok(result, MediaType.APPLICATION_JSON).build();
 	}
 
 	@GET
 	@Produces({"application/json"})
 	@Path("/getAllPopulationPyramidData")
-	public String getAllPopulationPyramidData(
+	public Response getAllPopulationPyramidData(
 			@Context HttpServletRequest servletRequest,
 			@QueryParam("userID") String userID,
 			@QueryParam("studyID") String studyID,
@@ -404,9 +407,12 @@ public class StudyResultRetrievalServiceResource extends WebService {
 					studyID,
 					year);
 
+			//Streamed straight to the response, not built up as one string
 			RIFResultTableJSONGenerator rifResultTableJSONGenerator
 					= new RIFResultTableJSONGenerator();
-			result = rifResultTableJSONGenerator.writeResultTable(resultTable);
+			return Response.ok(
+					rifResultTableJSONGenerator.streamResultTable(resultTable),
+					MediaType.APPLICATION_JSON + ";charset=UTF-8").build();
 		}
 		catch(Exception exception) {
 			rifLogger.error(
@@ -420,7 +426,7 @@ public class StudyResultRetrievalServiceResource extends WebService {
 					exception);
 		}
 
-		return result;
+		return Response.ok(result, MediaType.APPLICATION_JSON).build();
 	}
 
 
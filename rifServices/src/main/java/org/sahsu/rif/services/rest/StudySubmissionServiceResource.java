@@ -871,6 +871,20 @@ private Messages GENERIC_MESSAGES = Messages.genericMessages();
 				zoomLevel);
 	}
 
+	@GET
+	@Produces({"application/json"})
+	@Path("/cancelZipFile")
+	public Response cancelZipFile(
+			@Context HttpServletRequest servletRequest,
+			@QueryParam("userID") String userID,
+			@QueryParam("studyID") String studyID) {
+
+		return super.cancelZipFile(
+				servletRequest,
+				userID,
+				studyID);
+	}
+
 	@GET
 	@Produces({"application/zip"})
 	@Path("/getZipFile")
@@ -1,15 +1,9 @@
 package org.sahsu.rif.services.rest;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -19,15 +13,9 @@ import java.util.Locale;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import javax.ws.rs.core.Response;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.json.JSONObject;
-import org.json.XML;
 import org.sahsu.rif.generic.concepts.RIFResultTable;
 import org.sahsu.rif.generic.concepts.User;
 import org.sahsu.rif.generic.system.RIFServiceException;
@@ -49,6 +37,7 @@ import org.sahsu.rif.services.concepts.YearRange;
 import org.sahsu.rif.services.datastorage.common.SampleTestObjectGenerator;
 import org.sahsu.rif.services.datastorage.common.ServiceBundle;
 import org.sahsu.rif.services.datastorage.common.ServiceResources;
+import org.sahsu.rif.services.fileformats.RIFStudySubmissionJSONReader;
 import org.sahsu.rif.services.fileformats.RIFStudySubmissionXMLWriter;
 import org.sahsu.rif.services.graphics.RIFTilesException;
 import org.sahsu.rif.services.system.RIFServiceError;
@@ -1133,7 +1122,8 @@ public class WebService {
 			final Integer y,
 			final String tileType) {
 
-		String result;
+		String result = null;
+		byte[] tile = null;
 		boolean isAnError=false;
 
 		try {
@@ -1149,8 +1139,8 @@ public class WebService {
 			//Call service API
 			RIFStudyResultRetrievalAPI studyResultRetrievalService
 					= getRIFStudyResultRetrievalService();
-			result
-					= studyResultRetrievalService.getTileMakerTiles(
+			tile
+					= studyResultRetrievalService.getTileMakerTileBytes(
 					user,
 					geography,
 					geoLevelSelect,
@@ -1181,9 +1171,14 @@ public class WebService {
 		if (!isAnError && tileType != null && tileType.equals("png")) { // PNG tile create
 			response = webServiceResponseGenerator.generateWebServicePngResponse(
 				servletRequest,
-				result);
-	}
-		else { // Usual JSON response
+				tile);
+		}
+		else if (!isAnError) { // Usual JSON response, written from the tile bytes
+			response = webServiceResponseGenerator.generateWebServiceResponse(
+					servletRequest,
+					tile);
+		}
+		else {
 			response = webServiceResponseGenerator.generateWebServiceResponse(
 					servletRequest,
 					result);
@@ -1246,7 +1241,7 @@ public class WebService {
 			final String studyID,
 			final String zoomLevel) {
 
-		String result = "{\"status\":\"OK\"}";
+		String result = null;
 
 		try {
 			Locale locale = servletRequest.getLocale();
@@ -1257,7 +1252,8 @@ public class WebService {
 			RIFStudySubmissionAPI studySubmissionService
 					= getRIFStudySubmissionService();
 
-			studySubmissionService.createStudyExtract(
+			//Queue the extract job and return at once; progress is reported by getExtractStatus
+			result = studySubmissionService.createStudyExtract(
 					user,
 					studyID,
 					zoomLevel,
@@ -1307,6 +1303,36 @@ public class WebService {
 				result);
 	}
 
+	protected Response cancelZipFile(
+			final HttpServletRequest servletRequest,
+			final String userID,
+			final String studyID) {
+
+		String result = null;
+
+		try {
+			User user = createUser(servletRequest, userID);
+
+			RIFStudySubmissionAPI studySubmissionService
+					= getRIFStudySubmissionService();
+
+			result = studySubmissionService.cancelStudyExtract(
+					user,
+					studyID);
+		} catch (RIFServiceException rifServiceException) {
+			rifLogger.error(this.getClass(), getClass().getSimpleName() +
+			                                 ".cancelZipFile error", rifServiceException);
+			result
+					= serialiseException(
+					servletRequest,
+					rifServiceException);
+		}
+
+		return webServiceResponseGenerator.generateWebServiceResponse(
+				servletRequest,
+				result);
+	}
+
 	protected Response getJsonFile(
 			final HttpServletRequest servletRequest,
 			final String userID,
@@ -1503,71 +1529,27 @@ getParameter("p 1")     yes     c d
 	private RIFStudySubmission getRIFSubmissionFromJSONSource(final InputStream inputStream)
 			throws RIFServiceException {
 
-		String xmlString = null;
 		try {
 			rifLogger.info(this.getClass(), "ARWS - getRIFSubmissionFromJSONSource start");
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-
-			StringBuilder buffer = new StringBuilder();
-			String currentInputLine = reader.readLine();
-			while (currentInputLine != null) {
-				buffer.append(currentInputLine);
-				currentInputLine = reader.readLine();
-			}
-			reader.close();
 
-			JSONObject jsonObject = new JSONObject(buffer.toString());
-			rifLogger.info(this.getClass(),
-			                "ARWS - JSON from UI==" + lineSeparator + jsonObject.toString(2)
-			                + lineSeparator + "==");
-
-			xmlString = XML.toString(jsonObject).replace("\r\n", "").replace("\n", "");
-			// Try to pretty print XML to make parsing errors readable
-			try {
-				StreamSource source = new StreamSource(new StringReader(xmlString));
-				Transformer transformer = TransformerFactory.newInstance().newTransformer();
-				transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-				transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-				//initialize StreamResult with File object to save to file
-				StreamResult result = new StreamResult(new StringWriter());
-				transformer.transform(source, result);
-				xmlString = result.getWriter().toString();
-			} catch (Exception e) {
-				rifLogger.warning(getClass(),
-				                  "ARWS - pretty print XML SAXParseException: " + e.getMessage()
-				                  + "==" + lineSeparator +
-				                  xmlString + lineSeparator + "==");
-			}
-
-			InputStream xmlInputStream = new ByteArrayInputStream(
-					xmlString.getBytes(StandardCharsets.UTF_8));
-			rifLogger.debug(getClass(),
-			                "ARWS - getRIFSubmissionFromJSONSource JSON TO XML==" + lineSeparator +
-			                xmlString + lineSeparator + "==");
-			RIFStudySubmission rifStudySubmission = RIFStudySubmission.newInstance(xmlInputStream);
-
-			// Parse out study_selection to avoid using the XML parser
-			JSONObject rifJobSubmission = jsonObject.optJSONObject("rif_job_submission");
-			if (rifJobSubmission != null) {
-				JSONObject study = rifJobSubmission.optJSONObject("disease_mapping_study");
-				if (study == null) {
-					study = rifJobSubmission.optJSONObject("risk_analysis_study");
-				}
+			// Bind the JSON directly; study_selection is kept aside for the checks below
+			RIFStudySubmissionJSONReader reader = new RIFStudySubmissionJSONReader();
+			reader.readFile(inputStream);
+			RIFStudySubmission rifStudySubmission = reader.getStudySubmission();
 
-				if (study == null) {
+			if (reader.hasRIFJobSubmission()) {
+				if (reader.getStudyElementName() == null) {
 
 					throw new IllegalStateException("Invalid data received: JSON contains "
 					                                + "neither 'disease_mapping_study' nor "
-					                                + "'risk_analysis_study'. Complete JSON is: "
-					                                + lineSeparator + jsonObject.toString(2));
+					                                + "'risk_analysis_study'");
 				}
 
-				String name = study.optString("name");
-				String description = study.optString("description");
+				String name = rifStudySubmission.getStudy().getName();
+				String description = rifStudySubmission.getStudy().getDescription();
 				String riskAnalysisDescription;
 				String studyType;
-				JSONObject studySelection = rifJobSubmission.optJSONObject("study_selection");
+				JSONObject studySelection = reader.getStudySelection();
 				if (studySelection != null) {
 
 					// Note that disease mapping studies do not have a corresponding description
@@ -1610,9 +1592,7 @@ getParameter("p 1")     yes     c d
 
 		} catch (Exception exception) {
 			rifLogger.error(this.getClass(), getClass().getSimpleName() +
-			                                 ".getRIFSubmissionFromJSONSource error XML=="
-			                                 + lineSeparator +
-			                                 xmlString + lineSeparator + "==", exception);
+			                                 ".getRIFSubmissionFromJSONSource error", exception);
 			String errorMessage = RIFServiceMessages.getMessage(
 					"webService.submitStudy.error.unableToConvertJSONToXML");
 
@@ -1,14 +1,20 @@
 package org.sahsu.rif.services.rest;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 
-import java.util.Base64;
-import java.util.Base64.Decoder;
+import java.util.zip.CRC32;
 
 import org.sahsu.rif.generic.util.RIFLogger;
 
@@ -203,6 +209,34 @@ final public class WebServiceResponseGenerator {
 
 	private static String lineSeparator = System.getProperty("line.separator");
 	
+	private static final int PARTIAL_CONTENT = 206;
+	private static final int RANGE_NOT_SATISFIABLE = 416;
+	private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024; // Per FileChannel.transferTo() call
+	private static final int ZIP_END_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP_END_LENGTH = 22;
+	private static final int ZIP_MAX_COMMENT_LENGTH = 0xFFFF;
+	
+	/**
+	 * Inclusive byte range of a file; from the HTTP Range header
+	 */
+	static final class ByteRange {
+		final long first;
+		final long last;
+		
+		ByteRange(final long first, final long last) {
+			this.first = first;
+			this.last = last;
+		}
+		
+		long getLength() {
+			return last - first + 1;
+		}
+	}
+	
+	static final ByteRange UNSATISFIABLE_RANGE = new ByteRange(-1, -2);
+	
 	// ==========================================
 	// Section Properties
 	// ==========================================
@@ -252,29 +286,64 @@ final public class WebServiceResponseGenerator {
 			}
 		}
 
-		public Response generateWebServicePngResponse(
+	public Response generateWebServiceResponse( // pre-encoded UTF-8 JSON version, e.g. tiles
 			final HttpServletRequest servletRequest,
-			final String data) {
+			final byte[] data) {
+				
+			ResponseBuilder responseBuilder = null;
+			try {
+				byte[] entity = (data == null ? new byte[0] : data);
+				if (clientBrowserIsInternetExplorer(servletRequest)) {
+					responseBuilder = Response.ok(
+							entity, 
+							MediaType.TEXT_PLAIN + ";charset=UTF-8");	
+				}
+				else {
+					responseBuilder = Response.ok(
+							entity, 
+							MediaType.APPLICATION_JSON + ";charset=UTF-8");	
+				}
+			}
+			catch (Exception exception) {
+				
+				rifLogger.error(this.getClass(), "generateWebServiceResponse() error",
+					exception);
+				
+				responseBuilder = Response.status(500).entity("generateWebServiceResponse(): Error in response generation: " + 
+					exception.getMessage());
+				responseBuilder.type("text/plain");
+			}
+			finally {
+				return responseBuilder.build();		
+			}
+		}
+
+		public Response generateWebServicePngResponse( // raw PNG bytes, e.g. tiles
+			final HttpServletRequest servletRequest,
+			final byte[] data) {
 			
 			ResponseBuilder responseBuilder = null;
 			try {
-				byte[] bytes = Base64.getDecoder().decode(data);
-				responseBuilder = Response.ok(
-						bytes, 
-						MediaType.WILDCARD_TYPE);
+				EntityTag entityTag = createEntityTag(data);
+				if (entityTagMatches(servletRequest.getHeader("If-None-Match"), entityTag)) {
+					responseBuilder = Response.notModified(entityTag); // Browser already has the tile
+				}
+				else {
+					responseBuilder = Response.ok(
+							data, 
+							MediaType.WILDCARD_TYPE);
+					responseBuilder.type("image/png");
+					responseBuilder.tag(entityTag);
+				}
 				responseBuilder.header("Cache-Control", "max-age=2592000"); //30days (60sec * 60min * 24hours * 30days)
-
-				responseBuilder.type("image/png");
 			}
 			catch (Exception exception) {
 				
-				rifLogger.error(this.getClass(), "generateWebServicePdfResponse() error",
+				rifLogger.error(this.getClass(), "generateWebServicePngResponse() error",
 					exception);
 				
-				responseBuilder = Response.status(500).entity("generateWebServicePdfResponse(): Error in PNG generation: " + 
-					exception.getMessage() + lineSeparator +
-//					"Stack >>>" + lineSeparator + exception.getStack() + lineSeparator +
-					"Data: " + data);
+				responseBuilder = Response.status(500).entity("generateWebServicePngResponse(): Error in PNG generation: " + 
+					exception.getMessage());
 					
 				responseBuilder.type("text/plain");
 			}
@@ -283,25 +352,231 @@ final public class WebServiceResponseGenerator {
 			}				
 		}
 		
+	/*
+	 * Strong ETag from the CRC32 and length of the response body. Tiles are immutable until the
+	 * geography is reloaded, so revalidation after max-age normally gets a 304 with no body.
+	 */
+	private EntityTag createEntityTag(final byte[] data) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, data.length);
+		return new EntityTag(Long.toHexString(crc32.getValue()) + "-" + Integer.toHexString(data.length));
+	}
+	
+	/*
+	 * If-None-Match is "*" or a comma separated list of (possibly weak) entity tags
+	 */
+	private boolean entityTagMatches(final String ifNoneMatch, final EntityTag entityTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals("\"" + entityTag.getValue() + "\"")) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Stream a ZIP file, e.g. a study extract.
+	 * <p>
+	 * Supports resumed and conditional downloads: a single "Range: bytes=" range gets a 206 partial response
+	 * (unless If-Range does not match the ETag); If-None-Match gets a 304 if the ZIP file is unchanged. The 
+	 * strong ETag is the CRC32 of the ZIP file central directory, which holds the CRC32 and size of every
+	 * entry, and the file length; so it is cheap to compute for multi-GB files. The body is copied from the
+	 * file channel with FileChannel.transferTo().
+	 * </p>
+	 *
+	 * @param servletRequest 	request, for Range, If-Range and If-None-Match
+	 * @param fileInputStream 	the ZIP file; closed when the response has been written
+	 * @param fileName 			file name for Content-Disposition
+	 *
+	 * @return Response
+	 */
 	public Response generateWebServiceResponse( // streaming version
 			final HttpServletRequest servletRequest,
 			final FileInputStream fileInputStream,
 			final String fileName) throws FileNotFoundException, IOException {
 						
 			ResponseBuilder responseBuilder = null;
+			final FileChannel fileChannel = fileInputStream.getChannel();
+			final long fileLength = fileChannel.size();
+			EntityTag entityTag = null;
+			try {
+				entityTag = createZipEntityTag(fileChannel, fileLength);
+			}
+			catch (IOException ioException) {
+				fileInputStream.close();
+				throw ioException;
+			}
 				
-			rifLogger.info(this.getClass(), "Create ZIP response: " + fileName + "; length: " + fileInputStream.getChannel().size());
-
-            responseBuilder = Response.ok(fileInputStream);
-//			responseBuilder.setContentLength(len);
-//			responseBuilder.setContentType("application/zip");
+			if (entityTagMatches(servletRequest.getHeader("If-None-Match"), entityTag)) {
+				fileInputStream.close();
+				rifLogger.info(this.getClass(), "ZIP file: " + fileName + " not modified; ETag: " + entityTag);
+				return Response.notModified(entityTag).build();
+			}
+			
+			ByteRange range = null;
+			String ifRange = servletRequest.getHeader("If-Range");
+			if (ifRange == null || ifRange.trim().equals("\"" + entityTag.getValue() + "\"")) {
+				range = parseRange(servletRequest.getHeader("Range"), fileLength);
+			}
+			if (range == UNSATISFIABLE_RANGE) {
+				fileInputStream.close();
+				rifLogger.info(this.getClass(), "ZIP file: " + fileName + "; range: " + 
+					servletRequest.getHeader("Range") + " not satisfiable; length: " + fileLength);
+				return Response.status(RANGE_NOT_SATISFIABLE)
+					.header("Content-Range", "bytes */" + fileLength)
+					.tag(entityTag)
+					.build();
+			}
+			
+			final ByteRange bodyRange = (range == null ? new ByteRange(0, fileLength - 1) : range);
+			StreamingOutput body = outputStream -> {
+				try (FileInputStream inputStream = fileInputStream) {
+					WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+					long position = bodyRange.first;
+					long end = bodyRange.last + 1;
+					while (position < end) {
+						long transferred = fileChannel.transferTo(position, 
+							Math.min(end - position, MAX_TRANSFER_SIZE), outputChannel);
+						if (transferred <= 0) {
+							throw new EOFException("ZIP file: " + fileName + " truncated at: " + position + 
+								"; expected length: " + fileLength);
+						}
+						position += transferred;
+					}
+					outputStream.flush();
+				}
+			};
 			
+			if (range == null) {
+				rifLogger.info(this.getClass(), "Create ZIP response: " + fileName + "; length: " + fileLength);
+				responseBuilder = Response.ok(body);
+			}
+			else {
+				rifLogger.info(this.getClass(), "Create partial ZIP response: " + fileName + "; bytes: " + 
+					range.first + "-" + range.last + "/" + fileLength);
+				responseBuilder = Response.status(PARTIAL_CONTENT).entity(body);
+				responseBuilder.header("Content-Range", 
+					"bytes " + range.first + "-" + range.last + "/" + fileLength);
+			}
+			responseBuilder.type("application/zip");
+			responseBuilder.tag(entityTag);
+			responseBuilder.header("Accept-Ranges", "bytes");
+			responseBuilder.header("Content-Length", bodyRange.getLength());
             responseBuilder.header("Content-Disposition",
                     "attachment; filename=\"" + fileName + "\"");
 			
 			return responseBuilder.build();
 		}
 	
+	/*
+	 * A single range: "bytes=first-last", "bytes=first-" or "bytes=-suffixLength". Returns null (send the
+	 * whole file) if there is no Range header, or it is not a single byte range; and UNSATISFIABLE_RANGE if
+	 * the range starts beyond the end of the file
+	 */
+	static ByteRange parseRange(final String rangeHeader, final long fileLength) {
+		if (rangeHeader == null) {
+			return null;
+		}
+		String range = rangeHeader.trim();
+		if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) { // Multiple ranges: send the whole file
+			return null;
+		}
+		range = range.substring("bytes=".length()).trim();
+		int dash = range.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			String first = range.substring(0, dash).trim();
+			String last = range.substring(dash + 1).trim();
+			if (first.isEmpty()) { // Suffix: the last n bytes
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength <= 0 || fileLength == 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				return new ByteRange(Math.max(0, fileLength - suffixLength), fileLength - 1);
+			}
+			long firstByte = Long.parseLong(first);
+			long lastByte = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (firstByte < 0 || lastByte < firstByte) { // Invalid: ignore
+				return null;
+			}
+			if (firstByte >= fileLength) {
+				return UNSATISFIABLE_RANGE;
+			}
+			return new ByteRange(firstByte, Math.min(lastByte, fileLength - 1));
+		}
+		catch (NumberFormatException numberFormatException) {
+			return null;
+		}
+	}
+	
+	/*
+	 * Strong ETag from the CRC32 of the ZIP file central directory and end records, and the file length. If
+	 * the end of central directory record cannot be found, the last 64KB of the file is used
+	 */
+	static EntityTag createZipEntityTag(final FileChannel fileChannel, final long fileLength) 
+			throws IOException {
+		
+		long tailLength = Math.min(fileLength, ZIP_END_LENGTH + ZIP_MAX_COMMENT_LENGTH);
+		ByteBuffer tail = readFully(fileChannel, fileLength - tailLength, (int) tailLength);
+		long checksumStart = fileLength - tailLength;
+		for (int i = (int) tailLength - ZIP_END_LENGTH; i >= 0; i--) {
+			if (tail.getInt(i) == ZIP_END_SIGNATURE) {
+				long centralDirectoryOffset = tail.getInt(i + 16) & 0xFFFFFFFFL;
+				long zip64LocatorPosition = checksumStart + i - 20;
+				if (centralDirectoryOffset == 0xFFFFFFFFL && zip64LocatorPosition >= 0) {
+					ByteBuffer locator = readFully(fileChannel, zip64LocatorPosition, 20);
+					if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+						long zip64EndPosition = locator.getLong(8);
+						if (zip64EndPosition >= 0 && zip64EndPosition + 56 <= fileLength) {
+							ByteBuffer zip64End = readFully(fileChannel, zip64EndPosition, 56);
+							if (zip64End.getInt(0) == ZIP64_END_SIGNATURE) {
+								centralDirectoryOffset = zip64End.getLong(48);
+							}
+						}
+					}
+				}
+				if (centralDirectoryOffset < fileLength) {
+					checksumStart = centralDirectoryOffset;
+				}
+				break;
+			}
+		}
+		
+		CRC32 crc32 = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = checksumStart;
+		while (position < fileLength) {
+			buffer.clear();
+			int byteCount = fileChannel.read(buffer, position);
+			if (byteCount < 0) {
+				break;
+			}
+			buffer.flip();
+			crc32.update(buffer);
+			position += byteCount;
+		}
+		return new EntityTag(Long.toHexString(crc32.getValue()) + "-" + Long.toHexString(fileLength));
+	}
+	
+	private static ByteBuffer readFully(final FileChannel fileChannel, final long position, final int length)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of file at: " + (position + buffer.position()));
+			}
+		}
+		return buffer;
+	}
 	
 	/*
 	 * Here we're trying to use some way of determining whether
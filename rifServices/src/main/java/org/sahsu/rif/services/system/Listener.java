@@ -5,6 +5,7 @@ import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
 import org.sahsu.rif.generic.util.RIFLogger;
+import org.sahsu.rif.services.datastorage.common.RIFTilesCache;
 
 /**
  * Starts the RIF when the server starts, and tries to stop it when the server stops.
@@ -42,6 +43,7 @@ public class Listener implements ServletContextListener {
 
 			service.stop();
 		}
+		RIFTilesCache.close(); // After the tile generator has stopped
 	}
 }
 
@@ -353,6 +353,7 @@ public enum RIFServiceError implements RifError {
 	TILE_CACHE_FILE_WRITE_ERROR,
 	TILE_GENERATE_SQL_ERROR,
 	TILE_GENERATE_GEOTOOLS_ERROR,
-	TILE_GENERATE_JSON_ERROR
+	TILE_GENERATE_JSON_ERROR,
+	STUDY_QUEUE_ERROR
 	
 }
@@ -0,0 +1,91 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.sahsu.rif.generic.datastorage.DatabaseType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BulkInsertTest {
+
+	@Test
+	public void rowsAreWrittenAsCSV() {
+
+		BulkInsert bulkInsert = studyAreas(DatabaseType.POSTGRESQL, 1000);
+		bulkInsert.addRow("01.001.000100.1", 1, 0, 0.0, null, 1.5);
+		bulkInsert.addRow("Area \"A\", north", 2, null, 1.0E-5, "12", null);
+
+		assertEquals("COPY rif40.rif40_study_areas (area_id, band_id, intersect_count, "
+		             + "distance_from_nearest_source, nearest_rifshapepolyid, exposure_value) "
+		             + "FROM STDIN WITH (FORMAT csv)", bulkInsert.getCopyStatement());
+		assertEquals("\"01.001.000100.1\",1,0,0.0,,1.5\n"
+		             + "\"Area \"\"A\"\", north\",2,,1.0E-5,\"12\",\n",
+		             bulkInsert.toCSV(0, 2));
+		assertEquals("\"Area \"\"A\"\", north\",2,,1.0E-5,\"12\",\n", bulkInsert.toCSV(1, 2));
+	}
+
+	@Test
+	public void rowsAreInsertedInBatches() throws Exception {
+
+		List<String> calls = new ArrayList<>();
+		PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				(proxy, method, arguments) -> {
+					if (method.getName().startsWith("set")) {
+						calls.add(method.getName() + "(" + arguments[0] + "," + arguments[1] + ")");
+					}
+					else {
+						calls.add(method.getName());
+					}
+					return method.getName().equals("executeBatch") ? new int[0] : null;
+				});
+
+		BulkInsert bulkInsert = new BulkInsert(DatabaseType.SQL_SERVER, "rif40.rif40_comparison_areas", 2);
+		bulkInsert.addField("area_id", Types.VARCHAR);
+		bulkInsert.addField("band_id", Types.INTEGER);
+		for (int i = 1; i <= 5; i++) {
+			bulkInsert.addRow("0" + i, i == 5 ? null : i);
+		}
+		bulkInsert.executeBatches(statement);
+
+		assertEquals(3, bulkInsert.getBatchCount());
+		assertEquals(5, calls.stream().filter(call -> call.equals("addBatch")).count());
+		assertEquals(3, calls.stream().filter(call -> call.equals("executeBatch")).count());
+		assertEquals("setNull(2," + Types.INTEGER + ")", calls.get(calls.size() - 3));
+		assertEquals("executeBatch", calls.get(calls.size() - 1));
+	}
+
+	@Test
+	public void copyIsNotUsedForSQLServer() throws Exception {
+
+		Connection connection = (Connection) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] { Connection.class },
+				(proxy, method, arguments) -> {
+					throw new AssertionError("Connection used: " + method.getName());
+				});
+
+		BulkInsert bulkInsert = studyAreas(DatabaseType.SQL_SERVER, 1000);
+		bulkInsert.addRow("01.001.000100.1", 1, 0, 0.0, null, 1.5);
+		assertFalse(bulkInsert.copy(connection));
+		assertEquals(0, bulkInsert.getBatchCount());
+	}
+
+	private static BulkInsert studyAreas(final DatabaseType databaseType, final int batchSize) {
+
+		BulkInsert bulkInsert = new BulkInsert(databaseType, "rif40.rif40_study_areas", batchSize);
+		bulkInsert.addField("area_id", Types.VARCHAR);
+		bulkInsert.addField("band_id", Types.INTEGER);
+		bulkInsert.addField("intersect_count", Types.INTEGER);
+		bulkInsert.addField("distance_from_nearest_source", Types.DOUBLE);
+		bulkInsert.addField("nearest_rifshapepolyid", Types.VARCHAR);
+		bulkInsert.addField("exposure_value", Types.DOUBLE);
+		return bulkInsert;
+	}
+}
@@ -0,0 +1,112 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GeographyHierarchyTest {
+
+	@Test
+	public void selectedAreasAreResolvedToTheMapLevel() {
+
+		GeographyHierarchy hierarchy = sahsuland(1);
+
+		assertEquals(Arrays.asList(
+				"7:01.001.000100.1:01.001",
+				"8:01.001.000100.2:01.001",
+				"9:01.001.000200.1:01.001",
+				"10:01.002.000300.1:01.002"),
+		             resolve(hierarchy, "SAHSU_GRD_LEVEL2", "sahsu_grd_level4", "01.001", "01.002", "01.001"));
+
+		// Coarser map level: one area per selected area
+		assertEquals(Arrays.asList(
+				"1:01:01.001.000100",
+				"1:01:01.002.000300"),
+		             resolve(hierarchy, "sahsu_grd_level3", "sahsu_grd_level1", "01.001.000100", "01.002.000300"));
+	}
+
+	@Test
+	public void unknownAndUnmappedAreasAreSkipped() {
+
+		GeographyHierarchy hierarchy = sahsuland(1);
+
+		// 01.003.000400.1 is not in the level 4 lookup table
+		assertEquals(Collections.emptyList(),
+		             resolve(hierarchy, "sahsu_grd_level2", "sahsu_grd_level4", "01.003", "99.999"));
+	}
+
+	@Test
+	public void allAreasAreResolvedIfNoneAreSelected() {
+
+		GeographyHierarchy hierarchy = sahsuland(1);
+
+		assertEquals(Arrays.asList(
+				"2:01.001:01",
+				"3:01.002:01"),
+		             resolve(hierarchy, "sahsu_grd_level1", "sahsu_grd_level2"));
+	}
+
+	@Test
+	public void hierarchyIsCachedByVersion() {
+
+		GeographyHierarchy hierarchy = sahsuland(42);
+		GeographyHierarchy.cache(hierarchy);
+
+		assertSame(hierarchy, GeographyHierarchy.getCached("SAHSULAND", "HIERARCHY_SAHSULAND", 42));
+		assertNull(GeographyHierarchy.getCached("sahsuland", "hierarchy_sahsuland", 43)); // Recreated
+		assertNull(GeographyHierarchy.getCached("sahsuland", "hierarchy_sahsuland",
+				GeographyHierarchy.NO_VERSION));
+		assertNull(GeographyHierarchy.getCached("sahsuland", "hierarchy_sahsuland2", 42));
+
+		GeographyHierarchy.cache(sahsuland(GeographyHierarchy.NO_VERSION));
+		assertNull(GeographyHierarchy.getCached("sahsuland", "hierarchy_sahsuland", 42));
+	}
+
+	@Test
+	public void eachGeographyHasItsOwnLoadLock() {
+
+		assertSame(GeographyHierarchy.getLoadLock("sahsuland"), GeographyHierarchy.getLoadLock("SAHSULAND"));
+		assertNotSame(GeographyHierarchy.getLoadLock("sahsuland"), GeographyHierarchy.getLoadLock("ew01"));
+	}
+
+	private static GeographyHierarchy sahsuland(final long version) {
+
+		GeographyHierarchy hierarchy = new GeographyHierarchy("sahsuland", "hierarchy_sahsuland", version,
+				Arrays.asList("sahsu_grd_level1", "sahsu_grd_level2", "sahsu_grd_level3", "sahsu_grd_level4"));
+		hierarchy.addRow("01", "01.001", "01.001.000100", "01.001.000100.1");
+		hierarchy.addRow("01", "01.002", "01.002.000300", "01.002.000300.1");
+		hierarchy.addRow("01", "01.001", "01.001.000100", "01.001.000100.2");
+		hierarchy.addRow("01", "01.003", "01.003.000400", "01.003.000400.1");
+		hierarchy.addRow("01", "01.001", "01.001.000200", "01.001.000200.1");
+		hierarchy.index();
+
+		hierarchy.addGid("sahsu_grd_level1", "01", 1);
+		hierarchy.addGid("sahsu_grd_level2", "01.001", 2);
+		hierarchy.addGid("sahsu_grd_level2", "01.002", 3);
+		hierarchy.addGid("sahsu_grd_level3", "01.001.000100", 4);
+		hierarchy.addGid("sahsu_grd_level3", "01.001.000200", 5);
+		hierarchy.addGid("sahsu_grd_level3", "01.002.000300", 6);
+		hierarchy.addGid("sahsu_grd_level4", "01.001.000100.1", 7);
+		hierarchy.addGid("sahsu_grd_level4", "01.001.000100.2", 8);
+		hierarchy.addGid("sahsu_grd_level4", "01.001.000200.1", 9);
+		hierarchy.addGid("sahsu_grd_level4", "01.002.000300.1", 10);
+		hierarchy.addGid("sahsu_grd_level4", "99.999.999999.9", 11); // Not in the hierarchy
+		return hierarchy;
+	}
+
+	private static List<String> resolve(final GeographyHierarchy hierarchy, final String geoLevelSelect,
+			final String geoLevelToMap, final String... selectedAreaIDs) {
+
+		return hierarchy.resolve(geoLevelSelect, geoLevelToMap, Arrays.asList(selectedAreaIDs)).stream()
+				.map(area -> area.getGid() + ":" + area.getMapAreaID() + ":" + area.getSelectAreaID())
+				.collect(Collectors.toList());
+	}
+}
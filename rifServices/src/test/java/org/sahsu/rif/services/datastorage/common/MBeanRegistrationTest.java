@@ -0,0 +1,33 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MBeanRegistrationTest {
+
+	@Test
+	public void previousRegistrationIsReplaced() throws Exception {
+
+		String objectName = "org.sahsu.rif.services:type=SQLQueryStatistics,name=MBeanRegistrationTest";
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			SQLQueryStatistics deployed = new SQLQueryStatistics();
+			deployed.count("getSelectState");
+			MBeanRegistration.register(deployed, objectName, "the SQL query statistics");
+
+			MBeanRegistration.register(new SQLQueryStatistics(), objectName, "the SQL query statistics");
+			assertTrue(mBeanServer.isRegistered(new ObjectName(objectName)));
+			assertEquals(0L, mBeanServer.getAttribute(new ObjectName(objectName), "LoggedQueries"));
+		}
+		finally {
+			mBeanServer.unregisterMBean(new ObjectName(objectName));
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RIFConnectionPoolTest {
+
+	@Test
+	public void connectionsAreReusedAndOpenedAsRequired() throws Exception {
+
+		RIFConnectionPool pool = new RIFConnectionPool("test", true, 10, 3, 1000, 600000);
+		FakeConnectionFactory factory = new FakeConnectionFactory();
+		pool.addUser("kgarwood", factory, 1);
+		assertEquals(1, factory.created.get());
+		assertEquals(1, factory.firstConnections.get());
+
+		Connection first = pool.checkout("kgarwood");
+		pool.checkin("kgarwood", first);
+		assertSame(first, pool.checkout("kgarwood"));
+		assertEquals(1, factory.created.get());
+
+		Connection second = pool.checkout("kgarwood"); // First still checked out
+		assertNotSame(first, second);
+		assertEquals(2, factory.created.get());
+		assertEquals(1, factory.firstConnections.get());
+		assertEquals(2, pool.getActiveConnections());
+		assertEquals(3, pool.getCheckouts());
+	}
+
+	@Test
+	public void checkoutTimesOutAtUserLimit() throws Exception {
+
+		RIFConnectionPool pool = new RIFConnectionPool("test", true, 10, 2, 50, 600000);
+		pool.addUser("kgarwood", new FakeConnectionFactory(), 1);
+		pool.checkout("kgarwood");
+		pool.checkout("kgarwood");
+		try {
+			pool.checkout("kgarwood");
+			fail("Expected timeout");
+		}
+		catch (SQLException sqlException) {
+			assertEquals(1, pool.getTimeouts());
+		}
+	}
+
+	@Test
+	public void idleConnectionOfAnotherUserIsClosedAtPoolLimit() throws Exception {
+
+		RIFConnectionPool pool = new RIFConnectionPool("test", false, 2, 2, 50, 600000);
+		FakeConnectionFactory kevin = new FakeConnectionFactory();
+		pool.addUser("kgarwood", kevin, 2);
+		pool.addUser("peter", new FakeConnectionFactory(), 0);
+
+		Connection connection = pool.checkout("peter");
+		assertEquals(1, kevin.closed.get());
+		assertEquals(2, pool.getTotalConnections());
+
+		pool.closeUser("peter"); // Active connection is closed when returned
+		assertFalse(connection.isClosed());
+		pool.checkin("peter", connection);
+		assertTrue(connection.isClosed());
+		assertEquals(1, pool.getTotalConnections());
+	}
+
+	@Test
+	public void closedConnectionIsNotReturnedToPool() throws Exception {
+
+		RIFConnectionPool pool = new RIFConnectionPool("test", true, 10, 1, 50, 600000);
+		FakeConnectionFactory factory = new FakeConnectionFactory();
+		pool.addUser("kgarwood", factory, 1);
+
+		Connection first = pool.checkout("kgarwood");
+		first.close();
+		pool.checkin("kgarwood", first);
+		assertEquals(0, pool.getTotalConnections());
+
+		Connection second = pool.checkout("kgarwood");
+		assertNotSame(first, second);
+		assertFalse(second.isClosed());
+		second.setAutoCommit(true); // Session state is restored on checkout
+		pool.checkin("kgarwood", second);
+		assertSame(second, pool.checkout("kgarwood"));
+		assertTrue(second.isReadOnly());
+		assertFalse(second.getAutoCommit());
+	}
+
+	@Test
+	public void reservedConnectionIsReleasedWhenUserIsClosed() throws Exception {
+
+		RIFConnectionPool pool = new RIFConnectionPool("test", true, 10, 2, 50, 600000);
+		FakeConnectionFactory factory = new FakeConnectionFactory();
+		pool.addUser("kgarwood", isFirstConnectionForUser -> {
+			if (!isFirstConnectionForUser) { // User logs off while the second connection is opened
+				pool.closeUser("kgarwood");
+			}
+			return factory.createConnection(isFirstConnectionForUser);
+		}, 1);
+
+		Connection first = pool.checkout("kgarwood");
+		try {
+			pool.checkout("kgarwood");
+			fail("Expected user logged off");
+		}
+		catch (SQLException sqlException) {
+			assertEquals(1, factory.closed.get());
+			assertEquals(1, pool.getTotalConnections());
+		}
+
+		pool.checkin("kgarwood", first);
+		assertEquals(0, pool.getTotalConnections());
+		assertEquals(2, factory.closed.get());
+	}
+
+	/**
+	 * Creates dynamic proxy connections that track their own state
+	 */
+	private static final class FakeConnectionFactory implements RIFConnectionPool.ConnectionFactory {
+
+		private final AtomicInteger created = new AtomicInteger(0);
+		private final AtomicInteger firstConnections = new AtomicInteger(0);
+		private final AtomicInteger closed = new AtomicInteger(0);
+
+		@Override
+		public Connection createConnection(final boolean isFirstConnectionForUser) {
+			created.incrementAndGet();
+			if (isFirstConnectionForUser) {
+				firstConnections.incrementAndGet();
+			}
+			boolean[] state = { false, false, true }; // closed, readOnly, autoCommit
+			return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class },
+				(proxy, method, arguments) -> {
+					switch (method.getName()) {
+						case "close":
+							if (!state[0]) {
+								closed.incrementAndGet();
+							}
+							state[0] = true;
+							return null;
+						case "isClosed":
+							return state[0];
+						case "isValid":
+							return !state[0];
+						case "isReadOnly":
+							return state[1];
+						case "setReadOnly":
+							state[1] = (Boolean) arguments[0];
+							return null;
+						case "getAutoCommit":
+							return state[2];
+						case "setAutoCommit":
+							state[2] = (Boolean) arguments[0];
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == arguments[0];
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		}
+	}
+}
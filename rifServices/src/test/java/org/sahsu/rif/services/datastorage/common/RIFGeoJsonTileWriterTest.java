@@ -0,0 +1,86 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RIFGeoJsonTileWriterTest {
+
+	private static final String TOPOLOGY = "{\"type\":\"Topology\"," +
+			"\"transform\":{\"scale\":[0.5,0.5],\"translate\":[10,20]}," +
+			"\"arcs\":[[[2,0],[0,2],[-2,0],[0,-2]]]}";
+
+	@Test
+	public void featuresAreStreamedAsFeatureCollection() throws IOException {
+
+		RIFTopoJsonDecoder decoder = new RIFTopoJsonDecoder(new JSONObject(TOPOLOGY));
+		JSONObject properties = new JSONObject(
+				"{\"area_id\":\"01.001\",\"gid\":1,\"centroid\":[-6.3,54.18],\"name\":null}");
+
+		RIFGeoJsonTileWriter writer = new RIFGeoJsonTileWriter();
+		assertTrue(writer.writeFeature(properties, decoder,
+				new JSONObject("{\"type\":\"Polygon\",\"arcs\":[[0]]}")));
+		assertFalse(writer.writeFeature(properties, decoder,
+				new JSONObject("{\"type\":\"Point\",\"coordinates\":[0,0]}")));
+		assertEquals(1, writer.getFeatureCount());
+
+		JSONObject tile = new JSONObject(new String(writer.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals("FeatureCollection", tile.getString("type"));
+		JSONArray features = tile.getJSONArray("features");
+		assertEquals(1, features.length());
+
+		JSONObject feature = features.getJSONObject(0);
+		assertEquals("Feature", feature.getString("type"));
+		assertEquals("01.001", feature.getJSONObject("properties").getString("area_id"));
+		assertEquals(1, feature.getJSONObject("properties").getInt("gid"));
+		assertEquals(54.18, feature.getJSONObject("properties").getJSONArray("centroid").getDouble(1), 1.0e-9);
+		assertTrue(feature.getJSONObject("properties").isNull("name"));
+		assertEquals(decoder.toGeoJsonGeometry(new JSONObject("{\"type\":\"Polygon\",\"arcs\":[[0]]}")).toString(),
+				feature.getJSONObject("geometry").toString());
+	}
+
+	@Test
+	public void bufferIsReusedForNextTile() throws IOException {
+
+		JSONObject geometry = new JSONObject("{\"type\":\"Point\",\"coordinates\":[1.5,2.5]}");
+
+		RIFGeoJsonTileWriter first = new RIFGeoJsonTileWriter();
+		first.writeFeature(new JSONObject("{\"area_id\":\"A\"}"), geometry);
+		byte[] firstTile = first.toByteArray();
+
+		RIFGeoJsonTileWriter second = new RIFGeoJsonTileWriter();
+		byte[] secondTile = second.toByteArray();
+
+		assertEquals(1, new JSONObject(new String(firstTile, StandardCharsets.UTF_8))
+				.getJSONArray("features").length());
+		assertEquals(0, new JSONObject(new String(secondTile, StandardCharsets.UTF_8))
+				.getJSONArray("features").length());
+	}
+
+	@Test
+	public void bufferIsReleasedOnWriteError() throws IOException {
+
+		try (RIFGeoJsonTileWriter failed = new RIFGeoJsonTileWriter()) {
+			assertTrue(failed.hasThreadBuffer());
+			failed.writeFeature(new JSONObject("{\"area_id\":\"A\"}"),
+					new RIFTopoJsonDecoder(new JSONObject(TOPOLOGY)),
+					new JSONObject("{\"type\":\"Polygon\",\"arcs\":[[7]]}")); // No arc 7
+			fail("Expected an invalid arc error");
+		}
+		catch (ArrayIndexOutOfBoundsException exception) {
+			// Expected
+		}
+
+		RIFGeoJsonTileWriter next = new RIFGeoJsonTileWriter();
+		assertTrue(next.hasThreadBuffer());
+		next.toByteArray();
+	}
+}
@@ -0,0 +1,100 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.system.RIFServiceError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class RIFReferenceDataCacheTest {
+
+	private final AtomicInteger loads = new AtomicInteger(0);
+
+	@Test
+	public void valuesAreLoadedOnce() throws Exception {
+
+		RIFReferenceDataCache cache = new RIFReferenceDataCache(60000);
+		String key = RIFReferenceDataCache.key("getGeoLevelSelectValues", "SAHSULAND");
+
+		assertEquals("SAHSULAND 1", cache.get(key, () -> load("SAHSULAND")));
+		assertEquals("SAHSULAND 1", cache.get(key, () -> load("SAHSULAND")));
+		assertEquals("EW01 2", cache.get(RIFReferenceDataCache.key("getGeoLevelSelectValues", "EW01"),
+				() -> load("EW01")));
+
+		assertEquals(2, loads.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(33, cache.getHitRatePercent());
+		assertEquals(2, cache.getEntries());
+	}
+
+	@Test
+	public void keysDoNotRunTogether() {
+		assertNotEquals(RIFReferenceDataCache.key("check", "a", "bc"), RIFReferenceDataCache.key("check", "ab", "c"));
+	}
+
+	@Test
+	public void invalidateReloads() throws Exception {
+
+		RIFReferenceDataCache cache = new RIFReferenceDataCache(60000);
+		String key = RIFReferenceDataCache.key("getGeographies");
+
+		assertEquals("geographies 1", cache.get(key, () -> load("geographies")));
+		cache.invalidate();
+		assertEquals(0, cache.getEntries());
+		assertEquals(2, cache.getVersion());
+
+		// Loaded before, stored after, an invalidation: reloaded on next use
+		assertEquals("geographies 2", cache.get(key, () -> {
+			String value = load("geographies");
+			cache.invalidate();
+			return value;
+		}));
+		assertEquals("geographies 3", cache.get(key, () -> load("geographies")));
+		assertEquals("geographies 3", cache.get(key, () -> load("geographies")));
+	}
+
+	@Test
+	public void failuresAreNotCached() throws Exception {
+
+		RIFReferenceDataCache cache = new RIFReferenceDataCache(60000);
+		String key = RIFReferenceDataCache.key("checkGeographyExists", "NOWHERE");
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get(key, () -> {
+					loads.incrementAndGet();
+					throw new RIFServiceException(RIFServiceError.NON_EXISTENT_GEOGRAPHY, "NOWHERE");
+				});
+				fail("No exception");
+			}
+			catch (RIFServiceException rifServiceException) {
+				// Expected
+			}
+		}
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.getEntries());
+	}
+
+	@Test
+	public void expiredAndDisabledValuesAreReloaded() throws Exception {
+
+		RIFReferenceDataCache disabledCache = new RIFReferenceDataCache(0);
+		String key = RIFReferenceDataCache.key("getHealthThemes");
+		disabledCache.get(key, () -> load("themes"));
+		assertEquals("themes 2", disabledCache.get(key, () -> load("themes")));
+
+		RIFReferenceDataCache cache = new RIFReferenceDataCache(1);
+		cache.get(key, () -> load("themes"));
+		Thread.sleep(5);
+		assertEquals("themes 4", cache.get(key, () -> load("themes")));
+	}
+
+	private String load(final String value) {
+		return value + " " + loads.incrementAndGet();
+	}
+}
@@ -0,0 +1,130 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RIFStudySchedulerTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void studiesAreLimitedAndUsersTakenInTurn() throws Exception {
+
+		RIFStudyScheduler scheduler = new RIFStudyScheduler(1, 1, null);
+		List<String> started = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(4);
+
+		scheduler.submit("kgarwood", "k1", null, studyStarted -> {
+			started.add("k1");
+			awaitQuietly(release);
+			finished.countDown();
+		});
+		for (String description : new String[] { "k2", "k3" }) {
+			scheduler.submit("kgarwood", description, null, studyStarted -> {
+				started.add(description);
+				finished.countDown();
+			});
+		}
+		scheduler.submit("peter", "p1", null, studyStarted -> {
+			started.add("p1");
+			finished.countDown();
+		});
+
+		assertEquals(1, scheduler.getRunningStudies());
+		assertEquals(3, scheduler.getQueuedStudies());
+
+		release.countDown();
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		assertEquals("[k1, p1, k2, k3]", started.toString());
+		waitForCompletion(scheduler, 4);
+		assertEquals(0, scheduler.getQueuedStudies());
+	}
+
+	@Test
+	public void queuedStudiesAreRecovered() throws Exception {
+
+		Path queueDirectory = temporaryFolder.getRoot().toPath();
+		RIFStudyScheduler scheduler = new RIFStudyScheduler(1, 1, queueDirectory);
+		CountDownLatch release = new CountDownLatch(1);
+		scheduler.submit("kgarwood", "running", new JSONObject().put("id", 1), started -> {
+			started.run();
+			awaitQuietly(release);
+		});
+		scheduler.submit("kgarwood", "queued", new JSONObject().put("id", 2), Runnable::run);
+		scheduler.submit("peter", "queued", new JSONObject().put("id", 3), Runnable::run);
+		waitForQueueFiles(queueDirectory, 2); // Running study is no longer saved
+
+		RIFStudyScheduler restarted = new RIFStudyScheduler(1, 1, queueDirectory);
+		assertEquals(2, restarted.getRecoveredStudies());
+		List<JSONObject> recovered = restarted.getRecoveredStudies("kgarwood");
+		assertEquals(1, recovered.size());
+		assertEquals(2, recovered.get(0).getInt("id"));
+		assertEquals("queued", recovered.get(0).getString("description"));
+		assertEquals(1, restarted.getRecoveredStudies());
+		assertEquals(0, restarted.getRecoveredStudies("kgarwood").size());
+
+		release.countDown();
+	}
+
+	@Test
+	public void studyThatCannotStartIsRecovered() throws Exception {
+
+		Path queueDirectory = temporaryFolder.getRoot().toPath();
+		RIFStudyScheduler scheduler = new RIFStudyScheduler(1, 1, queueDirectory);
+		scheduler.submit("kgarwood", "logged off", new JSONObject().put("id", 1), started -> { });
+		waitForCompletion(scheduler, 1);
+
+		assertEquals(1, scheduler.getRecoveredStudies());
+		waitForQueueFiles(queueDirectory, 1); // Kept until the study starts
+		List<JSONObject> recovered = scheduler.getRecoveredStudies("kgarwood");
+		assertEquals(1, recovered.size());
+		assertEquals(1, recovered.get(0).getInt("id"));
+		assertFalse(recovered.get(0).has("queueFile"));
+		waitForQueueFiles(queueDirectory, 0);
+	}
+
+	private static void awaitQuietly(final CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void waitForCompletion(final RIFStudyScheduler scheduler, final long completed)
+			throws InterruptedException {
+		for (int i = 0; i < 100 && scheduler.getCompletedStudies() < completed; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(completed, scheduler.getCompletedStudies());
+	}
+
+	private static void waitForQueueFiles(final Path queueDirectory, final int count) throws InterruptedException {
+		File[] files = null;
+		for (int i = 0; i < 100; i++) {
+			files = queueDirectory.toFile().listFiles();
+			if (files != null && files.length == count) {
+				break;
+			}
+			Thread.sleep(50);
+		}
+		assertEquals(count, files.length);
+	}
+}
@@ -0,0 +1,147 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RIFTileArchiveStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void tilesAreStoredAndRemoved() throws Exception {
+
+		RIFTileArchiveStore store = new RIFTileArchiveStore(temporaryFolder.getRoot().toPath());
+		SlippyTile slippyTile = new SlippyTile(5, 15, 9);
+
+		assertNull(store.getTile("sahsuland", slippyTile, "sahsu_grd_level2", "png"));
+		store.putTile(bytes("first"), "sahsuland", slippyTile, "sahsu_grd_level2", "png");
+		store.putTile(bytes("second"), "sahsuland", slippyTile, "sahsu_grd_level2", "png"); // First write wins
+		store.putTile(bytes("{}"), "sahsuland", slippyTile, "sahsu_grd_level2", "json");
+
+		assertArrayEquals(bytes("first"), store.getTile("sahsuland", slippyTile, "sahsu_grd_level2", "png"));
+		assertArrayEquals(bytes("{}"), store.getTile("sahsuland", slippyTile, "sahsu_grd_level2", "json"));
+		assertFalse(store.containsTile("sahsuland", slippyTile, "sahsu_grd_level3", "png"));
+
+		assertTrue(store.removeTile("sahsuland", slippyTile, "sahsu_grd_level2", "png"));
+		assertFalse(store.removeTile("sahsuland", slippyTile, "sahsu_grd_level2", "png"));
+		assertNull(store.getTile("sahsuland", slippyTile, "sahsu_grd_level2", "png"));
+		assertTrue(new File(temporaryFolder.getRoot(), "sahsuland/sahsu_grd_level2/" +
+			RIFTileArchiveStore.ARCHIVE_FILE_NAME).exists());
+		store.close();
+	}
+
+	@Test
+	public void archiveIsReindexedAndIncompleteRecordTruncated() throws Exception {
+
+		Path tilesDirectory = temporaryFolder.getRoot().toPath();
+		RIFTileArchiveStore store = new RIFTileArchiveStore(tilesDirectory);
+		SlippyTile removed = new SlippyTile(2, 1, 1);
+		store.putTile(bytes("tile 1"), "g", new SlippyTile(1, 0, 1), "l", "png");
+		store.putTile(bytes("tile 2"), "g", removed, "l", "png");
+		store.removeTile("g", removed, "l", "png");
+		store.close();
+
+		File archive = tilesDirectory.resolve("g").resolve("l").resolve(RIFTileArchiveStore.ARCHIVE_FILE_NAME).toFile();
+		long length = archive.length();
+		try (FileOutputStream stream = new FileOutputStream(archive, true)) { // Crash part way through a record
+			stream.write(new byte[] { 0x52, 0x49, 0x46, 0x54, 0, 0, 0 });
+		}
+
+		RIFTileArchiveStore reopened = new RIFTileArchiveStore(tilesDirectory);
+		assertArrayEquals(bytes("tile 1"), reopened.getTile("g", new SlippyTile(1, 0, 1), "l", "png"));
+		assertNull(reopened.getTile("g", removed, "l", "png"));
+		assertEquals(length, archive.length());
+
+		reopened.putTile(bytes("tile 3"), "g", new SlippyTile(1, 1, 1), "l", "png");
+		assertArrayEquals(bytes("tile 3"), reopened.getTile("g", new SlippyTile(1, 1, 1), "l", "png"));
+		reopened.close();
+	}
+
+	@Test
+	public void tileDirectoriesAreImported() throws Exception {
+
+		Path tilesDirectory = temporaryFolder.getRoot().toPath();
+		RIFTileDirectoryStore directoryStore = new RIFTileDirectoryStore(tilesDirectory);
+		directoryStore.putTile(bytes("png tile"), "g", new SlippyTile(3, 4, 5), "l", "png");
+		directoryStore.putTile(bytes("json tile"), "g", new SlippyTile(0, 0, 0), "l", "json");
+		File tileFile = directoryStore.getTileFile("g", new SlippyTile(3, 4, 5), "l", "png");
+		assertTrue(tileFile.exists());
+
+		RIFTileArchiveStore store = new RIFTileArchiveStore(tilesDirectory);
+		assertArrayEquals(bytes("png tile"), store.getTile("g", new SlippyTile(3, 4, 5), "l", "png"));
+		assertArrayEquals(bytes("json tile"), store.getTile("g", new SlippyTile(0, 0, 0), "l", "json"));
+		assertFalse(tileFile.exists());
+		assertFalse(tilesDirectory.resolve("g").resolve("l").resolve("3").toFile().exists());
+		store.close();
+	}
+
+	@Test
+	public void geolevelTilesAreCleared() throws Exception {
+
+		Path tilesDirectory = temporaryFolder.getRoot().toPath();
+		RIFTileStore[] stores = { new RIFTileDirectoryStore(tilesDirectory.resolve("directory")),
+			new RIFTileArchiveStore(tilesDirectory.resolve("archive")) };
+		for (RIFTileStore store : stores) {
+			assertFalse(store.hasTiles("g", "l"));
+			store.putTile(bytes("png tile"), "g", new SlippyTile(3, 4, 5), "l", "png");
+			store.putTile(bytes("other geolevel"), "g", new SlippyTile(3, 4, 5), "m", "png");
+			assertTrue(store.hasTiles("g", "l"));
+
+			store.clearTiles("g", "l");
+			assertFalse(store.hasTiles("g", "l"));
+			assertNull(store.getTile("g", new SlippyTile(3, 4, 5), "l", "png"));
+			assertArrayEquals(bytes("other geolevel"), store.getTile("g", new SlippyTile(3, 4, 5), "m", "png"));
+
+			store.putTile(bytes("new tile"), "g", new SlippyTile(3, 4, 5), "l", "png");
+			assertArrayEquals(bytes("new tile"), store.getTile("g", new SlippyTile(3, 4, 5), "l", "png"));
+		}
+		((RIFTileArchiveStore)stores[1]).close();
+	}
+
+	@Test
+	public void archiveClosedByInterruptIsReopened() throws Exception {
+
+		RIFTileArchiveStore store = new RIFTileArchiveStore(temporaryFolder.getRoot().toPath());
+		SlippyTile slippyTile = new SlippyTile(3, 4, 5);
+		store.putTile(bytes("tile"), "g", slippyTile, "l", "png");
+
+		AtomicReference<Exception> interruptedRead = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			Thread.currentThread().interrupt(); // Closes the shared FileChannel on its next read
+			try {
+				store.getTile("g", slippyTile, "l", "png");
+			}
+			catch (Exception exception) {
+				interruptedRead.set(exception);
+			}
+		});
+		thread.start();
+		thread.join();
+
+		assertTrue(interruptedRead.get() instanceof RIFServiceException);
+		assertArrayEquals(bytes("tile"), store.getTile("g", slippyTile, "l", "png"));
+		store.putTile(bytes("other tile"), "g", new SlippyTile(3, 4, 6), "l", "png");
+		assertArrayEquals(bytes("other tile"), store.getTile("g", new SlippyTile(3, 4, 6), "l", "png"));
+		store.close();
+	}
+
+	private static byte[] bytes(final String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,116 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.graphics.RIFTilesException;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RIFTilesCheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void completedCountOnlyAdvancesOverContiguousTiles() throws IOException,
+			RIFServiceException {
+
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(checkpointFile(), 10);
+		checkpoint.markComplete(0, tile(0));
+		checkpoint.markComplete(2, tile(2));
+		checkpoint.markComplete(3, tile(3));
+		assertEquals(1, checkpoint.getCompletedCount());
+
+		checkpoint.markComplete(1, tile(1));
+		assertEquals(4, checkpoint.getCompletedCount());
+	}
+
+	@Test
+	public void savedCheckpointIsResumed() throws IOException, RIFServiceException {
+
+		File file = checkpointFile();
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(file, 10);
+		for (int i = 0; i < 6; i++) {
+			checkpoint.markComplete(i, tile(i));
+		}
+		checkpoint.save();
+
+		RIFTilesCheckpoint resumed = new RIFTilesCheckpoint(file, 10);
+		assertEquals(6, resumed.getCompletedCount());
+		assertFalse(resumed.isComplete());
+
+		for (int i = 6; i < 10; i++) {
+			resumed.markComplete(i, tile(i));
+		}
+		resumed.save();
+		assertTrue(new RIFTilesCheckpoint(file, 10).isComplete());
+	}
+
+	@Test
+	public void checkpointForDifferentTileCountIsIgnored() throws IOException,
+			RIFServiceException {
+
+		File file = checkpointFile();
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(file, 10);
+		checkpoint.markComplete(0, tile(0));
+		checkpoint.save();
+
+		RIFTilesCheckpoint reloaded = new RIFTilesCheckpoint(file, 11);
+		assertEquals(0, reloaded.getCompletedCount());
+		assertTrue(reloaded.isStale());
+		assertFalse(checkpoint.isStale());
+	}
+
+	@Test
+	public void resetCheckpointRestartsGeolevel() throws IOException, RIFServiceException {
+
+		File file = checkpointFile();
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(file, 2);
+		checkpoint.markComplete(0, tile(0));
+		checkpoint.markComplete(1, tile(1));
+		checkpoint.save();
+		assertTrue(checkpoint.isComplete());
+
+		checkpoint.reset();
+		assertFalse(checkpoint.isComplete());
+		assertEquals(0, checkpoint.getCompletedCount());
+		assertFalse(file.exists());
+		assertFalse(new RIFTilesCheckpoint(file, 2).isComplete());
+	}
+
+	@Test
+	public void lastCompletedTileIsSavedForTheTileQuery() throws IOException, RIFServiceException {
+
+		File file = checkpointFile();
+		RIFTilesCheckpoint checkpoint = new RIFTilesCheckpoint(file, 10);
+		assertNull(checkpoint.getLastCompletedTile());
+		checkpoint.markComplete(0, tile(0));
+		checkpoint.markComplete(2, tile(2));
+		assertEquals(tile(0).toString(), checkpoint.getLastCompletedTile().toString());
+
+		checkpoint.markComplete(1, tile(1));
+		assertEquals(tile(2).toString(), checkpoint.getLastCompletedTile().toString());
+		checkpoint.save();
+
+		assertEquals(tile(2).toString(), new RIFTilesCheckpoint(file, 10).getLastCompletedTile().toString());
+	}
+
+	private static SlippyTile tile(final int index) throws RIFTilesException {
+
+		return new SlippyTile(11, 1000 + index, 700);
+	}
+
+	private File checkpointFile() throws IOException {
+
+		return new File(folder.newFolder(), "tiles.checkpoint");
+	}
+}
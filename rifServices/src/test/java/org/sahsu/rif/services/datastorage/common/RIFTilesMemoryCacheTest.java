@@ -0,0 +1,80 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import org.junit.Test;
+import org.sahsu.rif.services.graphics.RIFTilesException;
+import org.sahsu.rif.services.graphics.SlippyTile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RIFTilesMemoryCacheTest {
+
+	@Test
+	public void cachedTileIsReturnedForSameKey() throws RIFTilesException {
+
+		RIFTilesMemoryCache cache = new RIFTilesMemoryCache(1024 * 1024);
+		RIFTilesMemoryCache.TileKey key = new RIFTilesMemoryCache.TileKey("SAHSULAND",
+				"SAHSU_GRD_LEVEL2", new SlippyTile(3, 3, 2), "png");
+
+		assertNull(cache.getTile(key));
+		cache.cacheTile(key, "tile");
+
+		RIFTilesMemoryCache.TileKey sameKey = new RIFTilesMemoryCache.TileKey("sahsuland",
+				"sahsu_grd_level2", new SlippyTile(3, 3, 2), "png");
+		assertEquals("tile", cache.getTile(sameKey));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void leastRecentlyUsedTileIsEvicted() throws RIFTilesException {
+
+		// Room for eight 1000 byte tiles (plus key overhead) but not nine
+		RIFTilesMemoryCache cache = new RIFTilesMemoryCache(8 * (1000 + 128));
+		RIFTilesMemoryCache.TileKey[] keys = new RIFTilesMemoryCache.TileKey[9];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new RIFTilesMemoryCache.TileKey("g", "l", new SlippyTile(4, i, 0), "geojson");
+		}
+
+		for (int i = 0; i < 8; i++) {
+			cache.cacheTileBytes(keys[i], new byte[1000]);
+		}
+		cache.getTileBytes(keys[0]); // keys[1] is now the least recently used
+		cache.cacheTileBytes(keys[8], new byte[1000]);
+
+		assertEquals(8, cache.getTileCount());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.getTileBytes(keys[1]));
+		assertEquals(1000, cache.getTileBytes(keys[0]).length);
+		assertEquals(1000, cache.getTileBytes(keys[8]).length);
+	}
+
+	@Test
+	public void geolevelTilesAreInvalidated() throws RIFTilesException {
+
+		RIFTilesMemoryCache cache = new RIFTilesMemoryCache(1024 * 1024);
+		RIFTilesMemoryCache.TileKey level2 = new RIFTilesMemoryCache.TileKey("sahsuland",
+				"sahsu_grd_level2", new SlippyTile(3, 3, 2), "png");
+		RIFTilesMemoryCache.TileKey level3 = new RIFTilesMemoryCache.TileKey("sahsuland",
+				"sahsu_grd_level3", new SlippyTile(3, 3, 2), "png");
+		cache.cacheTile(level2, "level 2");
+		cache.cacheTile(level3, "level 3");
+
+		cache.invalidate("SAHSULAND", "SAHSU_GRD_LEVEL2");
+		assertNull(cache.getTile(level2));
+		assertEquals("level 3", cache.getTile(level3));
+		assertEquals(1, cache.getTileCount());
+	}
+
+	@Test
+	public void disabledCacheHoldsNothing() throws RIFTilesException {
+
+		RIFTilesMemoryCache cache = new RIFTilesMemoryCache(0);
+		RIFTilesMemoryCache.TileKey key = new RIFTilesMemoryCache.TileKey("g", "l",
+				new SlippyTile(0, 0, 0), "topojson");
+		cache.cacheTile(key, "tile");
+
+		assertNull(cache.getTile(key));
+		assertEquals(0, cache.getTileCount());
+	}
+}
@@ -0,0 +1,85 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import com.vividsolutions.jts.geom.MultiPolygon;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RIFTopoJsonDecoderTest {
+
+	// Two unit squares sharing the arc x=1: arc 0 is the shared edge, arcs 1 and 2 the outer edges
+	private static final String QUANTISED_TOPOLOGY = "{\"type\":\"Topology\"," +
+			"\"transform\":{\"scale\":[0.5,0.5],\"translate\":[10,20]}," +
+			"\"objects\":{\"collection\":{\"type\":\"GeometryCollection\",\"geometries\":[" +
+			"{\"type\":\"Polygon\",\"arcs\":[[0,1]],\"properties\":{\"area_id\":\"01\"}}," +
+			"{\"type\":\"MultiPolygon\",\"arcs\":[[[2,-1]]],\"properties\":{\"area_id\":\"02\"}}," +
+			"{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\",\"coordinates\":[0,0]}]," +
+			"\"properties\":{\"area_id\":\"03\"}}]}}," +
+			"\"arcs\":[[[2,0],[0,2]],[[2,2],[-2,0],[0,-2],[2,0]],[[2,0],[2,0],[0,2],[-2,0]]]}";
+
+	@Test
+	public void quantisedArcsAreDecodedAndStitched() {
+
+		RIFTopoJsonDecoder decoder = new RIFTopoJsonDecoder(new JSONObject(QUANTISED_TOPOLOGY));
+		JSONArray geometries = new JSONObject(QUANTISED_TOPOLOGY).getJSONObject("objects")
+				.getJSONObject("collection").getJSONArray("geometries");
+
+		JSONObject first = decoder.toGeoJsonGeometry(geometries.getJSONObject(0));
+		assertEquals("MultiPolygon", first.getString("type"));
+		assertRing("[[11,20],[11,21],[10,21],[10,20],[11,20]]",
+				first.getJSONArray("coordinates").getJSONArray(0).getJSONArray(0));
+
+		JSONObject second = decoder.toGeoJsonGeometry(geometries.getJSONObject(1));
+		assertRing("[[11,20],[12,20],[12,21],[11,21],[11,20]]",
+				second.getJSONArray("coordinates").getJSONArray(0).getJSONArray(0));
+	}
+
+	@Test
+	public void geometryWithoutPolygonsIsRemoved() {
+
+		JSONObject topology = new JSONObject(QUANTISED_TOPOLOGY);
+		JSONObject points = topology.getJSONObject("objects").getJSONObject("collection")
+				.getJSONArray("geometries").getJSONObject(2);
+
+		assertNull(new RIFTopoJsonDecoder(topology).toGeoJsonGeometry(points));
+	}
+
+	@Test
+	public void jtsGeometriesHaveTheGeoJsonCoordinates() {
+
+		RIFTopoJsonDecoder decoder = new RIFTopoJsonDecoder(new JSONObject(QUANTISED_TOPOLOGY));
+		JSONArray geometries = new JSONObject(QUANTISED_TOPOLOGY).getJSONObject("objects")
+				.getJSONObject("collection").getJSONArray("geometries");
+
+		MultiPolygon second = decoder.toJtsGeometry(geometries.getJSONObject(1));
+		assertEquals(1, second.getNumGeometries());
+		assertEquals(1.0, second.getArea(), 1.0e-9);
+		assertEquals("POLYGON ((11 20, 12 20, 12 21, 11 21, 11 20))", second.getGeometryN(0).toText());
+		assertNull(decoder.toJtsGeometry(geometries.getJSONObject(2)));
+	}
+
+	@Test
+	public void unquantisedArcsAreAbsolute() {
+
+		JSONObject topology = new JSONObject("{\"type\":\"Topology\"," +
+				"\"arcs\":[[[-1.5,52.25],[-1.25,52.25],[-1.25,52.5],[-1.5,52.25]]]}");
+		JSONObject polygon = new JSONObject("{\"type\":\"Polygon\",\"arcs\":[[0]]}");
+
+		assertRing("[[-1.5,52.25],[-1.25,52.25],[-1.25,52.5],[-1.5,52.25]]",
+				new RIFTopoJsonDecoder(topology).toGeoJsonGeometry(polygon)
+						.getJSONArray("coordinates").getJSONArray(0).getJSONArray(0));
+	}
+
+	private void assertRing(final String expected, final JSONArray ring) {
+
+		JSONArray expectedRing = new JSONArray(expected);
+		assertEquals(expectedRing.length(), ring.length());
+		for (int i = 0; i < ring.length(); i++) {
+			assertEquals(expectedRing.getJSONArray(i).getDouble(0), ring.getJSONArray(i).getDouble(0), 1.0e-9);
+			assertEquals(expectedRing.getJSONArray(i).getDouble(1), ring.getJSONArray(i).getDouble(1), 1.0e-9);
+		}
+	}
+}
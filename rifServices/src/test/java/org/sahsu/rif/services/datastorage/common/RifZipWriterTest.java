@@ -0,0 +1,188 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class RifZipWriterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ExecutorService executor;
+	private Path zipFile;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+		zipFile = temporaryFolder.getRoot().toPath().resolve("extract.zip");
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void entriesAreWrittenInOrder() throws Exception {
+
+		byte[] report = "<html><body>Report</body></html>".getBytes(StandardCharsets.UTF_8);
+		byte[] csv = repeat("area_id,year,value\n01.001.000100.1,1995,42\n", 200);
+		byte[] largeCsv = repeat("area_id,year,value\n01.001.000100.1,1995,42\n", 100000); // Over 1MB
+		byte[] png = new byte[10000];
+		new Random(1).nextBytes(png);
+		Path csvFile = write("tmp_s1_extract.csv", csv);
+		Path largeCsvFile = write("tmp_s1_map.csv", largeCsv);
+		Path pngFile = write("map.png", png);
+		Path emptyFile = write("empty.txt", new byte[0]);
+
+		List<String> names = new ArrayList<>();
+		try (RifZipWriter writer = new RifZipWriter(zipFile, executor, Deflater.DEFAULT_COMPRESSION,
+				2 /* maxPendingEntries */)) {
+			writer.addEntry("report.html", report);
+			writer.addFile("data/tmp_s1_extract.csv", csvFile);
+			writer.addFile("data/tmp_s1_map.csv", largeCsvFile);
+			writer.addFile("maps\\map.png", pngFile);
+			writer.addFile("empty.txt", emptyFile);
+			for (int i = 0; i < 20; i++) {
+				writer.addEntry("reports/" + i + ".html", ("Report " + i).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		names.add("report.html");
+		names.add("data/tmp_s1_extract.csv");
+		names.add("data/tmp_s1_map.csv");
+		names.add("maps/map.png");
+		names.add("empty.txt");
+		for (int i = 0; i < 20; i++) {
+			names.add("reports/" + i + ".html");
+		}
+
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			assertEquals(names, Collections.list(zip.entries()).stream().map(ZipEntry::getName)
+					.collect(Collectors.toList()));
+			assertArrayEquals(report, read(zip, "report.html"));
+			assertArrayEquals(csv, read(zip, "data/tmp_s1_extract.csv"));
+			assertArrayEquals(largeCsv, read(zip, "data/tmp_s1_map.csv"));
+			assertArrayEquals(png, read(zip, "maps/map.png"));
+			assertArrayEquals(new byte[0], read(zip, "empty.txt"));
+			assertEquals(ZipEntry.DEFLATED, zip.getEntry("data/tmp_s1_map.csv").getMethod());
+			assertEquals(ZipEntry.STORED, zip.getEntry("maps/map.png").getMethod());
+		}
+
+		// Read the local headers too
+		List<String> streamedNames = new ArrayList<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(zipFile))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				streamedNames.add(entry.getName());
+				if (entry.getName().equals("data/tmp_s1_map.csv")) {
+					assertArrayEquals(largeCsv, readAll(zipInputStream));
+				}
+			}
+		}
+		assertEquals(names, streamedNames);
+		assertTemporaryFilesRemoved();
+	}
+
+	@Test
+	public void duplicateEntriesAreRejected() throws Exception {
+
+		try (RifZipWriter writer = new RifZipWriter(zipFile, executor, Deflater.BEST_SPEED, 4)) {
+			writer.addEntry("RIFStudyHeader.css", new byte[] { 1 });
+			try {
+				writer.addEntry("RIFStudyHeader.css", new byte[] { 2 });
+				fail("Duplicate entry added");
+			}
+			catch (ZipException zipException) {
+				// Expected
+			}
+		}
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			assertEquals(1, zip.size());
+		}
+	}
+
+	@Test
+	public void abortRemovesTemporaryFiles() throws Exception {
+
+		Path largeFile = write("tmp_s1_extract.csv", repeat("01.001.000100.1,1995,42\n", 100000));
+		RifZipWriter writer = new RifZipWriter(zipFile, executor, Deflater.DEFAULT_COMPRESSION, 4);
+		writer.addFile("tmp_s1_extract.csv", largeFile);
+		writer.addFile("missing.csv", temporaryFolder.getRoot().toPath().resolve("missing.csv"));
+		writer.abort();
+		try {
+			writer.addEntry("late.html", new byte[0]);
+			fail("Entry added after abort");
+		}
+		catch (IOException ioException) {
+			// Expected
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		assertTemporaryFilesRemoved();
+	}
+
+	private void assertTemporaryFilesRemoved() throws Exception {
+		try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath())) {
+			assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+		}
+	}
+
+	private Path write(final String name, final byte[] bytes) throws Exception {
+		Path file = temporaryFolder.newFolder().toPath().resolve(name);
+		Files.write(file, bytes);
+		return file;
+	}
+
+	private static byte[] read(final ZipFile zip, final String name) throws Exception {
+		try (InputStream inputStream = zip.getInputStream(zip.getEntry(name))) {
+			return readAll(inputStream);
+		}
+	}
+
+	private static byte[] readAll(final InputStream inputStream) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int byteCount;
+		while ((byteCount = inputStream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, byteCount);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] repeat(final String text, final int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			builder.append(text);
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
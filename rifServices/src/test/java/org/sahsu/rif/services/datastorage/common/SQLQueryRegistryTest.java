@@ -0,0 +1,40 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sahsu.rif.generic.datastorage.DatabaseType;
+import org.sahsu.rif.generic.datastorage.QueryFormatter;
+import org.sahsu.rif.generic.datastorage.SQLGeneralQueryFormatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SQLQueryRegistryTest {
+
+	private final AtomicInteger builds = new AtomicInteger(0);
+
+	@Test
+	public void queriesAreGeneratedOncePerDatabaseType() {
+
+		String postgresQuery = SQLQueryRegistry.getSQL(DatabaseType.POSTGRESQL, "registryTestQuery",
+			() -> build("SELECT 1 AS postgres"));
+		assertSame(postgresQuery, SQLQueryRegistry.getSQL(DatabaseType.POSTGRESQL, "registryTestQuery",
+			() -> build("SELECT 2")));
+		assertEquals(1, builds.get());
+
+		String sqlServerQuery = SQLQueryRegistry.getSQL(DatabaseType.SQL_SERVER, "registryTestQuery",
+			() -> build("SELECT 1 AS sql_server"));
+		assertEquals(2, builds.get());
+
+		assertEquals(build("SELECT 1 AS postgres").generateQuery(), postgresQuery);
+		assertEquals(build("SELECT 1 AS sql_server").generateQuery(), sqlServerQuery);
+	}
+
+	private QueryFormatter build(final String query) {
+		builds.incrementAndGet();
+		SQLGeneralQueryFormatter queryFormatter = new SQLGeneralQueryFormatter();
+		queryFormatter.addQueryLine(0, query);
+		return queryFormatter;
+	}
+}
@@ -0,0 +1,67 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SQLQueryStatisticsTest {
+
+	@Test
+	public void latenciesAreBucketedByDecade() {
+
+		assertEquals(0, SQLQueryStatistics.getBucket(TimeUnit.MICROSECONDS.toNanos(999)));
+		assertEquals(1, SQLQueryStatistics.getBucket(TimeUnit.MILLISECONDS.toNanos(1)));
+		assertEquals(2, SQLQueryStatistics.getBucket(TimeUnit.MILLISECONDS.toNanos(99)));
+		assertEquals(3, SQLQueryStatistics.getBucket(TimeUnit.MILLISECONDS.toNanos(100)));
+		assertEquals(4, SQLQueryStatistics.getBucket(TimeUnit.SECONDS.toNanos(9)));
+		assertEquals(5, SQLQueryStatistics.getBucket(TimeUnit.MINUTES.toNanos(5)));
+	}
+
+	@Test
+	public void queriesAreListedByTotalTime() {
+
+		SQLQueryStatistics statistics = new SQLQueryStatistics();
+		statistics.count("getSelectState");
+		statistics.record("getSelectState", TimeUnit.MILLISECONDS.toNanos(2));
+		statistics.count("getTileMakerTiles");
+		statistics.record("getTileMakerTiles", TimeUnit.MILLISECONDS.toNanos(150));
+		statistics.count("getTileMakerTiles");
+		statistics.record("getTileMakerTiles", TimeUnit.MILLISECONDS.toNanos(50));
+		statistics.count("doesTableExist");
+
+		String[] lines = statistics.getQueryStatistics();
+		assertEquals(3, lines.length);
+		assertEquals("getTileMakerTiles: 2 logged; 2 executed; total: 200ms; mean: 100.000ms; max: 150ms; " +
+			"<1ms: 0, <10ms: 0, <100ms: 1, <1s: 1, <10s: 0, >=10s: 0", lines[0]);
+		assertEquals("getSelectState: 1 logged; 1 executed; total: 2ms; mean: 2.000ms; max: 2ms; " +
+			"<1ms: 0, <10ms: 1, <100ms: 0, <1s: 0, <10s: 0, >=10s: 0", lines[1]);
+		assertEquals("doesTableExist: 1 logged; 0 executed", lines[2]);
+
+		assertEquals(4, statistics.getLoggedQueries());
+		assertEquals(3, statistics.getExecutedQueries());
+		assertEquals(202, statistics.getTotalMillis());
+
+		statistics.reset();
+		assertEquals(0, statistics.getQueryStatistics().length);
+		assertEquals(0, statistics.getLoggedQueries());
+	}
+
+	@Test
+	public void loggedAndExecutedQueriesAreCountedSeparately() {
+
+		SQLQueryStatistics statistics = new SQLQueryStatistics();
+		statistics.count("addCovariateValue"); // Logged once, run for each covariate
+		statistics.record("addCovariateValue", TimeUnit.MICROSECONDS.toNanos(500));
+		statistics.record("addCovariateValue", TimeUnit.MICROSECONDS.toNanos(500));
+		statistics.record("addRifStudiesJson", TimeUnit.MILLISECONDS.toNanos(3)); // Not logged
+
+		assertEquals(1, statistics.getLoggedQueries());
+		assertEquals(3, statistics.getExecutedQueries());
+		assertEquals("addRifStudiesJson: 0 logged; 1 executed; total: 3ms; mean: 3.000ms; max: 3ms; " +
+			"<1ms: 0, <10ms: 1, <100ms: 0, <1s: 0, <10s: 0, >=10s: 0", statistics.getQueryStatistics()[0]);
+		assertEquals("addCovariateValue: 1 logged; 2 executed; total: 1ms; mean: 0.500ms; max: 0ms; " +
+			"<1ms: 2, <10ms: 0, <100ms: 0, <1s: 0, <10s: 0, >=10s: 0", statistics.getQueryStatistics()[1]);
+	}
+}
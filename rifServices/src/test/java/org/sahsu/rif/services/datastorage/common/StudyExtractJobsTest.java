@@ -0,0 +1,137 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.sahsu.rif.generic.concepts.User;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.system.RIFServiceError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StudyExtractJobsTest {
+
+	@Test
+	public void duplicateRequestsReturnTheActiveJob() throws Exception {
+
+		StudyExtractJobs jobs = new StudyExtractJobs(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger runs = new AtomicInteger(0);
+		StudyExtractJobs.ExtractTask task = progress -> {
+			runs.incrementAndGet();
+			progress.update("Writing numerator", 20);
+			started.countDown();
+			awaitQuietly(release);
+		};
+
+		StudyExtractJobs.Job job = jobs.submit("kgarwood", "46", task);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertSame(job, jobs.submit("kgarwood", "46", task));
+
+		JSONObject status = new JSONObject();
+		job.addToStatus(status);
+		assertEquals("RUNNING", status.getString("jobState"));
+		assertEquals("Writing numerator", status.getString("stage"));
+		assertEquals(20, status.getInt("percentComplete"));
+
+		release.countDown();
+		waitForState(job, StudyExtractJobs.JobState.COMPLETED);
+		assertEquals(1, runs.get());
+		assertNotSame(job, jobs.submit("kgarwood", "46", progress -> { }));
+	}
+
+	@Test
+	public void queuedAndRunningJobsAreCancelled() throws Exception {
+
+		StudyExtractJobs jobs = new StudyExtractJobs(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger queuedRuns = new AtomicInteger(0);
+
+		StudyExtractJobs.Job running = jobs.submit("kgarwood", "46", progress -> {
+			started.countDown();
+			awaitQuietly(release);
+			progress.update("Adding files to ZIP", 80); // Cancelled here
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		StudyExtractJobs.Job queued = jobs.submit("kgarwood", "47", progress -> queuedRuns.incrementAndGet());
+
+		jobs.cancel("kgarwood", "47");
+		assertEquals(StudyExtractJobs.JobState.CANCELLED, queued.getState());
+
+		jobs.cancel("kgarwood", "46");
+		release.countDown();
+		waitForState(running, StudyExtractJobs.JobState.CANCELLED);
+		assertEquals(0, queuedRuns.get());
+	}
+
+	@Test
+	public void failuresAreReported() throws Exception {
+
+		StudyExtractJobs jobs = new StudyExtractJobs(1);
+		StudyExtractJobs.Job job = jobs.submit("kgarwood", "46", progress -> {
+			throw new RIFServiceException(RIFServiceError.ZIPFILE_CREATE_FAILED, "No R temporary directory");
+		});
+		waitForState(job, StudyExtractJobs.JobState.FAILED);
+
+		JSONObject status = new JSONObject();
+		job.addToStatus(status);
+		assertTrue(status.getString("errorMessage").contains("No R temporary directory"));
+	}
+
+	@Test
+	public void failingStudyExtractIsReported() throws Exception {
+
+		ServiceResources resources = mock(ServiceResources.class);
+		SQLManager sqlManager = mock(SQLManager.class);
+		StudyExtractManager extractManager = mock(StudyExtractManager.class);
+		when(resources.getSqlConnectionManager()).thenReturn(sqlManager);
+		when(resources.getRIFSubmissionManager()).thenReturn(mock(SubmissionManager.class));
+		when(resources.getSQLStudyExtractManager()).thenReturn(extractManager);
+		doThrow(new RIFServiceException(RIFServiceError.ZIPFILE_CREATE_FAILED, "Unable to write numerator"))
+			.when(extractManager).createStudyExtract(any(), any(User.class), any(), any(), any(), any(), any(), any());
+
+		StudyExtract studyExtract = new StudyExtract(User.newInstance("kgarwood", "11.111.11.228"), "46", "9",
+			Locale.getDefault(), "", resources);
+		StudyExtractJobs jobs = new StudyExtractJobs(1);
+		StudyExtractJobs.Job job = jobs.submit("kgarwood", "46", studyExtract::create);
+		waitForState(job, StudyExtractJobs.JobState.FAILED);
+
+		JSONObject status = new JSONObject();
+		job.addToStatus(status);
+		assertTrue(status.getString("errorMessage").contains("Unable to write numerator"));
+		assertEquals(0, status.getInt("percentComplete"));
+
+		when(sqlManager.isUserBlocked(any(User.class))).thenReturn(true);
+		waitForState(jobs.submit("kgarwood", "46", studyExtract::create), StudyExtractJobs.JobState.FAILED);
+	}
+
+	private static void awaitQuietly(final CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void waitForState(final StudyExtractJobs.Job job, final StudyExtractJobs.JobState state)
+			throws InterruptedException {
+		for (int i = 0; i < 200 && job.getState() != state; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(state, job.getState());
+	}
+}
@@ -0,0 +1,136 @@
+package org.sahsu.rif.services.datastorage.common;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sahsu.rif.generic.system.RIFServiceException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StudyExtractStagesTest {
+
+	private ExecutorService executor;
+	private Map<String, Long> reportedTimings;
+	private StudyExtractStages stages;
+
+	@Before
+	public void setUp() {
+
+		executor = Executors.newFixedThreadPool(3);
+		reportedTimings = new ConcurrentHashMap<>();
+		StudyExtractJobs.Progress progress = new StudyExtractJobs.Progress() {
+
+			@Override
+			public void update(final String stage, final int percentComplete) throws RIFServiceException {
+			}
+
+			@Override
+			public void stageCompleted(final String stage, final long elapsedMillis) {
+				reportedTimings.put(stage, elapsedMillis);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		};
+		stages = new StudyExtractStages(executor, null, null, "46", progress, 10, 80);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void independentStagesRunTogether() throws Exception {
+
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		CompletableFuture<String> denominator = stages.add("denominator", false, connection -> {
+			bothStarted.countDown();
+			assertTrue(bothStarted.await(10, TimeUnit.SECONDS)); // Deadlocks if run in sequence
+			return "<h1>Denominator</h1>";
+		});
+		CompletableFuture<String> numerator = stages.add("numerator", false, connection -> {
+			bothStarted.countDown();
+			assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+			return "<h1>Numerator</h1>";
+		});
+		CompletableFuture<String> report = stages.add("HTML report", false,
+			connection -> denominator.join() + numerator.join(),
+			denominator, numerator);
+
+		stages.awaitAll();
+		assertEquals("<h1>Denominator</h1><h1>Numerator</h1>", report.join());
+		assertEquals("HTML report", stages.getTimings().keySet().toArray()[2]);
+		assertEquals(stages.getTimings(), reportedTimings);
+	}
+
+	@Test
+	public void failureStopsDependentStages() throws Exception {
+
+		AtomicBoolean reportRan = new AtomicBoolean(false);
+		CompletableFuture<String> maps = stages.add("maps", false, connection -> {
+			throw new IllegalStateException("No map table");
+		});
+		CompletableFuture<String> summary = stages.add("study summary", false, connection -> "<h1>Study</h1>");
+		stages.add("HTML report", false, connection -> {
+			reportRan.set(true);
+			return null;
+		}, maps, summary);
+
+		try {
+			stages.awaitAll();
+			fail("Expected the maps stage failure");
+		}
+		catch (IllegalStateException illegalStateException) {
+			assertEquals("No map table", illegalStateException.getMessage());
+		}
+		assertFalse(reportRan.get());
+		assertFalse(stages.getTimings().containsKey("maps"));
+	}
+
+	@Test
+	public void failureWaitsForRunningStages() throws Exception {
+
+		CountDownLatch denominatorStarted = new CountDownLatch(1);
+		AtomicBoolean denominatorFinished = new AtomicBoolean(false);
+		AtomicBoolean reportRan = new AtomicBoolean(false);
+		CompletableFuture<String> denominator = stages.add("denominator", false, connection -> {
+			denominatorStarted.countDown();
+			Thread.sleep(200);
+			denominatorFinished.set(true);
+			return "<h1>Denominator</h1>";
+		});
+		stages.add("maps", false, connection -> {
+			assertTrue(denominatorStarted.await(10, TimeUnit.SECONDS));
+			throw new IllegalStateException("No map table");
+		});
+		stages.add("HTML report", false, connection -> {
+			reportRan.set(true);
+			return null;
+		}, denominator);
+
+		try {
+			stages.awaitAll();
+			fail("Expected the maps stage failure");
+		}
+		catch (IllegalStateException illegalStateException) {
+			assertEquals("No map table", illegalStateException.getMessage());
+		}
+		assertTrue(denominatorFinished.get());
+		assertFalse(reportRan.get());
+	}
+}
@@ -21,8 +21,8 @@ public final class StudySubmissionServiceTest extends CommonRIFServiceTestCase {
 		String validZoomLevel = "9";
 		
 		new StudyExtract(validUser, validStudyID, validZoomLevel, Locale.getDefault(),
-				"", resources).create();
+				"", resources).create(null);
 		verify(extractMgr).createStudyExtract(any(), any(User.class), any(),
-				eq(validZoomLevel), eq(validStudyID), eq(Locale.getDefault()), eq(""));
+				eq(validZoomLevel), eq(validStudyID), eq(Locale.getDefault()), eq(""), any());
 	}
 }
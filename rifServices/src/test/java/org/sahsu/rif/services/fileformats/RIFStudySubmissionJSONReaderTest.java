@@ -0,0 +1,164 @@
+package org.sahsu.rif.services.fileformats;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.services.concepts.AbstractStudy;
+import org.sahsu.rif.services.concepts.Investigation;
+import org.sahsu.rif.services.concepts.MapArea;
+import org.sahsu.rif.services.concepts.RIFStudySubmission;
+import org.sahsu.rif.services.concepts.Sex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RIFStudySubmissionJSONReaderTest {
+
+	// From Testing/Study Tests/RIFstudy test 1001.json, with a study_selection and more map areas
+	private static final String SUBMISSION = "{'rif_job_submission': {"
+		+ "'submitted_by': 'peter',"
+		+ "'job_submission_date': '09/05/2017 21:48:14',"
+		+ "'project': {'name': '', 'description': ''},"
+		+ "'disease_mapping_study': {"
+		+ "  'name': 'Test 1001',"
+		+ "  'description': '',"
+		+ "  'geography': {'name': 'SAHSULAND', 'description': 'SAHSULAND'},"
+		+ "  'disease_mapping_study_area': {"
+		+ "    'geo_levels': {"
+		+ "      'geolevel_select': {'name': 'SAHSU_GRD_LEVEL2'},"
+		+ "      'geolevel_area': {'name': ''},"
+		+ "      'geolevel_view': {'name': 'SAHSU_GRD_LEVEL4'},"
+		+ "      'geolevel_to_map': {'name': 'SAHSU_GRD_LEVEL4'}},"
+		+ "    'map_areas': {'map_area': ["
+		+ "      {'id': '01.001.000100.1', 'gid': '01.001.000100.1', 'label': '01.001.000100.1', 'band': 1},"
+		+ "      {'id': '01.001.000100.2', 'gid': '01.001.000100.2', 'label': '01.001.000100.2', 'band': 1},"
+		+ "      {'id': '01.002.000300.1', 'gid': '01.002.000300.1', 'label': '01.002.000300.1', 'band': 2}]}},"
+		+ "  'comparison_area': {"
+		+ "    'geo_levels': {"
+		+ "      'geolevel_select': {'name': 'SAHSU_GRD_LEVEL1'},"
+		+ "      'geolevel_area': {'name': ''},"
+		+ "      'geolevel_view': {'name': 'SAHSU_GRD_LEVEL1'},"
+		+ "      'geolevel_to_map': {'name': 'SAHSU_GRD_LEVEL1'}},"
+		+ "    'map_areas': {'map_area': [{'id': '01', 'gid': '01', 'label': '01', 'band': 1}]}},"
+		+ "  'investigations': {'investigation': [{"
+		+ "    'title': 'TEST 1001',"
+		+ "    'health_theme': {'name': 'cancers', 'description': 'covering various types of cancers'},"
+		+ "    'numerator_denominator_pair': {"
+		+ "      'numerator_table_name': 'NUM_SAHSULAND_CANCER',"
+		+ "      'numerator_table_description': 'cancer numerator',"
+		+ "      'denominator_table_name': 'POP_SAHSULAND_POP',"
+		+ "      'denominator_table_description': 'population health file'},"
+		+ "    'age_band': {"
+		+ "      'lower_age_group': {'id': 0, 'name': '0', 'lower_limit': '0', 'upper_limit': '0'},"
+		+ "      'upper_age_group': {'id': 0, 'name': '85PLUS', 'lower_limit': '85', 'upper_limit': '255'}},"
+		+ "    'health_codes': {'health_code': [{"
+		+ "      'code': 'C34', 'name_space': 'icd10',"
+		+ "      'description': 'Malignant neoplasm of bronchus and lung', 'is_top_level_term': 'no'}]},"
+		+ "    'year_range': {'lower_bound': 1995, 'upper_bound': 1996},"
+		+ "    'year_intervals': {'year_interval': ["
+		+ "      {'start_year': '1995', 'end_year': '1995'},"
+		+ "      {'start_year': '1996', 'end_year': '1996'}]},"
+		+ "    'years_per_interval': 1,"
+		+ "    'sex': 'Males',"
+		+ "    'covariates': []}]}},"
+		+ "'calculation_methods': {'calculation_method': {"
+		+ "  'name': 'het_r_procedure', 'code_routine_name': 'het_r_procedure',"
+		+ "  'description': 'Heterogenous (HET) model type', 'parameters': {'parameter': []}}},"
+		+ "'rif_output_options': {'rif_output_option': ['Data', 'Maps', 'Ratios and Rates']},"
+		+ "'study_selection': {'studyType': 'disease_mapping_study', 'riskAnalysisDescription': '',"
+		+ "  'studySelectedAreas': [{'id': '01.001', 'band': 1}, {'id': '01.002', 'band': 2}]}"
+		+ "}}";
+
+	/*
+	 * The content handlers assert on fields the front end sends but they do not read (e.g. submitted_by,
+	 * age_band ids); run them as Tomcat does, without assertions
+	 */
+	@BeforeClass
+	public static void disableContentHandlerAssertions() {
+		RIFStudySubmissionJSONReaderTest.class.getClassLoader().setPackageAssertionStatus(
+			"org.sahsu.rif.services.fileformats", false);
+	}
+
+	@Test
+	public void submissionIsBoundFromJSON() throws Exception {
+
+		RIFStudySubmissionJSONReader reader = read(SUBMISSION);
+		RIFStudySubmission submission = reader.getStudySubmission();
+
+		assertTrue(reader.hasRIFJobSubmission());
+		assertEquals("disease_mapping_study", reader.getStudyElementName());
+
+		AbstractStudy study = submission.getStudy();
+		assertTrue(study.isDiseaseMapping());
+		assertEquals("Test 1001", study.getName());
+		assertEquals("", study.getDescription());
+		assertEquals("SAHSULAND", study.getGeography().getName());
+
+		List<MapArea> studyAreas = study.getStudyArea().getMapAreas();
+		assertEquals(3, studyAreas.size());
+		assertEquals("01.002.000300.1", studyAreas.get(2).getLabel());
+		assertEquals(Integer.valueOf(2), studyAreas.get(2).getBand());
+		assertEquals(1, study.getComparisonArea().getMapAreas().size());
+
+		assertEquals(1, study.getInvestigations().size());
+		Investigation investigation = study.getInvestigations().get(0);
+		assertEquals("TEST 1001", investigation.getTitle());
+		assertEquals(Sex.MALES, investigation.getSex());
+		assertEquals(2, investigation.getYearIntervals().size());
+		assertEquals("C34", investigation.getHealthCodes().get(0).getCode());
+
+		assertEquals("het_r_procedure", submission.getCalculationMethods().get(0).getName());
+		assertEquals(3, submission.getRIFOutputOptions().size());
+	}
+
+	@Test
+	public void studySelectionIsKeptAside() throws Exception {
+
+		RIFStudySubmissionJSONReader reader = read(SUBMISSION);
+
+		assertEquals("disease_mapping_study", reader.getStudySelection().getString("studyType"));
+		assertEquals(2, reader.getStudySelection().getJSONArray("studySelectedAreas").length());
+		assertNull(read("{'rif_job_submission': {'project': {'name': 'p', 'description': 'd'}}}")
+			.getStudySelection());
+	}
+
+	@Test
+	public void missingStudyIsReported() throws Exception {
+
+		RIFStudySubmissionJSONReader reader =
+			read("{'rif_job_submission': {'project': {'name': 'p', 'description': 'd'}}}");
+
+		assertTrue(reader.hasRIFJobSubmission());
+		assertNull(reader.getStudyElementName());
+		assertFalse(read("{}").hasRIFJobSubmission());
+	}
+
+	@Test
+	public void invalidJSONIsRejected() {
+
+		try {
+			read("{'rif_job_submission': {'project': {'name': 'p',");
+			fail("No exception");
+		}
+		catch (RIFServiceException rifServiceException) {
+			// Expected
+		}
+	}
+
+	private static RIFStudySubmissionJSONReader read(final String json) throws RIFServiceException {
+
+		InputStream inputStream = new ByteArrayInputStream(
+			json.replace('\'', '"').getBytes(StandardCharsets.UTF_8));
+		RIFStudySubmissionJSONReader reader = new RIFStudySubmissionJSONReader();
+		reader.readFile(inputStream);
+		return reader;
+	}
+}
@@ -0,0 +1,57 @@
+package org.sahsu.rif.services.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RIFTileRasteriserTest {
+
+	// North edge first, as SlippyTile.tile2boundingBox()
+	private static final double[] BBOX = { 0, 10, 10, 0 };
+
+	@Test
+	public void boundariesAreDrawnOnATransparentTile() throws Exception {
+
+		List<Geometry> geometries = Collections.singletonList(
+				new WKTReader().read("MULTIPOLYGON (((2 2, 8 2, 8 8, 2 8, 2 2)))"));
+		RIFTileRasteriser rasteriser = new RIFTileRasteriser(BBOX);
+		assertTrue(rasteriser.intersects(geometries));
+
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(rasteriser.toPng(geometries)));
+		assertEquals(RIFTileRasteriser.TILE_SIZE, image.getWidth());
+		assertEquals(0, alpha(image, 128, 128)); // Inside: not filled
+		assertEquals(0, alpha(image, 10, 10)); // Outside
+		assertTrue(alpha(image, 51, 128) > 0); // West boundary: x=2
+		assertTrue(alpha(image, 128, 51) > 0); // North boundary: y=8
+	}
+
+	@Test
+	public void reusedCanvasIsCleared() throws Exception {
+
+		List<Geometry> square = Collections.singletonList(
+				new WKTReader().read("POLYGON ((2 2, 8 2, 8 8, 2 8, 2 2))"));
+		RIFTileRasteriser rasteriser = new RIFTileRasteriser(BBOX);
+		rasteriser.toPng(square);
+
+		List<Geometry> elsewhere = Collections.singletonList(
+				new WKTReader().read("POLYGON ((20 20, 30 20, 30 30, 20 20))"));
+		assertFalse(rasteriser.intersects(elsewhere));
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(rasteriser.toPng(elsewhere)));
+		assertEquals(0, alpha(image, 51, 128));
+	}
+
+	private static int alpha(final BufferedImage image, final int x, final int y) {
+		return image.getRGB(x, y) >>> 24;
+	}
+}
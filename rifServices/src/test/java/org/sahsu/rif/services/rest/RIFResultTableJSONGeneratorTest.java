@@ -0,0 +1,157 @@
+package org.sahsu.rif.services.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.sahsu.rif.generic.concepts.RIFResultTable;
+import org.sahsu.rif.generic.concepts.RIFResultTable.ColumnDataType;
+import org.sahsu.rif.generic.concepts.RIFResultTableColumn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RIFResultTableJSONGeneratorTest {
+
+	private static final String[] COLUMN_NAMES = { "area_id", "band_id", "population", "relative_risk" };
+	private static final ColumnDataType[] COLUMN_DATA_TYPES = {
+			ColumnDataType.TEXT, ColumnDataType.NUMERIC, ColumnDataType.NUMERIC, ColumnDataType.NUMERIC };
+
+	private final RIFResultTableJSONGenerator generator = new RIFResultTableJSONGenerator();
+
+	@Test
+	public void columnsAreWrittenAsTheyWereRead() throws Exception {
+
+		CachedRowSet rowSet = newRowSet();
+		addRow(rowSet, "01.001.000100.1", 1, 5000L, 1.25);
+		addRow(rowSet, "01.001.000200/1", 1, 12000L, 0.0001);
+		addRow(rowSet, "01.001.000300.1", 2, null, null);
+		addRow(rowSet, null, 2, 7L, 3.0);
+
+		RIFResultTable resultTable = new RIFResultTable();
+		resultTable.setColumnProperties(COLUMN_NAMES, COLUMN_DATA_TYPES);
+		resultTable.setColumns(readColumns(rowSet, false));
+
+		assertEquals(4, resultTable.getNumberOfRows());
+		assertEquals("{\"smoothed_results_header\":[\"area_id\",\"band_id\",\"population\",\"relative_risk\"],"
+		             + "\"smoothed_results\":["
+		             + "{\"area_id\":\"01.001.000100.1\",\"band_id\":1,\"population\":5000,\"relative_risk\":1.25},"
+		             + "{\"area_id\":\"01.001.000200\\/1\",\"band_id\":1,\"population\":12000,"
+		             + "\"relative_risk\":0.0001},"
+		             + "{\"area_id\":\"01.001.000300.1\",\"band_id\":2,\"population\":null,\"relative_risk\":null},"
+		             + "{\"area_id\":\"\",\"band_id\":2,\"population\":7,\"relative_risk\":3}]}",
+		             generator.writeResultTable(resultTable));
+
+		String[][] data = resultTable.getData();
+		assertArrayEquals(new String[] { "01.001.000100.1", "1", "5000", "1.25" }, data[0]);
+		assertArrayEquals(new String[] { "01.001.000300.1", "2", null, null }, data[2]);
+
+		// The same text, written as text
+		RIFResultTable textResultTable = new RIFResultTable();
+		textResultTable.setColumnProperties(COLUMN_NAMES, COLUMN_DATA_TYPES);
+		textResultTable.setData(data);
+		JSONObject additionalTableJson = new JSONObject().put("studyID", 12);
+		assertEquals(generator.writeResultTable(textResultTable, additionalTableJson),
+		             generator.writeResultTable(resultTable, additionalTableJson));
+	}
+
+	@Test
+	public void nullsCanBeReadAsZero() throws Exception {
+
+		CachedRowSet rowSet = newRowSet();
+		addRow(rowSet, "01.001.000100.1", null, null, Double.NaN);
+
+		RIFResultTable resultTable = new RIFResultTable();
+		resultTable.setColumnProperties(COLUMN_NAMES, COLUMN_DATA_TYPES);
+		resultTable.setColumns(readColumns(rowSet, true));
+
+		assertArrayEquals(new String[] { "01.001.000100.1", "0", "0", "0" }, resultTable.getData()[0]);
+	}
+
+	@Test
+	public void tableIsStreamedAsUTF8() throws Exception {
+
+		CachedRowSet rowSet = newRowSet();
+		addRow(rowSet, "Ynys Môn", 1, 70000L, 0.5);
+
+		RIFResultTable resultTable = new RIFResultTable();
+		resultTable.setColumnProperties(COLUMN_NAMES, COLUMN_DATA_TYPES);
+		resultTable.setColumns(readColumns(rowSet, false));
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		generator.streamResultTable(resultTable).write(outputStream);
+		assertEquals(generator.writeResultTable(resultTable),
+		             new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static CachedRowSet newRowSet() throws Exception {
+
+		RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+		metaData.setColumnCount(4);
+		int[] sqlTypes = { Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.DOUBLE };
+		for (int i = 0; i < sqlTypes.length; i++) {
+			metaData.setColumnName(i + 1, COLUMN_NAMES[i]);
+			metaData.setColumnType(i + 1, sqlTypes[i]);
+			metaData.setNullable(i + 1, RowSetMetaDataImpl.columnNullable);
+		}
+		CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+		rowSet.setMetaData(metaData);
+		return rowSet;
+	}
+
+	private static void addRow(final CachedRowSet rowSet, final String areaID, final Integer bandID,
+			final Long population, final Double relativeRisk) throws Exception {
+
+		rowSet.last(); // Insert after the last row
+		rowSet.moveToInsertRow();
+		if (areaID == null) {
+			rowSet.updateNull(1);
+		}
+		else {
+			rowSet.updateString(1, areaID);
+		}
+		if (bandID == null) {
+			rowSet.updateNull(2);
+		}
+		else {
+			rowSet.updateInt(2, bandID);
+		}
+		if (population == null) {
+			rowSet.updateNull(3);
+		}
+		else {
+			rowSet.updateLong(3, population);
+		}
+		if (relativeRisk == null) {
+			rowSet.updateNull(4);
+		}
+		else {
+			rowSet.updateDouble(4, relativeRisk);
+		}
+		rowSet.insertRow();
+		rowSet.moveToCurrentRow();
+	}
+
+	private static RIFResultTableColumn[] readColumns(final CachedRowSet rowSet, final boolean nullAsZero)
+			throws Exception {
+
+		RIFResultTableColumn[] columns = new RIFResultTableColumn[COLUMN_NAMES.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = RIFResultTableColumn.newInstance(COLUMN_DATA_TYPES[i],
+					rowSet.getMetaData().getColumnType(i + 1));
+		}
+		rowSet.beforeFirst();
+		while (rowSet.next()) {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].add(rowSet, i + 1, nullAsZero);
+			}
+		}
+		return columns;
+	}
+}
@@ -0,0 +1,173 @@
+package org.sahsu.rif.services.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WebServiceResponseGeneratorTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private WebServiceResponseGenerator generator;
+	private Map<String, String> headers;
+	private HttpServletRequest request;
+	private File zipFile;
+	private byte[] zipBytes;
+
+	@Before
+	public void setUp() throws Exception {
+
+		generator = new WebServiceResponseGenerator();
+		headers = new HashMap<>();
+		request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, arguments) -> method.getName().equals("getHeader") ?
+						headers.get(arguments[0]) : null);
+		zipFile = writeZipFile("extract.zip", "area_id,year,value\n01.001.000100.1,1995,42\n");
+		zipBytes = Files.readAllBytes(zipFile.toPath());
+	}
+
+	@Test
+	public void rangesAreParsed() {
+
+		assertNull(WebServiceResponseGenerator.parseRange(null, 100));
+		assertRange(0, 99, WebServiceResponseGenerator.parseRange("bytes=0-", 100));
+		assertRange(10, 19, WebServiceResponseGenerator.parseRange("bytes=10-19", 100));
+		assertRange(90, 99, WebServiceResponseGenerator.parseRange("bytes=90-1000", 100));
+		assertRange(80, 99, WebServiceResponseGenerator.parseRange("bytes=-20", 100));
+		assertRange(0, 99, WebServiceResponseGenerator.parseRange("bytes=-200", 100));
+		assertSame(WebServiceResponseGenerator.UNSATISFIABLE_RANGE,
+		           WebServiceResponseGenerator.parseRange("bytes=100-", 100));
+		assertSame(WebServiceResponseGenerator.UNSATISFIABLE_RANGE,
+		           WebServiceResponseGenerator.parseRange("bytes=-0", 100));
+		assertNull(WebServiceResponseGenerator.parseRange("bytes=0-9,20-29", 100)); // Whole file
+		assertNull(WebServiceResponseGenerator.parseRange("bytes=20-10", 100));
+		assertNull(WebServiceResponseGenerator.parseRange("lines=1-2", 100));
+		assertNull(WebServiceResponseGenerator.parseRange("bytes=a-b", 100));
+	}
+
+	@Test
+	public void entityTagChangesWithTheZipContents() throws Exception {
+
+		EntityTag entityTag = entityTag(zipFile);
+		assertEquals(entityTag, entityTag(writeZipFile("same.zip",
+				"area_id,year,value\n01.001.000100.1,1995,42\n")));
+		assertNotEquals(entityTag, entityTag(writeZipFile("different.zip",
+				"area_id,year,value\n01.001.000100.1,1995,43\n")));
+	}
+
+	@Test
+	public void wholeFileIsSent() throws Exception {
+
+		Response response = generator.generateWebServiceResponse(request, new FileInputStream(zipFile),
+				"extract.zip");
+
+		assertEquals(200, response.getStatus());
+		assertEquals("bytes", response.getMetadata().getFirst("Accept-Ranges"));
+		assertEquals((long) zipBytes.length, response.getMetadata().getFirst("Content-Length"));
+		assertArrayEquals(zipBytes, body(response));
+	}
+
+	@Test
+	public void rangeIsSent() throws Exception {
+
+		headers.put("Range", "bytes=10-");
+		Response response = generator.generateWebServiceResponse(request, new FileInputStream(zipFile),
+				"extract.zip");
+
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 10-" + (zipBytes.length - 1) + "/" + zipBytes.length,
+		             response.getMetadata().getFirst("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(zipBytes, 10, zipBytes.length), body(response));
+	}
+
+	@Test
+	public void rangeIsIgnoredIfTheFileHasChanged() throws Exception {
+
+		headers.put("Range", "bytes=10-");
+		headers.put("If-Range", "\"0-0\"");
+		Response response = generator.generateWebServiceResponse(request, new FileInputStream(zipFile),
+				"extract.zip");
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(zipBytes, body(response));
+	}
+
+	@Test
+	public void unchangedFileIsNotSent() throws Exception {
+
+		headers.put("If-None-Match", "\"" + entityTag(zipFile).getValue() + "\"");
+		Response response = generator.generateWebServiceResponse(request, new FileInputStream(zipFile),
+				"extract.zip");
+
+		assertEquals(304, response.getStatus());
+	}
+
+	@Test
+	public void rangeBeyondTheEndIsNotSatisfiable() throws Exception {
+
+		headers.put("Range", "bytes=" + zipBytes.length + "-");
+		Response response = generator.generateWebServiceResponse(request, new FileInputStream(zipFile),
+				"extract.zip");
+
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */" + zipBytes.length, response.getMetadata().getFirst("Content-Range"));
+	}
+
+	private File writeZipFile(final String name, final String contents) throws Exception {
+
+		File file = new File(temporaryFolder.getRoot(), name);
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(file))) {
+			ZipEntry zipEntry = new ZipEntry("tmp_s1_extract.csv");
+			zipEntry.setTime(0);
+			zipOutputStream.putNextEntry(zipEntry);
+			zipOutputStream.write(contents.getBytes(StandardCharsets.UTF_8));
+			zipOutputStream.closeEntry();
+		}
+		return file;
+	}
+
+	private static EntityTag entityTag(final File file) throws Exception {
+		try (FileInputStream fileInputStream = new FileInputStream(file)) {
+			return WebServiceResponseGenerator.createZipEntityTag(fileInputStream.getChannel(), file.length());
+		}
+	}
+
+	private static byte[] body(final Response response) throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(outputStream);
+		return outputStream.toByteArray();
+	}
+
+	private static void assertRange(final long first, final long last,
+			final WebServiceResponseGenerator.ByteRange range) {
+		assertEquals(first, range.first);
+		assertEquals(last, range.last);
+	}
+}
@@ -0,0 +1,105 @@
+package org.sahsu.rif.services.test.performance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sahsu.rif.services.datastorage.common.RifWellKnownText;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Single versus multi-threaded WKT parsing throughput, using the SAHSULAND level 1 MULTIPOLYGONs
+ * (all zoomlevels) from the tileMaker geometry CSV.
+ */
+@Ignore // Performance test; run manually
+public final class RifWellKnownTextPerformance {
+
+	private static final Path SAHSULAND_GEOMETRY = Paths.get("..", "rifDatabase", "GeospatialData",
+			"tileMaker", "SAHSU_GRD_Level1.csv");
+	private static final Pattern MULTIPOLYGON = Pattern.compile("\"(MULTIPOLYGON \\(.*?\\)\\)\\))\"");
+	private static final int NUMBER_REPETITIONS = 200;
+
+	@Test
+	public void createGeometryFromWktThroughput() throws Exception {
+
+		List<String> wkts = readWkt();
+		assertFalse(wkts.isEmpty());
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		double singleThreaded = parse(wkts, 1);
+		double multiThreaded = parse(wkts, threads);
+
+		System.out.println("createGeometryFromWkt: 1 thread: " + Math.round(singleThreaded) +
+			" geometries/s; " + threads + " threads: " + Math.round(multiThreaded) +
+			" geometries/s; speedup: " + String.format("%.2f", multiThreaded / singleThreaded));
+	}
+
+	private double parse(final List<String> wkts, final int threads) throws Exception {
+
+		RifWellKnownText rifWellKnownText = new RifWellKnownText();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			parseAll(executor, rifWellKnownText, wkts, threads, 1); // Warm up
+
+			long startTime = System.nanoTime();
+			parseAll(executor, rifWellKnownText, wkts, threads, NUMBER_REPETITIONS);
+			long finishTime = System.nanoTime();
+
+			return ((double) wkts.size() * NUMBER_REPETITIONS) /
+				((finishTime - startTime) / 1000000000.0);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private void parseAll(
+		final ExecutorService executor,
+		final RifWellKnownText rifWellKnownText,
+		final List<String> wkts,
+		final int threads,
+		final int repetitions) throws Exception {
+
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			futures.add(executor.submit(() -> {
+				// Each thread parses its share of the repetitions
+				for (int i = thread; i < repetitions; i += threads) {
+					for (String wkt : wkts) {
+						assertNotNull(rifWellKnownText.createGeometryFromWkt(wkt,
+							"SAHSU_GRD_LEVEL1", 11, "01"));
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+	}
+
+	private List<String> readWkt() throws IOException {
+
+		String csv = new String(Files.readAllBytes(SAHSULAND_GEOMETRY), StandardCharsets.UTF_8);
+		List<String> wkts = new ArrayList<>();
+		Matcher matcher = MULTIPOLYGON.matcher(csv);
+		while (matcher.find()) {
+			wkts.add(matcher.group(1));
+		}
+		return wkts;
+	}
+}
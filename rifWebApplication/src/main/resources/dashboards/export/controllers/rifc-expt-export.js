@@ -303,13 +303,10 @@ angular.module("RIF")
 						$scope.createZipFileTimeout=360000;	/* in mS: 360s - 6 mins */
 						user.createZipFile(user.currentUser, $scope.studyID["exportmap"].study_id, $scope.exportLevel, $scope.createZipFileTimeout).then(
 							function (res) { // Sucesss handler
-								if (res.data.status === "OK") {
-									$scope.disableMapListButton=false;
-									$scope.showSuccessNoHide("Export finished: " + $scope.studyID["exportmap"].name + "; ready to download.");
-									$scope.exportURL = user.getZipFileURL(user.currentUser, $scope.studyID["exportmap"].study_id, 
-										$scope.exportLevel); // Set mapListButtonExport URL
-									$scope.exportTAG="Download Study Export";
-															// Set mapListButtonExport text
+								if (res.data.status === "OK" || res.data.status === "STUDY_EXTRACTBLE_ZIPPID") {
+									$scope.exportFinished();
+								} else if (res.data.status === "STUDY_ZIP_IN_PROGRESS") { // Background job queued
+									$scope.pollExtractStatus($scope.studyID["exportmap"], startTime);
 								} else {
 									$scope.exportTAG="Export Study Tables";
 									$scope.exportURL = undefined;
@@ -341,6 +338,54 @@ angular.module("RIF")
 					}
                 };
 
+				$scope.exportFinished = function () {
+					$scope.disableMapListButton=false;
+					$scope.showSuccessNoHide("Export finished: " + $scope.studyID["exportmap"].name + "; ready to download.");
+					$scope.exportURL = user.getZipFileURL(user.currentUser, $scope.studyID["exportmap"].study_id, 
+						$scope.exportLevel); // Set mapListButtonExport URL
+					$scope.exportTAG="Download Study Export";
+											// Set mapListButtonExport text
+				};
+
+				//ZIP files are created by a background job: poll the extract status until it finishes
+				$scope.pollExtractStatus = function (study, startTime) {
+					$timeout(function () {
+						if ($scope.studyID["exportmap"] !== study) { // User has changed study
+							return;
+						}
+						user.getExtractStatus(user.currentUser, study.study_id).then(
+							function successCallback(res) {
+								var respTime = new Date().getTime() - startTime;
+								if (res.data.status === "STUDY_EXTRACTBLE_ZIPPID") {
+									$scope.exportFinished();
+								}
+								else if (res.data.status === "STUDY_ZIP_IN_PROGRESS" && 
+									respTime < $scope.createZipFileTimeout) {
+									if (res.data.stage) {
+										$scope.exportTAG="Exporting: " + res.data.percentComplete + "%";
+									}
+									$scope.pollExtractStatus(study, startTime);
+								}
+								else if (res.data.status === "STUDY_ZIP_IN_PROGRESS") {
+									$scope.showWarningNoHide("Study tables export is taking more than " + 
+										(respTime/1000) + " S for: " + study.name + "; please re-vist this page later");
+									$scope.exportTAG="Zip in progress";
+								}
+								else {
+									$scope.exportURL = undefined;
+									$scope.disableMapListButton=true;
+									$scope.exportTAG="Download had error";
+									$scope.showErrorNoHide("Study tables export error for: " + study.name + 
+										(res.data.errorMessage ? ("; " + res.data.errorMessage) : ""));
+								}
+							}, function errorCallback(err) {
+								$scope.showError("Could not retrieve extract status");
+								$scope.consoleLog("Could not retrieve extract status; error: " + JSON.stringify(err));
+							}
+						);
+					}, 5000);
+				};
+
                 //get rows from the database
                 $scope.preview = function (table) {
                     if (angular.isUndefined($scope.studyID["exportmap"])) {
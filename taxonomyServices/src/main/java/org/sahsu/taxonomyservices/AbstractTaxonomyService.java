@@ -147,6 +147,23 @@ public abstract class AbstractTaxonomyService implements TaxonomyServiceAPI {
 		return taxonomyTermManager.getMatchingTerms(searchPhrase, isCaseSensitive);
 	}
 
+	@Override
+	public List<TaxonomyTerm> getMatchingTerms(
+		final String searchPhrase,
+		final boolean isCaseSensitive,
+		final int firstResult,
+		final int maxResults) {
+	
+		return taxonomyTermManager.getMatchingTerms(searchPhrase, isCaseSensitive, firstResult,
+		                                            maxResults);
+	}
+
+	@Override
+	public TaxonomyTerm getTermFromLabel(final String label) {
+
+		return taxonomyTermManager.getTermFromLabel(label);
+	}
+
 	/**
 	 * Returns the {@code Path} value of a parameter in the configuration file which has a key
 	 * of the specified name.
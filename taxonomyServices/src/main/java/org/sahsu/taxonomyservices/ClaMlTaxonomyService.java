@@ -48,11 +48,16 @@ public class ClaMlTaxonomyService extends AbstractTaxonomyService {
 			
 			File icd1011File = icdFile.toFile();
 			if (icd1011File.exists()) {		
-				icd1011TaxonomyParser.readFile(icd1011File);
+				// Parse the file only if it has changed since the last snapshot
+				TaxonomyTermManager icd1011TermManager = TaxonomyTermSnapshot.load(icdFile, "ClaML",
+					() -> {
+						icd1011TaxonomyParser.readFile(icd1011File);
+						return icd1011TaxonomyParser.getTaxonomyTermManager();
+					});
 				rifLogger.info(this.getClass(), "icd101/1TaxonomyParser: " + name
 				                                + " read: \"" + icdFile + "\".");
 												
-				setTaxonomyTermManager(icd1011TaxonomyParser.getTaxonomyTermManager());
+				setTaxonomyTermManager(icd1011TermManager);
 				setServiceWorking(true);
 				rifLogger.info(this.getClass(), "icd101/1TaxonomyParser: " + name
 				                                + " initialised: " + description + ".");
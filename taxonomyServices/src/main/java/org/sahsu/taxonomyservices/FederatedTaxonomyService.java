@@ -1,6 +1,10 @@
 package org.sahsu.taxonomyservices;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.sahsu.rif.generic.system.Messages;
@@ -118,7 +122,56 @@ public class FederatedTaxonomyService {
 		
 		return taxonomyService.getMatchingTerms(searchText, isCaseSensitive);
 	}
+
+	List<TaxonomyTerm> getMatchingTerms(final String taxonomyServiceIdentifier,
+			final String searchText, final boolean isCaseSensitive, final int firstResult,
+			final int maxResults) throws RIFServiceException {
+
+		return getTaxonomyService(taxonomyServiceIdentifier).getMatchingTerms(
+				searchText, isCaseSensitive, firstResult, maxResults);
+	}
 	
+	/**
+	 * Finds the term with exactly each of the received labels (health codes), ignoring case, in any
+	 * taxonomy that we are currently providing. As with findTermInAnyTaxonomy, the newest taxonomy
+	 * (alphabetically) is searched first. Taxonomy services that are not working are skipped.
+	 *
+	 * @param labels the labels, e.g. "C33"
+	 * @return the terms found, in label order; labels that are not found are left out
+	 * @throws RIFServiceException if the federated service has not been initialised
+	 */
+	List<TaxonomyTerm> getTermsFromLabels(final List<String> labels) throws RIFServiceException {
+
+		checkFederatedServiceWorkingProperly();
+
+		List<TaxonomyServiceProvider> providers = new ArrayList<>(services.getProviders());
+		Collections.sort(providers);
+		Collections.reverse(providers);
+		List<TaxonomyServiceAPI> apis = new ArrayList<>();
+		for (TaxonomyServiceProvider provider : providers) {
+			TaxonomyServiceAPI api = services.getApi(provider.getIdentifier());
+			if (api != null && api.isServiceWorking()) {
+				apis.add(api);
+			}
+		}
+
+		Map<String, TaxonomyTerm> termFromLabel = new LinkedHashMap<>();
+		for (String label : labels) {
+			if (label == null || termFromLabel.containsKey(label.trim().toUpperCase())) {
+				continue;
+			}
+			for (TaxonomyServiceAPI api : apis) {
+				TaxonomyTerm term = api.getTermFromLabel(label);
+				if (term != null) {
+					termFromLabel.put(label.trim().toUpperCase(), term);
+					break;
+				}
+			}
+		}
+
+		return new ArrayList<>(termFromLabel.values());
+	}
+
 	public List<TaxonomyTerm> getRootTerms(final String taxonomyServiceIdentifier)
 			throws RIFServiceException {
 		
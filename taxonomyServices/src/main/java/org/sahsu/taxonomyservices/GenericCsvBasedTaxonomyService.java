@@ -32,16 +32,21 @@ public class GenericCsvBasedTaxonomyService extends AbstractTaxonomyService {
 		String fileName = taxonomyServiceConfiguration.getParameters().get(0).getName();
 		Path taxonomyFile = getTaxonomyFilePath(taxonomyServiceConfiguration, fileName);
 
-		// OK, we've got a real file
-		CsvFile file = new CsvFile(taxonomyFile);
+		// OK, we've got a real file. Parse it only if it has changed since the last snapshot.
+		setTaxonomyTermManager(TaxonomyTermSnapshot.load(taxonomyFile, "CSV " + taxonomyName, () -> {
 
-		List<TaxonomyTerm> terms = file.parseTaxonomyTerms();
-		setTaxonomyTermManager(TaxonomyTermManager.newInstance(taxonomyName));
-		for (TaxonomyTerm term : terms) {
+			CsvFile file = new CsvFile(taxonomyFile);
 
-			term.setNameSpace(taxonomyName);
-			taxonomyTermManager.addTerm(term);
-		}
+			List<TaxonomyTerm> terms = file.parseTaxonomyTerms();
+			TaxonomyTermManager csvTermManager = TaxonomyTermManager.newInstance(taxonomyName);
+			for (TaxonomyTerm term : terms) {
+
+				term.setNameSpace(taxonomyName);
+				csvTermManager.addTerm(term);
+			}
+			csvTermManager.buildSearchIndex();
+			return csvTermManager;
+		}));
 
 		setIdentifier(taxonomyServiceConfiguration.getServiceIdentifier());
 		setServiceWorking(true);
@@ -1,22 +1,23 @@
 package org.sahsu.taxonomyservices;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.sahsu.rif.generic.system.RIFServiceException;
 import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
 import org.sahsu.rif.generic.util.TaxonomyLogger;
 import org.sahsu.taxonomyservices.system.TaxonomyServiceError;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  *
@@ -29,7 +30,8 @@ import org.xml.sax.SAXException;
  * taxonomy service methods.
  * 
  * <p>
- * 
+ * The file is read with a streaming (StAX) parser, one element at a time, rather than
+ * building a DOM of the whole classification first.
  * </p>
  *
  * <hr>
@@ -93,7 +95,6 @@ import org.xml.sax.SAXException;
 public final class ICD10TaxonomyTermParser {
 	
 	private static String ICD10NameSpace ="icd10";
-	private static int ICD10CODEWITHOUTCHILDREN_LENGTH =4;
 	//private TaxonomyTerm icd10Root;
 	
 	private TaxonomyTermManager taxonomyTermManager;
@@ -137,148 +138,101 @@ public final class ICD10TaxonomyTermParser {
 	}
 	
 	private void parseICD10ClaMLFile(final File icd10XmlFile)
-			throws ParserConfigurationException, SAXException, IOException {
-			
-		//How to handle three exceptions?
-		// XXE defence: ttps://www.owasp.org/index.php/XML_External_Entity_(XXE)_Prevention_Cheat_Sheet#JAXP_DocumentBuilderFactory.2C_SAXParserFactory_and_DOM4J
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		String feature = null;
-		try {
-			// This is the PRIMARY defense. If DTDs (doctypes) are disallowed, almost all XML entity attacks are prevented
-			// Xerces 2 only - http://xerces.apache.org/xerces2-j/features.html#disallow-doctype-decl
-			
-			// Cannot be enabled because of <!DOCTYPE ClaML SYSTEM "ClaML.dtd">: 
-			/// [Fatal Error] icdClaML2016ens.xml:2:10: DOCTYPE is disallowed when the feature "http://apache.org/xml/features/disallow-doctype-decl" set to true.
-			//feature = "http://apache.org/xml/features/disallow-doctype-decl";
-			// dbf.setFeature(feature, true);
- 
-			// If you can't completely disable DTDs, then at least do the following:
-			// Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-general-entities
-			// Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-general-entities
-			// JDK7+ - http://xml.org/sax/features/external-general-entities    
-			feature = "http://xml.org/sax/features/external-general-entities";
-			dbf.setFeature(feature, false);
- 
-			// Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-parameter-entities
-			// Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-parameter-entities
-			// JDK7+ - http://xml.org/sax/features/external-parameter-entities    
-			feature = "http://xml.org/sax/features/external-parameter-entities";
-			dbf.setFeature(feature, false);
- 
-			// Disable external DTDs as well
-			feature = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
-			dbf.setFeature(feature, false);
- 
-			// and these as well, per Timothy Morgan's 2014 paper: "XML Schema, DTD, and Entity Attacks"
-			dbf.setXIncludeAware(false);
-			dbf.setExpandEntityReferences(false);
-  
-			// And, per Timothy Morgan: "If for some reason support for inline DOCTYPEs are a requirement, then 
-			// ensure the entity settings are disabled (as shown above) and beware that SSRF attacks
-			// (http://cwe.mitre.org/data/definitions/918.html) and denial 
-			// of service attacks (such as billion laughs or decompression bombs via "jar:") are a risk."
- 
-			// remaining parser logic
-
-		} catch (ParserConfigurationException e) {
-             // This should catch a failed setFeature feature
-             rifLogger.warning(this.getClass(), "ParserConfigurationException was thrown. The feature '" +
-                 feature + "' is probably not supported by your XML processor.", e);
-        }
-// Disabled: will not compile 		
-//      catch (SAXException e) {
-//             // On Apache, this should be thrown when disallowing DOCTYPE
-//             rifLogger.warning(this.getClass(), "A DOCTYPE was passed into the XML document", e);
-//      }
-//        catch (IOException e) {
-//             // XXE that points to a file that doesn't exist
-//             rifLogger.warning(this.getClass(), "IOException occurred, XXE may still possible: " + e);
-//      }
-		DocumentBuilder safebuilder = dbf.newDocumentBuilder();			
-		Document icd10Source = safebuilder.parse(icd10XmlFile);
-		
-		icd10Source.getDocumentElement().normalize();
-				
-		NodeList metaList = icd10Source.getElementsByTagName("Meta");
-		Node chapterValues = metaList.item(0);
-		Element chapterNames =(Element) chapterValues;
-				
-		String chapterNamesInString = chapterNames.getAttribute("value");
-		String [] chapterNamesInArray = chapterNamesInString.split(" ");
-		ArrayList<TaxonomyTerm> chapters = new ArrayList<TaxonomyTerm>();
-		
-		//Add children of root taxonomy. A child is a chapter.
-		for(int i = 0; i < chapterNamesInArray.length; i++){
-			TaxonomyTerm chapter = TaxonomyTerm.newInstance();
-			chapter.setLabel(chapterNamesInArray[i]);
-			//chapter.setParentTerm(icd10Root);
-			chapter.setParentTerm(null);
-			chapters.add(chapter);
+			throws XMLStreamException, IOException {
 			
-			taxonomyTermManager.addTerm(chapter);
-			//taxonomyContainer.put(chapterNamesInArray[i], chapter);
-		}
-
-		rifLogger.info(this.getClass(), "ICD10TaxonomyTermParser 2");
-		
-		NodeList taxonomyTermList 
-			= icd10Source.getElementsByTagName("Class");
-		
-		//A pattern for parsing "Class" element which may have Subclass element
-		String pattern ="\\d";
-						 
-		for(int i = 0; i < taxonomyTermList.getLength(); i++){
-			Node node = taxonomyTermList.item(i);
-			if(node.getNodeType() == Node.ELEMENT_NODE){
-				//Element may be chapter, or block, or category
-				Element element =(Element) node;
-											
-				//Value of elementID is an icd 10 code which may contain dot sign. If so, remove it!
-				String elementID = deleteDotInHealthCode(element.getAttribute("code"));
-				
-				TaxonomyTerm taxonomy = taxonomyTermManager.getTerm(elementID);
-				//TaxonomyTerm taxonomy = taxonomyContainer.get(elementID);
-				
-				//Element doesn't contain digits (like VIII) or its length isn't equal to FOUR means it has "Subclass" 
-				if(! elementID.matches(pattern) || 
-					elementID.length() != ICD10CODEWITHOUTCHILDREN_LENGTH){								
-
-					NodeList children = element.getElementsByTagName("SubClass");
-					ArrayList<TaxonomyTerm> childrenOfElement = new ArrayList<TaxonomyTerm>();
+		// XXE defence: https://www.owasp.org/index.php/XML_External_Entity_(XXE)_Prevention_Cheat_Sheet#StAX_and_XMLInputFactory
+		// DTDs cannot be rejected outright because of <!DOCTYPE ClaML SYSTEM "ClaML.dtd">, so
+		// the DOCTYPE is skipped and external entities are not resolved
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
 
-					for(int k = 0; k < children.getLength(); k++){
-						Element childName = (Element) children.item(k);
-						TaxonomyTerm childTaxonomy = TaxonomyTerm.newInstance();
+		// Terms by code: the Class elements refer to the chapters and SubClasses declared earlier
+		Map<String, TaxonomyTerm> termFromCode = new HashMap<>();
+		boolean areChaptersRead = false;
 
-						childTaxonomy.setNameSpace(ICD10NameSpace);
-						childTaxonomy.setParentTerm(taxonomy);
-                        //Remove "dot" sign if the code contains it.
-						String childID = deleteDotInHealthCode(childName.getAttribute("code"));
+		TaxonomyTerm taxonomy = null; // Term of the current Class element
+		boolean isInClass = false;
+		ArrayList<TaxonomyTerm> childrenOfElement = null;
+		StringBuilder preferredRubricText = null; // Non null inside a preferred Rubric
 
-						childTaxonomy.setLabel(childID);					
-						childrenOfElement.add(childTaxonomy);
-						
-						taxonomyTermManager.addTerm(childTaxonomy);
-						//taxonomyContainer.put(childID, childTaxonomy);
-					}	
-					taxonomy.addChildTerms(childrenOfElement);
-				}
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(icd10XmlFile))) {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+			try {
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						String elementName = reader.getLocalName();
+						if (elementName.equals("Meta") && !areChaptersRead) {
+							//Add children of root taxonomy. A child is a chapter.
+							String chapterNamesInString = reader.getAttributeValue(null, "value");
+							for (String chapterName : chapterNamesInString.split(" ")) {
+								TaxonomyTerm chapter = TaxonomyTerm.newInstance();
+								chapter.setLabel(chapterName);
+								chapter.setParentTerm(null);
+								taxonomyTermManager.addTerm(chapter);
+								termFromCode.put(chapterName, chapter);
+							}
+							areChaptersRead = true;
+						}
+						else if (elementName.equals("Class")) {
+							//Element may be chapter, or block, or category
+							//Value of elementID is an icd 10 code which may contain dot sign. If so, remove it!
+							String elementID = deleteDotInHealthCode(reader.getAttributeValue(null, "code"));
+							taxonomy = termFromCode.get(elementID);
+							if (taxonomy == null) {
+								rifLogger.warning(this.getClass(), "ICD10TaxonomyTermParser: Class \""
+									+ elementID + "\" is not a chapter or SubClass of an earlier Class; ignored");
+							}
+							isInClass = true;
+							childrenOfElement = new ArrayList<TaxonomyTerm>();
+						}
+						else if (isInClass && taxonomy != null && elementName.equals("SubClass")) {
+							TaxonomyTerm childTaxonomy = TaxonomyTerm.newInstance();
+							childTaxonomy.setNameSpace(ICD10NameSpace);
+							childTaxonomy.setParentTerm(taxonomy);
+							//Remove "dot" sign if the code contains it.
+							String childID = deleteDotInHealthCode(reader.getAttributeValue(null, "code"));
+							childTaxonomy.setLabel(childID);
+							childrenOfElement.add(childTaxonomy);
 
-				NodeList descriptions = element.getElementsByTagName("Rubric");
-				for(int k=0; k<descriptions.getLength(); k++){
-					Element rubric =(Element) descriptions.item(k);
-										
-					if(rubric.getAttribute("kind").equals("preferred")){
-						taxonomy.setDescription(rubric.getTextContent());
+							taxonomyTermManager.addTerm(childTaxonomy);
+							termFromCode.putIfAbsent(childID, childTaxonomy);
+						}
+						else if (isInClass && taxonomy != null && elementName.equals("Rubric")
+						         && "preferred".equals(reader.getAttributeValue(null, "kind"))) {
+							//Inclusion and exclusion rubrics are ignored at the moment
+							preferredRubricText = new StringBuilder();
+						}
 					}
-					else if(rubric.getAttribute("kind").equals("inclusion")){
-						//Do nothing at moment
+					else if (event == XMLStreamConstants.CHARACTERS
+					         || event == XMLStreamConstants.CDATA
+					         || event == XMLStreamConstants.SPACE) {
+						if (preferredRubricText != null) {
+							preferredRubricText.append(reader.getText());
+						}
 					}
-					else if(rubric.getAttribute("kind").equals("exclusion")){
-						//Do nothing at moment
+					else if (event == XMLStreamConstants.END_ELEMENT) {
+						String elementName = reader.getLocalName();
+						if (elementName.equals("Rubric") && preferredRubricText != null) {
+							taxonomy.setDescription(preferredRubricText.toString());
+							preferredRubricText = null;
+						}
+						else if (elementName.equals("Class")) {
+							if (taxonomy != null) {
+								taxonomy.addChildTerms(childrenOfElement);
+							}
+							taxonomy = null;
+							isInClass = false;
+							childrenOfElement = null;
+						}
 					}
 				}
-			}				
+			}
+			finally {
+				reader.close();
+			}
 		}
 
 		taxonomyTermManager.determineRootTerms();
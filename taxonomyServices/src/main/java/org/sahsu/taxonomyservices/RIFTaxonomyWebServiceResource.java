@@ -5,7 +5,10 @@ import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
@@ -109,7 +112,7 @@ public class RIFTaxonomyWebServiceResource {
 		for (TaxonomyServiceProvider service : providers) {
 
 			TermList found = getMatchingTerms(servletRequest, service.getIdentifier(),
-			                                            searchText, isCaseSensitive);
+			                                            searchText, isCaseSensitive, null, null);
 			if (found.listIsUsable()) {
 				rifLogger.info(getClass(), found.toString());
 				return found;
@@ -120,6 +123,32 @@ public class RIFTaxonomyWebServiceResource {
 		return new TermList(Collections.emptyList());
 	}
 
+	/**
+	 * Finds the terms with exactly the received labels (health codes), ignoring case, in any
+	 * taxonomy that we are currently providing, in one request. The search order is as for
+	 * {@link #findTermInAnyTaxonomy}; labels are looked up by hash rather than by pattern
+	 * matching every term. Used by the RIF to describe all of a study's health codes at once.
+	 * @param servletRequest the request
+	 * @param searchTexts the labels; the search_text form parameter repeated
+	 * @return the taxonomy terms found; labels that are not found are left out
+	 */
+	@POST
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/findTermsInAnyTaxonomy")
+	public TermList findTermsInAnyTaxonomy(@Context HttpServletRequest servletRequest,
+			@FormParam("search_text") List<String> searchTexts) throws RIFServiceException {
+
+		checkFederatedServiceWorkingProperly();
+		FederatedTaxonomyService fed = FederatedTaxonomyService.getFederatedTaxonomyService();
+
+		List<TaxonomyTerm> found = fed.getTermsFromLabels(
+				searchTexts != null ? searchTexts : Collections.emptyList());
+		rifLogger.info(getClass(), "Found " + found.size() + " of "
+		                           + (searchTexts != null ? searchTexts.size() : 0) + " terms");
+		return new TermList(found);
+	}
+
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/getRootTerms")
@@ -146,12 +175,25 @@ public class RIFTaxonomyWebServiceResource {
 		return new TermList(rootTerms);
 	}
 		
+	/**
+	 * Finds the terms whose label or description contains the search text, best matches (exact
+	 * and leading codes) first. The search text is matched literally.
+	 * @param servletRequest the request
+	 * @param taxonomyServiceID the taxonomy
+	 * @param searchText the search text
+	 * @param isCaseSensitive match case
+	 * @param firstResult optional 0 based number of the first term to return; default 0
+	 * @param maxResults optional maximum number of terms to return; default all
+	 * @return the matching terms
+	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/getMatchingTerms")
 	public TermList getMatchingTerms(@Context HttpServletRequest servletRequest,
 			@QueryParam("taxonomy_id") String taxonomyServiceID, @QueryParam("search_text") String searchText,
-			@QueryParam("is_case_sensitive") Boolean isCaseSensitive) {
+			@QueryParam("is_case_sensitive") Boolean isCaseSensitive,
+			@QueryParam("first_result") Integer firstResult,
+			@QueryParam("max_results") Integer maxResults) {
 
 		List<TaxonomyTerm> matchingTerms = new ArrayList<>();
 		try {
@@ -160,7 +202,9 @@ public class RIFTaxonomyWebServiceResource {
 					FederatedTaxonomyService.getFederatedTaxonomyService();
 
 			matchingTerms = federatedTaxonomyService.getMatchingTerms(
-					taxonomyServiceID, searchText, isCaseSensitive);
+					taxonomyServiceID, searchText, Boolean.TRUE.equals(isCaseSensitive),
+					firstResult != null ? firstResult : 0,
+					maxResults != null ? maxResults : Integer.MAX_VALUE);
 		} catch(Exception exception) {
 			rifLogger.error(getClass(), "GET /getMatchingTerms method failed: ",
 			                exception);
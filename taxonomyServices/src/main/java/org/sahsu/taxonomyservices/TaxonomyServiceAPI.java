@@ -27,6 +27,19 @@ public interface TaxonomyServiceAPI {
 	List<TaxonomyTerm> getMatchingTerms(final String searchText, final boolean isCaseSensitive)
 			throws RIFServiceException;
 
+	/**
+	 * Gets a page of the health codes, best matches first.
+	 *
+	 * @param searchText the search text
+	 * @param isCaseSensitive
+	 * @param firstResult 0 based number of the first result to return
+	 * @param maxResults maximum number of results to return
+	 * @return the matching terms
+	 * @throws RIFServiceException the RIF service exception
+	 */
+	List<TaxonomyTerm> getMatchingTerms(final String searchText, final boolean isCaseSensitive,
+			final int firstResult, final int maxResults) throws RIFServiceException;
+
 	/**
 	 * Gets the top level codes.
 	 *
@@ -51,4 +64,13 @@ public interface TaxonomyServiceAPI {
 	 * @throws RIFServiceException the RIF service exception
 	 */
 	TaxonomyTerm getParentTerm(final String childTermIdentifier) throws RIFServiceException;
+
+	/**
+	 * Gets the term with exactly the given label (health code), ignoring case.
+	 *
+	 * @param label the label, e.g. "C33"
+	 * @return the term; null if there is none
+	 * @throws RIFServiceException the RIF service exception
+	 */
+	TaxonomyTerm getTermFromLabel(final String label) throws RIFServiceException;
 }
@@ -0,0 +1,469 @@
+package org.sahsu.taxonomyservices;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
+
+/**
+ * In-memory search index for the terms of a {@link TaxonomyTermManager}, built once the terms
+ * have been loaded.
+ * <p>
+ * Search text is matched literally, as a substring of the term label or description, ignoring
+ * case unless asked otherwise. Candidate terms come from an n-gram index of the lower case labels
+ * and descriptions: every 1, 2 and 3 character substring maps to the sorted numbers of the terms
+ * containing it. Search text of up to 3 characters is answered by a single posting list; longer
+ * text by intersecting the posting lists of its 3-grams and then checking the candidates. Search
+ * text of several words also matches terms where every word starts a word of the label or
+ * description, in any order, using a sorted word list for the prefix lookups.
+ * </p>
+ * <p>
+ * Results are ranked: exact label (code) match, label prefix, label substring, description word
+ * prefix, description substring, then the several words match; and within a rank in term order.
+ * </p>
+ * <p>
+ * Immutable once built, so it is safe for concurrent searches. The postings are saved in, and
+ * restored from, the {@link TaxonomyTermSnapshot} rather than rebuilt on every start up.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class TaxonomyTermIndex {
+
+	private static final int MAX_GRAM_LENGTH = 3;
+
+	private static final int EXACT_LABEL = 0;
+	private static final int LABEL_PREFIX = 1;
+	private static final int LABEL_SUBSTRING = 2;
+	private static final int DESCRIPTION_WORD_PREFIX = 3;
+	private static final int DESCRIPTION_SUBSTRING = 4;
+	private static final int ALL_WORDS = 5;
+	private static final int RANKS = 6;
+
+	private static final int[] NO_TERMS = new int[0];
+
+	private final TaxonomyTerm[] terms;
+	private final String[] labels;
+	private final String[] descriptions;
+	private final String[] lowerCaseLabels;
+	private final String[] lowerCaseDescriptions;
+	private final Map<String, int[]> termsFromGram;
+	private final String[] words; // Sorted
+	private final int[][] termsFromWord; // In words order
+
+	/**
+	 * Growable sorted list of term numbers
+	 */
+	private static final class Postings {
+
+		private int[] termNumbers = new int[4];
+		private int size = 0;
+
+		void add(final int termNumber) {
+			if (size > 0 && termNumbers[size - 1] == termNumber) {
+				return;
+			}
+			if (size == termNumbers.length) {
+				termNumbers = Arrays.copyOf(termNumbers, size * 2);
+			}
+			termNumbers[size++] = termNumber;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(termNumbers, size);
+		}
+	}
+
+	TaxonomyTermIndex(final List<TaxonomyTerm> allTerms) {
+		this(allTerms, null, null, null);
+	}
+
+	/**
+	 * Index the terms; or, given the postings read from a snapshot, just set the terms
+	 */
+	private TaxonomyTermIndex(final List<TaxonomyTerm> allTerms,
+			final Map<String, int[]> savedTermsFromGram, final String[] savedWords,
+			final int[][] savedTermsFromWord) {
+
+		int termCount = allTerms.size();
+		terms = allTerms.toArray(new TaxonomyTerm[termCount]);
+		labels = new String[termCount];
+		descriptions = new String[termCount];
+		lowerCaseLabels = new String[termCount];
+		lowerCaseDescriptions = new String[termCount];
+		for (int termNumber = 0; termNumber < termCount; termNumber++) {
+			labels[termNumber] = trim(terms[termNumber].getLabel());
+			descriptions[termNumber] = trim(terms[termNumber].getDescription());
+			lowerCaseLabels[termNumber] = labels[termNumber].toLowerCase(Locale.ROOT);
+			lowerCaseDescriptions[termNumber] = descriptions[termNumber].toLowerCase(Locale.ROOT);
+		}
+
+		if (savedTermsFromGram != null) {
+			termsFromGram = savedTermsFromGram;
+			words = savedWords;
+			termsFromWord = savedTermsFromWord;
+			return;
+		}
+
+		Map<String, Postings> gramPostings = new HashMap<>();
+		Map<String, Postings> wordPostings = new HashMap<>();
+		for (int termNumber = 0; termNumber < termCount; termNumber++) {
+			addGrams(gramPostings, lowerCaseLabels[termNumber], termNumber);
+			addGrams(gramPostings, lowerCaseDescriptions[termNumber], termNumber);
+			addWords(wordPostings, lowerCaseLabels[termNumber], termNumber);
+			addWords(wordPostings, lowerCaseDescriptions[termNumber], termNumber);
+		}
+
+		termsFromGram = new HashMap<>(gramPostings.size() * 2);
+		for (Map.Entry<String, Postings> entry : gramPostings.entrySet()) {
+			termsFromGram.put(entry.getKey(), entry.getValue().toArray());
+		}
+		words = wordPostings.keySet().toArray(new String[0]);
+		Arrays.sort(words);
+		termsFromWord = new int[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			termsFromWord[i] = wordPostings.get(words[i]).toArray();
+		}
+	}
+
+	/**
+	 * Write the postings to a {@link TaxonomyTermSnapshot}
+	 *
+	 * @param out 	the snapshot
+	 * @throws IOException on write error
+	 */
+	void writeTo(final DataOutputStream out) throws IOException {
+
+		out.writeInt(terms.length);
+		out.writeInt(termsFromGram.size());
+		for (Map.Entry<String, int[]> entry : termsFromGram.entrySet()) {
+			TaxonomyTermSnapshot.writeString(out, entry.getKey());
+			TaxonomyTermSnapshot.writeInts(out, entry.getValue());
+		}
+		out.writeInt(words.length);
+		for (int i = 0; i < words.length; i++) {
+			TaxonomyTermSnapshot.writeString(out, words[i]);
+			TaxonomyTermSnapshot.writeInts(out, termsFromWord[i]);
+		}
+	}
+
+	/**
+	 * Restore an index written by {@link #writeTo(DataOutputStream)}
+	 *
+	 * @param buffer 	the snapshot, positioned at the index
+	 * @param allTerms 	the terms, in the order they were indexed
+	 * @return the index
+	 * @throws IllegalStateException if the index is for a different number of terms
+	 */
+	static TaxonomyTermIndex readFrom(final ByteBuffer buffer, final List<TaxonomyTerm> allTerms) {
+
+		int termCount = buffer.getInt();
+		if (termCount != allTerms.size()) {
+			throw new IllegalStateException("Taxonomy term index is for " + termCount + " terms, not "
+				+ allTerms.size());
+		}
+		int gramCount = buffer.getInt();
+		Map<String, int[]> termsFromGram = new HashMap<>(gramCount * 2);
+		for (int i = 0; i < gramCount; i++) {
+			termsFromGram.put(TaxonomyTermSnapshot.readString(buffer),
+				TaxonomyTermSnapshot.readInts(buffer));
+		}
+		String[] words = new String[buffer.getInt()];
+		int[][] termsFromWord = new int[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = TaxonomyTermSnapshot.readString(buffer);
+			termsFromWord[i] = TaxonomyTermSnapshot.readInts(buffer);
+		}
+		return new TaxonomyTermIndex(allTerms, termsFromGram, words, termsFromWord);
+	}
+
+	/**
+	 * Number of terms indexed
+	 *
+	 * @return int
+	 */
+	int size() {
+		return terms.length;
+	}
+
+	/**
+	 * Find the terms matching the search text, ranked
+	 *
+	 * @param searchText 		the search text; matched literally. null matches nothing, and
+	 *                          empty text everything
+	 * @param isCaseSensitive 	match case
+	 * @param firstResult 		0 based number of the first result to return
+	 * @param maxResults 		maximum number of results to return
+	 * @return the matching terms
+	 */
+	List<TaxonomyTerm> search(final String searchText, final boolean isCaseSensitive,
+			final int firstResult, final int maxResults) {
+
+		if (searchText == null || firstResult < 0 || maxResults <= 0) {
+			return Collections.emptyList();
+		}
+
+		// Candidates are in term order, so each rank's matches are too
+		Postings[] matches = new Postings[RANKS];
+		for (int rank = 0; rank < RANKS; rank++) {
+			matches[rank] = new Postings();
+		}
+		long wanted = (long)firstResult + maxResults;
+		String lowerCaseText = searchText.toLowerCase(Locale.ROOT);
+		String text = (isCaseSensitive ? searchText : lowerCaseText);
+
+		// Labels are short: rank every candidate on its label first
+		Postings descriptionCandidates = new Postings();
+		for (int termNumber : getSubstringCandidates(lowerCaseText)) {
+			int rank = rankLabelMatch(termNumber, text, isCaseSensitive);
+			if (rank >= 0) {
+				matches[rank].add(termNumber);
+			}
+			else {
+				descriptionCandidates.add(termNumber);
+			}
+		}
+
+		// Stop on the descriptions once enough terms rank above description substrings: any
+		// later term can only follow them
+		boolean isComplete = true;
+		for (int i = 0; i < descriptionCandidates.size; i++) {
+			if (count(matches, DESCRIPTION_WORD_PREFIX) >= wanted) {
+				isComplete = false;
+				break;
+			}
+			int termNumber = descriptionCandidates.termNumbers[i];
+			int rank = rankDescriptionMatch(termNumber, text, isCaseSensitive);
+			if (rank >= 0) {
+				matches[rank].add(termNumber);
+			}
+		}
+
+		String[] searchWords = splitWords(lowerCaseText);
+		if (isComplete && searchWords.length > 1 && count(matches, DESCRIPTION_SUBSTRING) < wanted) {
+			String[] caseSensitiveWords = (isCaseSensitive ? splitWords(searchText) : null);
+			for (int termNumber : getAllWordsCandidates(searchWords)) {
+				if (rankLabelMatch(termNumber, text, isCaseSensitive) < 0 &&
+				    rankDescriptionMatch(termNumber, text, isCaseSensitive) < 0 &&
+				    (!isCaseSensitive || containsAll(termNumber, caseSensitiveWords))) {
+					matches[ALL_WORDS].add(termNumber);
+				}
+			}
+		}
+
+		List<TaxonomyTerm> results = new ArrayList<>(Math.min(maxResults, 100));
+		int skip = firstResult;
+		for (int rank = 0; rank < RANKS && results.size() < maxResults; rank++) {
+			int[] termNumbers = matches[rank].termNumbers;
+			int size = matches[rank].size;
+			int from = Math.min(skip, size);
+			skip -= from;
+			for (int i = from; i < size && results.size() < maxResults; i++) {
+				results.add(terms[termNumbers[i]]);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Terms that may contain the lower case search text: exact for text of up to MAX_GRAM_LENGTH
+	 * characters, otherwise a superset
+	 */
+	private int[] getSubstringCandidates(final String lowerCaseText) {
+
+		if (lowerCaseText.isEmpty()) {
+			int[] all = new int[terms.length];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+		if (lowerCaseText.length() <= MAX_GRAM_LENGTH) {
+			return termsFromGram.getOrDefault(lowerCaseText, NO_TERMS);
+		}
+
+		List<int[]> postings = new ArrayList<>();
+		for (int i = 0; i + MAX_GRAM_LENGTH <= lowerCaseText.length(); i++) {
+			int[] termNumbers = termsFromGram.get(lowerCaseText.substring(i, i + MAX_GRAM_LENGTH));
+			if (termNumbers == null) {
+				return NO_TERMS;
+			}
+			postings.add(termNumbers);
+		}
+		return intersect(postings);
+	}
+
+	/**
+	 * Terms where each search word starts a word of the label or description
+	 */
+	private int[] getAllWordsCandidates(final String[] searchWords) {
+
+		List<int[]> postings = new ArrayList<>();
+		for (String searchWord : searchWords) {
+			int from = Arrays.binarySearch(words, searchWord);
+			if (from < 0) {
+				from = -from - 1;
+			}
+			int to = from;
+			while (to < words.length && words[to].startsWith(searchWord)) {
+				to++;
+			}
+			if (to - from <= 1) {
+				postings.add(to > from ? termsFromWord[from] : NO_TERMS);
+				continue;
+			}
+			Postings wordPrefixPostings = new Postings();
+			boolean[] seen = new boolean[terms.length];
+			for (int i = from; i < to; i++) {
+				for (int termNumber : termsFromWord[i]) {
+					seen[termNumber] = true;
+				}
+			}
+			for (int termNumber = 0; termNumber < seen.length; termNumber++) {
+				if (seen[termNumber]) {
+					wordPrefixPostings.add(termNumber);
+				}
+			}
+			postings.add(wordPrefixPostings.toArray());
+		}
+		return intersect(postings);
+	}
+
+	/**
+	 * Rank of a label match; -1 if the label does not contain the search text
+	 */
+	private int rankLabelMatch(final int termNumber, final String text, final boolean isCaseSensitive) {
+
+		String label = (isCaseSensitive ? labels[termNumber] : lowerCaseLabels[termNumber]);
+		if (label.equals(text)) {
+			return EXACT_LABEL;
+		}
+		if (label.startsWith(text)) {
+			return LABEL_PREFIX;
+		}
+		if (label.contains(text)) {
+			return LABEL_SUBSTRING;
+		}
+		return -1;
+	}
+
+	/**
+	 * Rank of a description match; -1 if the description does not contain the search text
+	 */
+	private int rankDescriptionMatch(final int termNumber, final String text,
+			final boolean isCaseSensitive) {
+
+		String description = (isCaseSensitive ? descriptions[termNumber] : lowerCaseDescriptions[termNumber]);
+		int index = description.indexOf(text);
+		if (index < 0) {
+			return -1;
+		}
+		while (index >= 0) {
+			if (index == 0 || !Character.isLetterOrDigit(description.charAt(index - 1))) {
+				return DESCRIPTION_WORD_PREFIX;
+			}
+			index = description.indexOf(text, index + 1);
+		}
+		return DESCRIPTION_SUBSTRING;
+	}
+
+	/**
+	 * Number of matches ranked at or above the given rank
+	 */
+	private static int count(final Postings[] matches, final int lowestRank) {
+		int count = 0;
+		for (int rank = 0; rank <= lowestRank; rank++) {
+			count += matches[rank].size;
+		}
+		return count;
+	}
+
+	private boolean containsAll(final int termNumber, final String[] searchWords) {
+		for (String searchWord : searchWords) {
+			if (!labels[termNumber].contains(searchWord) && !descriptions[termNumber].contains(searchWord)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Intersect sorted term number lists, smallest first
+	 */
+	private static int[] intersect(final List<int[]> postings) {
+
+		if (postings.isEmpty()) {
+			return NO_TERMS;
+		}
+		postings.sort((a, b) -> Integer.compare(a.length, b.length));
+		int[] result = postings.get(0);
+		for (int p = 1; p < postings.size() && result.length > 0; p++) {
+			int[] other = postings.get(p);
+			int[] intersection = new int[result.length];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while (i < result.length && j < other.length) {
+				if (result[i] < other[j]) {
+					i++;
+				}
+				else if (result[i] > other[j]) {
+					j++;
+				}
+				else {
+					intersection[size++] = result[i];
+					i++;
+					j++;
+				}
+			}
+			result = Arrays.copyOf(intersection, size);
+		}
+		return result;
+	}
+
+	private static void addGrams(final Map<String, Postings> gramPostings, final String text,
+			final int termNumber) {
+		for (int i = 0; i < text.length(); i++) {
+			for (int length = 1; length <= MAX_GRAM_LENGTH && i + length <= text.length(); length++) {
+				gramPostings.computeIfAbsent(text.substring(i, i + length), gram -> new Postings())
+						.add(termNumber);
+			}
+		}
+	}
+
+	private static void addWords(final Map<String, Postings> wordPostings, final String text,
+			final int termNumber) {
+		for (String word : splitWords(text)) {
+			wordPostings.computeIfAbsent(word, key -> new Postings()).add(termNumber);
+		}
+	}
+
+	private static String[] splitWords(final String text) {
+		List<String> result = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean isWordCharacter = (i < text.length() && Character.isLetterOrDigit(text.charAt(i)));
+			if (isWordCharacter && start < 0) {
+				start = i;
+			}
+			else if (!isWordCharacter && start >= 0) {
+				result.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return result.toArray(new String[0]);
+	}
+
+	private static String trim(final String text) {
+		return (text == null ? "" : text.trim());
+	}
+}
@@ -5,8 +5,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.sahsu.rif.generic.system.Messages;
 import org.sahsu.rif.generic.system.RIFServiceException;
@@ -44,6 +42,8 @@ public class TaxonomyTermManager {
 	private List<TaxonomyTerm> allTerms;
 	
 	private Map<String, TaxonomyTerm> termFromIdentifier;
+	private Map<String, TaxonomyTerm> termFromLabel; // Upper case label; first term added wins
+	private volatile TaxonomyTermIndex searchIndex; // Rebuilt after terms are added
 	
 	private TaxonomyTermManager(final String taxonomyServiceID) {
 		init(taxonomyServiceID);		
@@ -64,12 +64,45 @@ public class TaxonomyTermManager {
 		rootTerms = new ArrayList<>();
 		allTerms = new ArrayList<>();
 		termFromIdentifier = new HashMap<>();
+		termFromLabel = new HashMap<>();
 	}
 
 	void setTaxonomyServiceIdentifier(final String taxonomyServiceID) {
 
 		this.taxonomyServiceID = taxonomyServiceID;
 	}
+
+	String getTaxonomyServiceIdentifier() {
+
+		return taxonomyServiceID;
+	}
+
+	/**
+	 * All the terms, in the order they were added
+	 */
+	List<TaxonomyTerm> getAllTerms() {
+
+		return allTerms;
+	}
+
+	TaxonomyTermIndex getSearchIndex() {
+
+		buildSearchIndex();
+		return searchIndex;
+	}
+
+	/**
+	 * Restores the terms, root terms and search index read from a {@link TaxonomyTermSnapshot}
+	 */
+	void restore(final List<TaxonomyTerm> terms, final List<TaxonomyTerm> rootTerms,
+			final TaxonomyTermIndex searchIndex) {
+
+		for (TaxonomyTerm term : terms) {
+			addTerm(term);
+		}
+		this.rootTerms.addAll(rootTerms);
+		this.searchIndex = searchIndex;
+	}
 	
 	public void determineRootTerms() {
 		for (TaxonomyTerm term : allTerms) {
@@ -77,6 +110,18 @@ public class TaxonomyTermManager {
 				rootTerms.add(term);
 			}
 		}		
+		buildSearchIndex();
+	}
+
+	/**
+	 * Builds the search index for {@link #getMatchingTerms(String, boolean, int, int)}. Call
+	 * once all the terms have been added, so the index is not built by the first search.
+	 */
+	public synchronized void buildSearchIndex() {
+
+		if (searchIndex == null || searchIndex.size() != allTerms.size()) {
+			searchIndex = new TaxonomyTermIndex(allTerms);
+		}
 	}
 	
 	public void addTerm(final TaxonomyTerm taxonomyTerm) {
@@ -85,6 +130,12 @@ public class TaxonomyTermManager {
 		termFromIdentifier.put(
 			taxonomyTerm.getIdentifier(), 
 			taxonomyTerm);		
+		if (taxonomyTerm.getLabel() != null) {
+			termFromLabel.putIfAbsent(
+				taxonomyTerm.getLabel().trim().toUpperCase(),
+				taxonomyTerm);
+		}
+		searchIndex = null;
 	}
 	
 	public TaxonomyTerm getTerm(final String termIdentifier) {
@@ -107,6 +158,21 @@ public class TaxonomyTermManager {
 		
 	}
 
+	/**
+	 * Gets the term with exactly the given label (health code), ignoring case. A hash lookup,
+	 * unlike {@link #getMatchingTerms(String, boolean)}.
+	 *
+	 * @param label the label, e.g. "C33"
+	 * @return the term; null if there is none
+	 */
+	public TaxonomyTerm getTermFromLabel(final String label) {
+
+		if (label == null) {
+			return null;
+		}
+		return termFromLabel.get(label.trim().toUpperCase());
+	}
+
 	public List<TaxonomyTerm> getRootTerms() {
 		return rootTerms;
 	}
@@ -119,20 +185,31 @@ public class TaxonomyTermManager {
 	 */
 	public List<TaxonomyTerm> getMatchingTerms(final String searchPhrase,
 			final boolean isCaseSensitive) {
-		
-		Pattern searchPattern;
-		
-		if (isCaseSensitive) {
-			searchPattern = Pattern.compile(".*" + searchPhrase + ".*");
-		}
-		else {
-			searchPattern = Pattern.compile(".*" + searchPhrase + ".*", Pattern.CASE_INSENSITIVE);
-		}
 
-		return allTerms.stream().filter(
-				taxonomyTerm -> searchPattern.matcher(taxonomyTerm.getDescription().trim()).matches()
-				             || searchPattern.matcher(taxonomyTerm.getLabel().trim()).matches())
-				       .collect(Collectors.toList());
+		return getMatchingTerms(searchPhrase, isCaseSensitive, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets a page of the terms whose label or description contains the phrase; or, for a
+	 * phrase of several words, where every word starts a word of the label or description. The
+	 * phrase is matched literally. Exact and leading label (code) matches are returned first;
+	 * see {@link TaxonomyTermIndex}.
+	 *
+	 * @param searchPhrase the search phrase
+	 * @param isCaseSensitive match case
+	 * @param firstResult 0 based number of the first result to return
+	 * @param maxResults maximum number of results to return
+	 * @return the terms containing phrase
+	 */
+	public List<TaxonomyTerm> getMatchingTerms(final String searchPhrase,
+			final boolean isCaseSensitive, final int firstResult, final int maxResults) {
+
+		TaxonomyTermIndex index = searchIndex;
+		if (index == null) {
+			buildSearchIndex();
+			index = searchIndex;
+		}
+		return index.search(searchPhrase, isCaseSensitive, firstResult, maxResults);
 	}
 	
 	public List<TaxonomyTerm> getImmediateChildTerms(final String parentTermIdentifier)
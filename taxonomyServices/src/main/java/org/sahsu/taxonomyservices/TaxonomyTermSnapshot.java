@@ -0,0 +1,329 @@
+package org.sahsu.taxonomyservices;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
+import org.sahsu.rif.generic.util.TaxonomyLogger;
+
+/**
+ * Binary snapshot of a loaded {@link TaxonomyTermManager}: the terms, their hierarchy and the
+ * search index.
+ * <p>
+ * The snapshot is written next to the taxonomy source file, as <code>&lt;file&gt;.snapshot</code>,
+ * and is keyed by the SHA-256 checksum of the source file and by how the file was read. On start up
+ * a taxonomy service loads a current snapshot instead of parsing the source file and rebuilding the
+ * search index; a missing, stale or unreadable snapshot is replaced after parsing. If the snapshot
+ * cannot be written, for example because the taxonomy directory is read only, the service carries on
+ * without it.
+ * </p>
+ * <p>
+ * Layout (big endian): magic, format version, key, then the snapshot body, which is read from a
+ * memory mapped buffer: the taxonomy service identifier; the terms in load order, each with its
+ * label, description, name space, parent term number and child term numbers; the root term
+ * numbers; and the search index postings (see {@link TaxonomyTermIndex}). Strings are a length,
+ * -1 for null, and UTF-8 bytes; term number lists are a length and ints.
+ * </p>
+ * <p>
+ * The header is checked before the body is mapped, so a stale snapshot is never mapped and can be
+ * replaced even on Windows.
+ * </p>
+ *
+ * @version 	1.0
+ * @since 		4.0
+ */
+final class TaxonomyTermSnapshot {
+
+	/**
+	 * Reads the taxonomy source file when there is no current snapshot
+	 */
+	interface TermLoader {
+
+		TaxonomyTermManager load() throws RIFServiceException;
+	}
+
+	private static final TaxonomyLogger rifLogger = TaxonomyLogger.getLogger();
+
+	private static final int MAGIC = 0x52494654; // "RIFT"
+	private static final int FORMAT_VERSION = 1; // Change when the layout or the parsers change
+	private static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+	private TaxonomyTermSnapshot() {
+	}
+
+	/**
+	 * Load the terms from the snapshot of the source file if it is current; otherwise from the
+	 * source file, then write the snapshot
+	 *
+	 * @param sourceFile 	the taxonomy source file
+	 * @param variant 		how the file is read, e.g. the parser and name space; part of the key
+	 * @param loader 		reads the source file
+	 * @return the term manager, with its search index built
+	 * @throws RIFServiceException if the source file cannot be read or parsed
+	 */
+	static TaxonomyTermManager load(final Path sourceFile, final String variant,
+			final TermLoader loader) throws RIFServiceException {
+
+		Path snapshotFile = getSnapshotPath(sourceFile);
+		String key;
+		try {
+			key = checksum(sourceFile) + "/" + variant;
+		}
+		catch (IOException ioException) {
+			rifLogger.warning(TaxonomyTermSnapshot.class, "TaxonomyTermSnapshot: cannot checksum \""
+				+ sourceFile + "\"; snapshot not used", ioException);
+			return loader.load();
+		}
+
+		long startTime = System.currentTimeMillis();
+		try {
+			TaxonomyTermManager taxonomyTermManager = read(snapshotFile, key);
+			if (taxonomyTermManager != null) {
+				rifLogger.info(TaxonomyTermSnapshot.class, "TaxonomyTermSnapshot: loaded "
+					+ taxonomyTermManager.getAllTerms().size() + " terms from \"" + snapshotFile
+					+ "\" in " + (System.currentTimeMillis() - startTime) + "ms");
+				return taxonomyTermManager;
+			}
+		}
+		catch (IOException | RuntimeException exception) {
+			rifLogger.warning(TaxonomyTermSnapshot.class, "TaxonomyTermSnapshot: cannot read \""
+				+ snapshotFile + "\"; re-reading \"" + sourceFile + "\"", exception);
+		}
+
+		TaxonomyTermManager taxonomyTermManager = loader.load();
+		rifLogger.info(TaxonomyTermSnapshot.class, "TaxonomyTermSnapshot: read \"" + sourceFile
+			+ "\" in " + (System.currentTimeMillis() - startTime) + "ms");
+		try {
+			write(taxonomyTermManager, snapshotFile, key);
+		}
+		catch (IOException ioException) {
+			rifLogger.warning(TaxonomyTermSnapshot.class, "TaxonomyTermSnapshot: cannot write \""
+				+ snapshotFile + "\"; the taxonomy will be re-read on restart", ioException);
+		}
+		return taxonomyTermManager;
+	}
+
+	static Path getSnapshotPath(final Path sourceFile) {
+		return sourceFile.resolveSibling(sourceFile.getFileName() + SNAPSHOT_EXTENSION);
+	}
+
+	/**
+	 * Read the snapshot
+	 *
+	 * @return the term manager; null if there is no snapshot or it is not for this key
+	 */
+	static TaxonomyTermManager read(final Path snapshotFile, final String key) throws IOException {
+
+		if (!Files.isRegularFile(snapshotFile)) {
+			return null;
+		}
+
+		long headerLength;
+		try (InputStream inputStream = Files.newInputStream(snapshotFile)) {
+			DataInputStream header = new DataInputStream(inputStream);
+			if (header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			byte[] keyBytes = new byte[header.readInt()];
+			header.readFully(keyBytes);
+			if (!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+				return null;
+			}
+			headerLength = 12 + keyBytes.length;
+		}
+
+		try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, headerLength,
+				channel.size() - headerLength);
+			return readBody(buffer);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException exception) {
+			throw new IOException("Truncated or corrupt taxonomy snapshot " + snapshotFile, exception);
+		}
+	}
+
+	private static TaxonomyTermManager readBody(final ByteBuffer buffer) {
+
+		TaxonomyTermManager taxonomyTermManager = TaxonomyTermManager.newInstance(readString(buffer));
+
+		int termCount = buffer.getInt();
+		List<TaxonomyTerm> terms = new ArrayList<>(termCount);
+		int[][] childTermNumbers = new int[termCount][];
+		int[] parentTermNumbers = new int[termCount];
+		for (int termNumber = 0; termNumber < termCount; termNumber++) {
+			TaxonomyTerm term = TaxonomyTerm.newInstance();
+			term.setLabel(readString(buffer));
+			term.setDescription(readString(buffer));
+			term.setNameSpace(readString(buffer));
+			parentTermNumbers[termNumber] = buffer.getInt();
+			childTermNumbers[termNumber] = readInts(buffer);
+			terms.add(term);
+		}
+		for (int termNumber = 0; termNumber < termCount; termNumber++) {
+			TaxonomyTerm term = terms.get(termNumber);
+			if (parentTermNumbers[termNumber] >= 0) {
+				term.setParentTerm(terms.get(parentTermNumbers[termNumber]));
+			}
+			ArrayList<TaxonomyTerm> childTerms = new ArrayList<>(childTermNumbers[termNumber].length);
+			for (int childTermNumber : childTermNumbers[termNumber]) {
+				childTerms.add(terms.get(childTermNumber));
+			}
+			term.addChildTerms(childTerms);
+		}
+
+		int[] rootTermNumbers = readInts(buffer);
+		List<TaxonomyTerm> rootTerms = new ArrayList<>(rootTermNumbers.length);
+		for (int rootTermNumber : rootTermNumbers) {
+			rootTerms.add(terms.get(rootTermNumber));
+		}
+
+		TaxonomyTermIndex searchIndex = TaxonomyTermIndex.readFrom(buffer, terms);
+		taxonomyTermManager.restore(terms, rootTerms, searchIndex);
+		return taxonomyTermManager;
+	}
+
+	/**
+	 * Write the snapshot: to a temporary file, which then replaces any existing snapshot
+	 */
+	static void write(final TaxonomyTermManager taxonomyTermManager, final Path snapshotFile,
+			final String key) throws IOException {
+
+		List<TaxonomyTerm> terms = taxonomyTermManager.getAllTerms();
+		TaxonomyTermIndex searchIndex = taxonomyTermManager.getSearchIndex();
+		Map<TaxonomyTerm, Integer> termNumbers = new IdentityHashMap<>(terms.size() * 2);
+		for (int termNumber = 0; termNumber < terms.size(); termNumber++) {
+			termNumbers.put(terms.get(termNumber), termNumber);
+		}
+
+		Path temporaryFile = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(),
+			snapshotFile.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(temporaryFile), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				writeString(out, key);
+
+				writeString(out, taxonomyTermManager.getTaxonomyServiceIdentifier());
+				out.writeInt(terms.size());
+				for (TaxonomyTerm term : terms) {
+					writeString(out, term.getLabel());
+					writeString(out, term.getDescription());
+					writeString(out, term.getNameSpace());
+					out.writeInt(getTermNumber(termNumbers, term.getParentTerm()));
+					List<TaxonomyTerm> childTerms = term.getChildTerms();
+					out.writeInt(childTerms.size());
+					for (TaxonomyTerm childTerm : childTerms) {
+						out.writeInt(getTermNumber(termNumbers, childTerm));
+					}
+				}
+				List<TaxonomyTerm> rootTerms = taxonomyTermManager.getRootTerms();
+				out.writeInt(rootTerms.size());
+				for (TaxonomyTerm rootTerm : rootTerms) {
+					out.writeInt(getTermNumber(termNumbers, rootTerm));
+				}
+				searchIndex.writeTo(out);
+			}
+			Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	private static int getTermNumber(final Map<TaxonomyTerm, Integer> termNumbers,
+			final TaxonomyTerm term) throws IOException {
+
+		if (term == null) {
+			return -1;
+		}
+		Integer termNumber = termNumbers.get(term);
+		if (termNumber == null) {
+			throw new IOException("Term " + term.getLabel() + " is related to a term, but was not "
+				+ "added to the taxonomy");
+		}
+		return termNumber;
+	}
+
+	static String checksum(final Path file) throws IOException {
+
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+			throw new IOException(noSuchAlgorithmException);
+		}
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream inputStream = Files.newInputStream(file)) {
+			int length;
+			while ((length = inputStream.read(buffer)) > 0) {
+				messageDigest.update(buffer, 0, length);
+			}
+		}
+		StringBuilder checksum = new StringBuilder();
+		for (byte digestByte : messageDigest.digest()) {
+			checksum.append(String.format("%02x", digestByte));
+		}
+		return checksum.toString();
+	}
+
+	static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(final ByteBuffer buffer) {
+
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	static int[] readInts(final ByteBuffer buffer) {
+
+		int[] values = new int[buffer.getInt()];
+		IntBuffer intBuffer = buffer.asIntBuffer();
+		intBuffer.get(values);
+		buffer.position(buffer.position() + values.length * 4);
+		return values;
+	}
+}
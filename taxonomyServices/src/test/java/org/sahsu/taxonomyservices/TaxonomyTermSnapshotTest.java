@@ -0,0 +1,117 @@
+package org.sahsu.taxonomyservices;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sahsu.rif.generic.system.RIFServiceException;
+import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TaxonomyTermSnapshotTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path claMLFile;
+	private AtomicInteger parses;
+
+	@Before
+	public void setUp() throws Exception {
+
+		URL url = Objects.requireNonNull(
+				getClass().getClassLoader().getResource("ExampleClaMLICD10Codes.xml"));
+		claMLFile = temporaryFolder.getRoot().toPath().resolve("ExampleClaMLICD10Codes.xml");
+		Files.copy(Paths.get(url.toURI()), claMLFile);
+		parses = new AtomicInteger(0);
+	}
+
+	@Test
+	public void snapshotIsTheSameAsTheParsedFile() throws Exception {
+
+		TaxonomyTermManager parsed = load();
+		assertTrue(Files.exists(TaxonomyTermSnapshot.getSnapshotPath(claMLFile)));
+
+		TaxonomyTermManager restored = load();
+		assertEquals(1, parses.get());
+		assertEquals(describe(parsed.getRootTerms()), describe(restored.getRootTerms()));
+		assertEquals(parsed.getAllTerms().size(), restored.getAllTerms().size());
+
+		assertEquals(labels(parsed.getMatchingTerms("c22", false)),
+		             labels(restored.getMatchingTerms("c22", false)));
+		assertEquals(labels(parsed.getMatchingTerms("malignant liver", false)),
+		             labels(restored.getMatchingTerms("malignant liver", false)));
+		assertEquals("C22", restored.getTermFromLabel("c22").getLabel());
+		assertSame(restored.getTermFromLabel("C22"),
+		           restored.getTermFromLabel("C220").getParentTerm());
+	}
+
+	@Test
+	public void changedFileIsParsedAgain() throws Exception {
+
+		load();
+		Files.write(claMLFile, "<!-- Updated -->\n".getBytes(), StandardOpenOption.APPEND);
+		load();
+		assertEquals(2, parses.get());
+		load();
+		assertEquals(2, parses.get());
+	}
+
+	@Test
+	public void corruptSnapshotIsReplaced() throws Exception {
+
+		load();
+		Path snapshotFile = TaxonomyTermSnapshot.getSnapshotPath(claMLFile);
+		byte[] snapshot = Files.readAllBytes(snapshotFile);
+		Files.write(snapshotFile, Arrays.copyOf(snapshot, snapshot.length / 2));
+
+		assertEquals("II", load().getRootTerms().get(0).getLabel());
+		assertEquals(2, parses.get());
+		load();
+		assertEquals(2, parses.get());
+	}
+
+	private TaxonomyTermManager load() throws RIFServiceException {
+
+		return TaxonomyTermSnapshot.load(claMLFile, "ClaML", () -> {
+			parses.incrementAndGet();
+			ICD10TaxonomyTermParser parser = new ICD10TaxonomyTermParser();
+			parser.readFile(claMLFile.toFile());
+			return parser.getTaxonomyTermManager();
+		});
+	}
+
+	/**
+	 * The terms and their descendants, one per line
+	 */
+	private static String describe(final List<TaxonomyTerm> terms) {
+
+		StringBuilder description = new StringBuilder();
+		for (TaxonomyTerm term : terms) {
+			description.append(term.getLabel()).append('|').append(term.getNameSpace()).append('|')
+					.append(term.getDescription()).append('|')
+					.append(term.getParentTerm() == null ? null : term.getParentTerm().getLabel())
+					.append('\n')
+					.append(describe(term.getChildTerms()));
+		}
+		return description.toString();
+	}
+
+	private static List<String> labels(final List<TaxonomyTerm> terms) {
+		return terms.stream().map(TaxonomyTerm::getLabel).collect(Collectors.toList());
+	}
+}
@@ -187,6 +187,20 @@ public class ICD10ClaMLTaxonomyProviderTest {
 		assertNotNull(taxonomyTermManager.getTerm("C710"));
 		assertNull(taxonomyTermManager.getTerm("c710"));
 	}
+
+	/**
+	 * Test
+	 */
+	@Test
+	public void getTermFromLabel_COMMON() {
+
+		assertNull(taxonomyTermManager.getTermFromLabel("10010"));
+		assertNull(taxonomyTermManager.getTermFromLabel(null));
+
+		assertEquals("C22", taxonomyTermManager.getTermFromLabel("C22").getLabel());
+		assertEquals("C710", taxonomyTermManager.getTermFromLabel("c710").getLabel());
+		assertNull(taxonomyTermManager.getTermFromLabel("C7")); // Exact match only
+	}
 	
 	/**
 	 * Test
@@ -0,0 +1,117 @@
+package org.sahsu.taxonomyservices.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
+import org.sahsu.taxonomyservices.TaxonomyTermManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TaxonomyTermSearchTest {
+
+	private static final String[][] TERMS = {
+			{ "C34", "Malignant neoplasm of bronchus and lung" },
+			{ "C340", "Main bronchus" },
+			{ "C341", "Upper lobe, bronchus or lung" },
+			{ "C3", "Neoplasms (C3x) of respiratory organs" },
+			{ "J45", "Asthma" },
+			{ "J450", "Predominantly allergic asthma" },
+			{ "J46", "Status asthmaticus" },
+			{ "C22", "Liver cell carcinoma" },
+			{ "K70", "Alcoholic liver disease" },
+			{ "XC34", "Lung, see C34" }
+	};
+
+	private TaxonomyTermManager taxonomyTermManager;
+	private List<TaxonomyTerm> allTerms;
+
+	@Before
+	public void setUp() {
+
+		taxonomyTermManager = TaxonomyTermManager.newInstance("icd10");
+		allTerms = Arrays.stream(TERMS).map(labelAndDescription -> {
+			TaxonomyTerm term = TaxonomyTerm.newInstance();
+			term.setLabel(labelAndDescription[0]);
+			term.setDescription(labelAndDescription[1]);
+			term.setNameSpace("icd10");
+			return term;
+		}).collect(Collectors.toList());
+		allTerms.forEach(taxonomyTermManager::addTerm);
+		taxonomyTermManager.determineRootTerms();
+	}
+
+	@Test
+	public void substringMatchesAreTheSameAsTheRegexScan() {
+
+		for (String searchText : new String[] { "C", "c3", "C34", "lung", "LUNG", "asthma", "sthm",
+				"liver ", "bronchus or", "j4", "x", "neoplasm", "zzz", "" }) {
+			for (boolean isCaseSensitive : new boolean[] { true, false }) {
+				assertEquals(searchText + "; case sensitive: " + isCaseSensitive,
+				             scan(searchText, isCaseSensitive),
+				             new HashSet<>(taxonomyTermManager.getMatchingTerms(searchText,
+				                                                                isCaseSensitive)));
+			}
+		}
+	}
+
+	@Test
+	public void codesAreRankedFirst() {
+
+		List<TaxonomyTerm> found = taxonomyTermManager.getMatchingTerms("c34", false);
+		assertEquals(Arrays.asList("C34", "C340", "C341", "XC34"), labels(found));
+
+		found = taxonomyTermManager.getMatchingTerms("asthma", false);
+		assertEquals(Arrays.asList("J45", "J450", "J46"), labels(found));
+	}
+
+	@Test
+	public void resultsArePaginated() {
+
+		assertEquals(Arrays.asList("C340", "C341"),
+		             labels(taxonomyTermManager.getMatchingTerms("C34", true, 1, 2)));
+		assertTrue(taxonomyTermManager.getMatchingTerms("C34", true, 10, 2).isEmpty());
+	}
+
+	@Test
+	public void searchTextIsLiteral() {
+
+		assertEquals(Arrays.asList("C3"),
+		             labels(taxonomyTermManager.getMatchingTerms("(c3x)", false)));
+		assertTrue(taxonomyTermManager.getMatchingTerms(".*", false).isEmpty());
+		assertTrue(taxonomyTermManager.getMatchingTerms(null, false).isEmpty());
+	}
+
+	@Test
+	public void allWordsMatchInAnyOrder() {
+
+		assertEquals(Arrays.asList("C34", "C341"),
+		             labels(taxonomyTermManager.getMatchingTerms("lung bronch", false)));
+		assertEquals(Arrays.asList("C22", "K70"),
+		             labels(taxonomyTermManager.getMatchingTerms("liv", false)));
+	}
+
+	/**
+	 * The original linear regex scan
+	 */
+	private Set<TaxonomyTerm> scan(final String searchPhrase, final boolean isCaseSensitive) {
+
+		Pattern searchPattern = Pattern.compile(".*" + Pattern.quote(searchPhrase) + ".*",
+		                                        isCaseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
+		return allTerms.stream().filter(
+				taxonomyTerm -> searchPattern.matcher(taxonomyTerm.getDescription().trim()).matches()
+				                || searchPattern.matcher(taxonomyTerm.getLabel().trim()).matches())
+		               .collect(Collectors.toSet());
+	}
+
+	private static List<String> labels(final List<TaxonomyTerm> terms) {
+		return terms.stream().map(TaxonomyTerm::getLabel).collect(Collectors.toList());
+	}
+}
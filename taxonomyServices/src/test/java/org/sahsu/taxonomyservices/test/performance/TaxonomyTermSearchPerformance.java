@@ -0,0 +1,118 @@
+package org.sahsu.taxonomyservices.test.performance;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sahsu.rif.generic.taxonomyservices.TaxonomyTerm;
+import org.sahsu.taxonomyservices.ICD10TaxonomyTermParser;
+import org.sahsu.taxonomyservices.TaxonomyTermManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * ICD-10 term search throughput: the TaxonomyTermIndex behind getMatchingTerms() versus the
+ * linear Pattern ".*phrase.*" scan it replaced. Uses the example ClaML file unless
+ * -Dicd10.claml names the full WHO ICD-10 ClaML file.
+ */
+@Ignore // Performance test; run manually
+public final class TaxonomyTermSearchPerformance {
+
+	private static final String[] SEARCH_PHRASES = { "C34", "c22", "lung", "LIVER", "neoplasm",
+			"bronchus or", "malignant liver", "zzz" };
+	private static final int NUMBER_REPETITIONS = 2000;
+
+	@Test
+	public void indexedVersusRegexSearchThroughput() throws Exception {
+
+		TaxonomyTermManager taxonomyTermManager = readClaML();
+		List<TaxonomyTerm> allTerms = new ArrayList<>();
+		addTerms(taxonomyTermManager.getRootTerms(), allTerms);
+		assertFalse(allTerms.isEmpty());
+
+		for (String searchPhrase : SEARCH_PHRASES) {
+			if (searchPhrase.indexOf(' ') < 0) { // The index matches several words anywhere
+				assertEquals(searchPhrase, scan(allTerms, searchPhrase).size(),
+				             taxonomyTermManager.getMatchingTerms(searchPhrase, false).size());
+			}
+		}
+
+		double indexed = search(() -> {
+			for (String searchPhrase : SEARCH_PHRASES) {
+				taxonomyTermManager.getMatchingTerms(searchPhrase, false);
+			}
+		});
+		double regex = search(() -> {
+			for (String searchPhrase : SEARCH_PHRASES) {
+				scan(allTerms, searchPhrase);
+			}
+		});
+
+		System.out.println("getMatchingTerms: " + allTerms.size() + " terms; index: " +
+			Math.round(indexed) + " searches/s; regex scan: " + Math.round(regex) +
+			" searches/s; speedup: " + String.format("%.2f", indexed / regex));
+	}
+
+	private double search(final Runnable searches) {
+
+		for (int i = 0; i < NUMBER_REPETITIONS / 10; i++) { // Warm up
+			searches.run();
+		}
+
+		long startTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_REPETITIONS; i++) {
+			searches.run();
+		}
+		long finishTime = System.nanoTime();
+
+		return ((double) SEARCH_PHRASES.length * NUMBER_REPETITIONS) /
+			((finishTime - startTime) / 1000000000.0);
+	}
+
+	/**
+	 * The linear search getMatchingTerms() used before the index
+	 */
+	private List<TaxonomyTerm> scan(final List<TaxonomyTerm> allTerms, final String searchPhrase) {
+
+		Pattern searchPattern = Pattern.compile(".*" + Pattern.quote(searchPhrase) + ".*",
+				Pattern.CASE_INSENSITIVE);
+		return allTerms.stream().filter(
+				t -> searchPattern.matcher(t.getDescription().trim()).matches()
+				     || searchPattern.matcher(t.getLabel().trim()).matches())
+				.collect(Collectors.toList());
+	}
+
+	private void addTerms(final List<TaxonomyTerm> terms, final List<TaxonomyTerm> allTerms) {
+
+		for (TaxonomyTerm term : terms) {
+			allTerms.add(term);
+			addTerms(term.getChildTerms(), allTerms);
+		}
+	}
+
+	private TaxonomyTermManager readClaML() throws Exception {
+
+		String claML = System.getProperty("icd10.claml");
+		Path claMLFile;
+		if (claML == null) {
+			URL url = Objects.requireNonNull(
+					getClass().getClassLoader().getResource("ExampleClaMLICD10Codes.xml"));
+			claMLFile = Paths.get(url.toURI());
+		}
+		else {
+			claMLFile = Paths.get(claML);
+		}
+
+		ICD10TaxonomyTermParser icd10TaxonomyTermParser = new ICD10TaxonomyTermParser();
+		icd10TaxonomyTermParser.readFile(claMLFile.toFile());
+		return icd10TaxonomyTermParser.getTaxonomyTermManager();
+	}
+}